@@ -13,6 +13,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntPredicate;
 
 import iped3.IIPEDSource;
 
@@ -72,6 +73,17 @@ LuceneSearchResult filtrarSemEComMarcadores(LuceneSearchResult result, Set<Strin
 
     boolean isSelected(int id);
 
+    /**
+     * @return the selected ids at this moment, safe to be tested by many threads.
+     */
+    IntPredicate getSelectedSnapshot();
+
+    /**
+     * @return the ids with any of the labels at this moment, or with any label if
+     *         labelIds is null, safe to be tested by many threads.
+     */
+    IntPredicate getLabeledSnapshot(int[] labelIds);
+
     void loadState();
 
     void loadState(File file) throws IOException, ClassNotFoundException;
@@ -95,6 +107,10 @@ LuceneSearchResult filtrarSemEComMarcadores(LuceneSearchResult result, Set<Strin
     String getLabelComment(int labelId);
 
     int getLabelCount(int labelId);
+
+    int getLabelIntersectionCount(int[] labelIds);
+
+    int getLabelUnionCount(int[] labelIds);
     
     void setInReport(int labelId, boolean inReport);
 
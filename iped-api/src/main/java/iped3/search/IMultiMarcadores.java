@@ -80,6 +80,10 @@ public interface IMultiMarcadores extends Serializable {
 
     public int getLabelCount(String labelName);
 
+    public int getLabelIntersectionCount(Set<String> labelNames);
+
+    public int getLabelUnionCount(Set<String> labelNames);
+
     void setLabelComment(String texto, String comment);
 
     boolean isInReport(String label);
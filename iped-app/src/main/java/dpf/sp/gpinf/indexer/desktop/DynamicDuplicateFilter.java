@@ -1,17 +1,15 @@
 package dpf.sp.gpinf.indexer.desktop;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.BitSet;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedDocValues;
 
 import dpf.sp.gpinf.indexer.process.IndexItem;
+import dpf.sp.gpinf.indexer.search.FusedResultFilter;
 import dpf.sp.gpinf.indexer.search.IPEDMultiSource;
 import dpf.sp.gpinf.indexer.search.MultiSearchResult;
-import iped3.IItemId;
 import iped3.search.IMultiSearchResult;
 
 public class DynamicDuplicateFilter {
@@ -31,27 +29,25 @@ public DynamicDuplicateFilter(IPEDMultiSource ipedSource) throws IOException {
     }
 
     public MultiSearchResult filter(IMultiSearchResult result) {
+        return new FusedResultFilter().addOrderedFilter(getFilter()).filter(result);
+    }
 
-        ArrayList<IItemId> filteredItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        boolean filterOrdZero = false;
-        if (!docValues.lookupOrd(0).utf8ToString().isEmpty()) {
-            filterOrdZero = true;
-        }
-        for (IItemId item : result.getIterator()) {
-            int docId = ipedCase.getLuceneId(item);
+    /**
+     * @return filter keeping the first item of each hash, so it must be tested in
+     *         result order.
+     */
+    public FusedResultFilter.ItemFilter getFilter() {
+        boolean filterOrdZero = !docValues.lookupOrd(0).utf8ToString().isEmpty();
+        return (sourceId, id, score) -> {
+            int docId = ipedCase.getLuceneId(sourceId, id);
             int ord = docValues.getOrd(docId);
             if (ord < 0 || !ordSet.get(ord)) {
-                filteredItems.add(item);
-                scores.add(result.getScore(i));
                 if (ord > 0 || (ord == 0 && filterOrdZero))
                     ordSet.set(ord);
+                return true;
             }
-            i++;
-        }
-        return new MultiSearchResult(filteredItems.toArray(new IItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
+            return false;
+        };
     }
 
 }
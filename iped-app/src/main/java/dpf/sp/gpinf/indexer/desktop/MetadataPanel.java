@@ -20,6 +20,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -67,6 +68,7 @@
 import dpf.sp.gpinf.indexer.search.ItemId;
 import dpf.sp.gpinf.indexer.search.MultiSearchResult;
 import dpf.sp.gpinf.indexer.search.QueryBuilder;
+import dpf.sp.gpinf.indexer.util.DateUtil;
 import dpf.sp.gpinf.indexer.util.IconUtil;
 import iped3.IItemId;
 import iped3.exception.ParseException;
@@ -112,6 +114,7 @@ public class MetadataPanel extends JPanel
     volatile SortedSetDocValues eventDocValuesSet;
     volatile HashMap<String, long[]> eventSetToOrdsCache = new HashMap<>();
     volatile boolean isCategory = false;
+    volatile boolean isDate = false;
 
     volatile IMultiSearchResult ipedResult;
     ValueCount[] array, filteredArray;
@@ -316,17 +319,26 @@ public String toString() {
 
     private class RangeCount extends ValueCount {
         double start, end;
+        boolean date;
 
         RangeCount(double start, double end, int ord, int count) {
             super(null, ord, count);
             this.start = start;
             this.end = end;
+            // dates are indexed as epoch millis
+            this.date = isDate && !logScale;
+        }
+
+        private String format(double val) {
+            if (date)
+                return DateUtil.dateToString(new Date((long) val));
+            return NumberFormat.getNumberInstance().format(val);
         }
 
         @Override
         public String toString() {
-            String startStr = NumberFormat.getNumberInstance().format(start);
-            String endStr = NumberFormat.getNumberInstance().format(end);
+            String startStr = format(start);
+            String endStr = format(end);
             return startStr + " TO " + endStr + " (" + count + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         }
     }
@@ -471,9 +483,17 @@ private void loadDocValues(String field) throws IOException {
             eventDocValuesSet = reader.getSortedSetDocValues(ExtraProperties.TIME_EVENT_GROUPS);
         }
         isCategory = BasicProps.CATEGORY.equals(field);
+        isDate = IndexItem.isDateField(field);
         eventSetToOrdsCache.clear();
     }
 
+    private Bits getDocsWithField(String field) throws IOException {
+        Bits bits = reader.getDocsWithField(field);
+        if (bits == null)
+            bits = reader.getDocsWithField(IndexItem.POSSIBLE_NUM_DOCVALUES_PREFIX + field); // $NON-NLS-1$
+        return bits;
+    }
+
     public static final boolean isFloat(String field) {
         return Float.class.equals(IndexItem.getMetadataTypes().get(field));
     }
@@ -515,7 +535,7 @@ private MultiSearchResult getIdsWithOrd(MultiSearchResult result, String field,
         if (mayBeNumeric && numValues != null) {
             Bits docsWithField = null;
             try {
-                docsWithField = reader.getDocsWithField(field);
+                docsWithField = getDocsWithField(field);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -673,7 +693,7 @@ public void run() {
         interval = 0;
 
         if (isNumeric && numValues != null) {
-            Bits docsWithField = reader.getDocsWithField(field);
+            Bits docsWithField = getDocsWithField(field);
             if (logScale) {
                 // 0 to 19: count negative numbers. 20 to 39: count positive numbers
                 valueCount = new int[40];
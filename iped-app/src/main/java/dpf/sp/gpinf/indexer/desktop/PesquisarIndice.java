@@ -21,13 +21,12 @@
 import java.awt.Dialog.ModalityType;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 
 import javax.swing.JOptionPane;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.MatchAllDocsQuery;
@@ -36,10 +35,12 @@
 import org.slf4j.LoggerFactory;
 
 import br.gov.pf.labld.graph.desktop.FilterSelectedEdges;
+import dpf.sp.gpinf.indexer.search.FusedResultFilter;
 import dpf.sp.gpinf.indexer.search.IPEDSearcher;
 import dpf.sp.gpinf.indexer.search.IPEDSource;
 import dpf.sp.gpinf.indexer.search.ImageSimilarityLowScoreFilter;
 import dpf.sp.gpinf.indexer.search.ItemId;
+import dpf.sp.gpinf.indexer.search.MultiMarcadores;
 import dpf.sp.gpinf.indexer.search.MultiSearchResult;
 import dpf.sp.gpinf.indexer.search.QueryBuilder;
 import dpf.sp.gpinf.indexer.search.SimilarFacesSearch;
@@ -182,8 +183,13 @@ public MultiSearchResult doInBackground() {
                 if (App.get().filtro.getSelectedItem() != null)
                     filtro = App.get().filtro.getSelectedItem().toString();
 
+                // selection, bookmark, graph edges and duplicate filters are applied in a
+                // single pass, creating just one filtered result
+                MultiMarcadores multiMarcadores = (MultiMarcadores) App.get().appCase.getMultiMarcadores();
+                FusedResultFilter resultFilter = new FusedResultFilter();
+
                 if (filtro.equals(App.FILTRO_SELECTED)) {
-                    result = (MultiSearchResult) App.get().appCase.getMultiMarcadores().filtrarSelecionados(result);
+                    resultFilter.addFilter(multiMarcadores.getSelectedFilter());
                     numFilters++;
                     LOGGER.info("Filtering for selected items."); //$NON-NLS-1$
                 }
@@ -196,44 +202,28 @@ public MultiSearchResult doInBackground() {
                         bookmarks.append("\"" + bookmark + "\" "); //$NON-NLS-1$ //$NON-NLS-2$
                     LOGGER.info("Filtering for bookmarks " + bookmarks.toString()); //$NON-NLS-1$
 
-                    if (bookmarkSelection.contains(BookmarksTreeModel.NO_BOOKMARKS)) {
-                        if (bookmarkSelection.size() == 1)
-                            result = (MultiSearchResult) App.get().appCase.getMultiMarcadores()
-                                    .filtrarSemMarcadores(result);
-                        else {
-                            bookmarkSelection.remove(BookmarksTreeModel.NO_BOOKMARKS);
-                            result = (MultiSearchResult) App.get().appCase.getMultiMarcadores()
-                                    .filtrarSemEComMarcadores(result, bookmarkSelection);
-                        }
-                    } else
-                        result = (MultiSearchResult) App.get().appCase.getMultiMarcadores().filtrarMarcadores(result,
-                                bookmarkSelection);
-
+                    boolean noBookmarks = bookmarkSelection.remove(BookmarksTreeModel.NO_BOOKMARKS);
+                    resultFilter.addFilter(multiMarcadores.getLabelsFilter(bookmarkSelection, noBookmarks));
                 }
 
                 Set<IItemId> selectedEdges = FilterSelectedEdges.getInstance().getItemIdsOfSelectedEdges();
                 if (selectedEdges != null && !selectedEdges.isEmpty()) {
                     numFilters++;
-                    ArrayList<IItemId> filteredItems = new ArrayList<IItemId>();
-                    ArrayList<Float> scores = new ArrayList<Float>();
-                    int i = 0;
-                    for (IItemId item : result.getIterator()) {
-                        if (selectedEdges.contains(item)) {
-                            filteredItems.add(item);
-                            scores.add(result.getScore(i));
-                        }
-                        i++;
-                    }
-                    result = new MultiSearchResult(filteredItems.toArray(new ItemId[0]),
-                            ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
+                    resultFilter.addFilter(getItemIdsFilter(selectedEdges));
                 }
 
                 if (App.get().filterDuplicates.isSelected()) {
                     DynamicDuplicateFilter duplicateFilter = new DynamicDuplicateFilter(App.get().appCase);
-                    result = duplicateFilter.filter(result);
+                    resultFilter.addOrderedFilter(duplicateFilter.getFilter());
                     numFilters++;
                 }
 
+                if (!resultFilter.isEmpty()) {
+                    long t = System.currentTimeMillis();
+                    result = resultFilter.filter(result);
+                    LOGGER.info("Filtering took {}ms", (System.currentTimeMillis() - t)); //$NON-NLS-1$
+                }
+
                 if (App.get().similarImagesQueryRefItem != null) {
                     new ImageSimilarityScorer(result, App.get().similarImagesQueryRefItem).score();
                     result = ImageSimilarityLowScoreFilter.filter(result);
@@ -271,6 +261,22 @@ public MultiSearchResult doInBackground() {
 
     }
 
+    private static FusedResultFilter.ItemFilter getItemIdsFilter(Set<IItemId> itemIds) {
+        int maxSourceId = 0;
+        for (IItemId item : itemIds) {
+            maxSourceId = Math.max(maxSourceId, item.getSourceId());
+        }
+        BitSet[] idsPerSource = new BitSet[maxSourceId + 1];
+        for (IItemId item : itemIds) {
+            if (idsPerSource[item.getSourceId()] == null) {
+                idsPerSource[item.getSourceId()] = new BitSet();
+            }
+            idsPerSource[item.getSourceId()].set(item.getId());
+        }
+        return (sourceId, id, score) -> sourceId < idsPerSource.length && idsPerSource[sourceId] != null
+                && idsPerSource[sourceId].get(id);
+    }
+
     private void saveHighlightTerms() throws ParseException, QueryNodeException {
         Set<String> highlightTerms = new QueryBuilder(App.get().appCase).getQueryStrings(queryText);
         highlightTerms.addAll(App.get().metadataPanel.getHighlightTerms());
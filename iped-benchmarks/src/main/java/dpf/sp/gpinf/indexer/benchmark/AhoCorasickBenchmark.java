@@ -0,0 +1,84 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+import org.arabidopsis.ahocorasick.SearchResult;
+import org.arabidopsis.ahocorasick.Searcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Carving signature search done by CarverTask over each 1MB block, in bytes
+ * per second, with signatures planted in random data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AhoCorasickBenchmark {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Mean distance between planted signatures.
+     */
+    @Param({ "4096", "1048576" })
+    public int signatureDistance;
+
+    private AhoCorasick tree;
+    private CompiledAhoCorasick compiledTree;
+    private byte[] block;
+    private CompiledAhoCorasick.MatchHandler handler = this::onMatch;
+    private int compiledHits;
+
+    @Setup
+    public void setup() {
+        tree = new AhoCorasick();
+        for (byte[] sig : SyntheticCorpus.SIGNATURES) {
+            tree.add(sig, sig);
+        }
+        tree.prepare();
+        compiledTree = new CompiledAhoCorasick(tree);
+        block = SyntheticCorpus.binary(BLOCK_SIZE, signatureDistance, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_SIZE)
+    public int search() {
+        int hits = 0;
+        SearchResult lastResult = new SearchResult(tree.root, block, 0);
+        Iterator<SearchResult> searcher = new Searcher(tree, tree.continueSearch(lastResult));
+        while (searcher.hasNext()) {
+            hits += searcher.next().getOutputs().size();
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_SIZE)
+    public int compiledSearch() {
+        compiledHits = 0;
+        compiledTree.search(block, 0, block.length, compiledTree.getInitialState(), handler);
+        return compiledHits;
+    }
+
+    private void onMatch(int output, int end) {
+        compiledHits++;
+    }
+
+}
@@ -0,0 +1,42 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the usual JMH command line options, saving
+ * results as JSON by default, so runs from different versions can be compared.
+ * Unless -rff is given, results are written to
+ * jmh-results/&lt;timestamp&gt;.&lt;format&gt; in the working directory.
+ * 
+ * Usage: java -jar benchmarks.jar [JMH options] [benchmark regex]
+ */
+public class BenchmarkRunner {
+
+    private static final String RESULTS_DIR = "jmh-results"; //$NON-NLS-1$
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        if (cmdOptions.shouldHelp() || cmdOptions.shouldList()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ResultFormatType format = cmdOptions.getResultFormat().orElse(ResultFormatType.JSON);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions).resultFormat(format);
+        if (!cmdOptions.getResult().hasValue()) {
+            File dir = new File(RESULTS_DIR);
+            dir.mkdirs();
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()); //$NON-NLS-1$
+            options.result(new File(dir, timestamp + "." + format.toString().toLowerCase()).getPath()); //$NON-NLS-1$
+        }
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,74 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dpf.sp.gpinf.indexer.process.task.HashTask;
+import gpinf.dev.data.Item;
+
+/**
+ * HashTask processing an item backed by a file, with one or all configured
+ * algorithms. Files are small enough to stay in the page cache, so this
+ * measures digest cost, not disk speed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashTaskBenchmark {
+
+    @Param({ "md5", "md5;sha-1;sha-256;edonkey" })
+    public String hashes;
+
+    @Param({ "65536", "67108864" })
+    public int fileSize;
+
+    private HashTask task;
+    private Item item;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(HashTask.HASH_PROP, hashes);
+        task = new HashTask();
+        task.init(props, null);
+
+        file = SyntheticCorpus.tempFile(".bin", SyntheticCorpus.binary(fileSize, 1 << 20, 1)); //$NON-NLS-1$
+        item = new Item();
+        item.setName(file.getName());
+        item.setFile(file);
+        item.setLength((long) fileSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        task.finish();
+        file.delete();
+    }
+
+    @Benchmark
+    public String process() {
+        item.setHash(null);
+        task.process(item);
+        return item.getHash();
+    }
+
+}
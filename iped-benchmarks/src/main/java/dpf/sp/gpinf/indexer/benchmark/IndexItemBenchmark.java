@@ -0,0 +1,106 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dpf.sp.gpinf.indexer.process.IndexItem;
+import gpinf.dev.data.DataSource;
+import gpinf.dev.data.Item;
+
+/**
+ * Creation of the Lucene Document of an item by IndexItem, with basic
+ * properties, extra attributes and parser metadata of mixed types.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexItemBenchmark {
+
+    /**
+     * Number of parser metadata entries of the item.
+     */
+    @Param({ "10", "100" })
+    public int numMetadata;
+
+    private Item item;
+    private String text;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        output = SyntheticCorpus.tempDir();
+        text = SyntheticCorpus.text(10000, 1);
+        Random random = new Random(1);
+
+        item = new Item();
+        item.setDataSource(new DataSource(output));
+        item.setId(1000);
+        item.setParentId(10);
+        item.addParentIds(Arrays.asList(1, 5, 10));
+        item.setIdInDataSource("1000"); //$NON-NLS-1$
+        item.setName("relatório final.docx"); //$NON-NLS-1$
+        item.setPath("evidence.E01/vol_vol2/Users/user/Documents/relatório final.docx"); //$NON-NLS-1$
+        item.setLength(123456L);
+        item.setMediaType(MediaType.application("vnd.openxmlformats-officedocument.wordprocessingml.document")); //$NON-NLS-1$
+        item.setCategory("Text Documents"); //$NON-NLS-1$
+        item.setHash("0123456789ABCDEF0123456789ABCDEF"); //$NON-NLS-1$
+        Date date = new Date(1500000000000L);
+        item.setCreationDate(date);
+        item.setModificationDate(new Date(date.getTime() + 3600000));
+        item.setAccessDate(new Date(date.getTime() + 7200000));
+
+        item.setExtraAttribute("md5", "0123456789ABCDEF0123456789ABCDEF"); //$NON-NLS-1$ //$NON-NLS-2$
+        item.setExtraAttribute("sha-1", "0123456789ABCDEF0123456789ABCDEF01234567"); //$NON-NLS-1$ //$NON-NLS-2$
+        item.setExtraAttribute("Regex:EMAIL", Arrays.asList("user1@example.com", "user2@example.com")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        item.setExtraAttribute("entropy", 0.75); //$NON-NLS-1$
+
+        Metadata metadata = new Metadata();
+        for (int i = 0; i < numMetadata; i++) {
+            switch (i % 4) {
+                case 0:
+                    metadata.set("meta:count" + i, Integer.toString(random.nextInt(100000))); //$NON-NLS-1$
+                    break;
+                case 1:
+                    metadata.set("meta:value" + i, Double.toString(random.nextDouble())); //$NON-NLS-1$
+                    break;
+                case 2:
+                    metadata.set("dcterms:date" + i, "2017-07-14T02:40:00Z"); //$NON-NLS-1$ //$NON-NLS-2$
+                    break;
+                default:
+                    metadata.set("meta:text" + i, text.substring(i, i + 40)); //$NON-NLS-1$
+            }
+        }
+        item.setMetadata(metadata);
+        // first call only guesses metadata types
+        IndexItem.Document(item, null, output);
+    }
+
+    @Benchmark
+    public Document document() {
+        return IndexItem.Document(item, new StringReader(text), output);
+    }
+
+}
@@ -0,0 +1,112 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dpf.sp.gpinf.indexer.io.FastPipedReader;
+import dpf.sp.gpinf.indexer.io.FastPipedWriter;
+
+/**
+ * Throughput, in chars per second, of the pipe between the parsing thread and
+ * the worker thread. The "jdk" pipe is java.io.PipedReader, which the previous
+ * synchronized FastPipedReader was copied from. Both use the 128K chars buffer
+ * created by ParsingReader and the same 8K chars reads done by its
+ * BufferedReader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipedReaderBenchmark {
+
+    private static final int PIPE_SIZE = 128 * 1024;
+    private static final int TEXT_SIZE = 1 << 24;
+
+    @Param({ "fast", "jdk" })
+    public String pipe;
+
+    /**
+     * Chars per write call. Parsers write from a few chars (SAX characters
+     * events) to whole text blocks.
+     */
+    @Param({ "16", "1024", "8192" })
+    public int writeSize;
+
+    private final char[] text = new char[TEXT_SIZE];
+    private final char[] readBuf = new char[8192];
+
+    private ExecutorService producer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (char) ('a' + i % 26);
+        }
+        producer = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        producer.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TEXT_SIZE)
+    public long transfer() throws Exception {
+        Reader reader;
+        Writer writer;
+        if ("fast".equals(pipe)) {
+            FastPipedReader fastReader = new FastPipedReader(PIPE_SIZE, 0);
+            writer = new FastPipedWriter(fastReader);
+            reader = fastReader;
+        } else {
+            PipedReader jdkReader = new PipedReader(PIPE_SIZE);
+            writer = new PipedWriter(jdkReader);
+            reader = jdkReader;
+        }
+        final Writer w = writer;
+        Future<?> future = producer.submit(() -> {
+            for (int off = 0; off < text.length; off += writeSize) {
+                w.write(text, off, Math.min(writeSize, text.length - off));
+            }
+            w.close();
+            return null;
+        });
+        long sum = 0;
+        int read;
+        while ((read = reader.read(readBuf, 0, readBuf.length)) != -1) {
+            sum += read + readBuf[read - 1];
+        }
+        future.get();
+        reader.close();
+        if (sum < TEXT_SIZE) {
+            throw new IOException("Missing chars: " + sum); //$NON-NLS-1$
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,92 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dpf.sp.gpinf.indexer.process.task.SignatureTask;
+import gpinf.dev.data.Item;
+
+/**
+ * Signature detection of SignatureTask over a mix of files starting with
+ * common signatures, plain text and random data, with misleading extensions
+ * for some of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureTaskBenchmark {
+
+    private static final int NUM_FILES = 64;
+
+    private static final String[] EXTENSIONS = { ".jpg", ".png", ".pdf", ".zip", ".gif", ".avi", ".bmp", ".doc", //$NON-NLS-1$
+            ".gz", ".db", ".exe", ".so", ".txt", ".dat" }; //$NON-NLS-1$
+
+    private SignatureTask task;
+    private Item[] items = new Item[NUM_FILES];
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        task = new SignatureTask();
+        Random random = new Random(1);
+        for (int i = 0; i < NUM_FILES; i++) {
+            byte[] content;
+            int type = i % (SyntheticCorpus.SIGNATURES.length + 2);
+            if (type < SyntheticCorpus.SIGNATURES.length) {
+                content = SyntheticCorpus.binary(16384, 1 << 20, i);
+                byte[] sig = SyntheticCorpus.SIGNATURES[type];
+                System.arraycopy(sig, 0, content, 0, sig.length);
+            } else if (type == SyntheticCorpus.SIGNATURES.length) {
+                content = SyntheticCorpus.text(16384, i).getBytes(StandardCharsets.UTF_8);
+            } else {
+                content = SyntheticCorpus.binary(16384, 1 << 20, i);
+            }
+            String ext = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            File file = SyntheticCorpus.tempFile(ext, content);
+            Item item = new Item();
+            item.setName(file.getName());
+            item.setFile(file);
+            item.setLength((long) content.length);
+            items[i] = item;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Item item : items) {
+            item.getFile().delete();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_FILES)
+    public int process() {
+        int hash = 0;
+        for (Item item : items) {
+            item.setMediaType(null);
+            task.process(item);
+            hash += item.getMediaType().hashCode();
+            item.dispose(false);
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,115 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic data used by the benchmarks, so results do not depend
+ * on private case data and are comparable between runs.
+ */
+public class SyntheticCorpus {
+
+    private static final String[] WORDS = { "de", "a", "o", "que", "e", "do", "da", "em", "um", "para", "the", //$NON-NLS-1$
+            "of", "and", "to", "in", "is", "relatório", "documento", "evidência", "pagamento", "transferência", //$NON-NLS-1$
+            "message", "contact", "account", "password", "invoice", "número", "endereço", "telefone" }; //$NON-NLS-1$
+
+    /**
+     * File signatures, as found in the beginning of common files.
+     */
+    public static final byte[][] SIGNATURES = { { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0 },
+            { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' }, { '%', 'P', 'D', 'F', '-', '1', '.' },
+            { 'P', 'K', 3, 4 }, { 'G', 'I', 'F', '8', '9', 'a' }, { 'R', 'I', 'F', 'F' }, { 'B', 'M' },
+            { (byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1 },
+            { 0x1F, (byte) 0x8B, 0x08 }, { 'S', 'Q', 'L', 'i', 't', 'e', ' ', 'f', 'o', 'r', 'm', 'a', 't' },
+            { 'M', 'Z' }, { 0x7F, 'E', 'L', 'F' } };
+
+    /**
+     * Text made of common words mixed with emails, urls, phone numbers, card
+     * numbers and MAC addresses, about one entity each 50 words.
+     */
+    public static String text(int numChars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(numChars + 100);
+        while (sb.length() < numChars) {
+            if (random.nextInt(50) == 0) {
+                appendEntity(sb, random);
+            } else {
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            sb.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        sb.setLength(numChars);
+        return sb.toString();
+    }
+
+    private static void appendEntity(StringBuilder sb, Random random) {
+        switch (random.nextInt(5)) {
+            case 0:
+                sb.append("user").append(random.nextInt(100000)).append("@example").append(random.nextInt(100)) //$NON-NLS-1$ //$NON-NLS-2$
+                        .append(".com.br"); //$NON-NLS-1$
+                break;
+            case 1:
+                sb.append("https://www.example.com/path/").append(random.nextInt(1000000)).append("?q=") //$NON-NLS-1$ //$NON-NLS-2$
+                        .append(random.nextInt(1000));
+                break;
+            case 2:
+                sb.append("(11) 9").append(digits(random, 4)).append('-').append(digits(random, 4)); //$NON-NLS-1$
+                break;
+            case 3:
+                sb.append(digits(random, 4)).append(' ').append(digits(random, 4)).append(' ')
+                        .append(digits(random, 4)).append(' ').append(digits(random, 4));
+                break;
+            default:
+                for (int i = 0; i < 6; i++) {
+                    if (i > 0)
+                        sb.append(':');
+                    sb.append(String.format("%02X", random.nextInt(256))); //$NON-NLS-1$
+                }
+        }
+    }
+
+    private static String digits(Random random, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Random bytes with one of {@link #SIGNATURES} inserted about each
+     * signatureDistance bytes.
+     */
+    public static byte[] binary(int len, int signatureDistance, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[len];
+        random.nextBytes(data);
+        for (int pos = random.nextInt(signatureDistance); pos < len; pos += 1 + random.nextInt(2 * signatureDistance)) {
+            byte[] sig = SIGNATURES[random.nextInt(SIGNATURES.length)];
+            System.arraycopy(sig, 0, data, pos, Math.min(sig.length, len - pos));
+        }
+        return data;
+    }
+
+    /**
+     * Creates a temp file with the given content, deleted on exit.
+     */
+    public static File tempFile(String suffix, byte[] content) throws IOException {
+        File file = File.createTempFile("iped-bench", suffix); //$NON-NLS-1$
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * Creates a temp dir, deleted on exit if empty.
+     */
+    public static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("iped-bench").toFile(); //$NON-NLS-1$
+        dir.deleteOnExit();
+        return dir;
+    }
+
+}
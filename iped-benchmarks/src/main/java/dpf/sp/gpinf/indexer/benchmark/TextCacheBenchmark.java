@@ -0,0 +1,67 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dpf.sp.gpinf.indexer.util.TextCache;
+
+/**
+ * Writes the parsed text of an item to a TextCache and reads it back twice, as
+ * done by the indexing and the regex tasks. Texts larger than 10M chars are
+ * spilled to disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextCacheBenchmark {
+
+    @Param({ "100000", "4000000", "16000000" })
+    public int textSize;
+
+    @Param({ "false", "true" })
+    public boolean compressDiskCache;
+
+    private char[] text;
+    private final char[] readBuf = new char[8192];
+
+    @Setup
+    public void setup() {
+        text = SyntheticCorpus.text(textSize, 1).toCharArray();
+    }
+
+    @Benchmark
+    public void writeAndRead(Blackhole bh) throws IOException {
+        try (TextCache cache = new TextCache()) {
+            cache.setCompressDiskCache(compressDiskCache);
+            for (int off = 0; off < text.length; off += readBuf.length) {
+                cache.write(text, off, Math.min(readBuf.length, text.length - off));
+            }
+            for (int i = 0; i < 2; i++) {
+                try (Reader reader = cache.getTextReader()) {
+                    int read;
+                    while ((read = reader.read(readBuf, 0, readBuf.length)) != -1) {
+                        bh.consume(readBuf[read - 1]);
+                    }
+                }
+            }
+        }
+    }
+
+}
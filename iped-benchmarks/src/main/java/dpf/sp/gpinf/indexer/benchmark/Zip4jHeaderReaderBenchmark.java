@@ -0,0 +1,71 @@
+package dpf.sp.gpinf.indexer.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dpf.sp.gpinf.indexer.util.Zip4jFastHeaderReader;
+import net.lingala.zip4j.model.ZipModel;
+
+/**
+ * Reading of the central directory of zip files with many entries, as done by
+ * ZipFile4j before extracting subitems.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Zip4jHeaderReaderBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int numEntries;
+
+    private File zip;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zip = SyntheticCorpus.tempFile(".zip", new byte[0]); //$NON-NLS-1$
+        byte[] content = SyntheticCorpus.text(256, 1).getBytes("UTF-8"); //$NON-NLS-1$
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            zos.setLevel(1);
+            for (int i = 0; i < numEntries; i++) {
+                zos.putNextEntry(new ZipEntry("dir" + (i % 100) + "/documento_" + i + ".txt")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                zos.write(content);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        zip.delete();
+    }
+
+    @Benchmark
+    public int readAllHeaders() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(zip, "r")) { //$NON-NLS-1$
+            ZipModel model = new Zip4jFastHeaderReader(raf).readAllHeaders();
+            return model.getCentralDirectory().getFileHeaders().size();
+        }
+    }
+
+}
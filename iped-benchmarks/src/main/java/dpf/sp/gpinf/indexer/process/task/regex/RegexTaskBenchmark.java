@@ -0,0 +1,86 @@
+package dpf.sp.gpinf.indexer.process.task.regex;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dpf.sp.gpinf.indexer.benchmark.SyntheticCorpus;
+import gpinf.dev.data.Item;
+
+/**
+ * Regex search of RegexTask over the parsed text of an item, in chars per
+ * second, with some regexes of the default profile. It is in the RegexTask
+ * package to call its protected process method, which runs processRegex over
+ * the text cache and the item name.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegexTaskBenchmark {
+
+    private static final int TEXT_SIZE = 4000000;
+
+    private static final String[] REGEXES = {
+            "EMAIL , 0 , 0 , true = [0-9a-z][0-9a-z\\+\\.\\_\\%\\-]{1,64}\\@[0-9a-z\\-]{2,64}(\\.[0-9a-z\\-]{2,25}){1,3}", //$NON-NLS-1$
+            "URL = ((https?|ftp|file):/{2,3}|www)[-a-z0-9\\+\\&\\@\\#\\\\/\\%\\?\\=\\~_\\|!:,\\.;]+", //$NON-NLS-1$
+            "IP , 1 , 1 = [^0-9\\.]([^0].?.?&<1-255>)(\\.(([^0].?.?&<1-255>)|0)){3}[^0-9\\.]", //$NON-NLS-1$
+            "MAC_ADDRESS , 0 , 0 , false = ([0-9a-fA-F][0-9a-fA-F]:){5}([0-9a-fA-F][0-9a-fA-F])", //$NON-NLS-1$
+            "CREDIT_CARD, 1 , 1 = [^0-9]([0-9]{4} ){3}[0-9]{4}[^0-9]", //$NON-NLS-1$
+            "PHONE = ((()|(Tel|Telefone|Phone)(:| |: )| )(\\+55 |\\+55|())(\\([1-9]{2}\\)|[1-9]{2})( |\\-|())(9[0-9]{4}|[3-5][0-9]{3})( |\\-|\\.)([0-9]{4})([^0-9]|()))|(((Tel|Telefone|Phone)(:| |: )| )(\\+55 |\\+55|())(\\([1-9]{2}\\)|[1-9]{2})( |\\-|())(9[0-9]{4}|[3-5][0-9]{3})( |\\-|\\.|())([0-9]{4})([^0-9]|()))", //$NON-NLS-1$
+    };
+
+    private RegexTask task;
+    private Item item;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        File confDir = SyntheticCorpus.tempDir();
+        File regexConfig = new File(confDir, "RegexConfig.txt"); //$NON-NLS-1$
+        File keywords = new File(confDir, "KeywordsToExport.txt"); //$NON-NLS-1$
+        Files.write(regexConfig.toPath(), String.join("\n", REGEXES).getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        Files.write(keywords.toPath(), new byte[0]);
+        regexConfig.deleteOnExit();
+        keywords.deleteOnExit();
+
+        task = new RegexTask();
+        task.init(new Properties(), confDir);
+
+        item = new Item();
+        item.setName("mensagens.txt"); //$NON-NLS-1$
+        item.setParsedTextCache(SyntheticCorpus.text(TEXT_SIZE, 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        task.finish();
+        item.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TEXT_SIZE)
+    public int process() throws Exception {
+        item.getExtraAttributeMap().clear();
+        task.process(item);
+        return item.getExtraAttributeMap().size();
+    }
+
+}
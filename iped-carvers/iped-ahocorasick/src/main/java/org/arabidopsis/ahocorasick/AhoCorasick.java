@@ -130,7 +130,7 @@ private void prepareFailTransitions() {
                 // s.getOutputs().addAll(r.get(a).getOutputs());
                 if (r.get(a).getOutputs() != null)
                     for (Object o : r.get(a).getOutputs())
-                        s.getOutputs().add(o);
+                        s.addOutput(o);
             }
         }
     }
@@ -145,6 +145,10 @@ private void prepareRoot() {
                 this.root.put((byte) i, this.root);
     }
 
+    boolean isPrepared() {
+        return this.prepared;
+    }
+
     /**
      * Returns the root of the tree.
      */
@@ -31,26 +31,34 @@
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Benchmark {
+
+    /**
+     * Size of the data searched to measure throughput.
+     */
+    private static final int THROUGHPUT_DATA_SIZE = 256 << 20;
+
+    /**
+     * Block size used by CarverTask.
+     */
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private static final int ITERATIONS = 5;
+
     public static void main(String[] args) throws IOException, InterruptedException {
         String[] words = { "Christmas", "Cains", "Marley", "spectre", "Ebenezer", "double-ironed", "supernatural",
                 "SPIRITS", "Ding", "Ali Baba" };
 
         long t0 = System.currentTimeMillis();
 
-        BufferedReader fr = new BufferedReader(
-                new InputStreamReader(Benchmark.class.getResourceAsStream("christmas.txt")));
-        String text = "";
-        String line = fr.readLine();
-        while (line != null) {
-            text += line + "\n";
-            line = fr.readLine();
-        }
+        String text = readText(words);
 
         System.out.println("Starting benchmark");
         long t1 = System.currentTimeMillis();
@@ -82,5 +90,79 @@ public static void main(String[] args) throws IOException, InterruptedException
         System.out.println("File reading: " + Long.toString(t1 - t0) + "ms");
         System.out.println("Aho-Corasick: " + Long.toString(t2 - t1) + "ms");
         System.out.println("Java-regexp: " + Long.toString(t3 - t2) + "ms");
+
+        benchmarkThroughput(finder, text.getBytes("windows-1252"));
+    }
+
+    private static String readText(String[] words) throws IOException {
+        InputStream is = Benchmark.class.getResourceAsStream("christmas.txt");
+        if (is == null) {
+            // resource not available, uses random text with the words
+            Random random = new Random(0);
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 1 << 20) {
+                if (random.nextInt(100) == 0)
+                    sb.append(words[random.nextInt(words.length)]);
+                else
+                    for (int i = 1 + random.nextInt(10); i > 0; i--)
+                        sb.append((char) ('a' + random.nextInt(26)));
+                sb.append(random.nextInt(20) == 0 ? '\n' : ' ');
+            }
+            return sb.toString();
+        }
+        BufferedReader fr = new BufferedReader(new InputStreamReader(is));
+        StringBuilder text = new StringBuilder();
+        String line = fr.readLine();
+        while (line != null) {
+            text.append(line).append("\n");
+            line = fr.readLine();
+        }
+        return text.toString();
+    }
+
+    /**
+     * Measures the throughput of the tree and of the compiled automaton
+     * searching blocks of the text repeated, the way CarverTask does.
+     */
+    private static void benchmarkThroughput(AhoCorasick finder, byte[] text) {
+        byte[] data = new byte[THROUGHPUT_DATA_SIZE];
+        for (int i = 0; i < data.length; i += text.length)
+            System.arraycopy(text, 0, data, i, Math.min(text.length, data.length - i));
+
+        CompiledAhoCorasick compiled = new CompiledAhoCorasick(finder);
+        System.out.println("Compiled states: " + compiled.getNumStates());
+
+        final long[] hits = new long[1];
+        CompiledAhoCorasick.MatchHandler handler = (output, end) -> hits[0]++;
+
+        for (int iter = 0; iter < ITERATIONS; iter++) {
+            long treeHits = 0;
+            long t0 = System.nanoTime();
+            SearchResult lastResult = new SearchResult(finder.root, null, 0);
+            for (int off = 0; off < data.length; off += BLOCK_SIZE) {
+                byte[] block = new byte[Math.min(BLOCK_SIZE, data.length - off)];
+                System.arraycopy(data, off, block, 0, block.length);
+                lastResult = new SearchResult(lastResult.lastMatchedState, block, 0);
+                Iterator<SearchResult> searcher = new Searcher(finder, finder.continueSearch(lastResult));
+                while (searcher.hasNext()) {
+                    lastResult = searcher.next();
+                    treeHits += lastResult.getOutputs().size();
+                }
+            }
+            long t1 = System.nanoTime();
+
+            hits[0] = 0;
+            int state = compiled.getInitialState();
+            for (int off = 0; off < data.length; off += BLOCK_SIZE)
+                state = compiled.search(data, off, Math.min(BLOCK_SIZE, data.length - off), state, handler);
+            long t2 = System.nanoTime();
+
+            System.out.println("Aho-Corasick tree: " + gbPerSecond(data.length, t1 - t0) + " GB/s, " + treeHits
+                    + " hits; compiled: " + gbPerSecond(data.length, t2 - t1) + " GB/s, " + hits[0] + " hits");
+        }
+    }
+
+    private static String gbPerSecond(long bytes, long nanos) {
+        return String.format("%.3f", (double) bytes / nanos);
     }
 }
@@ -0,0 +1,205 @@
+package org.arabidopsis.ahocorasick;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Aho-Corasick automaton compiled from a prepared {@link AhoCorasick} tree into
+ * primitive arrays. Fail transitions are resolved at compile time, so the
+ * search does exactly one table lookup per input byte, without object graph
+ * walks nor allocations.
+ * </p>
+ *
+ * <p>
+ * States are identified by their offset in the 256 entries wide transition
+ * table. States with outputs are numbered after all the others, so checking if
+ * a state has outputs is a single comparison. Outputs are identified by ints,
+ * see {@link #getOutput(int)}.
+ * </p>
+ *
+ * <p>
+ * Example usage: <code><pre>
+ CompiledAhoCorasick automaton = new CompiledAhoCorasick(tree);
+ int state = automaton.getInitialState();
+ while ((len = in.read(buf)) != -1)
+   state = automaton.search(buf, 0, len, state, handler);
+ </pre></code>
+ * </p>
+ *
+ * The transition table uses 1KB per state, so it is meant for up to some
+ * thousands of states, as signature sets.
+ */
+public class CompiledAhoCorasick {
+
+    /**
+     * Receives the outputs found by a search.
+     */
+    public interface MatchHandler {
+
+        /**
+         * @param output
+         *            id of the matched output, see {@link #getOutput(int)}.
+         * @param end
+         *            index after the last byte of the match in the searched buffer,
+         *            like {@link SearchResult#getLastIndex()}.
+         */
+        void onMatch(int output, int end);
+    }
+
+    private final int[] delta;
+    private final int firstOutputState;
+    private final int[] outputStart;
+    private final int[] outputIds;
+    private final Object[] outputs;
+
+    @SuppressWarnings("unchecked")
+    public CompiledAhoCorasick(AhoCorasick tree) {
+        if (!tree.isPrepared()) {
+            throw new IllegalStateException("can't compile until prepare()");
+        }
+        State root = tree.getRoot();
+
+        // breadth first order, so fail states are compiled before
+        List<State> states = new ArrayList<>();
+        Map<State, Integer> bfsIds = new IdentityHashMap<>();
+        states.add(root);
+        bfsIds.put(root, 0);
+        for (int i = 0; i < states.size(); i++) {
+            State s = states.get(i);
+            for (State child : s.edgeList.array) {
+                if (child != null && child != root && !bfsIds.containsKey(child)) {
+                    bfsIds.put(child, states.size());
+                    states.add(child);
+                }
+            }
+        }
+
+        // renumbers states with outputs to the end
+        int n = states.size();
+        int[] ids = new int[n];
+        int numOutputStates = 0;
+        for (State s : states) {
+            if (s.outputs != null) {
+                numOutputStates++;
+            }
+        }
+        int nextId = 0, nextOutputId = n - numOutputStates;
+        for (int i = 0; i < n; i++) {
+            ids[i] = states.get(i).outputs != null ? nextOutputId++ : nextId++;
+        }
+        if (ids[0] != 0) {
+            throw new IllegalArgumentException("Empty keywords are not supported");
+        }
+        firstOutputState = (n - numOutputStates) << 8;
+
+        delta = new int[n << 8];
+        for (int i = 0; i < n; i++) {
+            State s = states.get(i);
+            int base = ids[i] << 8;
+            int failBase = s == root ? 0 : ids[bfsIds.get(s.fail)] << 8;
+            for (int b = 0; b < 256; b++) {
+                State next = s.edgeList.array[b];
+                if (next != null) {
+                    delta[base + b] = ids[bfsIds.get(next)] << 8;
+                } else {
+                    delta[base + b] = delta[failBase + b];
+                }
+            }
+        }
+
+        // outputs of each state in the order returned by State.getOutputs()
+        Map<Object, Integer> outputIndex = new IdentityHashMap<>();
+        List<Object> outputList = new ArrayList<>();
+        outputStart = new int[numOutputStates + 1];
+        List<Object>[] stateOutputs = new List[numOutputStates];
+        int totalOutputs = 0;
+        for (int i = 0; i < n; i++) {
+            List<Object> outs = states.get(i).outputs;
+            if (outs != null) {
+                stateOutputs[ids[i] - (n - numOutputStates)] = outs;
+                totalOutputs += outs.size();
+            }
+        }
+        outputIds = new int[totalOutputs];
+        int pos = 0;
+        for (int i = 0; i < numOutputStates; i++) {
+            outputStart[i] = pos;
+            for (Object o : stateOutputs[i]) {
+                Integer id = outputIndex.get(o);
+                if (id == null) {
+                    id = outputList.size();
+                    outputIndex.put(o, id);
+                    outputList.add(o);
+                }
+                outputIds[pos++] = id;
+            }
+        }
+        outputStart[numOutputStates] = pos;
+        outputs = outputList.toArray();
+    }
+
+    public int getInitialState() {
+        return 0;
+    }
+
+    public int getNumStates() {
+        return delta.length >> 8;
+    }
+
+    public int getNumOutputs() {
+        return outputs.length;
+    }
+
+    /**
+     * @return the output object added to the tree with the keyword.
+     */
+    public Object getOutput(int output) {
+        return outputs[output];
+    }
+
+    /**
+     * Searches buf[off, off + len) starting at state, calling handler for each
+     * output found, in the same order of {@link AhoCorasick#search(byte[])}.
+     *
+     * @return the state after the last byte, to continue the search on the next
+     *         buffer.
+     */
+    public int search(byte[] buf, int off, int len, int state, MatchHandler handler) {
+        final int[] delta = this.delta;
+        final int firstOutputState = this.firstOutputState;
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            state = delta[state + (buf[i] & 0xFF)];
+            if (state >= firstOutputState) {
+                int s = (state - firstOutputState) >> 8;
+                for (int j = outputStart[s]; j < outputStart[s + 1]; j++) {
+                    handler.onMatch(outputIds[j], i + 1);
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return number of matched outputs in buf[off, off + len), from the initial
+     *         state.
+     */
+    public int count(byte[] buf, int off, int len) {
+        final int[] delta = this.delta;
+        final int firstOutputState = this.firstOutputState;
+        final int end = off + len;
+        int state = 0, count = 0;
+        for (int i = off; i < end; i++) {
+            state = delta[state + (buf[i] & 0xFF)];
+            if (state >= firstOutputState) {
+                int s = (state - firstOutputState) >> 8;
+                count += outputStart[s + 1] - outputStart[s];
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,108 @@
+package org.arabidopsis.ahocorasick;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompiledAhoCorasickTest {
+
+    private static AhoCorasick prepareTree(String... keywords) {
+        AhoCorasick tree = new AhoCorasick();
+        for (String keyword : keywords)
+            tree.add(keyword.getBytes(), keyword);
+        tree.prepare();
+        return tree;
+    }
+
+    private static List<String> treeSearch(AhoCorasick tree, byte[] data) {
+        List<String> hits = new ArrayList<>();
+        Iterator<SearchResult> it = tree.search(data);
+        while (it.hasNext()) {
+            SearchResult result = it.next();
+            for (Object output : result.getOutputs())
+                hits.add(output + "@" + result.getLastIndex());
+        }
+        return hits;
+    }
+
+    private static AhoCorasick prepareTree(List<byte[]> keywords) {
+        AhoCorasick tree = new AhoCorasick();
+        for (byte[] keyword : keywords)
+            tree.add(keyword, Arrays.toString(keyword));
+        tree.prepare();
+        return tree;
+    }
+
+    private static List<String> compiledSearch(CompiledAhoCorasick automaton, byte[] data) {
+        List<String> hits = new ArrayList<>();
+        automaton.search(data, 0, data.length, automaton.getInitialState(),
+                (output, end) -> hits.add(automaton.getOutput(output) + "@" + end));
+        return hits;
+    }
+
+    @Test
+    public void testFailToStateWithOutputs() {
+        // state "ab" has no outputs and fails to "b", which has
+        AhoCorasick tree = prepareTree("b", "abc");
+        byte[] data = "xabcab".getBytes();
+        List<String> expected = Arrays.asList("b@3", "abc@4", "b@6");
+        assertEquals(expected, treeSearch(tree, data));
+        assertEquals(expected, compiledSearch(new CompiledAhoCorasick(tree), data));
+    }
+
+    /**
+     * Searches data split in separate buffers at random points, carrying the
+     * state from one buffer to the next.
+     */
+    private static List<String> compiledSearch(CompiledAhoCorasick automaton, byte[] data, Random random) {
+        List<String> hits = new ArrayList<>();
+        int state = automaton.getInitialState();
+        int pos = 0;
+        while (pos < data.length) {
+            int len = Math.min(data.length - pos, random.nextInt(8));
+            // the buffer is searched in the middle of a larger array
+            byte[] buf = new byte[len + 5];
+            System.arraycopy(data, pos, buf, 3, len);
+            final int base = pos - 3;
+            state = automaton.search(buf, 3, len, state,
+                    (output, end) -> hits.add(automaton.getOutput(output) + "@" + (base + end)));
+            pos += len;
+        }
+        return hits;
+    }
+
+    private static byte[] randomBytes(Random random, int len, int alphabet) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++)
+            // includes bytes >= 0x80, negative in java
+            bytes[i] = (byte) (0xFE + random.nextInt(alphabet));
+        return bytes;
+    }
+
+    @Test
+    public void testSameHitsAsTree() {
+        Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            // small alphabet, so keywords share prefixes and suffixes
+            int alphabet = 2 + random.nextInt(4);
+            List<byte[]> keywords = new ArrayList<>();
+            for (int i = 1 + random.nextInt(20); i > 0; i--)
+                keywords.add(randomBytes(random, 1 + random.nextInt(6), alphabet));
+            AhoCorasick tree = prepareTree(keywords);
+            CompiledAhoCorasick automaton = new CompiledAhoCorasick(tree);
+            byte[] data = randomBytes(random, random.nextInt(300), alphabet);
+
+            List<String> expected = treeSearch(tree, data);
+            assertEquals(expected, compiledSearch(automaton, data));
+            assertEquals(expected, compiledSearch(automaton, data, random));
+            assertEquals(expected.size(), automaton.count(data, 0, data.length));
+        }
+    }
+
+}
@@ -2,6 +2,7 @@
 
 import org.apache.tika.mime.MediaType;
 import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
 
 import iped3.configuration.IConfigurationDirectory;
 
@@ -28,6 +29,9 @@ public interface CarverConfiguration {
     /* Returns the populated state machine tree */
     public AhoCorasick getPopulatedTree();
 
+    /* Returns the populated state machine compiled to a transition table */
+    public CompiledAhoCorasick getCompiledTree();
+
     /* Returns the populated state machine tree */
     public HashMap<CarverType, Carver> getRegisteredCarvers();
 
@@ -1,11 +1,18 @@
 package br.gov.pf.iped.webapi;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -14,35 +21,109 @@
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
-import org.apache.commons.io.IOUtils;
 import org.sleuthkit.datamodel.TskCoreException;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import iped3.IIPEDSource;
 import iped3.IItem;
+import iped3.io.SeekableInputStream;
 
 @Api(value = "Documents")
 @Path("sources/{sourceID}/docs/{id}/content")
 public class Content {
 
-    @ApiOperation(value = "Get document's raw content")
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)"); //$NON-NLS-1$
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @ApiOperation(value = "Get document's raw content", notes = "Supports a single byte range and If-None-Match")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id)
+    public Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id,
+            @HeaderParam("Range") String range, @HeaderParam("If-None-Match") String ifNoneMatch)
             throws TskCoreException, IOException, URISyntaxException {
 
         IIPEDSource source = Sources.getSource(sourceID);
         final IItem item = source.getItemByID(id);
-        return Response.status(200).header("Content-Length", String.valueOf(item.getLength()))
-                .header("Content-Disposition", "attachment; filename=\"" + item.getName() + "\"")
-                .entity(new StreamingOutput() {
-                    @Override
-                    public void write(OutputStream arg0) throws IOException, WebApplicationException {
-                        try (InputStream is = item.getBufferedStream()) {
-                            IOUtils.copy(is, arg0);
+        final long length = item.getLength() != null ? item.getLength() : -1;
+
+        String hash = item.getHash();
+        String etag = "\"" + (hash != null && !hash.isEmpty() ? hash : sourceID + "-" + id + "-" + length) + "\""; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        if (ifNoneMatch != null && (ifNoneMatch.equals(etag) || ifNoneMatch.trim().equals("*"))) { //$NON-NLS-1$
+            return Response.notModified().header("ETag", etag).build(); //$NON-NLS-1$
+        }
+
+        long start = 0, end = length - 1;
+        boolean partial = false;
+        Matcher matcher = range != null && length >= 0 ? RANGE.matcher(range.trim()) : null;
+        if (matcher != null && matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            if (matcher.group(1).isEmpty()) {
+                // suffix range: last n bytes
+                start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(end, Long.parseLong(matcher.group(2)));
+                }
+            }
+            if (start >= length || start > end) {
+                return Response.status(416).header("Content-Range", "bytes */" + length).build(); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            partial = true;
+        }
+
+        final long from = start;
+        final long count = end - start + 1;
+        Response.ResponseBuilder builder = Response.status(partial ? 206 : 200).header("ETag", etag) //$NON-NLS-1$
+                .header("Accept-Ranges", "bytes") //$NON-NLS-1$ //$NON-NLS-2$
+                .header("Content-Disposition", "attachment; filename=\"" + item.getName() + "\""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        if (length >= 0) {
+            builder.header("Content-Length", String.valueOf(count)); //$NON-NLS-1$
+        }
+        if (partial) {
+            builder.header("Content-Range", "bytes " + start + "-" + end + "/" + length); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        return builder.entity(new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                if (length >= 0) {
+                    write(item, from, count, os);
+                } else {
+                    write(item, 0, Long.MAX_VALUE, os);
+                }
+            }
+
+            private void write(IItem item, long from, long count, OutputStream os) throws IOException {
+                File file = item.getFile();
+                if (file != null && item.getFileOffset() == -1 && file.isFile()) {
+                    // exported to the case folder, let the OS copy it
+                    WritableByteChannel out = Channels.newChannel(os);
+                    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        long pos = from, remaining = Math.min(count, fc.size() - from);
+                        while (remaining > 0) {
+                            long n = fc.transferTo(pos, remaining, out);
+                            if (n <= 0) {
+                                break;
+                            }
+                            pos += n;
+                            remaining -= n;
                         }
                     }
-                }).build();
+                    return;
+                }
+                // SQLite storage and other sources: in memory or seekable streams
+                try (SeekableInputStream is = item.getStream()) {
+                    is.seek(from);
+                    byte[] buf = new byte[BUFFER_SIZE];
+                    long remaining = count;
+                    int n;
+                    while (remaining > 0 && (n = is.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+                        os.write(buf, 0, n);
+                        remaining -= n;
+                    }
+                }
+            }
+        }).build();
     }
 }
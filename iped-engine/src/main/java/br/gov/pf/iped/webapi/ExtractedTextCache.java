@@ -0,0 +1,198 @@
+package br.gov.pf.iped.webapi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped3.IIPEDSource;
+
+/**
+ * Bounded on disk cache of the text extracted from documents, so the text
+ * endpoint does not parse them again. Texts are kept gzipped, so they can be
+ * sent as they are to clients accepting gzip. Least recently used texts are
+ * deleted when the cache grows beyond its maximum size. Files are reused after
+ * restarts, so keys include the id of the index commit of the case: texts are
+ * not reused if a sourceID points to another or a reprocessed case.
+ */
+class ExtractedTextCache {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ExtractedTextCache.class);
+
+    private static final String SUFFIX = ".txt.gz"; //$NON-NLS-1$
+    private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    private final File dir;
+    private final long maxBytes;
+
+    private static final Map<IIPEDSource, String> caseIds = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    ExtractedTextCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // oldest first, to be evicted first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                String key = name.substring(0, name.length() - SUFFIX.length());
+                entries.put(key, file.length());
+                totalBytes += file.length();
+            } else if (name.endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+        evict();
+        LOGGER.info("Text cache at {} with {} texts and {}MB", dir.getAbsolutePath(), entries.size(), //$NON-NLS-1$
+                totalBytes >> 20);
+    }
+
+    static String getKey(String sourceID, IIPEDSource source, int id) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : sourceID.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(String.format("%02x", b & 0xff)); //$NON-NLS-1$
+        }
+        return sb.append('-').append(getCaseId(source)).append('-').append(id).toString();
+    }
+
+    /**
+     * @return the unique id Lucene gives to each index commit, so it changes if
+     *         the case is reprocessed.
+     */
+    private static String getCaseId(IIPEDSource source) throws IOException {
+        String caseId = caseIds.get(source);
+        if (caseId == null) {
+            IndexReader reader = source.getReader();
+            if (reader instanceof DirectoryReader) {
+                IndexCommit commit = ((DirectoryReader) reader).getIndexCommit();
+                byte[] id = SegmentInfos.readCommit(commit.getDirectory(), commit.getSegmentsFileName()).getId();
+                caseId = StringHelper.idToString(id);
+            } else {
+                caseId = Integer.toHexString(source.getCaseDir().getAbsolutePath().hashCode())
+                        + Long.toHexString(source.getIndex().lastModified());
+            }
+            caseIds.put(source, caseId);
+        }
+        return caseId;
+    }
+
+    private File getFile(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    /**
+     * @return the gzipped text, or null if it is not cached.
+     */
+    synchronized File get(String key) {
+        if (entries.get(key) == null) {
+            return null;
+        }
+        File file = getFile(key);
+        if (!file.exists()) {
+            totalBytes -= entries.remove(key);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * @return stream to write the text of the document. It is added to the cache
+     *         when closed, unless {@link CacheOutputStream#abort()} was called.
+     */
+    CacheOutputStream create(String key) throws IOException {
+        File tmp = File.createTempFile("text-" + key, TMP_SUFFIX, dir); //$NON-NLS-1$
+        return new CacheOutputStream(key, tmp);
+    }
+
+    private synchronized void add(String key, File tmp) {
+        long length = tmp.length();
+        File file = getFile(key);
+        if (length > maxBytes / 4 || !tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        Long prev = entries.put(key, length);
+        if (prev != null) {
+            totalBytes -= prev;
+        }
+        totalBytes += length;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            getFile(entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    class CacheOutputStream extends FilterOutputStream {
+
+        private final String key;
+        private final File tmp;
+        private boolean aborted = false;
+
+        private CacheOutputStream(String key, File tmp) throws IOException {
+            super(new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024));
+            this.key = key;
+            this.tmp = tmp;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        /**
+         * Discards the text, eg if extraction failed.
+         */
+        void abort() {
+            aborted = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean complete = false;
+            try {
+                super.close();
+                complete = !aborted;
+            } finally {
+                if (complete) {
+                    add(key, tmp);
+                } else {
+                    tmp.delete();
+                }
+            }
+        }
+    }
+
+}
@@ -8,6 +8,7 @@
 import dpf.sp.gpinf.indexer.Versao;
 import io.swagger.jaxrs.config.BeanConfig;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.logging.ConsoleHandler;
@@ -67,6 +68,8 @@ public static void main(String[] args) throws Exception {
         String host = "0.0.0.0";
         int port = 8080;
         String urlToAskSources = null;
+        File textCacheDir = new File(System.getProperty("java.io.tmpdir"), "iped-webapi-text");
+        long textCacheSizeMB = 1024;
 
         for (String arg : args) {
             if (arg.startsWith("--host=")) {
@@ -78,6 +81,12 @@ public static void main(String[] args) throws Exception {
             } else if (arg.startsWith("--sources=")) {
                 urlToAskSources = arg.substring("--sources=".length());
 
+            } else if (arg.startsWith("--textcache=")) {
+                textCacheDir = new File(arg.substring("--textcache=".length()));
+
+            } else if (arg.startsWith("--textcachesize=")) {
+                textCacheSizeMB = Long.parseLong(arg.substring("--textcachesize=".length()));
+
             } else {
                 printHelp();
                 System.exit(-1);
@@ -88,6 +97,9 @@ public static void main(String[] args) throws Exception {
             printHelp();
             System.exit(-1);
         }
+        if (textCacheSizeMB > 0) {
+            Text.textCache = new ExtractedTextCache(textCacheDir, textCacheSizeMB << 20);
+        }
         startServer(host, port, urlToAskSources);
         System.out.println(String.format("Jersey app started with WADL available at \n%sapplication.wadl\n",
                 "http://" + host + ":" + port + "/"));
@@ -97,5 +109,7 @@ public static void printHelp() {
         System.out.println("--sources=(URL|Path)\tfile or url with json: [{id, path}...]");
         System.out.println("--host=\t\tdefault:0.0.0.0");
         System.out.println("--port=\t\tdefault:8080");
+        System.out.println("--textcache=\tfolder to cache extracted texts, default:java.io.tmpdir/iped-webapi-text");
+        System.out.println("--textcachesize=\ttext cache size in MB, 0 disables it, default:1024");
     }
 }
@@ -1,7 +1,14 @@
 package br.gov.pf.iped.webapi;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
@@ -9,15 +16,20 @@
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.lucene.index.LeafReader;
+import org.json.simple.JSONValue;
 
-import br.gov.pf.iped.webapi.json.DocIDJSON;
 import br.gov.pf.iped.webapi.json.SourceToIDsJSON;
 import dpf.sp.gpinf.indexer.search.IPEDSearcher;
 import dpf.sp.gpinf.indexer.search.IPEDSource;
+import dpf.sp.gpinf.indexer.util.LatencyHistogram;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
 import iped3.IItemId;
-import iped3.search.IIPEDSearcher;
 import iped3.search.IMultiSearchResult;
 import iped3.search.SearchResult;
 
@@ -25,34 +37,237 @@
 @Path("search")
 public class Search {
 
+    /**
+     * Maximum number of hits kept in the result cache, about 16 bytes each.
+     */
+    private static final int MAX_CACHED_HITS = 10000000;
+
+    private static final Map<String, SearchHits> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static int cachedHits = 0;
+
+    /**
+     * Incremented when the cache is cleared, to expire cursors with ordinals.
+     */
+    private static int cacheGeneration = 0;
+
+    private static final LatencyHistogram searchLatency = new LatencyHistogram();
+    private static final LatencyHistogram requestLatency = new LatencyHistogram();
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder cacheMisses = new LongAdder();
+
     @DefaultValue("")
     @QueryParam("q")
     String q;
     @DefaultValue("")
     @QueryParam("sourceID")
     String sourceID;
+    @ApiParam(value = "number of hits to skip, ignored if a cursor is given")
+    @DefaultValue("0")
+    @QueryParam("offset")
+    int offset;
+    @ApiParam(value = "maximum number of hits to return, 0 returns all")
+    @DefaultValue("0")
+    @QueryParam("limit")
+    int limit;
+    @ApiParam(value = "cursor returned as 'next' by the previous page")
+    @DefaultValue("")
+    @QueryParam("cursor")
+    String cursor;
+    @ApiParam(value = "field with DocValues to sort by, default sorts by source and id")
+    @DefaultValue("")
+    @QueryParam("sort")
+    String sort;
+    @ApiParam(value = "sort in descending order")
+    @DefaultValue("false")
+    @QueryParam("desc")
+    boolean desc;
 
-    @ApiOperation(value = "Search documents")
+    @ApiOperation(value = "Search documents", response = SourceToIDsJSON.class, notes = "Hits are grouped by source in "
+            + "the requested order, so a source may appear in more than one group if sorted by a field. "
+            + "Responses also have total, offset, next (cursor of the next page or null), tookMs and cached.")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public SourceToIDsJSON doSearch() throws Exception {
+    public Response doSearch() throws Exception {
+        long start = System.nanoTime();
         String escapeq = q.replaceAll("/", "\\\\/");
-        List<DocIDJSON> docs = new ArrayList<DocIDJSON>();
+
+        boolean cached = true;
+        String key = normalize(escapeq) + '\n' + sourceID + '\n' + sort + '\n' + desc;
+        SearchHits hits = getCached(key);
+        if (hits == null) {
+            cached = false;
+            try {
+                hits = search(escapeq);
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+            }
+            putCached(key, hits);
+        }
+
+        int from;
+        try {
+            from = cursor.isEmpty() ? Math.max(0, offset) : hits.indexAfter(cursor, desc);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        from = Math.min(from, hits.size());
+        int to = limit > 0 ? (int) Math.min((long) from + limit, hits.size()) : hits.size();
+        String next = to < hits.size() && to > from ? hits.getCursor(to - 1) : null;
+        long tookMs = (System.nanoTime() - start) / 1000000;
+
+        final SearchHits page = hits;
+        final int pageFrom = from;
+        final boolean isCached = cached;
+        StreamingOutput output = os -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+            writer.write("{\"total\":" + page.size() + ",\"offset\":" + pageFrom); //$NON-NLS-1$ //$NON-NLS-2$
+            writer.write(",\"next\":" + (next == null ? "null" : "\"" + next + "\"")); //$NON-NLS-1$ //$NON-NLS-2$
+            writer.write(",\"tookMs\":" + tookMs + ",\"cached\":" + isCached + ",\"data\":["); //$NON-NLS-1$ //$NON-NLS-2$
+            int prevSource = -1;
+            for (int i = pageFrom; i < to; i++) {
+                int source = page.sources[i];
+                if (i == pageFrom || source != prevSource) {
+                    if (i != pageFrom) {
+                        writer.write("]},"); //$NON-NLS-1$
+                    }
+                    String sourceStr = Sources.sourceIntToString.get(source);
+                    writer.write("{\"source\":\"" + JSONValue.escape(sourceStr) + "\",\"ids\":["); //$NON-NLS-1$ //$NON-NLS-2$
+                } else {
+                    writer.write(',');
+                }
+                writer.write(Integer.toString(page.ids[i]));
+                prevSource = source;
+            }
+            if (to > pageFrom) {
+                writer.write("]}"); //$NON-NLS-1$
+            }
+            writer.write("]}"); //$NON-NLS-1$
+            writer.flush();
+            requestLatency.record(System.nanoTime() - start);
+        };
+        return Response.ok(output).build();
+    }
+
+    private SearchHits search(String query) throws Exception {
+        long t = System.nanoTime();
+        int generation = getCacheGeneration();
+        int[] sources, ids;
+        long[] keys = null;
+        SearchHits.SortValues values = null;
         if (sourceID.equals("")) {
-            IPEDSearcher searcher = new IPEDSearcher(Sources.multiSource, escapeq);
+            IPEDSearcher searcher = new IPEDSearcher(Sources.multiSource, query);
+            searcher.setNoScoring(true);
             IMultiSearchResult result = searcher.multiSearch();
+            sources = new int[result.getLength()];
+            ids = new int[result.getLength()];
+            if (!sort.isEmpty()) {
+                values = new SearchHits.SortValues(Sources.multiSource.getLeafReader(), sort);
+                keys = new long[ids.length];
+            }
+            int i = 0;
             for (IItemId id : result.getIterator()) {
-                docs.add(new DocIDJSON(Sources.sourceIntToString.get(id.getSourceId()), id.getId()));
+                sources[i] = id.getSourceId();
+                ids[i] = id.getId();
+                if (values != null) {
+                    keys[i] = values.get(Sources.multiSource.getLuceneId(id));
+                }
+                i++;
             }
         } else {
             IPEDSource source = (IPEDSource) Sources.getSource(sourceID);
-            IIPEDSearcher searcher = new IPEDSearcher(source, escapeq);
+            IPEDSearcher searcher = new IPEDSearcher(source, query);
+            searcher.setNoScoring(true);
             SearchResult result = searcher.search();
-            for (int id : result.getIds()) {
-                docs.add(new DocIDJSON(sourceID, id));
+            ids = new int[result.getLength()];
+            sources = new int[ids.length];
+            if (!sort.isEmpty()) {
+                LeafReader reader = source.getLeafReader();
+                values = new SearchHits.SortValues(reader, sort);
+                keys = new long[ids.length];
             }
+            int sourceInt = Sources.sourceStringToInt.get(sourceID);
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = result.getId(i);
+                sources[i] = sourceInt;
+                if (values != null) {
+                    keys[i] = values.get(source.getLuceneId(ids[i]));
+                }
+            }
+        }
+        SearchHits hits = new SearchHits(sources, ids, keys, desc,
+                values != null && values.isOrdinal() ? generation : -1);
+        searchLatency.record(System.nanoTime() - t);
+        return hits;
+    }
+
+    private static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " "); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static synchronized SearchHits getCached(String key) {
+        SearchHits hits = cache.get(key);
+        if (hits != null) {
+            cacheHits.increment();
+        } else {
+            cacheMisses.increment();
+        }
+        return hits;
+    }
+
+    private static synchronized void putCached(String key, SearchHits hits) {
+        if (hits.size() > MAX_CACHED_HITS) {
+            return;
+        }
+        SearchHits prev = cache.put(key, hits);
+        if (prev != null) {
+            cachedHits -= prev.size();
+        }
+        cachedHits += hits.size();
+        Iterator<SearchHits> it = cache.values().iterator();
+        while (cachedHits > MAX_CACHED_HITS && it.hasNext()) {
+            cachedHits -= it.next().size();
+            it.remove();
         }
+    }
+
+    /**
+     * Must be called when sources are added, so cached hits include them.
+     */
+    static synchronized void clearCache() {
+        cache.clear();
+        cachedHits = 0;
+        cacheGeneration++;
+    }
+
+    private static synchronized int getCacheGeneration() {
+        return cacheGeneration;
+    }
+
+    @ApiOperation(value = "Search latency and result cache statistics")
+    @GET
+    @Path("stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public static String stats() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("requests", toJson(requestLatency)); //$NON-NLS-1$
+        json.put("searches", toJson(searchLatency)); //$NON-NLS-1$
+        json.put("cacheHits", cacheHits.sum()); //$NON-NLS-1$
+        json.put("cacheMisses", cacheMisses.sum()); //$NON-NLS-1$
+        synchronized (Search.class) {
+            json.put("cachedResults", cache.size()); //$NON-NLS-1$
+            json.put("cachedHits", cachedHits); //$NON-NLS-1$
+        }
+        return JSONValue.toJSONString(json);
+    }
 
-        return new SourceToIDsJSON(docs);
+    private static Map<String, Object> toJson(LatencyHistogram h) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("count", h.getCount()); //$NON-NLS-1$
+        values.put("meanMs", h.getMeanNanos() / 1000000.0); //$NON-NLS-1$
+        values.put("p50Ms", h.getPercentile(50) / 1000000.0); //$NON-NLS-1$
+        values.put("p90Ms", h.getPercentile(90) / 1000000.0); //$NON-NLS-1$
+        values.put("p99Ms", h.getPercentile(99) / 1000000.0); //$NON-NLS-1$
+        values.put("maxMs", h.getPercentile(100) / 1000000.0); //$NON-NLS-1$
+        return values;
     }
 }
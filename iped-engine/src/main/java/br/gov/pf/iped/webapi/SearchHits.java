@@ -0,0 +1,201 @@
+package br.gov.pf.iped.webapi;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.IntroSorter;
+
+import dpf.sp.gpinf.indexer.process.IndexItem;
+
+/**
+ * Hits of a search in a stable total order: by the value of the sort field, if
+ * any, then by source and id. Pages are located by offset or by a cursor with
+ * the key of the last hit returned, so following pages stay consistent even if
+ * the hits are evicted from the cache and searched again. Keys of string fields
+ * are doc values ordinals, which change when sources are added, so their
+ * cursors also have the generation of the cache they were created in and are
+ * rejected after it is cleared.
+ */
+class SearchHits {
+
+    private static final char CURSOR_SEPARATOR = '.';
+
+    final int[] sources;
+    final int[] ids;
+    final long[] keys;
+
+    /**
+     * Cache generation the ordinal keys are valid in, or -1 if keys are not
+     * ordinals.
+     */
+    private final int ordinalsGeneration;
+
+    /**
+     * @param keys
+     *            sort field values, or null to sort by source and id.
+     * @param ordinalsGeneration
+     *            cache generation if keys are doc values ordinals, otherwise -1.
+     */
+    SearchHits(int[] sources, int[] ids, long[] keys, boolean reverse, int ordinalsGeneration) {
+        this.sources = sources;
+        this.ids = ids;
+        this.keys = keys;
+        this.ordinalsGeneration = ordinalsGeneration;
+        new IntroSorter() {
+            private long pivotKey;
+            private int pivotSource, pivotId;
+
+            @Override
+            protected void swap(int i, int j) {
+                int tmp = sources[i];
+                sources[i] = sources[j];
+                sources[j] = tmp;
+                tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j] = tmp;
+                if (keys != null) {
+                    long l = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = l;
+                }
+            }
+
+            @Override
+            protected int compare(int i, int j) {
+                int c = SearchHits.this.compare(i, keys != null ? keys[j] : 0, sources[j], ids[j]);
+                return reverse ? -c : c;
+            }
+
+            @Override
+            protected void setPivot(int i) {
+                pivotKey = keys != null ? keys[i] : 0;
+                pivotSource = sources[i];
+                pivotId = ids[i];
+            }
+
+            @Override
+            protected int comparePivot(int j) {
+                int c = -SearchHits.this.compare(j, pivotKey, pivotSource, pivotId);
+                return reverse ? -c : c;
+            }
+        }.sort(0, ids.length);
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    private int compare(int i, long key, int source, int id) {
+        int c = keys != null ? Long.compare(keys[i], key) : 0;
+        if (c == 0)
+            c = Integer.compare(sources[i], source);
+        if (c == 0)
+            c = Integer.compare(ids[i], id);
+        return c;
+    }
+
+    String getCursor(int i) {
+        String cursor = Long.toString(keys != null ? keys[i] : 0) + CURSOR_SEPARATOR + sources[i] + CURSOR_SEPARATOR
+                + ids[i];
+        if (ordinalsGeneration >= 0) {
+            cursor += CURSOR_SEPARATOR + Integer.toString(ordinalsGeneration);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return index of the first hit after the one the cursor was created from.
+     */
+    int indexAfter(String cursor, boolean reverse) {
+        String[] parts = cursor.split("\\" + CURSOR_SEPARATOR); //$NON-NLS-1$
+        if (parts.length != (ordinalsGeneration >= 0 ? 4 : 3)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor); //$NON-NLS-1$
+        }
+        if (ordinalsGeneration >= 0 && Integer.parseInt(parts[3]) != ordinalsGeneration) {
+            throw new IllegalArgumentException("Expired cursor, sources were added after it was created: " + cursor); //$NON-NLS-1$
+        }
+        long key = Long.parseLong(parts[0]);
+        int source = Integer.parseInt(parts[1]);
+        int id = Integer.parseInt(parts[2]);
+        int lo = 0, hi = ids.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, key, source, id);
+            if (reverse)
+                c = -c;
+            if (c <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Reads the sort values of some documents from their doc values.
+     */
+    static class SortValues {
+
+        private NumericDocValues ndv;
+        private Bits docsWithField;
+        private SortedNumericDocValues sndv;
+        private SortedDocValues sdv;
+        private SortedSetDocValues ssdv;
+
+        /**
+         * @throws IllegalArgumentException
+         *             if the field has no doc values to sort by.
+         */
+        SortValues(LeafReader reader, String field) throws IOException {
+            String numField = IndexItem.POSSIBLE_NUM_DOCVALUES_PREFIX + field;
+            String strField = IndexItem.POSSIBLE_STR_DOCVALUES_PREFIX + field;
+            if ((ndv = reader.getNumericDocValues(field)) != null) {
+                docsWithField = reader.getDocsWithField(field);
+            } else if ((ndv = reader.getNumericDocValues(numField)) != null) {
+                docsWithField = reader.getDocsWithField(numField);
+            } else if ((sndv = reader.getSortedNumericDocValues(field)) == null
+                    && (sndv = reader.getSortedNumericDocValues(numField)) == null
+                    && (sdv = reader.getSortedDocValues(field)) == null
+                    && (sdv = reader.getSortedDocValues(strField)) == null
+                    && (ssdv = reader.getSortedSetDocValues(field)) == null
+                    && (ssdv = reader.getSortedSetDocValues(strField)) == null) {
+                throw new IllegalArgumentException("Field can not be used to sort: " + field); //$NON-NLS-1$
+            }
+        }
+
+        /**
+         * @return true if values are ordinals of sorted (set) doc values, which are
+         *         only valid while the reader is not reopened.
+         */
+        boolean isOrdinal() {
+            return sdv != null || ssdv != null;
+        }
+
+        /**
+         * @return the first value of the document, or Long.MIN_VALUE if it has no
+         *         value, so documents without values come first.
+         */
+        long get(int luceneId) {
+            if (ndv != null) {
+                return docsWithField.get(luceneId) ? ndv.get(luceneId) : Long.MIN_VALUE;
+            }
+            if (sndv != null) {
+                sndv.setDocument(luceneId);
+                return sndv.count() > 0 ? sndv.valueAt(0) : Long.MIN_VALUE;
+            }
+            if (sdv != null) {
+                int ord = sdv.getOrd(luceneId);
+                return ord >= 0 ? ord : Long.MIN_VALUE;
+            }
+            ssdv.setDocument(luceneId);
+            long ord = ssdv.nextOrd();
+            return ord != SortedSetDocValues.NO_MORE_ORDS ? ord : Long.MIN_VALUE;
+        }
+    }
+
+}
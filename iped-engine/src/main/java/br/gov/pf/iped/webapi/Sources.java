@@ -125,6 +125,7 @@ public synchronized static Response addSource(@ApiParam(required = true) SourceJ
         }
         sourceStringToInt.put(id, last);
         sourceIntToString.put(last, id);
+        Search.clearCache();
 
         return Response.ok().build();
     }
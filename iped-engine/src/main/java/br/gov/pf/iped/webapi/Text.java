@@ -1,17 +1,26 @@
 package br.gov.pf.iped.webapi;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.ParseContext;
@@ -33,13 +42,34 @@
 @Path("/sources/{sourceID}/docs/{id}/text")
 public class Text {
 
-    @ApiOperation(value = "Get document's content converted as text")
+    /**
+     * Cache of extracted texts, null if disabled.
+     */
+    static ExtractedTextCache textCache;
+
+    @ApiOperation(value = "Get document's content converted as text", notes = "Sent gzipped if the client accepts it")
     @GET
     @Produces(MediaType.TEXT_PLAIN + "; charset=UTF-8")
-    public static StreamingOutput content(@PathParam("sourceID") String sourceID, @PathParam("id") int id)
-            throws Exception {
+    public static Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id,
+            @HeaderParam("Accept-Encoding") String acceptEncoding) throws Exception {
 
+        final boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip"); //$NON-NLS-1$
         IIPEDSource source = Sources.getSource(sourceID);
+        final String key = textCache != null ? ExtractedTextCache.getKey(sourceID, source, id) : null;
+        final File cached = textCache != null ? textCache.get(key) : null;
+        if (cached != null) {
+            if (gzip) {
+                return Response.ok(cached).header("Content-Encoding", "gzip") //$NON-NLS-1$ //$NON-NLS-2$
+                        .header("Content-Length", String.valueOf(cached.length())).build(); //$NON-NLS-1$
+            }
+            StreamingOutput output = os -> {
+                try (InputStream is = new GZIPInputStream(new FileInputStream(cached))) {
+                    IOUtils.copy(is, os);
+                }
+            };
+            return Response.ok(output).build();
+        }
+
         final IItem item = source.getItemByID(id);
         final IndexerDefaultParser parser = new IndexerDefaultParser();
         final ParseContext context = getTikaContext(item, parser, (IPEDSource) source);
@@ -48,17 +78,37 @@ public static StreamingOutput content(@PathParam("sourceID") String sourceID, @P
         ParsingTask.fillMetadata(item, metadata);
         parser.setPrintMetadata(false);
 
-        return new StreamingOutput() {
+        StreamingOutput output = new StreamingOutput() {
             @Override
             public void write(OutputStream arg0) throws IOException, WebApplicationException {
-                ContentHandler handler = new ToTextContentHandler(arg0, "UTF-8");
-                try (TikaInputStream is = item.getTikaStream()) {
-                    parser.parse(is, handler, metadata, context);
-                } catch (Exception e) {
-                    throw new WebApplicationException(e);
+                OutputStream out = gzip ? new GZIPOutputStream(arg0, 64 * 1024) : arg0;
+                ExtractedTextCache.CacheOutputStream cacheOut = textCache != null ? textCache.create(key) : null;
+                try {
+                    OutputStream os = cacheOut != null ? new TeeOutputStream(out, cacheOut) : out;
+                    ContentHandler handler = new ToTextContentHandler(os, "UTF-8"); //$NON-NLS-1$
+                    try (TikaInputStream is = item.getTikaStream()) {
+                        parser.parse(is, handler, metadata, context);
+                    } catch (Exception e) {
+                        if (cacheOut != null) {
+                            cacheOut.abort();
+                        }
+                        throw new WebApplicationException(e);
+                    }
+                    if (gzip) {
+                        ((GZIPOutputStream) out).finish();
+                    }
+                } finally {
+                    if (cacheOut != null) {
+                        cacheOut.close();
+                    }
                 }
             }
         };
+        ResponseBuilder builder = Response.ok(output);
+        if (gzip) {
+            builder.header("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return builder.build();
     }
 
     public static ParseContext getTikaContext(IItem item, Parser parser, IPEDSource source) throws Exception {
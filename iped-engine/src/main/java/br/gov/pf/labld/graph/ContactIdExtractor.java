@@ -0,0 +1,78 @@
+package br.gov.pf.labld.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds emails and WhatsApp ids of a metadata value in a single pass, with one
+ * precompiled pattern, instead of running each pattern over the value.
+ */
+class ContactIdExtractor {
+
+    // TODO externalize to config file
+    private static final String EMAIL_REGEX = "[0-9a-zA-Z\\+\\.\\_\\%\\-\\#\\!]{1,64}\\@[0-9a-zA-Z\\-]{2,64}(?:\\.[0-9a-zA-Z\\-]{2,25}){1,3}";
+    private static final String WHATSAPP_REGEX = "([0-9]{7,20})\\@[sg]\\.whatsapp\\.net";
+
+    private static final Pattern PATTERN = Pattern.compile(WHATSAPP_REGEX + "|" + EMAIL_REGEX);
+
+    private static final Pattern WHATSAPP_PATTERN = Pattern.compile(WHATSAPP_REGEX);
+
+    static class ContactIds {
+
+        private List<String> emails = Collections.emptyList();
+        private List<String> whatsappNumbers = Collections.emptyList();
+        private String text;
+
+        /**
+         * @return emails found, in original case and order.
+         */
+        List<String> getEmails() {
+            return emails;
+        }
+
+        /**
+         * @return numbers of the WhatsApp ids found.
+         */
+        List<String> getWhatsappNumbers() {
+            return whatsappNumbers;
+        }
+
+        /**
+         * @return text with the WhatsApp numbers replaced by spaces, to look for other
+         *         phone numbers.
+         */
+        String getTextWithoutWhatsapp() {
+            return text;
+        }
+    }
+
+    static ContactIds extract(String text) {
+        ContactIds ids = new ContactIds();
+        ids.text = text;
+        Matcher matcher = PATTERN.matcher(text);
+        while (matcher.find()) {
+            String number = matcher.group(1);
+            if (number != null) {
+                if (ids.whatsappNumbers.isEmpty()) {
+                    ids.whatsappNumbers = new ArrayList<>();
+                }
+                ids.whatsappNumbers.add(number);
+                ids.text = ids.text.replace(number, " ");
+            } else {
+                if (ids.emails.isEmpty()) {
+                    ids.emails = new ArrayList<>();
+                }
+                ids.emails.add(matcher.group());
+            }
+        }
+        return ids;
+    }
+
+    static boolean containsWhatsappId(String text) {
+        return WHATSAPP_PATTERN.matcher(text).find();
+    }
+
+}
@@ -13,6 +13,7 @@
 import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
@@ -37,6 +38,7 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -59,8 +61,12 @@ public class GraphFileWriter implements Closeable, Flushable {
     private static final String SUFFIX = "iped";
     private static final String ARG_FILE_NAME = GraphImportRunner.ARGS_FILE_NAME + "-" + SUFFIX + ".txt";
 
-    private Map<String, CSVWriter> nodeWriters = new HashMap<>();
-    private Map<String, CSVWriter> relationshipWriters = new HashMap<>();
+    private Map<String, CSVWriter> nodeWriters = new ConcurrentHashMap<>();
+    private Map<String, CSVWriter> relationshipWriters = new ConcurrentHashMap<>();
+
+    // each processing thread writes to its own CSV files
+    private AtomicInteger nextShard = new AtomicInteger();
+    private ThreadLocal<Integer> shard = ThreadLocal.withInitial(() -> nextShard.getAndIncrement());
 
     private Map<String, String> replaces = new HashMap<>();
     private File replaceFile;
@@ -134,7 +140,7 @@ private void openExistingCSVs(File root) {
     }
 
     private CSVWriter openNodeWriter(Label... labels) throws IOException {
-        CSVWriter writer = new CSVWriter(root, NODE_CSV_PREFIX, labels, SUFFIX);
+        CSVWriter writer = new CSVWriter(root, NODE_CSV_PREFIX, labels, SUFFIX, shard);
 
         writer.fieldPositions.addAll(Arrays.asList("nodeId", "label"));
         writer.fieldTypes.put("nodeId", "ID");
@@ -144,7 +150,7 @@ private CSVWriter openNodeWriter(Label... labels) throws IOException {
     }
 
     private CSVWriter openRelationshipWriter(RelationshipType type) throws IOException {
-        CSVWriter writer = new CSVWriter(root, REL_CSV_PREFIX, type.name(), SUFFIX);
+        CSVWriter writer = new CSVWriter(root, REL_CSV_PREFIX, type.name(), SUFFIX, shard);
 
         writer.fieldPositions.addAll(
                 Arrays.asList("start", "end", "type", GraphTask.RELATIONSHIP_SOURCE, GraphTask.RELATIONSHIP_ID));
@@ -156,21 +162,31 @@ private CSVWriter openRelationshipWriter(RelationshipType type) throws IOExcepti
         return writer;
     }
 
-    private synchronized CSVWriter getRelationshipWriter(RelationshipType type) throws IOException {
+    private CSVWriter getRelationshipWriter(RelationshipType type) throws IOException {
         CSVWriter out = relationshipWriters.get(type.name());
         if (out == null) {
-            out = openRelationshipWriter(type);
-            relationshipWriters.put(type.name(), out);
+            synchronized (relationshipWriters) {
+                out = relationshipWriters.get(type.name());
+                if (out == null) {
+                    out = openRelationshipWriter(type);
+                    relationshipWriters.put(type.name(), out);
+                }
+            }
         }
         return out;
     }
 
-    private synchronized CSVWriter getNodeWriter(Label... labels) throws IOException {
+    private CSVWriter getNodeWriter(Label... labels) throws IOException {
         String labelsNames = CSVWriter.join(labels);
         CSVWriter out = nodeWriters.get(labelsNames);
         if (out == null) {
-            out = openNodeWriter(labels);
-            nodeWriters.put(labelsNames, out);
+            synchronized (nodeWriters) {
+                out = nodeWriters.get(labelsNames);
+                if (out == null) {
+                    out = openNodeWriter(labels);
+                    nodeWriters.put(labelsNames, out);
+                }
+            }
         }
         return out;
     }
@@ -194,13 +210,14 @@ private void writeArgs(Collection<CSVWriter> outs, BufferedWriter writer, String
 
     private void writeArgs(CSVWriter out, BufferedWriter writer, String type) throws IOException {
         File headerFile = writeHeaderFile(out);
-        File dataFile = out.getOutput();
         writer.write("--");
         writer.write(type);
         writer.write(" \"");
         writer.write(headerFile.getAbsolutePath());
-        writer.write(",");
-        writer.write(dataFile.getAbsolutePath());
+        for (File dataFile : out.getOutputs()) {
+            writer.write(",");
+            writer.write(dataFile.getAbsolutePath());
+        }
         writer.write("\"\r\n");
     }
 
@@ -208,7 +225,10 @@ private File writeHeaderFile(CSVWriter out) throws IOException {
         String fileName = out.getPrefix() + CSVWriter.SEPARATOR + out.getName() + HEADER_CSV_STR + out.getSuffix()
                 + ".csv";
         File file = new File(root, fileName);
-        List<String> fields = new ArrayList<>(out.getFieldPositions());
+        List<String> fields;
+        synchronized (out.getFieldPositions()) {
+            fields = new ArrayList<>(out.getFieldPositions());
+        }
         Map<String, String> types = out.getFieldTypes();
         try (BufferedWriter writer = new BufferedWriter(
                 new OutputStreamWriter(new FileOutputStream(file), Charset.forName("utf-8")))) {
@@ -425,8 +445,17 @@ public void normalize() throws IOException {
     }
 
     private void normalize(Collection<CSVWriter> writers) throws IOException {
-        for (CSVWriter writer : writers) {
-            writer.normalize(replaces);
+        // files are independent, replaces are not changed anymore
+        try {
+            writers.parallelStream().forEach(writer -> {
+                try {
+                    writer.normalize(replaces);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
@@ -470,11 +499,17 @@ private void close(Collection<? extends Closeable> closeables) throws IOExceptio
         }
     }
 
+    /**
+     * Commits the CSVs written so far. The args file is rewritten with all
+     * committed CSV chunks, so the output is importable after each commit, although
+     * not normalized yet.
+     */
     @Override
     public void flush() throws IOException {
         flush(nodeWriters.values());
         flush(relationshipWriters.values());
         flushReplaceWriter();
+        writeArgsFile();
     }
 
     private synchronized void flush(Collection<? extends Flushable> flushables) throws IOException {
@@ -517,69 +552,171 @@ private static class CSVWriter implements Closeable, Flushable {
         private static final Pattern LINE_BREAK_PATTERN = Pattern.compile("\r|\n");
 
         /**
-         * 5MB buffer size
+         * 1MB buffer size per shard
          */
-        private static final int MIN_SIZE_TO_FLUSH = 5 * 1024 * 1024;
+        private static final int MIN_SIZE_TO_FLUSH = 1 * 1024 * 1024;
 
-        private Writer out;
-        private StringBuilder sb = new StringBuilder();
         private LinkedHashSet<String> fieldPositions = new LinkedHashSet<>();
         private HashMap<String, String> fieldTypes = new HashMap<>();
 
-        private Set<String> prevNodeRecords = Collections
-                .newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
-                    @Override
-                    protected boolean removeEldestEntry(Entry entry) {
-                        return this.size() > 10000;
-                    }
-                });
+        private Map<Integer, Shard> shards = new ConcurrentHashMap<>();
+        private ThreadLocal<Integer> shardId;
 
         private String prefix;
         private String name;
         private String suffix;
         private File output;
-        private File commitLog;
         private File fieldData;
         private boolean isNodeWriter;
 
-        public CSVWriter(File root, String prefix, Label[] labels, String suffix) throws IOException {
-            this(root, prefix, join(labels), suffix);
+        /**
+         * CSV chunk written by one thread, with its own buffer and commit log.
+         */
+        private class Shard {
+
+            private Writer out;
+            private StringBuilder sb = new StringBuilder();
+            private File output;
+            private File commitLog;
+
+            // just accessed by the owner thread
+            private Set<String> prevNodeRecords = Collections
+                    .newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Entry entry) {
+                            return this.size() > 10000;
+                        }
+                    });
+
+            private Shard(int id) throws IOException {
+                this.output = getShardFile(id);
+                this.commitLog = getCommitLog(output);
+                this.out = new OutputStreamWriter(new FileOutputStream(output, output.exists()),
+                        StandardCharsets.UTF_8);
+            }
+
+            private void flush(String data, boolean commit) throws IOException {
+                synchronized (out) {
+                    if (!commitLog.exists()) {
+                        Long size = output.length();
+                        Files.write(commitLog.toPath(), size.toString().getBytes(StandardCharsets.ISO_8859_1),
+                                StandardOpenOption.CREATE);
+                        Util.fsync(commitLog.toPath());
+                    }
+                    out.write(data);
+                    if (commit) {
+                        out.flush();
+                        Util.fsync(output.toPath());
+                        Files.delete(commitLog.toPath());
+                    }
+                }
+            }
+
+            private void flush() throws IOException {
+                String data = null;
+                synchronized (this) {
+                    data = sb.toString();
+                    sb = new StringBuilder();
+                }
+                flush(data, true);
+            }
+        }
+
+        public CSVWriter(File root, String prefix, Label[] labels, String suffix, ThreadLocal<Integer> shardId)
+                throws IOException {
+            this(root, prefix, join(labels), suffix, shardId);
         }
 
-        public CSVWriter(File root, String prefix, String name, String suffix) throws IOException {
+        public CSVWriter(File root, String prefix, String name, String suffix, ThreadLocal<Integer> shardId)
+                throws IOException {
             super();
             name = name.replace(SEPARATOR, "-");
             String fileName = prefix + SEPARATOR + name + SEPARATOR + suffix + ".csv";
             this.output = new File(root, fileName);
             this.fieldData = new File(root, fileName + SEPARATOR + "fieldData");
-            this.commitLog = new File(root, fileName + ".commit");
+            this.prefix = prefix;
+            this.name = name;
+            this.suffix = suffix;
+            this.shardId = shardId;
+            this.isNodeWriter = prefix.equals(NODE_CSV_PREFIX);
+            // discards uncommitted data of previous runs
+            rollback(output);
+            for (File shardFile : getShardFiles()) {
+                rollback(shardFile);
+            }
+            output.createNewFile();
+            loadFieldData();
+        }
+
+        private static File getCommitLog(File file) {
+            return new File(file.getPath() + ".commit");
+        }
+
+        private static void rollback(File file) throws IOException {
+            File commitLog = getCommitLog(file);
             if (commitLog.exists()) {
                 byte[] bytes = Files.readAllBytes(commitLog.toPath());
                 long size = Long.parseLong(new String(bytes, StandardCharsets.ISO_8859_1));
-                try (FileOutputStream fos = new FileOutputStream(output, true); FileChannel fc = fos.getChannel()) {
+                try (FileOutputStream fos = new FileOutputStream(file, true); FileChannel fc = fos.getChannel()) {
                     fc.truncate(size);
                 }
                 Files.delete(commitLog.toPath());
             }
-            this.out = new OutputStreamWriter(new FileOutputStream(output, output.exists()), StandardCharsets.UTF_8);
-            this.prefix = prefix;
-            this.name = name;
-            this.suffix = suffix;
-            this.isNodeWriter = prefix.equals(NODE_CSV_PREFIX);
-            loadFieldData();
+        }
+
+        private File getShardFile(int id) {
+            return new File(output.getPath() + "." + id);
+        }
+
+        /**
+         * @return chunks written by each thread, including previous runs, in shard
+         *         order.
+         */
+        private List<File> getShardFiles() {
+            String shardPrefix = output.getName() + ".";
+            File[] files = output.getParentFile().listFiles((dir, fileName) -> fileName.startsWith(shardPrefix)
+                    && fileName.substring(shardPrefix.length()).matches("\\d+"));
+            if (files == null) {
+                return Collections.emptyList();
+            }
+            List<File> result = new ArrayList<>(Arrays.asList(files));
+            result.sort(Comparator.comparingInt(f -> Integer.parseInt(f.getName().substring(shardPrefix.length()))));
+            return result;
+        }
+
+        /**
+         * @return all files with committed data, in import order.
+         */
+        public List<File> getOutputs() {
+            List<File> outputs = new ArrayList<>();
+            outputs.add(output);
+            outputs.addAll(getShardFiles());
+            return outputs;
+        }
+
+        private Shard getShard() throws IOException {
+            Integer id = shardId.get();
+            Shard shard = shards.get(id);
+            if (shard == null) {
+                // just this thread creates its shard
+                shard = new Shard(id);
+                shards.put(id, shard);
+            }
+            return shard;
         }
 
         @SuppressWarnings("unchecked")
         public void write(Map<String, Object> record) throws IOException {
+            Shard shard = getShard();
             String data = null;
-            synchronized (this) {
-                if (sb.length() >= MIN_SIZE_TO_FLUSH) {
-                    data = sb.toString();
-                    sb = new StringBuilder();
+            synchronized (shard) {
+                if (shard.sb.length() >= MIN_SIZE_TO_FLUSH) {
+                    data = shard.sb.toString();
+                    shard.sb = new StringBuilder();
                 }
             }
             if (data != null) {
-                flush(data, false);
+                shard.flush(data, false);
             }
             String[] fields;
             synchronized (fieldPositions) {
@@ -611,30 +748,52 @@ public void write(Map<String, Object> record) throws IOException {
                 }
             }
             line.append("\r\n");
-            if (!isNodeWriter || prevNodeRecords.add(line.toString())) {
-                synchronized (this) {
-                    sb.append(line);
+            if (!isNodeWriter || shard.prevNodeRecords.add(line.toString())) {
+                synchronized (shard) {
+                    shard.sb.append(line);
                 }
             }
         }
 
+        /**
+         * Merges the shards into the main CSV file, applying the node replaces.
+         */
         public void normalize(Map<String, String> replaces) throws IOException {
+            List<File> inputs = getOutputs();
             if (isNodeWriter) {
-                normalizeNodes(replaces);
+                normalizeNodes(replaces, inputs);
             } else {
-                replaceRels(replaces);
+                replaceRels(replaces, inputs);
+            }
+            for (File input : inputs) {
+                if (!input.equals(output)) {
+                    Files.delete(input.toPath());
+                }
             }
         }
 
-        public void replaceRels(Map<String, String> replaces) throws IOException {
-            BufferedReader reader = null;
+        public void replaceRels(Map<String, String> replaces, List<File> inputs) throws IOException {
             BufferedWriter writer = null;
             File tmp = new File(output.getParentFile(), output.getName() + ".tmp");
             try {
                 writer = new BufferedWriter(
                         new OutputStreamWriter(new FileOutputStream(tmp), Charset.forName("utf-8")));
-                reader = new BufferedReader(
-                        new InputStreamReader(new FileInputStream(output), Charset.forName("utf-8")));
+                for (File input : inputs) {
+                    replaceRels(replaces, input, writer);
+                }
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+            output.delete();
+            tmp.renameTo(output);
+        }
+
+        private void replaceRels(Map<String, String> replaces, File input, BufferedWriter writer)
+                throws IOException {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(input), Charset.forName("utf-8")))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
                     int firstIdx = line.indexOf("\",\"");
@@ -651,23 +810,32 @@ public void replaceRels(Map<String, String> replaces) throws IOException {
                     writer.write(line);
                     writer.write("\r\n");
                 }
-            } finally {
-                if (reader != null) {
-                    reader.close();
-                }
-                if (writer != null) {
-                    writer.close();
-                }
             }
-            output.delete();
-            tmp.renameTo(output);
         }
 
-        public void normalizeNodes(Map<String, String> replaces) throws IOException {
+        public void normalizeNodes(Map<String, String> replaces, List<File> inputs) throws IOException {
             Map<String, String> uniques = new TreeMap<>();
             Set<String> finalIds = new HashSet<>();
+            for (File input : inputs) {
+                readNodes(replaces, input, uniques, finalIds);
+            }
+
+            try (BufferedWriter writer = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(output), Charset.forName("utf-8")))) {
+                for (Entry<String, String> entry : uniques.entrySet()) {
+                    if (finalIds.contains(entry.getKey())) {
+                        writer.write(entry.getValue());
+                        writer.write("\r\n");
+                    }
+                }
+            }
+
+        }
+
+        private void readNodes(Map<String, String> replaces, File input, Map<String, String> uniques,
+                Set<String> finalIds) throws IOException {
             try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(output), Charset.forName("utf-8")))) {
+                    new InputStreamReader(new FileInputStream(input), Charset.forName("utf-8")))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
                     String id = line.substring(1, line.indexOf("\",\"")).trim();
@@ -706,17 +874,6 @@ public void normalizeNodes(Map<String, String> replaces) throws IOException {
                     }
                 }
             }
-
-            try (BufferedWriter writer = new BufferedWriter(
-                    new OutputStreamWriter(new FileOutputStream(output), Charset.forName("utf-8")))) {
-                for (Entry<String, String> entry : uniques.entrySet()) {
-                    if (finalIds.contains(entry.getKey())) {
-                        writer.write(entry.getValue());
-                        writer.write("\r\n");
-                    }
-                }
-            }
-
         }
 
         private String[] split(String string, String pattern) {
@@ -732,36 +889,19 @@ private String[] split(String string, String pattern) {
 
         @Override
         public void flush() throws IOException {
-            String data = null;
-            synchronized (this) {
-                data = sb.toString();
-                sb = new StringBuilder();
-            }
             flushFieldData();
-            flush(data, true);
-        }
-
-        private void flush(String data, boolean commit) throws IOException {
-            synchronized (out) {
-                if (!commitLog.exists()) {
-                    Long size = output.length();
-                    Files.write(commitLog.toPath(), size.toString().getBytes(StandardCharsets.ISO_8859_1),
-                            StandardOpenOption.CREATE);
-                    Util.fsync(commitLog.toPath());
-                }
-                out.write(data);
-                if (commit) {
-                    out.flush();
-                    Util.fsync(output.toPath());
-                    Files.delete(commitLog.toPath());
-                }
+            for (Shard shard : shards.values()) {
+                shard.flush();
             }
         }
 
         @Override
         public void close() throws IOException {
             flush();
-            out.close();
+            for (Shard shard : shards.values()) {
+                shard.out.close();
+            }
+            shards.clear();
         }
 
         private static class FieldData implements Serializable {
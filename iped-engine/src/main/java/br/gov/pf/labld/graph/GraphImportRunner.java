@@ -16,6 +16,8 @@
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
@@ -29,6 +31,9 @@ public class GraphImportRunner {
 
     public static final String ARGS_FILE_NAME = "import-tool-args";
 
+    private static final Pattern STAGE_PATTERN = Pattern.compile("^(\\S.*), started");
+    private static final Pattern PERCENT_PATTERN = Pattern.compile("\\s(\\d{1,3})%");
+
     private File[] inputs;
     private ImportListener listener;
 
@@ -47,6 +52,9 @@ private class InputReader implements Runnable {
 
         private InputStream in;
         private ImportListener listener;
+        private long start = System.currentTimeMillis();
+        private String stage = "Import";
+        private int lastPercent = -1;
 
         public InputReader(InputStream in, ImportListener listener) {
             super();
@@ -63,12 +71,34 @@ public void run() {
                     if (listener != null)
                         listener.output(line);
                     LOGGER.info(line);
+                    reportProgress(line);
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        private void reportProgress(String line) {
+            Matcher matcher = STAGE_PATTERN.matcher(line);
+            if (matcher.find()) {
+                stage = matcher.group(1).trim();
+                lastPercent = -1;
+                return;
+            }
+            matcher = PERCENT_PATTERN.matcher(line);
+            if (matcher.find()) {
+                int percent = Integer.parseInt(matcher.group(1));
+                if (percent / 10 > lastPercent / 10) {
+                    lastPercent = percent;
+                    long secs = (System.currentTimeMillis() - start) / 1000;
+                    String msg = "Graph import progress: " + stage + " " + percent + "% after " + secs + "s";
+                    if (listener != null)
+                        listener.output(msg);
+                    LOGGER.info(msg);
+                }
+            }
+        }
+
     }
 
     public void run(File databaseDir, String dbName, boolean highIO) throws IOException {
@@ -92,6 +122,9 @@ public void run(File databaseDir, String dbName, boolean highIO) throws IOExcept
 
         ExecutorService executorService = null;
 
+        long inputBytes = getInputBytes();
+        long start = System.currentTimeMillis();
+        LOGGER.info("Importing " + (inputBytes >> 20) + "MB of graph CSVs...");
         LOGGER.info("Running " + args.stream().collect(Collectors.joining(" ")));
 
         ProcessBuilder processBuilder = new ProcessBuilder(args);
@@ -104,6 +137,11 @@ public void run(File databaseDir, String dbName, boolean highIO) throws IOExcept
             if (result != 0) {
                 throw new RuntimeException("Could not import graph database.");
             }
+            double secs = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+            String msg = String.format("Graph import finished in %.0fs, %.1f MB/s", secs, (inputBytes >> 20) / secs);
+            if (listener != null)
+                listener.output(msg);
+            LOGGER.info(msg);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         } finally {
@@ -143,6 +181,21 @@ public File writeArgsFile(File databaseDir, String dbName, boolean highIO) throw
         return file;
     }
 
+    private long getInputBytes() {
+        long bytes = 0;
+        for (File input : inputs) {
+            File[] files = input.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().contains(".csv")) {
+                        bytes += file.length();
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
     private static class ArgsFileFilter implements FileFilter {
 
         @Override
@@ -8,7 +8,6 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -34,6 +33,7 @@
 import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 
+import br.gov.pf.labld.graph.ContactIdExtractor.ContactIds;
 import br.gov.pf.labld.graph.GraphConfiguration.GraphEntity;
 import br.gov.pf.labld.graph.GraphConfiguration.GraphEntityMetadata;
 import dpf.ap.gpinf.telegramextractor.TelegramParser;
@@ -50,6 +50,7 @@
 import dpf.sp.gpinf.indexer.process.task.regex.RegexHits;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import dpf.sp.gpinf.indexer.util.IPEDException;
+import dpf.sp.gpinf.indexer.util.StripedLRUCache;
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IItem;
 import iped3.util.BasicProps;
@@ -72,11 +73,6 @@ public class GraphTask extends AbstractTask {
     public static final String RELATIONSHIP_SOURCE = "dataSource";
 
     private static Pattern ignoreEmailChars = Pattern.compile("[<>'\";()]");
-
-    // TODO externalize to config file
-    private static Pattern emailPattern = Pattern
-            .compile("[0-9a-zA-Z\\+\\.\\_\\%\\-\\#\\!]{1,64}\\@[0-9a-zA-Z\\-]{2,64}(\\.[0-9a-zA-Z\\-]{2,25}){1,3}");
-    private static Pattern whatsappPattern = Pattern.compile("([0-9]{7,20})\\@[sg]\\.whatsapp\\.net");
     private static Pattern oldBRPhonePattern = Pattern.compile("(\\+55 \\d\\d )([7-9]\\d{3}\\-\\d{4})");
 
     // TODO externalize to config file
@@ -87,16 +83,7 @@ public class GraphTask extends AbstractTask {
 
     private static final int MAX_PHONE_CACHE_KEY = 50 * 1024;
 
-    private static Map<String, SortedSet<String>> formattedPhonesCache = Collections
-            .synchronizedMap(new LinkedHashMap<String, SortedSet<String>>(16, 0.75f, true) {
-
-                private static final long serialVersionUID = 1L;
-
-                @Override
-                protected boolean removeEldestEntry(Entry<String, SortedSet<String>> eldest) {
-                    return this.size() > 500;
-                }
-            });
+    private static StripedLRUCache<String, SortedSet<String>> formattedPhonesCache = new StripedLRUCache<>(512, 16);
 
     private GraphConfiguration configuration;
 
@@ -198,6 +185,9 @@ public void finish() throws Exception {
             logger.info("Compressing graph CSVs...");
             graphFileWriter.compressGeneratedCSVFiles();
             logger.info("Compressing graph CSVs finished.");
+            logger.info("Phone cache hit rate {}% ({} hits, {} misses)", //$NON-NLS-1$
+                    Math.round(formattedPhonesCache.getHitRate() * 100), formattedPhonesCache.getHits(),
+                    formattedPhonesCache.getMisses());
             graphFileWriter = null;
         }
     }
@@ -311,19 +301,29 @@ void addProp(String key, Object value) {
         }
     }
 
-    // PhoneNumberUtil is thread safe???
     private SortedSet<String> getPhones(String value) {
+        return getPhones(value, null);
+    }
+
+    /**
+     * @param ids
+     *            ids already extracted from value, or null.
+     */
+    // PhoneNumberUtil is thread safe???
+    private SortedSet<String> getPhones(String value, ContactIds ids) {
         SortedSet<String> result = formattedPhonesCache.get(value);
         if (result != null) {
             return result;
         }
+        String key = value;
+        if (ids == null) {
+            ids = ContactIdExtractor.extract(value);
+        }
         result = new TreeSet<>();
         PhoneNumberUtil phoneUtil = PhoneNumberUtil.getInstance();
         Set<PhoneNumber> phoneNumbers = new HashSet<>();
-        Matcher whatsappMacher = whatsappPattern.matcher(value);
-        while (whatsappMacher.find()) {
-            String phone = whatsappMacher.group(1);
-            value = value.replace(phone, " ");
+        value = ids.getTextWithoutWhatsapp();
+        for (String phone : ids.getWhatsappNumbers()) {
             phone = "+" + phone;
             try {
                 phoneNumbers.add(phoneUtil.parse(phone, null));
@@ -345,14 +345,14 @@ private SortedSet<String> getPhones(String value) {
             }
             result.add(phone);
         }
-        if (value.length() <= MAX_PHONE_CACHE_KEY) {
-            formattedPhonesCache.put(value, result);
+        if (key.length() <= MAX_PHONE_CACHE_KEY) {
+            formattedPhonesCache.put(key, result);
         }
         return result;
     }
 
-    private NodeValues getPhoneNodeValues(String value) {
-        Set<String> phones = getPhones(value);
+    private NodeValues getPhoneNodeValues(String value, ContactIds ids) {
+        Set<String> phones = getPhones(value, ids);
         if (!phones.isEmpty()) {
             return new NodeValues(DynLabel.label(GraphConfiguration.PHONE_LABEL), ExtraProperties.USER_PHONE,
                     phones.iterator().next());
@@ -370,10 +370,12 @@ private SortedSet<String> getEmails(String text) {
     }
 
     private SortedSet<String> getEmails(String text, boolean toLowerCase) {
+        return getEmails(ContactIdExtractor.extract(text), toLowerCase);
+    }
+
+    private SortedSet<String> getEmails(ContactIds ids, boolean toLowerCase) {
         SortedSet<String> result = new TreeSet<>();
-        Matcher matcher = emailPattern.matcher(text);
-        while (matcher.find()) {
-            String email = matcher.group();
+        for (String email : ids.getEmails()) {
             if (toLowerCase)
                 email = email.toLowerCase();
             result.add(email);
@@ -381,8 +383,8 @@ private SortedSet<String> getEmails(String text, boolean toLowerCase) {
         return result;
     }
 
-    private NodeValues getEmailNodeValues(String value) {
-        Set<String> emails = getEmails(value, false);
+    private NodeValues getEmailNodeValues(String value, ContactIds ids) {
+        Set<String> emails = getEmails(ids, false);
         if (!emails.isEmpty()) {
             NodeValues nv = new NodeValues(DynLabel.label(GraphConfiguration.EMAIL_LABEL), ExtraProperties.USER_EMAIL,
                     emails.iterator().next().toLowerCase());
@@ -432,16 +434,18 @@ private NodeValues getAccountNodeValues(String value, Metadata meta) {
     }
 
     private NodeValues getNodeValues(String value, Metadata metadata) {
+        // emails and whatsapp ids are extracted once
+        ContactIds ids = ContactIdExtractor.extract(value);
         NodeValues nv1 = null;
         String accountType = metadata.get(ExtraProperties.USER_ACCOUNT_TYPE);
         if (SkypeParser.SKYPE.equals(accountType))
             nv1 = getAccountNodeValues(value, metadata);
         if (nv1 == null)
-            nv1 = getEmailNodeValues(value);
+            nv1 = getEmailNodeValues(value, ids);
         if (nv1 == null)
             nv1 = getAccountNodeValues(value, metadata);
         if (nv1 == null)
-            nv1 = getPhoneNodeValues(value);
+            nv1 = getPhoneNodeValues(value, ids);
         if (nv1 == null)
             nv1 = getGenericNodeValues(value);
         return nv1;
@@ -518,8 +522,7 @@ private NodeValues writePersonNode(IItem item, SortedSet<String> msisdnPhones) t
                 .addAll(Arrays.asList(item.getMetadata().getValues(ExtraProperties.UFED_META_PREFIX + "Username")));
         possiblePhones.addAll(Arrays.asList(item.getMetadata().getValues(ExtraProperties.USER_PHONE)));
         for (String id : item.getMetadata().getValues(ExtraProperties.UFED_META_PREFIX + "UserID")) {
-            Matcher matcher = whatsappPattern.matcher(id);
-            if (matcher.find())
+            if (ContactIdExtractor.containsWhatsappId(id))
                 possiblePhones.add(id);
         }
         SortedSet<String> formattedPhones = getPhones(possiblePhones.toString());
@@ -667,7 +670,7 @@ private NodeValues getGenericOwnerNode(IItem item) throws IOException {
 
                 List<String> msisdns = (List<String>) caseData.getCaseObject(UfedXmlReader.MSISDN_PROP + evidenceUUID);
                 if (msisdns != null && !msisdns.isEmpty()) {
-                    NodeValues nv2 = this.getPhoneNodeValues(msisdns.get(0));
+                    NodeValues nv2 = this.getPhoneNodeValues(msisdns.get(0), null);
                     if (nv2 != null) {
                         String id = graphFileWriter.writeNode(nv2.label, nv2.propertyName, nv2.propertyValue);
                         graphFileWriter.writeNodeReplace(nv1.label, nv1.propertyName, nv1.propertyValue, id);
@@ -8,6 +8,7 @@
 import dpf.sp.gpinf.carver.api.Hit;
 import dpf.sp.gpinf.carver.api.Signature;
 import dpf.sp.gpinf.carving.JSCarver;
+import dpf.sp.gpinf.indexer.config.AdvancedIPEDConfig;
 import dpf.sp.gpinf.indexer.config.ConfigurationManager;
 import dpf.sp.gpinf.indexer.config.IPEDConfig;
 import dpf.sp.gpinf.indexer.process.task.BaseCarveTask;
@@ -18,19 +19,16 @@
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.mime.MediaType;
 import org.apache.tika.mime.MediaTypeRegistry;
-import org.arabidopsis.ahocorasick.AhoCorasick;
-import org.arabidopsis.ahocorasick.SearchResult;
-import org.arabidopsis.ahocorasick.Searcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Properties;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Classe responsável pelo Data Carving. Utiliza o algoritmo aho-corasick, o
@@ -49,6 +47,14 @@ public class CarverTask extends BaseCarveTask {
     private static Logger LOGGER = LoggerFactory.getLogger(CarverTask.class);
     private static int largestPatternLen = 100;
 
+    private static SignatureSearch signatureSearch;
+
+    private static final int RANGE_SIZE = 32 * 1024 * 1024;
+
+    private static long minItemSizeToParallelCarve;
+    private static int parallelCarvingThreads;
+    private static ExecutorService rangeSearchPool;
+
     private CarvedItemListener carvedItemListener = null;
 
     private static MediaTypeRegistry registry;
@@ -56,9 +62,6 @@ public class CarverTask extends BaseCarveTask {
     IItem evidence;
 
     long prevLen = 0;
-    int len = 0, k = 0;
-    byte[] buf = new byte[1024 * 1024];
-    byte[] cBuf;
 
     public CarverTask() {
         if (registry == null)
@@ -120,7 +123,13 @@ private void safeProcess(IItem evidence) {
                 type = registry.getSupertype(type);
             }
 
-            findSig(tis);
+            if (evidence.getLength() != null && evidence.getLength() >= minItemSizeToParallelCarve
+                    && parallelCarvingThreads > 1) {
+                IOUtil.closeQuietly(tis);
+                findSigParallel(prevLen, evidence.getLength());
+            } else {
+                findSig(tis);
+            }
 
         } catch (Exception t) {
             LOGGER.warn("{} Error carving on {} {}", Thread.currentThread().getName(), evidence.getPath(), //$NON-NLS-1$
@@ -133,83 +142,55 @@ private void safeProcess(IItem evidence) {
 
     }
 
-    private void fillBuf(InputStream in) throws IOException {
-        prevLen += len;
-        len = 0;
-        k = 0;
-        while (k != -1 && (len += k) < buf.length) {
-            k = in.read(buf, len, buf.length - len);
-        }
+    private Hit findSig(InputStream in) throws Exception {
+        signatureSearch.search(in, prevLen, this::notifyHit);
 
-        cBuf = new byte[len];
-        System.arraycopy(buf, 0, cBuf, 0, len);
+        for (Carver carver : registeredCarvers.values()) {
+            carver.notifyEnd(this.evidence);
+        }
 
+        return null;
     }
 
-    private Hit findSig(InputStream in) throws Exception {
-        HashMap<CarverType, TreeMap<Long, Integer>> map = new HashMap<>();
-        for (int i = 0; i < carverTypes.length; i++) {
-            map.put(carverTypes[i], new TreeMap<Long, Integer>());
-        }
+    private void notifyHit(Signature sig, long offset) {
+        Hit hit = new Hit(sig, offset);
 
-        AhoCorasick tree = carverConfig.getPopulatedTree();
-        SearchResult lastResult = new SearchResult(tree.root, null, 0);
-        do {
-            fillBuf(in);
-            lastResult = new SearchResult(lastResult.lastMatchedState, cBuf, 0);
-            Iterator<SearchResult> searcher = new Searcher(tree, tree.continueSearch(lastResult));
-
-            while (searcher.hasNext()) {
-                lastResult = searcher.next();
-
-                for (Object out : lastResult.getOutputs()) {
-                    Object[] oarray = (Object[]) out;
-                    Signature sig = (Signature) oarray[0];
-                    int seq = (int) oarray[1];
-                    int i = lastResult.getLastIndex() - sig.seqEndPos[seq];
-
-                    // tratamento para assinaturas com ? (divididas)
-                    if (sig.seqs.length > 1) {
-                        Integer hits = (Integer) map.get(sig.getCarverType()).get(prevLen + i);
-                        if (hits == null) {
-                            hits = 0;
-                        }
-                        if (hits != seq) {
-                            continue;
-                        }
-                        map.get(sig.getCarverType()).put(prevLen + i, ++hits);
-                        if (map.get(sig.getCarverType()).size() > largestPatternLen) {
-                            map.get(sig.getCarverType()).remove(map.get(sig.getCarverType()).firstKey());
-                        }
-
-                        if (hits < sig.seqs.length) {
-                            continue;
-                        }
-                    }
-
-                    Hit hit = null;
-                    hit = new Hit(sig, prevLen + i);
-
-                    Carver carver = getCarver(sig.getCarverType());
-
-                    try {
-                        carver.notifyHit(this.evidence, hit);
-                    } catch (Exception e) {
-                        LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
-                                Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
-                                carver.getClass().getName());
-                        e.printStackTrace();
-                    }
-                }
-            }
+        Carver carver = getCarver(sig.getCarverType());
+
+        try {
+            carver.notifyHit(this.evidence, hit);
+        } catch (Exception e) {
+            LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
+                    Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
+                    carver.getClass().getName());
+            e.printStackTrace();
+        }
+    }
 
-        } while (k != -1);
+    /**
+     * Searches ranges of a large item in parallel, while the hits of each range are
+     * carved here in order as soon as the range is done, see
+     * {@link SignatureSearch#searchParallel}.
+     */
+    private void findSigParallel(long start, long end) throws Exception {
+        signatureSearch.searchParallel(evidence::getStream, start, end, RANGE_SIZE, getRangeSearchPool(),
+                2 * parallelCarvingThreads, this::notifyHit);
 
         for (Carver carver : registeredCarvers.values()) {
             carver.notifyEnd(this.evidence);
         }
+    }
 
-        return null;
+    private static synchronized ExecutorService getRangeSearchPool() {
+        if (rangeSearchPool == null) {
+            AtomicInteger threadNum = new AtomicInteger();
+            rangeSearchPool = Executors.newFixedThreadPool(parallelCarvingThreads, r -> {
+                Thread t = new Thread(r, "CarverRangeSearch-" + threadNum.incrementAndGet()); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return rangeSearchPool;
     }
 
     @Override
@@ -233,7 +214,13 @@ public void init(Properties confProps, File confDir) throws Exception {
             carverConfig.configTask(confDir, carvedItemListener);
             carverTypes = carverConfig.getCarverTypes();
             ignoreCorrupted = carverConfig.isToIgnoreCorrupted();
+            signatureSearch = new SignatureSearch(carverConfig.getCompiledTree(), largestPatternLen);
         }
+
+        AdvancedIPEDConfig advancedConfig = (AdvancedIPEDConfig) ConfigurationManager.getInstance()
+                .findObjects(AdvancedIPEDConfig.class).iterator().next();
+        minItemSizeToParallelCarve = advancedConfig.getMinItemSizeToParallelCarve();
+        parallelCarvingThreads = advancedConfig.getParallelCarvingThreads();
     }
 
     @Override
@@ -0,0 +1,263 @@
+package dpf.sp.gpinf.carver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+
+import dpf.sp.gpinf.carver.api.CarverType;
+import dpf.sp.gpinf.carver.api.Signature;
+import iped3.io.SeekableInputStream;
+
+/**
+ * Search of the carving signatures with the compiled automaton, over a stream
+ * or in parallel over ranges of a large item. Signatures with ? are split in
+ * sequences, and are only reported after all of them are found.
+ */
+class SignatureSearch {
+
+    /**
+     * Receives the hits, in the order of the offsets where they end.
+     */
+    interface HitHandler {
+        void onHit(Signature sig, long offset);
+    }
+
+    /**
+     * Opens a new seekable stream of the searched item, one per range.
+     */
+    interface StreamSource {
+        SeekableInputStream getStream() throws IOException;
+    }
+
+    private static final int BUF_SIZE = 1024 * 1024;
+
+    // outputs of the compiled automaton, indexed by output id
+    private final CompiledAhoCorasick automaton;
+    private final Signature[] outputSigs;
+    private final int[] outputSeqs;
+    private final int[] outputTypes;
+    private final int numOutputTypes;
+
+    /**
+     * Partial hits of split signatures are kept in a ring per carver type, indexed
+     * by the signature offset. The ring is larger than any split signature, so a
+     * pending offset is only overwritten after it can not be completed anymore.
+     */
+    private final int ringBits;
+
+    /**
+     * Bytes searched before a range of a parallel search, enough to rebuild the
+     * automaton state and the partial split signature hits at its start.
+     */
+    private final int warmUpLen;
+
+    /**
+     * Maps the outputs of the compiled automaton, each an Object[] with the
+     * signature and the index of the sequence, to primitive tables.
+     */
+    SignatureSearch(CompiledAhoCorasick compiledTree, int largestPatternLen) {
+        int n = compiledTree.getNumOutputs();
+        Signature[] sigs = new Signature[n];
+        int[] seqs = new int[n];
+        int[] types = new int[n];
+        HashMap<CarverType, Integer> typeIndex = new HashMap<>();
+        int maxSplitLen = 0, maxSeqLen = 0;
+        for (int i = 0; i < n; i++) {
+            Object[] out = (Object[]) compiledTree.getOutput(i);
+            sigs[i] = (Signature) out[0];
+            seqs[i] = (int) out[1];
+            Integer type = typeIndex.get(sigs[i].getCarverType());
+            if (type == null) {
+                type = typeIndex.size();
+                typeIndex.put(sigs[i].getCarverType(), type);
+            }
+            types[i] = type;
+            maxSeqLen = Math.max(maxSeqLen, sigs[i].seqs[seqs[i]].length);
+            if (sigs[i].seqs.length > 1) {
+                maxSplitLen = Math.max(maxSplitLen, sigs[i].seqEndPos[sigs[i].seqs.length - 1]);
+            }
+        }
+        int bits = 0;
+        while ((1 << bits) <= Math.max(largestPatternLen, maxSplitLen)) {
+            bits++;
+        }
+        outputSigs = sigs;
+        outputSeqs = seqs;
+        outputTypes = types;
+        numOutputTypes = typeIndex.size();
+        ringBits = bits;
+        warmUpLen = maxSplitLen + maxSeqLen;
+        automaton = compiledTree;
+    }
+
+    /**
+     * Searches a stream which starts at offset of the item.
+     */
+    void search(InputStream in, long offset, HitHandler handler) throws IOException {
+        SplitSignatureTracker splitSigTracker = new SplitSignatureTracker();
+        byte[] buf = new byte[BUF_SIZE];
+        int state = automaton.getInitialState();
+        int len, k = 0;
+        do {
+            len = 0;
+            while (k != -1 && len < buf.length) {
+                k = in.read(buf, len, buf.length - len);
+                if (k != -1) {
+                    len += k;
+                }
+            }
+            final long bufOffset = offset;
+            state = automaton.search(buf, 0, len, state, (output, end) -> {
+                long hitOffset = bufOffset + end - outputSigs[output].seqEndPos[outputSeqs[output]];
+                if (splitSigTracker.isComplete(output, hitOffset)) {
+                    handler.onHit(outputSigs[output], hitOffset);
+                }
+            });
+            offset += len;
+        } while (k != -1);
+    }
+
+    /**
+     * Searches ranges of [start, end) of a large item in parallel, while the hits
+     * of each range are passed to handler here in order as soon as the range is
+     * done. Each range owns the hits ending inside it, so handler receives the same
+     * hits in the same order of {@link #search(InputStream, long, HitHandler)}.
+     *
+     * @param maxPending
+     *            ranges submitted to the pool at a time, bounding the hits kept in
+     *            memory.
+     */
+    void searchParallel(StreamSource source, long start, long end, int rangeSize, ExecutorService pool,
+            int maxPending, HitHandler handler) throws Exception {
+        ArrayDeque<Future<RangeSearch>> pending = new ArrayDeque<>();
+        long next = start;
+        try {
+            while (next < end || !pending.isEmpty()) {
+                while (next < end && pending.size() < maxPending) {
+                    long rangeEnd = Math.min(next + rangeSize, end);
+                    pending.add(pool.submit(new RangeSearch(source, start, next, rangeEnd)));
+                    next = rangeEnd;
+                }
+                RangeSearch range;
+                try {
+                    range = pending.poll().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                for (int i = 0; i < range.numHits; i++) {
+                    handler.onHit(outputSigs[range.hitOutputs[i]], range.hitOffsets[i]);
+                }
+            }
+        } finally {
+            for (Future<RangeSearch> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Tracks the partial hits of split signatures, see {@link #ringBits}.
+     */
+    private class SplitSignatureTracker {
+
+        // allocated at the first split signature hit
+        private long[] partialOffsets;
+        private int[] partialHits;
+
+        /**
+         * @return true if the output completes a hit at offset, always true for not
+         *         split signatures.
+         */
+        boolean isComplete(int output, long offset) {
+            Signature sig = outputSigs[output];
+            // tratamento para assinaturas com ? (divididas)
+            if (sig.seqs.length == 1) {
+                return true;
+            }
+            if (partialOffsets == null) {
+                partialOffsets = new long[numOutputTypes << ringBits];
+                partialHits = new int[partialOffsets.length];
+                Arrays.fill(partialOffsets, Long.MIN_VALUE);
+            }
+            int seq = outputSeqs[output];
+            int slot = (outputTypes[output] << ringBits) | ((int) offset & ((1 << ringBits) - 1));
+            int hits = partialOffsets[slot] == offset ? partialHits[slot] : 0;
+            if (hits != seq) {
+                return false;
+            }
+            partialOffsets[slot] = offset;
+            partialHits[slot] = ++hits;
+
+            return hits == sig.seqs.length;
+        }
+    }
+
+    /**
+     * Searches the signatures ending in a range of an item. The search starts
+     * {@link #warmUpLen} bytes before the range, without reporting hits there.
+     */
+    private class RangeSearch implements Callable<RangeSearch>, CompiledAhoCorasick.MatchHandler {
+
+        private final StreamSource source;
+        private final long firstOffset, start, end;
+        private final SplitSignatureTracker splitSigTracker = new SplitSignatureTracker();
+        private long bufOffset;
+
+        private int numHits;
+        private int[] hitOutputs = new int[64];
+        private long[] hitOffsets = new long[64];
+
+        RangeSearch(StreamSource source, long firstOffset, long start, long end) {
+            this.source = source;
+            this.firstOffset = firstOffset;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public RangeSearch call() throws IOException {
+            long pos = Math.max(firstOffset, start - warmUpLen);
+            byte[] buf = new byte[(int) Math.min(BUF_SIZE, end - pos)];
+            int state = automaton.getInitialState();
+            try (SeekableInputStream is = source.getStream()) {
+                is.seek(pos);
+                while (pos < end && !Thread.currentThread().isInterrupted()) {
+                    int n = is.read(buf, 0, (int) Math.min(buf.length, end - pos));
+                    if (n == -1) {
+                        break;
+                    }
+                    bufOffset = pos;
+                    state = automaton.search(buf, 0, n, state, this);
+                    pos += n;
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public void onMatch(int output, int end) {
+            long endOffset = bufOffset + end;
+            long offset = endOffset - outputSigs[output].seqEndPos[outputSeqs[output]];
+            if (splitSigTracker.isComplete(output, offset) && endOffset > start) {
+                if (numHits == hitOutputs.length) {
+                    hitOutputs = Arrays.copyOf(hitOutputs, numHits * 2);
+                    hitOffsets = Arrays.copyOf(hitOffsets, numHits * 2);
+                }
+                hitOutputs[numHits] = output;
+                hitOffsets[numHits++] = offset;
+            }
+        }
+    }
+
+}
@@ -6,6 +6,7 @@
 
 import org.apache.tika.mime.MediaType;
 import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -38,6 +39,7 @@
 public class XMLCarverConfiguration implements CarverConfiguration {
     public boolean ignoreCorrupted = true;
     static AhoCorasick tree = null;
+    static CompiledAhoCorasick compiledTree = null;
     static String CARVE_DIR_INDIVIDUAIS = "carvers";
     protected HashSet<MediaType> TYPES_TO_PROCESS;
     protected HashSet<String> TYPES_TO_NOT_PROCESS = new HashSet<String>();
@@ -303,6 +305,7 @@ synchronized public void configTask(File confDir, CarvedItemListener carvedItemL
                     }
                 }
                 tree.prepare();
+                compiledTree = new CompiledAhoCorasick(tree);
             }
 
         } catch (Exception e) {
@@ -314,6 +317,11 @@ public AhoCorasick getPopulatedTree() {
         return tree;
     }
 
+    @Override
+    public CompiledAhoCorasick getCompiledTree() {
+        return compiledTree;
+    }
+
     @Override
     public Carver createCarverFromJSName(String scriptName) {
         File file = new File(confDir, scriptName);
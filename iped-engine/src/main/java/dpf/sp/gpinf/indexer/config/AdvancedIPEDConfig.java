@@ -20,6 +20,8 @@ public class AdvancedIPEDConfig extends AbstractPropertiesConfigurable {
 
     long unallocatedFragSize = 1024 * 1024 * 1024;
     long minItemSizeToFragment = 100 * 1024 * 1024;
+    long minItemSizeToParallelCarve = 256 * 1024 * 1024;
+    int parallelCarvingThreads = Runtime.getRuntime().availableProcessors();
 
     boolean forceMerge = false;
     int timeOut = 180;
@@ -38,7 +40,11 @@ public class AdvancedIPEDConfig extends AbstractPropertiesConfigurable {
     int openImagesCacheWarmUpThreads = 255;
     boolean useNIOFSDirectory = false;
     int commitIntervalSeconds = 1800;
+    private int metricsDumpIntervalSeconds = 60;
+    private int numIndexWriters = 1;
+    private int metricsHttpPort = 0;
     private boolean storeTextCacheOnDisk = true;
+    private boolean compressTextCacheOnDisk = false;
     private static int textSplitSize = 10485760;
     private static int textOverlapSize = 10000;
 
@@ -101,6 +107,16 @@ public void processConfig(Path resource) throws IOException {
             minItemSizeToFragment = Long.valueOf(value);
         }
 
+        value = properties.getProperty("minItemSizeToParallelCarve"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            minItemSizeToParallelCarve = Long.parseLong(value.trim());
+        }
+
+        value = properties.getProperty("parallelCarvingThreads"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty() && !value.trim().equalsIgnoreCase("auto")) { //$NON-NLS-1$
+            parallelCarvingThreads = Math.max(1, Integer.parseInt(value.trim()));
+        }
+
         value = properties.getProperty("forceMerge"); //$NON-NLS-1$
         if (value != null) {
             value = value.trim();
@@ -225,6 +241,11 @@ public void processConfig(Path resource) throws IOException {
             storeTextCacheOnDisk = Boolean.valueOf(value.trim());
         }
 
+        value = properties.getProperty("compressTextCacheOnDisk"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            compressTextCacheOnDisk = Boolean.valueOf(value.trim());
+        }
+
         value = properties.getProperty("preOpenImagesOnSleuth"); //$NON-NLS-1$
         if (value != null && !value.trim().isEmpty()) {
             preOpenImagesOnSleuth = Boolean.valueOf(value.trim());
@@ -250,6 +271,21 @@ public void processConfig(Path resource) throws IOException {
             commitIntervalSeconds = Integer.parseInt(value.trim());
         }
 
+        value = properties.getProperty("numIndexWriters"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            numIndexWriters = Math.max(1, Integer.parseInt(value.trim()));
+        }
+
+        value = properties.getProperty("metricsDumpIntervalSeconds"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            metricsDumpIntervalSeconds = Integer.parseInt(value.trim());
+        }
+
+        value = properties.getProperty("metricsHttpPort"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            metricsHttpPort = Integer.parseInt(value.trim());
+        }
+
         value = properties.getProperty("openWithDoubleClick"); //$NON-NLS-1$
         if (value != null && !value.trim().isEmpty()) {
             value = value.trim();
@@ -269,6 +305,18 @@ public int getCommitIntervalSeconds() {
         return commitIntervalSeconds;
     }
 
+    public int getNumIndexWriters() {
+        return numIndexWriters;
+    }
+
+    public int getMetricsDumpIntervalSeconds() {
+        return metricsDumpIntervalSeconds;
+    }
+
+    public int getMetricsHttpPort() {
+        return metricsHttpPort;
+    }
+
     public boolean isUseNIOFSDirectory() {
         return useNIOFSDirectory;
     }
@@ -281,6 +329,14 @@ public long getMinItemSizeToFragment() {
         return minItemSizeToFragment;
     }
 
+    public long getMinItemSizeToParallelCarve() {
+        return minItemSizeToParallelCarve;
+    }
+
+    public int getParallelCarvingThreads() {
+        return parallelCarvingThreads;
+    }
+
     public boolean isForceMerge() {
         return forceMerge;
     }
@@ -352,4 +408,8 @@ public int getOpenImagesCacheWarmUpThreads() {
     public boolean isStoreTextCacheOnDisk() {
         return storeTextCacheOnDisk;
     }
+
+    public boolean isCompressTextCacheOnDisk() {
+        return compressTextCacheOnDisk;
+    }
 }
@@ -130,7 +130,7 @@ public int read(File file) throws Exception {
             deviceName = null;
         }
 
-        Object obj = Util.readObject(file.getAbsolutePath());
+        Object obj = Marcadores.readState(file);
         if (obj instanceof IMultiMarcadores) {
             IMultiMarcadores mm = (IMultiMarcadores) obj;
             for (IMarcadores m : mm.getSingleBookmarks())
@@ -678,6 +678,10 @@ private boolean isExtraAttrMultiValued(String field) throws IOException {
         if (docValues != null)
             return true;
         docValues = ipedCase.getLeafReader().getSortedNumericDocValues(field);
+        if (docValues != null)
+            return true;
+        // dates
+        docValues = ipedCase.getLeafReader().getSortedNumericDocValues(IndexItem.POSSIBLE_NUM_DOCVALUES_PREFIX + field);
         if (docValues != null)
             return true;
 
@@ -19,19 +19,39 @@
 package dpf.sp.gpinf.indexer.io;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pipe between a single writer thread (the parsing thread) and a single reader
+ * thread. Chars are transferred in bulk through a circular buffer without
+ * locks: the writer only advances writeCount and the reader only advances
+ * readCount, both volatile, so each side sees the chars published by the other
+ * without synchronization. A side only parks when the buffer is full or empty,
+ * and is unparked by the other side after it makes progress.
+ */
 public class FastPipedReader extends Reader {
 
     // utilizado para verificar se há comunicação entre reader e writer
-    private int timer = 0;
+    private long waitedNanos = 0;
     private int timeOutBySize = 0;
     private static int TIMEOUT = 60;
+
+    /**
+     * Guards timeoutPaused and timedOut, so the reader can not time out after the
+     * writer paused the timeout and was told it had not timed out yet. Only taken
+     * when the reader wakes up without data, not on each transfer.
+     */
+    private final Object timeoutLock = new Object();
     private boolean timeoutPaused = false, timedOut = false;
 
-    synchronized public boolean setTimeoutPaused(boolean paused) {
-        this.timeoutPaused = paused;
-        return !timedOut;
+    public boolean setTimeoutPaused(boolean paused) {
+        synchronized (timeoutLock) {
+            this.timeoutPaused = paused;
+            return !timedOut;
+        }
     }
 
     public static void setTimeout(int timeout) {
@@ -42,17 +62,25 @@ public int getTotalTimeout() {
         return TIMEOUT + timeOutBySize;
     }
 
-    boolean closedByWriter = false;
-    boolean closedByReader = false;
-    boolean connected = false;
+    /**
+     * Max time a side stays parked before checking the other side is alive and
+     * updating the timeout.
+     */
+    private static final long PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
 
-    /*
-     * REMIND: identification of the read and write sides needs to be more
-     * sophisticated. Either using thread groups (but what about pipes within a
-     * thread?) or using finalization (but it may be a long time until the next GC).
+    /**
+     * Times a side yields, waiting for the other side, before parking. Parsers
+     * usually write few chars at a time, so parking right away would cost a
+     * park/unpark pair per write.
      */
-    Thread readSide;
-    Thread writeSide;
+    private static final int SPINS = 64;
+
+    volatile boolean closedByWriter = false;
+    volatile boolean closedByReader = false;
+    volatile boolean connected = false;
+
+    volatile Thread readSide;
+    volatile Thread writeSide;
 
     /**
      * The size of the pipe's circular input buffer.
@@ -62,26 +90,27 @@ public int getTotalTimeout() {
     /**
      * The circular buffer into which incoming data is placed.
      */
-    char buffer[];
+    private char buffer[];
 
     /**
-     * The index of the position in the circular buffer at which the next character
-     * of data will be stored when received from the connected piped writer.
-     * <code>in&lt;0</code> implies the buffer is empty, <code>in==out</code>
-     * implies the buffer is full
+     * Total chars published by the writer. Only written by the writer thread.
      */
-    int in = -1;
+    private volatile long writeCount = 0;
 
     /**
-     * The index of the position in the circular buffer at which the next character
-     * of data will be read by this piped reader.
+     * Total chars consumed by the reader. Only written by the reader thread.
      */
-    int out = 0;
+    private volatile long readCount = 0;
 
     /**
-     * Creates a <code>PipedReader</code> so that it is connected to the piped
-     * writer <code>src</code>. Data written to <code>src</code> will then be
-     * available as input from this stream.
+     * Set by a side before parking, so the other side only calls unpark when
+     * needed.
+     */
+    private volatile boolean readerParked = false, writerParked = false;
+
+    /**
+     * Creates a <code>FastPipedReader</code> so that it is connected to the piped
+     * writer <code>src</code>.
      *
      * @param src
      *            the stream to connect to.
@@ -93,10 +122,9 @@ public FastPipedReader(FastPipedWriter src) throws IOException {
     }
 
     /**
-     * Creates a <code>PipedReader</code> so that it is connected to the piped
+     * Creates a <code>FastPipedReader</code> so that it is connected to the piped
      * writer <code>src</code> and uses the specified pipe size for the pipe's
-     * buffer. Data written to <code>src</code> will then be available as input from
-     * this stream.
+     * buffer.
      *
      * @param src
      *            the stream to connect to.
@@ -106,7 +134,6 @@ public FastPipedReader(FastPipedWriter src) throws IOException {
      *                if an I/O error occurs.
      * @exception IllegalArgumentException
      *                if <code>pipeSize less than 1</code>.
-     * @since 1.6
      */
     public FastPipedReader(FastPipedWriter src, int pipeSize) throws IOException {
         initPipe(pipeSize);
@@ -114,27 +141,24 @@ public FastPipedReader(FastPipedWriter src, int pipeSize) throws IOException {
     }
 
     /**
-     * Creates a <code>PipedReader</code> so that it is not yet
-     * {@linkplain #connect(FastPipedWriter) connected}. It must be
-     * {@linkplain java.io.PipedWriter#connect(java.io.PipedReader) connected} to a
-     * <code>PipedWriter</code> before being used.
+     * Creates a <code>FastPipedReader</code> so that it is not yet
+     * {@linkplain #connect(FastPipedWriter) connected}.
      */
     public FastPipedReader() {
         initPipe(DEFAULT_PIPE_SIZE);
     }
 
     /**
-     * Creates a <code>PipedReader</code> so that it is not yet
+     * Creates a <code>FastPipedReader</code> so that it is not yet
      * {@link #connect(FastPipedWriter) connected} and uses the specified pipe size
-     * for the pipe's buffer. It must be
-     * {@linkplain java.io.PipedWriter#connect(java.io.PipedReader) connected} to a
-     * <code>PipedWriter</code> before being used.
+     * for the pipe's buffer.
      *
      * @param pipeSize
      *            the size of the pipe's buffer.
+     * @param timeOutBySize
+     *            seconds added to the timeout.
      * @exception IllegalArgumentException
      *                if <code>pipeSize less than 1</code>.
-     * @since 1.6
      */
     public FastPipedReader(int pipeSize, int timeOutBySize) {
         initPipe(pipeSize);
@@ -152,23 +176,6 @@ private void initPipe(int pipeSize) {
      * Causes this piped reader to be connected to the piped writer
      * <code>src</code>. If this object is already connected to some other piped
      * writer, an <code>IOException</code> is thrown.
-     * <p>
-     * If <code>src</code> is an unconnected piped writer and <code>snk</code> is an
-     * unconnected piped reader, they may be connected by either the call:
-     * <p>
-     *
-     * <pre>
-     * <code>snk.connect(src)</code>
-     * </pre>
-     * <p>
-     * or the call:
-     * <p>
-     *
-     * <pre>
-     * <code>src.connect(snk)</code>
-     * </pre>
-     * <p>
-     * The two calls have the same effect.
      *
      * @param src
      *            The piped writer to connect to.
@@ -179,10 +186,7 @@ public void connect(FastPipedWriter src) throws IOException {
         src.connect(this);
     }
 
-    /**
-     * Receives a char of data. This method will block if no input is available.
-     */
-    synchronized void receive(int c) throws IOException {
+    private void checkWriteState() throws IOException {
         if (!connected) {
             throw new IOException("Pipe not connected"); //$NON-NLS-1$
         } else if (closedByWriter || closedByReader) {
@@ -190,137 +194,172 @@ synchronized void receive(int c) throws IOException {
         } else if (readSide != null && !readSide.isAlive()) {
             throw new IOException("Read end dead"); //$NON-NLS-1$
         }
-
-        writeSide = Thread.currentThread();
-        while (in == out) {
-            if ((readSide != null) && !readSide.isAlive()) {
-                throw new IOException("Pipe broken"); //$NON-NLS-1$
-            }
-            /* full: kick any waiting readers */
-            notifyAll();
-            try {
-                wait(1000);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException();
-            }
-        }
-        if (in < 0) {
-            in = 0;
-            out = 0;
+        if (writeSide != Thread.currentThread()) {
+            writeSide = Thread.currentThread();
         }
-        buffer[in++] = (char) c;
-        if (in >= buffer.length) {
-            in = 0;
+    }
+
+    /**
+     * Receives a char of data. This method will block if the buffer is full.
+     */
+    void receive(int c) throws IOException {
+        checkWriteState();
+        long w = writeCount;
+        while (buffer.length - (w - readCount) == 0) {
+            awaitSpace(w);
         }
-        notifyAll();
+        buffer[(int) (w % buffer.length)] = (char) c;
+        writeCount = w + 1;
+        wakeReader();
     }
 
     /**
-     * Receives data into an array of characters. This method will block until some
-     * input is available.
+     * Receives data into an array of characters. This method will block until all
+     * chars are copied to the buffer.
      */
-    synchronized void receive(char cbuf[], int off, int len) throws IOException {
+    void receive(char cbuf[], int off, int len) throws IOException {
+        checkWriteState();
+        final char[] buffer = this.buffer;
+        final int size = buffer.length;
+        long w = writeCount;
+        while (len > 0) {
+            int free = (int) (size - (w - readCount));
+            if (free == 0) {
+                awaitSpace(w);
+                continue;
+            }
+            int n = Math.min(len, free);
+            int pos = (int) (w % size);
+            int first = Math.min(n, size - pos);
+            System.arraycopy(cbuf, off, buffer, pos, first);
+            if (first < n) {
+                System.arraycopy(cbuf, off + first, buffer, 0, n - first);
+            }
+            off += n;
+            len -= n;
+            w += n;
+            // publishes the chars to the reader
+            writeCount = w;
+            wakeReader();
+        }
+    }
 
-        if (!connected) {
-            throw new IOException("Pipe not connected"); //$NON-NLS-1$
-        } else if (closedByWriter || closedByReader) {
+    private void awaitSpace(long w) throws IOException {
+        for (int i = 0; i < SPINS && buffer.length - (w - readCount) == 0 && !closedByReader; i++) {
+            Thread.yield();
+        }
+        writerParked = true;
+        if (buffer.length - (w - readCount) == 0 && !closedByReader) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        writerParked = false;
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException();
+        }
+        if (closedByReader) {
             throw new IOException("Pipe closed"); //$NON-NLS-1$
-        } else if (readSide != null && !readSide.isAlive()) {
-            throw new IOException("Read end dead"); //$NON-NLS-1$
         }
+        if ((readSide != null) && !readSide.isAlive()) {
+            throw new IOException("Pipe broken"); //$NON-NLS-1$
+        }
+    }
 
-        writeSide = Thread.currentThread();
+    void wakeReader() {
+        if (readerParked) {
+            LockSupport.unpark(readSide);
+        }
+    }
 
-        while (--len >= 0) {
-            while (in == out) {
-                if ((readSide != null) && !readSide.isAlive()) {
-                    throw new IOException("Pipe broken"); //$NON-NLS-1$
-                }
-                /* full: kick any waiting readers */
-                notifyAll();
-                try {
-                    wait(1000);
-                } catch (InterruptedException ex) {
-                    throw new java.io.InterruptedIOException();
-                }
-            }
-            if (in < 0) {
-                in = 0;
-                out = 0;
-            }
-            buffer[in++] = cbuf[off++];
-            if (in >= buffer.length) {
-                in = 0;
-            }
+    private void wakeWriter() {
+        if (writerParked) {
+            LockSupport.unpark(writeSide);
         }
-        notifyAll();
     }
 
     /**
-     * Notifies all waiting threads that the last character of data has been
-     * received.
+     * Notifies the reader that the last character of data has been received.
      */
-    synchronized void receivedLast() {
+    void receivedLast() {
         closedByWriter = true;
-        notifyAll();
+        wakeReader();
     }
 
     /**
-     * Reads the next character of data from this piped stream. If no character is
-     * available because the end of the stream has been reached, the value
-     * <code>-1</code> is returned. This method blocks until input data is
-     * available, the end of the stream is detected, or an exception is thrown.
+     * Blocks until there are chars to read or the writer has closed the pipe.
+     * Throws {@link TimeoutException} if the writer does not send data for longer
+     * than {@link #getTotalTimeout()} seconds, not counting the time the timeout
+     * was paused.
      *
-     * @return the next character of data, or <code>-1</code> if the end of the
-     *         stream is reached.
-     * @exception IOException
-     *                if the pipe is <a href=PipedInputStream.html#BROKEN>
-     *                <code>broken</code></a>, {@link #connect(FastPipedWriter)
-     *                unconnected}, closed, or an I/O error occurs.
+     * @return the number of available chars or -1 if the end of the stream was
+     *         reached.
      */
-    @Override
-    public synchronized int read() throws IOException {
-
-        /*
-         * if (!connected) { throw new IOException("Pipe not connected"); } else if
-         * (closedByReader) { throw new IOException("Pipe closed"); } else if (writeSide
-         * != null && !writeSide.isAlive() && !closedByWriter && (in < 0)) { throw new
-         * IOException("Write end dead"); }
-         */
-        // readSide = Thread.currentThread();
+    private int awaitData() throws IOException {
+        if (readSide != Thread.currentThread()) {
+            readSide = Thread.currentThread();
+        }
         int trials = 10;
-        while (in < 0) {
+        for (int i = 0; i < SPINS && writeCount == readCount && !closedByWriter; i++) {
+            Thread.yield();
+        }
+        while (true) {
+            long available = writeCount - readCount;
+            if (available > 0) {
+                waitedNanos = 0;
+                return (int) available;
+            }
             if (closedByWriter) {
-                /* closed by writer, return EOF */
-                return -1;
+                // writeCount is published before closedByWriter
+                available = writeCount - readCount;
+                return available > 0 ? (int) available : -1;
             }
             if ((writeSide != null) && (!writeSide.isAlive()) && (--trials < 0)) {
-                // throw new IOException("Pipe broken");
                 System.out.println("Pipe broken, writer thread is dead?"); //$NON-NLS-1$
                 closedByWriter = true;
+                continue;
             }
-            /* might be a writer waiting */
-            notifyAll();
-            try {
-                wait(1000);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException();
+            long t = System.nanoTime();
+            readerParked = true;
+            if (writeCount == readCount && !closedByWriter) {
+                LockSupport.parkNanos(this, PARK_NANOS);
             }
-            if (!timeoutPaused && timer++ == getTotalTimeout()) {
-                timedOut = true;
-                throw new TimeoutException();
+            readerParked = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+            if (writeCount == readCount) {
+                synchronized (timeoutLock) {
+                    if (!timeoutPaused) {
+                        waitedNanos += System.nanoTime() - t;
+                        if (waitedNanos > TimeUnit.SECONDS.toNanos(getTotalTimeout())) {
+                            timedOut = true;
+                            throw new TimeoutException();
+                        }
+                    }
+                }
             }
         }
-        timer = 0;
-        int ret = buffer[out++];
-        if (out >= buffer.length) {
-            out = 0;
-        }
-        if (in == out) {
-            /* now empty */
-            in = -1;
+    }
+
+    /**
+     * Reads the next character of data from this piped stream. If no character is
+     * available because the end of the stream has been reached, the value
+     * <code>-1</code> is returned. This method blocks until input data is
+     * available, the end of the stream is detected, or an exception is thrown.
+     *
+     * @return the next character of data, or <code>-1</code> if the end of the
+     *         stream is reached.
+     * @exception IOException
+     *                if the pipe is broken, closed, or an I/O error occurs.
+     */
+    @Override
+    public int read() throws IOException {
+        if (awaitData() < 0) {
+            return -1;
         }
-        notifyAll();
+        long r = readCount;
+        int ret = buffer[(int) (r % buffer.length)];
+        readCount = r + 1;
+        wakeWriter();
         return ret;
     }
 
@@ -328,8 +367,8 @@ public synchronized int read() throws IOException {
      * Reads up to <code>len</code> characters of data from this piped stream into
      * an array of characters. Less than <code>len</code> characters will be read if
      * the end of the data stream is reached or if <code>len</code> exceeds the
-     * pipe's buffer size. This method blocks until at least one character of input
-     * is available.
+     * available chars. This method blocks until at least one character of input is
+     * available.
      *
      * @param cbuf
      *            the buffer into which the data is read.
@@ -341,18 +380,17 @@ public synchronized int read() throws IOException {
      *         <code>-1</code> if there is no more data because the end of the
      *         stream has been reached.
      * @exception IOException
-     *                if the pipe is <a href=PipedInputStream.html#BROKEN>
-     *                <code>broken</code></a>, {@link #connect(FastPipedWriter)
-     *                unconnected}, closed, or an I/O error occurs.
+     *                if the pipe is broken, unconnected, closed, or an I/O error
+     *                occurs.
      */
     @Override
-    public synchronized int read(char cbuf[], int off, int len) throws IOException {
+    public int read(char cbuf[], int off, int len) throws IOException {
 
         if (!connected) {
             throw new IOException("Pipe not connected"); //$NON-NLS-1$
         } else if (closedByReader) {
             throw new IOException("Pipe closed"); //$NON-NLS-1$
-        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && (in < 0)) {
+        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && writeCount == readCount) {
             throw new IOException("Write end dead"); //$NON-NLS-1$
         }
 
@@ -362,28 +400,23 @@ public synchronized int read(char cbuf[], int off, int len) throws IOException {
             return 0;
         }
 
-        readSide = Thread.currentThread();
-
-        /* possibly wait on the first character */
-        int c = read();
-        if (c < 0) {
+        int available = awaitData();
+        if (available < 0) {
             return -1;
         }
-        cbuf[off] = (char) c;
-        int rlen = 1;
-        while ((in >= 0) && (--len > 0)) {
-            cbuf[off + rlen] = buffer[out++];
-            rlen++;
-            if (out >= buffer.length) {
-                out = 0;
-            }
-            if (in == out) {
-                /* now empty */
-                in = -1;
-            }
+        final char[] buffer = this.buffer;
+        int n = Math.min(len, available);
+        long r = readCount;
+        int pos = (int) (r % buffer.length);
+        int first = Math.min(n, buffer.length - pos);
+        System.arraycopy(buffer, pos, cbuf, off, first);
+        if (first < n) {
+            System.arraycopy(buffer, 0, cbuf, off + first, n - first);
         }
-        notifyAll();
-        return rlen;
+        // releases the space to the writer
+        readCount = r + n;
+        wakeWriter();
+        return n;
     }
 
     /**
@@ -391,36 +424,30 @@ public synchronized int read(char cbuf[], int off, int len) throws IOException {
      * ready if the circular buffer is not empty.
      *
      * @exception IOException
-     *                if the pipe is <a href=PipedInputStream.html#BROKEN>
-     *                <code>broken</code></a>, {@link #connect(FastPipedWriter)
-     *                unconnected}, or closed.
+     *                if the pipe is broken, unconnected, or closed.
      */
     @Override
-    public synchronized boolean ready() throws IOException {
+    public boolean ready() throws IOException {
         if (!connected) {
             throw new IOException("Pipe not connected"); //$NON-NLS-1$
         } else if (closedByReader) {
             throw new IOException("Pipe closed"); //$NON-NLS-1$
-        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && (in < 0)) {
+        } else if (writeSide != null && !writeSide.isAlive() && !closedByWriter && writeCount == readCount) {
             throw new IOException("Write end dead"); //$NON-NLS-1$
         }
-        if (in < 0) {
-            return false;
-        } else {
-            return true;
-        }
+        return writeCount != readCount;
     }
 
     /**
-     * Closes this piped stream and releases any system resources associated with
-     * the stream.
+     * Closes this piped stream. A writer blocked on a full buffer is woken up and
+     * fails.
      *
      * @exception IOException
      *                if an I/O error occurs.
      */
     @Override
-    public synchronized void close() throws IOException {
-        in = -1;
+    public void close() throws IOException {
         closedByReader = true;
+        LockSupport.unpark(writeSide);
     }
 }
@@ -97,8 +97,6 @@ public synchronized void connect(FastPipedReader snk) throws IOException {
         }
 
         sink = snk;
-        snk.in = -1;
-        snk.out = 0;
         snk.connected = true;
     }
 
@@ -166,9 +164,7 @@ public synchronized void flush() throws IOException {
             if (sink.closedByReader || closed) {
                 throw new IOException("Pipe closed"); //$NON-NLS-1$
             }
-            synchronized (sink) {
-                sink.notifyAll();
-            }
+            sink.wakeReader();
         }
     }
 
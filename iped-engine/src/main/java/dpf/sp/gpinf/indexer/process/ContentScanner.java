@@ -0,0 +1,217 @@
+package dpf.sp.gpinf.indexer.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dpf.sp.gpinf.indexer.process.task.AbstractTask;
+import dpf.sp.gpinf.indexer.util.IOUtil;
+import iped3.IItem;
+
+/**
+ * Pipeline stage that reads the content of each item only once, in large
+ * blocks, and hands the blocks to all tasks that need to see every byte
+ * (digests, entropy, block hashing). It runs just before the first
+ * participating task of the worker processes the item. Tasks consume the
+ * results stored by their consumers and read the content themselves only if
+ * the item was not scanned.
+ *
+ * Participants after a task that may discard items (duplicates, known files)
+ * are not scanned with the ones before it, so their work is not wasted on
+ * items that will be ignored. They are scanned together later, when the first
+ * of them processes the item.
+ */
+public class ContentScanner {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ContentScanner.class);
+
+    private static final String SCANNED_ATTR = "contentScanned"; //$NON-NLS-1$
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final LongAdder scannedItems = new LongAdder();
+    private static final LongAdder scannedBytes = new LongAdder();
+    private static final LongAdder scanConsumers = new LongAdder();
+
+    /**
+     * Receives the blocks of one item, in order.
+     */
+    public interface BlockConsumer {
+
+        /**
+         * Consumes the next block. The array is not modified until the next call
+         * of this method returns, so it can still be used asynchronously.
+         */
+        void update(byte[] buf, int len) throws Exception;
+
+        /**
+         * Called after the whole content was consumed, to store the results.
+         */
+        void finish() throws Exception;
+
+        /**
+         * Called instead of finish() if the content could not be fully read, so
+         * the task must process the item by itself.
+         */
+        default void cancel() {
+        }
+    }
+
+    /**
+     * Implemented by tasks that can consume item content through the scanner.
+     */
+    public interface Participant {
+
+        /**
+         * @return a consumer for the content of the item, or null if the task will
+         *         not process it.
+         */
+        BlockConsumer createBlockConsumer(IItem evidence);
+    }
+
+    /**
+     * Implemented by tasks that may mark items to be ignored or not added to the
+     * case.
+     */
+    public interface ItemDiscarder {
+
+        /**
+         * @return true if, with the current configuration, the task may discard
+         *         items.
+         */
+        boolean mayDiscardItems();
+    }
+
+    private final List<AbstractTask> participants = new ArrayList<>();
+
+    /**
+     * Index of the last participant scanned together with each participant.
+     */
+    private final int[] groupEnd;
+
+    private final byte[][] buffers = new byte[2][];
+
+    public ContentScanner(List<AbstractTask> tasks) {
+        List<Integer> groupStarts = new ArrayList<>();
+        for (AbstractTask task : tasks) {
+            if (task instanceof Participant) {
+                participants.add(task);
+            } else if (task instanceof ItemDiscarder && task.isEnabled()
+                    && ((ItemDiscarder) task).mayDiscardItems()) {
+                groupStarts.add(participants.size());
+            }
+        }
+        groupEnd = new int[participants.size()];
+        int end = participants.size() - 1;
+        for (int i = participants.size() - 1; i >= 0; i--) {
+            groupEnd[i] = end;
+            if (groupStarts.contains(i)) {
+                end = i - 1;
+            }
+        }
+    }
+
+    /**
+     * Scans the item content if it was not scanned yet for the given task and at
+     * least two tasks, starting at the given one and up to the next task that may
+     * discard the item, want to consume it.
+     */
+    public void scan(IItem evidence, AbstractTask from) {
+        int start = participants.indexOf(from);
+        Integer scannedUpTo = (Integer) evidence.getTempAttribute(SCANNED_ATTR);
+        if (start < 0 || (scannedUpTo != null && start <= scannedUpTo)) {
+            return;
+        }
+        evidence.setTempAttribute(SCANNED_ATTR, groupEnd[start]);
+
+        List<BlockConsumer> consumers = new ArrayList<>();
+        for (int i = start; i <= groupEnd[start]; i++) {
+            AbstractTask task = participants.get(i);
+            if (task.isEnabled()) {
+                BlockConsumer consumer = ((Participant) task).createBlockConsumer(evidence);
+                if (consumer != null) {
+                    consumers.add(consumer);
+                }
+            }
+        }
+        if (consumers.size() < 2) {
+            // nothing is saved, let the task read the content as usual
+            cancel(consumers);
+            return;
+        }
+        if (buffers[0] == null) {
+            buffers[0] = new byte[BLOCK_SIZE];
+            buffers[1] = new byte[BLOCK_SIZE];
+        }
+
+        InputStream in = null;
+        long bytes = 0;
+        try {
+            in = evidence.getBufferedStream();
+            int i = 0;
+            int len;
+            while ((len = IOUtils.read(in, buffers[i])) > 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    cancel(consumers);
+                    return;
+                }
+                for (int j = 0; j < consumers.size(); j++) {
+                    try {
+                        consumers.get(j).update(buffers[i], len);
+                    } catch (Exception e) {
+                        LOGGER.warn("{} Error scanning content of {}\t{}", Thread.currentThread().getName(), //$NON-NLS-1$
+                                evidence.getPath(), e.toString());
+                        consumers.remove(j--).cancel();
+                    }
+                }
+                bytes += len;
+                i ^= 1;
+            }
+        } catch (IOException e) {
+            // tasks will read the item again and handle the error themselves
+            cancel(consumers);
+            return;
+
+        } finally {
+            IOUtil.closeQuietly(in);
+        }
+
+        for (BlockConsumer consumer : consumers) {
+            try {
+                consumer.finish();
+            } catch (Exception e) {
+                LOGGER.warn("{} Error scanning content of {}\t{}", Thread.currentThread().getName(), //$NON-NLS-1$
+                        evidence.getPath(), e.toString());
+                consumer.cancel();
+            }
+        }
+        scannedItems.increment();
+        scannedBytes.add(bytes);
+        scanConsumers.add(consumers.size());
+    }
+
+    private static void cancel(List<BlockConsumer> consumers) {
+        for (BlockConsumer consumer : consumers) {
+            consumer.cancel();
+        }
+    }
+
+    public static long getScannedItems() {
+        return scannedItems.sum();
+    }
+
+    public static long getScannedBytes() {
+        return scannedBytes.sum();
+    }
+
+    public static long getScanConsumers() {
+        return scanConsumers.sum();
+    }
+
+}
@@ -317,7 +317,9 @@ public static Document Document(IItem evidence, Reader reader, File output) {
             value = ""; //$NON-NLS-1$
         }
         doc.add(new StringField(CREATED, value, Field.Store.YES));
-        doc.add(new SortedDocValuesField(CREATED, new BytesRef(value)));
+        if (date != null) {
+            addDateToDoc(doc, CREATED, date, false);
+        }
         timeEventSet.add(new TimeStampEvent(value, CREATED));
 
         date = evidence.getAccessDate();
@@ -327,7 +329,9 @@ public static Document Document(IItem evidence, Reader reader, File output) {
             value = ""; //$NON-NLS-1$
         }
         doc.add(new StringField(ACCESSED, value, Field.Store.YES));
-        doc.add(new SortedDocValuesField(ACCESSED, new BytesRef(value)));
+        if (date != null) {
+            addDateToDoc(doc, ACCESSED, date, false);
+        }
         timeEventSet.add(new TimeStampEvent(value, ACCESSED));
 
         date = evidence.getModDate();
@@ -337,7 +341,9 @@ public static Document Document(IItem evidence, Reader reader, File output) {
             value = ""; //$NON-NLS-1$
         }
         doc.add(new StringField(MODIFIED, value, Field.Store.YES));
-        doc.add(new SortedDocValuesField(MODIFIED, new BytesRef(value)));
+        if (date != null) {
+            addDateToDoc(doc, MODIFIED, date, false);
+        }
         timeEventSet.add(new TimeStampEvent(value, MODIFIED));
 
         date = evidence.getRecordDate();
@@ -347,7 +353,9 @@ public static Document Document(IItem evidence, Reader reader, File output) {
             value = ""; //$NON-NLS-1$
         }
         doc.add(new StringField(RECORDDATE, value, Field.Store.YES));
-        doc.add(new SortedDocValuesField(RECORDDATE, new BytesRef(value)));
+        if (date != null) {
+            addDateToDoc(doc, RECORDDATE, date, false);
+        }
         timeEventSet.add(new TimeStampEvent(value, RECORDDATE));
 
         value = evidence.getPath();
@@ -566,6 +574,29 @@ public int compareTo(TimeStampEvent o) {
 
     }
 
+    /**
+     * Indexes the date as epoch millis, so range queries use points and sorting
+     * compares numbers. Doc values get the numeric prefix because cases indexed
+     * before stored date strings as doc values with the plain field name, and
+     * both kinds of cases can be opened together.
+     */
+    private static void addDateToDoc(Document doc, String key, Date date, boolean isMultiValued) {
+        long time = date.getTime();
+        doc.add(new LongPoint(key, time));
+        if (!isMultiValued)
+            doc.add(new NumericDocValuesField(POSSIBLE_NUM_DOCVALUES_PREFIX + key, time));
+        else
+            doc.add(new SortedNumericDocValuesField(POSSIBLE_NUM_DOCVALUES_PREFIX + key, time));
+    }
+
+    /**
+     * @return true if values of the field are indexed as dates.
+     */
+    public static boolean isDateField(String field) {
+        return CREATED.equals(field) || ACCESSED.equals(field) || MODIFIED.equals(field)
+                || RECORDDATE.equals(field) || Date.class.equals(typesMap.get(field));
+    }
+
     private static void addExtraAttributeToDoc(Document doc, String key, Object oValue, boolean isMetadataKey,
             boolean isMultiValued, Set<TimeStampEvent> timeEventSet) {
         boolean isString = false;
@@ -582,10 +613,7 @@ private static void addExtraAttributeToDoc(Document doc, String key, Object oVal
             String value = DateUtils.formatDate((Date) oValue);
             // query parser converts range queries to lowercase
             doc.add(new StringField(key, value.toLowerCase(), Field.Store.YES));
-            if (!isMultiValued)
-                doc.add(new SortedDocValuesField(key, new BytesRef(value)));
-            else
-                doc.add(new SortedSetDocValuesField(key, new BytesRef(value)));
+            addDateToDoc(doc, key, (Date) oValue, isMultiValued);
 
             timeEventSet.add(new TimeStampEvent(value, key));
 
@@ -0,0 +1,172 @@
+package dpf.sp.gpinf.indexer.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.store.Directory;
+
+import dpf.sp.gpinf.indexer.util.ConfiguredFSDirectory;
+import dpf.sp.gpinf.indexer.util.IOUtil;
+
+/**
+ * Index writers used in parallel by groups of workers. The first one writes to
+ * the case index, the others to sub-index directories beside it, which are
+ * added to the case index when processing finishes. Readers opened while
+ * processing, with {@link #openReader(IndexWriter, boolean, boolean)}, see the
+ * documents of all writers of the group.
+ */
+public class IndexWriterGroup {
+
+    private static final String SUB_INDEX_SEPARATOR = "-"; //$NON-NLS-1$
+
+    private static final Map<IndexWriter, IndexWriterGroup> groups = Collections
+            .synchronizedMap(new IdentityHashMap<IndexWriter, IndexWriterGroup>());
+
+    private final IndexWriter[] writers;
+
+    private final File[] dirs;
+
+    public IndexWriterGroup(IndexWriter[] writers, File[] dirs) {
+        this.writers = writers;
+        this.dirs = dirs;
+        for (IndexWriter writer : writers) {
+            groups.put(writer, this);
+        }
+    }
+
+    public static File getSubIndexDir(File indexDir, int num) {
+        return new File(indexDir.getParentFile(), indexDir.getName() + SUB_INDEX_SEPARATOR + num);
+    }
+
+    /**
+     * @return number of sub-index directories left by a previous interrupted
+     *         processing, which must be reopened to continue it.
+     */
+    public static int getExistingSubIndexes(File indexDir) {
+        int num = 0;
+        while (getSubIndexDir(indexDir, num + 1).exists()) {
+            num++;
+        }
+        return num;
+    }
+
+    public int size() {
+        return writers.length;
+    }
+
+    public IndexWriter get(int i) {
+        return writers[i];
+    }
+
+    public File getDir(int i) {
+        return dirs[i];
+    }
+
+    /**
+     * Opens a near real time reader of all documents added by the group of the
+     * writer, or only by the writer if it does not belong to a group.
+     */
+    public static IndexReader openReader(IndexWriter writer, boolean applyAllDeletes, boolean writeAllDeletes)
+            throws IOException {
+        IndexWriterGroup group = groups.get(writer);
+        if (group == null || group.writers.length == 1) {
+            return DirectoryReader.open(writer, applyAllDeletes, writeAllDeletes);
+        }
+        List<IndexReader> readers = new ArrayList<>();
+        try {
+            for (IndexWriter w : group.writers) {
+                readers.add(DirectoryReader.open(w, applyAllDeletes, writeAllDeletes));
+            }
+        } catch (IOException e) {
+            for (IndexReader reader : readers) {
+                reader.close();
+            }
+            throw e;
+        }
+        return new MultiReader(readers.toArray(new IndexReader[readers.size()]), true);
+    }
+
+    /**
+     * Runs the first phase of the commit of every writer. If it fails, the group
+     * must be rolled back with {@link #rollback()}.
+     */
+    public void prepareCommit() throws IOException {
+        for (IndexWriter writer : writers) {
+            writer.prepareCommit();
+        }
+    }
+
+    /**
+     * Finishes the prepared commits, one writer at a time. It is not atomic for
+     * the group: if the processing is killed in the middle, the sub-indexes are
+     * left at different commit points. --continue tolerates it, as items of a
+     * writer not committed are processed again, and --restart opens every writer
+     * at its first commit, the state before the processing, which all share.
+     */
+    public void commit() throws IOException {
+        for (IndexWriter writer : writers) {
+            writer.commit();
+        }
+    }
+
+    public void rollback() throws IOException {
+        unregister();
+        IOException exception = null;
+        for (IndexWriter writer : writers) {
+            try {
+                writer.rollback();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Closes the sub-index writers and adds their segments to the first writer,
+     * which is left open. Sub-index directories are deleted after the first
+     * writer is committed, by {@link #deleteSubIndexes()}.
+     */
+    public void mergeSubIndexes() throws IOException {
+        if (writers.length == 1) {
+            return;
+        }
+        Directory[] subDirs = new Directory[writers.length - 1];
+        for (int i = 1; i < writers.length; i++) {
+            groups.remove(writers[i]);
+            writers[i].close();
+            subDirs[i - 1] = ConfiguredFSDirectory.open(dirs[i]);
+        }
+        try {
+            writers[0].addIndexes(subDirs);
+        } finally {
+            for (Directory dir : subDirs) {
+                dir.close();
+            }
+        }
+    }
+
+    public void deleteSubIndexes() throws IOException {
+        for (int i = 1; i < dirs.length; i++) {
+            IOUtil.deleteDirectory(dirs[i], true);
+        }
+    }
+
+    public void unregister() {
+        for (IndexWriter writer : writers) {
+            groups.remove(writer);
+        }
+    }
+
+}
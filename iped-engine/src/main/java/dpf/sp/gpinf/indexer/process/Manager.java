@@ -123,8 +123,10 @@ public class Manager {
     private ItemProducer counter, producer;
     private Worker[] workers;
     private IndexWriter writer;
+    private IndexWriterGroup writers;
 
     public Statistics stats;
+    private ProcessingMetrics metrics;
     public Exception exception;
 
     private boolean isSearchAppOpen = false;
@@ -219,6 +221,10 @@ public void process() throws Exception {
             LOGGER.info("Evidence " + (i++) + ": '{}'", source.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
         }
 
+        metrics = new ProcessingMetrics(stats, caseData);
+        metrics.start(advancedConfig.getMetricsHttpPort(), advancedConfig.getMetricsDumpIntervalSeconds(),
+                getMetricsFile());
+
         try {
             if (!iniciarIndexacao())
                 return;
@@ -241,6 +247,7 @@ public void process() throws Exception {
 
         } finally {
             closeItemProducers();
+            metrics.stop();
         }
 
         filtrarPalavrasChave();
@@ -269,6 +276,18 @@ public static boolean isProcessingFinishedOK(File moduleDir) {
         return getFinishedFileFlag(moduleDir).exists();
     }
 
+    /**
+     * Metrics dump is written next to the log file, or in the output folder if
+     * logging to the console.
+     */
+    private File getMetricsFile() {
+        String logPath = System.getProperty("logFileNamePath"); //$NON-NLS-1$
+        if (logPath != null) {
+            return new File(logPath.replaceFirst("\\.log$", "") + "-metrics.json"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        return new File(output, "metrics.json"); //$NON-NLS-1$
+    }
+
     private void closeItemProducers() {
         if (counter != null) {
             try {
@@ -296,7 +315,9 @@ private void interromperIndexacao() throws Exception {
             }
         }
         ParsingReader.shutdownTasks();
-        if (writer != null) {
+        if (writers != null) {
+            writers.rollback();
+        } else if (writer != null) {
             writer.rollback();
         }
 
@@ -339,7 +360,7 @@ private void changeTempDir() throws UnsupportedEncodingException, IOException {
 
     private void loadExistingData() throws IOException {
 
-        try (IndexReader reader = DirectoryReader.open(writer, true, true)) {
+        try (IndexReader reader = IndexWriterGroup.openReader(writer, true, true)) {
             stats.previousIndexedFiles = reader.numDocs();
         }
 
@@ -350,6 +371,15 @@ private void loadExistingData() throws IOException {
     }
 
     private IndexWriterConfig getIndexWriterConfig() {
+        return getIndexWriterConfig(1);
+    }
+
+    /**
+     * @param numWriters
+     *            number of writers used in parallel, which share the RAM buffer
+     *            budget and the merge threads.
+     */
+    private IndexWriterConfig getIndexWriterConfig(int numWriters) {
         IndexWriterConfig conf = new IndexWriterConfig(AppAnalyzer.get());
         conf.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
 
@@ -358,10 +388,11 @@ private IndexWriterConfig getIndexWriterConfig() {
         ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
         mergeScheduler.disableAutoIOThrottle();
         if ((localConfig.isIndexTempOnSSD() && indexDir != finalIndexDir) || localConfig.isOutputOnSSD()) {
-            mergeScheduler.setMaxMergesAndThreads(8, 4);
+            int mergeThreads = Math.max(4, Runtime.getRuntime().availableProcessors() / (4 * numWriters));
+            mergeScheduler.setMaxMergesAndThreads(mergeThreads + 4, mergeThreads);
         }
         conf.setMergeScheduler(mergeScheduler);
-        conf.setRAMBufferSizeMB(64);
+        conf.setRAMBufferSizeMB(getRAMBufferSizeMB(numWriters));
         TieredMergePolicy tieredPolicy = new TieredMergePolicy();
         /*
          * Seta tamanho máximo dos subíndices. Padrão é 5GB. Poucos subíndices grandes
@@ -377,37 +408,55 @@ private IndexWriterConfig getIndexWriterConfig() {
         return conf;
     }
 
+    /**
+     * Indexing buffers use up to 5% of the heap, divided among the writers, so
+     * big heaps flush bigger segments and merge less.
+     */
+    private static double getRAMBufferSizeMB(int numWriters) {
+        long heapMB = Runtime.getRuntime().maxMemory() >> 20;
+        return Math.max(64, Math.min(512, heapMB / 20 / numWriters));
+    }
+
     private void removeEvidence(String uuid) throws IOException {
         Level CONSOLE = Level.getLevel("MSG"); //$NON-NLS-1$
         LOGGER.log(CONSOLE,
                 "WARN: removing evidence does NOT update duplicate flag, graph and internal storage for now!");
         LOGGER.log(CONSOLE, "Removing evidence with UUID {} from index...", uuid);
         TermQuery query = new TermQuery(new Term(BasicProps.EVIDENCE_UUID, uuid));
-        int prevDocs = writer.numDocs();
-        writer.deleteDocuments(query);
-        writer.commit();
-        int deletes = prevDocs - writer.numDocs();
+        int deletes = 0;
+        for (int i = 0; i < writers.size(); i++) {
+            IndexWriter w = writers.get(i);
+            int prevDocs = w.numDocs();
+            w.deleteDocuments(query);
+            w.commit();
+            deletes += prevDocs - w.numDocs();
+        }
         LOGGER.log(CONSOLE, "Deleted about {} raw documents from index.", deletes);
-        writer.close();
+        writers.unregister();
+        for (int i = 0; i < writers.size(); i++) {
+            writers.get(i).close();
+        }
     }
 
     private boolean iniciarIndexacao() throws Exception {
         WorkerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.CreatingIndex")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         LOGGER.info("Creating index..."); //$NON-NLS-1$
 
-        boolean newIndex = !indexDir.exists();
-        Directory directory = ConfiguredFSDirectory.open(indexDir);
-        IndexWriterConfig config = getIndexWriterConfig();
-        
-        if (args.isRestart()) {
-            List<IndexCommit> commits = DirectoryReader.listCommits(directory);
-            config.setIndexCommit(commits.get(0));
+        // new writers are limited by the threads, but all sub-indexes of an
+        // interrupted processing must be reopened and merged, even if there are fewer
+        // threads now, or their documents would be lost or later added twice
+        int numWriters = Math.min(advancedConfig.getNumIndexWriters(), localConfig.getNumThreads());
+        numWriters = Math.max(numWriters, IndexWriterGroup.getExistingSubIndexes(indexDir) + 1);
+        IndexWriter[] indexWriters = new IndexWriter[numWriters];
+        File[] dirs = new File[numWriters];
+        for (int i = 0; i < numWriters; i++) {
+            dirs[i] = i == 0 ? indexDir : IndexWriterGroup.getSubIndexDir(indexDir, i);
+            indexWriters[i] = openIndexWriter(dirs[i], numWriters);
         }
-
-        writer = new IndexWriter(directory, config);
-        if (newIndex) {
-            // first empty commit to be used by --restart
-            writer.commit();
+        writers = new IndexWriterGroup(indexWriters, dirs);
+        writer = indexWriters[0];
+        if (numWriters > 1) {
+            LOGGER.info("Using {} index writers", numWriters); //$NON-NLS-1$
         }
 
         if (args.isAppendIndex() || args.isContinue() || args.isRestart()) {
@@ -421,7 +470,7 @@ private boolean iniciarIndexacao() throws Exception {
 
         workers = new Worker[localConfig.getNumThreads()];
         for (int k = 0; k < workers.length; k++) {
-            workers[k] = new Worker(k, caseData, writer, output, this);
+            workers[k] = new Worker(k, caseData, writers.get(k % writers.size()), output, this);
         }
 
         // Execução dos workers após todos terem sido instanciados e terem inicializado
@@ -435,6 +484,32 @@ private boolean iniciarIndexacao() throws Exception {
         return true;
     }
 
+    /**
+     * With --restart, every writer of the group is opened at its first commit,
+     * done before the interrupted processing started, which all of them share.
+     * Their last commits may differ, see {@link IndexWriterGroup#commit()}.
+     */
+    private IndexWriter openIndexWriter(File dir, int numWriters) throws IOException {
+        Directory directory = ConfiguredFSDirectory.open(dir);
+        boolean newIndex = !DirectoryReader.indexExists(directory);
+        IndexWriterConfig config = getIndexWriterConfig(numWriters);
+
+        if (newIndex) {
+            // sub-index not created by the interrupted processing
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        } else if (args.isRestart()) {
+            List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+            config.setIndexCommit(commits.get(0));
+        }
+
+        IndexWriter indexWriter = new IndexWriter(directory, config);
+        if (newIndex) {
+            // first empty commit to be used by --restart
+            indexWriter.commit();
+        }
+        return indexWriter;
+    }
+
     private void monitorarIndexacao() throws Exception {
 
         boolean someWorkerAlive = true;
@@ -476,7 +551,8 @@ private void monitorarIndexacao() throws Exception {
             }
             
             IItem queueEnd = caseData.getItemQueue().peek();
-            boolean justQueueEndLeft = queueEnd != null && queueEnd.isQueueEnd() && caseData.getItemQueue().size() == 1;
+            boolean justQueueEndLeft = queueEnd != null && queueEnd.isQueueEnd() && caseData.getItemQueue().size() == 1
+                    && numItensInWorkerQueues() == 0;
 
             if (!justQueueEndLeft || producer.isAlive())
                 someWorkerAlive = true;
@@ -522,7 +598,7 @@ public void run() {
                 try {
                     long start = System.currentTimeMillis() / 1000;
                     LOGGER.info("Prepare commit started...");
-                    writer.prepareCommit();
+                    writers.prepareCommit();
 
                     // commit other control data
                     IndexTask.saveExtraAttributes(output);
@@ -536,7 +612,7 @@ public void run() {
 
                     ExportCSVTask.commit(output);
 
-                    writer.commit();
+                    writers.commit();
                     long end = System.currentTimeMillis() / 1000;
                     LOGGER.info("Commit finished in " + (end - start) + "s");
                     partialCommitsTime.addAndGet(end - start);
@@ -545,7 +621,7 @@ public void run() {
                     exception = e;
                     try {
                         LOGGER.error("Error commiting. Rollback commit started...");
-                        writer.rollback();
+                        writers.rollback();
                         LOGGER.error("Rollback commit finished.");
 
                     } catch (IOException e1) {
@@ -566,6 +642,17 @@ public synchronized int numItensBeingProcessed() {
         return num;
     }
 
+    /**
+     * @return número de subitens aguardando nas filas locais dos workers.
+     */
+    public int numItensInWorkerQueues() {
+        int num = 0;
+        for (int k = 0; k < workers.length; k++) {
+            num += workers[k].localQueue.size();
+        }
+        return num;
+    }
+
     private void finalizarIndexacao() throws Exception {
 
         if (commitThread != null && commitThread.isAlive()) {
@@ -579,6 +666,11 @@ private void finalizarIndexacao() throws Exception {
             workers[k].finish();
         }
 
+        if (writers.size() > 1) {
+            LOGGER.info("Adding {} sub-indexes to index...", writers.size() - 1); //$NON-NLS-1$
+            writers.mergeSubIndexes();
+        }
+
         if (advancedConfig.isForceMerge()) {
             WorkerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.Optimizing")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
             LOGGER.info("Optimizing Index..."); //$NON-NLS-1$
@@ -594,8 +686,11 @@ private void finalizarIndexacao() throws Exception {
 
         WorkerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.ClosingIndex")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         LOGGER.info("Closing Index..."); //$NON-NLS-1$
+        writers.unregister();
         writer.close();
         writer = null;
+        writers.deleteSubIndexes();
+        writers = null;
 
         if (!indexDir.getCanonicalPath().equalsIgnoreCase(finalIndexDir.getCanonicalPath())) {
             WorkerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.CopyingIndex")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
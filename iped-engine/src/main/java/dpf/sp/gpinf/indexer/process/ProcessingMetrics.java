@@ -0,0 +1,225 @@
+package dpf.sp.gpinf.indexer.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+import dpf.sp.gpinf.indexer.process.task.ExportFileTask;
+import dpf.sp.gpinf.indexer.util.LatencyHistogram;
+import dpf.sp.gpinf.indexer.util.SleuthkitClient;
+import gpinf.dev.data.Item;
+import iped3.ICaseData;
+
+/**
+ * Exposes the processing statistics while a case is processed: as a JMX bean,
+ * through a local HTTP endpoint (/metrics) and as a JSON file rewritten
+ * periodically next to the log file.
+ */
+public class ProcessingMetrics implements ProcessingMetricsMBean {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ProcessingMetrics.class);
+
+    private static final String OBJECT_NAME = "iped:type=ProcessingMetrics"; //$NON-NLS-1$
+
+    private final Statistics stats;
+    private final ICaseData caseData;
+    private final long startTime = System.currentTimeMillis();
+
+    private ObjectName objectName;
+    private HttpServer server;
+    private ScheduledExecutorService dumper;
+    private File dumpFile;
+
+    public ProcessingMetrics(Statistics stats, ICaseData caseData) {
+        this.stats = stats;
+        this.caseData = caseData;
+    }
+
+    /**
+     * @param httpPort
+     *            local port of the HTTP endpoint, 0 to disable it.
+     * @param dumpIntervalSeconds
+     *            interval to rewrite dumpFile, 0 to disable it.
+     */
+    public void start(int httpPort, int dumpIntervalSeconds, File dumpFile) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!mbs.isRegistered(name)) {
+                mbs.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Error registering JMX processing metrics", e); //$NON-NLS-1$
+        }
+
+        if (httpPort > 0) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+                server.createContext("/metrics", exchange -> { //$NON-NLS-1$
+                    byte[] response = getMetricsJson().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+                    exchange.sendResponseHeaders(200, response.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(response);
+                    }
+                });
+                server.start();
+                LOGGER.info("Processing metrics available at http://localhost:{}/metrics", httpPort); //$NON-NLS-1$
+            } catch (IOException e) {
+                LOGGER.warn("Error starting metrics HTTP server on port {}: {}", httpPort, e.toString()); //$NON-NLS-1$
+                server = null;
+            }
+        }
+
+        if (dumpIntervalSeconds > 0 && dumpFile != null) {
+            this.dumpFile = dumpFile;
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "MetricsDumper"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            });
+            dumper.scheduleWithFixedDelay(this::dump, dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Writes the last dump and releases the HTTP port and the JMX name.
+     */
+    public void stop() {
+        if (dumper != null) {
+            dumper.shutdown();
+            try {
+                dumper.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dump();
+            dumper = null;
+        }
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                // ignore
+            }
+            objectName = null;
+        }
+    }
+
+    private synchronized void dump() {
+        File tmp = new File(dumpFile.getPath() + ".tmp"); //$NON-NLS-1$
+        try {
+            Files.write(tmp.toPath(), getMetricsJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), dumpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            LOGGER.warn("Error writing processing metrics to {}: {}", dumpFile.getPath(), e.toString()); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public int getProcessed() {
+        return stats.getProcessed();
+    }
+
+    @Override
+    public int getDiscovered() {
+        return caseData.getDiscoveredEvidences();
+    }
+
+    @Override
+    public long getProcessedVolume() {
+        return stats.getVolume();
+    }
+
+    @Override
+    public int getTimeouts() {
+        return stats.getTimeouts();
+    }
+
+    @Override
+    public int getIoErrors() {
+        return stats.getIoErrors();
+    }
+
+    @Override
+    public int getIgnored() {
+        return stats.getIgnored();
+    }
+
+    @Override
+    public long getContentBytesRead() {
+        return Item.getBufferedStreamBytesRead();
+    }
+
+    @Override
+    public String getMetricsJson() {
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("discovered", caseData.getDiscoveredEvidences()); //$NON-NLS-1$
+        counters.put("discoveredVolume", caseData.getDiscoveredVolume()); //$NON-NLS-1$
+        counters.put("processed", stats.getProcessed()); //$NON-NLS-1$
+        counters.put("activeProcessed", stats.getActiveProcessed()); //$NON-NLS-1$
+        counters.put("processedVolume", stats.getVolume()); //$NON-NLS-1$
+        counters.put("timeouts", stats.getTimeouts()); //$NON-NLS-1$
+        counters.put("ioErrors", stats.getIoErrors()); //$NON-NLS-1$
+        counters.put("ignored", stats.getIgnored()); //$NON-NLS-1$
+        counters.put("carvedIgnored", stats.getCorruptCarveIgnored()); //$NON-NLS-1$
+        counters.put("splits", stats.getSplits()); //$NON-NLS-1$
+        counters.put("contentBytesRead", Item.getBufferedStreamBytesRead()); //$NON-NLS-1$
+        counters.put("contentScannedItems", ContentScanner.getScannedItems()); //$NON-NLS-1$
+        counters.put("contentScannedBytes", ContentScanner.getScannedBytes()); //$NON-NLS-1$
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("timestamp", System.currentTimeMillis()); //$NON-NLS-1$
+        json.put("uptimeSeconds", (System.currentTimeMillis() - startTime) / 1000); //$NON-NLS-1$
+        json.put("counters", counters); //$NON-NLS-1$
+        json.put("tasks", toJson(stats.getTaskLatencies())); //$NON-NLS-1$
+        json.put("mediaTypes", toJson(stats.getMediaTypeLatencies())); //$NON-NLS-1$
+        json.put("storage", ExportFileTask.getStorageMetrics()); //$NON-NLS-1$
+        json.put("sleuthkitServers", SleuthkitClient.getIPCMetrics()); //$NON-NLS-1$
+        return JSONValue.toJSONString(json);
+    }
+
+    private static Map<String, Object> toJson(Map<String, LatencyHistogram> histograms) {
+        Map<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", h.getCount()); //$NON-NLS-1$
+            values.put("totalMs", h.getTotalNanos() / 1000000); //$NON-NLS-1$
+            values.put("meanUs", h.getMeanNanos() / 1000); //$NON-NLS-1$
+            values.put("p50Us", h.getPercentile(50) / 1000); //$NON-NLS-1$
+            values.put("p90Us", h.getPercentile(90) / 1000); //$NON-NLS-1$
+            values.put("p99Us", h.getPercentile(99) / 1000); //$NON-NLS-1$
+            values.put("maxUs", h.getPercentile(100) / 1000); //$NON-NLS-1$
+            result.put(entry.getKey(), values);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,28 @@
+package dpf.sp.gpinf.indexer.process;
+
+/**
+ * Processing metrics exposed through JMX.
+ */
+public interface ProcessingMetricsMBean {
+
+    int getProcessed();
+
+    int getDiscovered();
+
+    long getProcessedVolume();
+
+    int getTimeouts();
+
+    int getIoErrors();
+
+    int getIgnored();
+
+    long getContentBytesRead();
+
+    /**
+     * @return all counters and latency percentiles per task and per media type,
+     *         as JSON.
+     */
+    String getMetricsJson();
+
+}
@@ -8,14 +8,23 @@
 import java.io.ObjectOutputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JOptionPane;
 
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.tika.mime.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,7 +40,10 @@
 import dpf.sp.gpinf.indexer.process.task.regex.RegexTask;
 import dpf.sp.gpinf.indexer.util.ConfiguredFSDirectory;
 import dpf.sp.gpinf.indexer.util.HashValue;
+import dpf.sp.gpinf.indexer.util.LatencyHistogram;
+import dpf.sp.gpinf.indexer.util.TextCache;
 import dpf.sp.gpinf.indexer.util.Util;
+import gpinf.dev.data.Item;
 import iped3.ICaseData;
 import iped3.IItem;
 
@@ -56,16 +68,20 @@ public class Statistics {
 
     // EstatÃ­sticas
     Date start = new Date();
-    int splits = 0;
-    int timeouts = 0;
-    int processed = 0;
-    int activeProcessed = 0;
-    long volumeIndexed = 0;
-    int lastId = -1;
-    int corruptCarveIgnored = 0;
-    int ignored = 0;
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder activeProcessed = new LongAdder();
+    private final LongAdder volumeIndexed = new LongAdder();
+    private final AtomicInteger lastId = new AtomicInteger(-1);
+    private final LongAdder corruptCarveIgnored = new LongAdder();
+    private final LongAdder ignored = new LongAdder();
     int previousIndexedFiles = 0;
-    int ioerrors = 0;
+    private final LongAdder ioerrors = new LongAdder();
+
+    // Latências de processamento, por tarefa e por tipo de item
+    private final Map<String, LatencyHistogram> taskLatencies = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> mediaTypeLatencies = new ConcurrentHashMap<>();
 
     public static Statistics get(ICaseData caseData, File indexDir) {
         if (instance == null) {
@@ -128,82 +144,105 @@ public void commit() throws IOException {
         Util.fsync(file.toPath());
     }
 
-    synchronized public int getSplits() {
-        return splits;
+    public int getSplits() {
+        return splits.intValue();
     }
 
-    synchronized public void incSplits() {
-        splits++;
+    public void incSplits() {
+        splits.increment();
     }
 
-    synchronized public int getTimeouts() {
-        return timeouts;
+    public int getTimeouts() {
+        return timeouts.intValue();
     }
 
-    synchronized public void incTimeouts() {
-        timeouts++;
+    public void incTimeouts() {
+        timeouts.increment();
     }
 
-    synchronized public void incProcessed() {
-        processed++;
+    public void incProcessed() {
+        processed.increment();
     }
 
-    synchronized public int getProcessed() {
-        return processed;
+    public int getProcessed() {
+        return processed.intValue();
     }
 
-    synchronized public void incIoErrors() {
-        ioerrors++;
+    public void incIoErrors() {
+        ioerrors.increment();
     }
 
-    synchronized public int getIoErrors() {
-        return ioerrors;
+    public int getIoErrors() {
+        return ioerrors.intValue();
     }
 
-    synchronized public void incActiveProcessed() {
-        activeProcessed++;
+    public void incActiveProcessed() {
+        activeProcessed.increment();
     }
 
-    synchronized public int getActiveProcessed() {
-        return activeProcessed;
+    public int getActiveProcessed() {
+        return activeProcessed.intValue();
     }
 
-    synchronized public void addVolume(long volume) {
-        volumeIndexed += volume;
+    public void addVolume(long volume) {
+        volumeIndexed.add(volume);
     }
 
-    synchronized public long getVolume() {
-        return volumeIndexed;
+    public long getVolume() {
+        return volumeIndexed.sum();
     }
 
-    synchronized public int getCorruptCarveIgnored() {
-        return corruptCarveIgnored;
+    public int getCorruptCarveIgnored() {
+        return corruptCarveIgnored.intValue();
     }
 
-    private synchronized void incCorruptCarveIgnored() {
-        corruptCarveIgnored++;
+    private void incCorruptCarveIgnored() {
+        corruptCarveIgnored.increment();
     }
 
-    synchronized public int getIgnored() {
-        return ignored;
+    public int getIgnored() {
+        return ignored.intValue();
     }
 
-    synchronized public void incIgnored() {
-        ignored++;
+    public void incIgnored() {
+        ignored.increment();
     }
 
-    synchronized public void updateLastId(int id) {
-        if (id > lastId) {
-            lastId = id;
-        }
+    public void updateLastId(int id) {
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    public int getLastId() {
+        return lastId.get();
+    }
+
+    public void setLastId(int id) {
+        lastId.set(id);
     }
 
-    synchronized public int getLastId() {
-        return lastId;
+    /**
+     * Registra o tempo de processamento de um item por uma tarefa, sem o tempo
+     * dos subitens.
+     */
+    public void addTaskTime(String taskName, long nanos) {
+        taskLatencies.computeIfAbsent(taskName, k -> new LatencyHistogram()).record(nanos);
     }
 
-    synchronized public void setLastId(int id) {
-        lastId = id;
+    /**
+     * Registra o tempo de processamento de um item em todas as tarefas, sem o
+     * tempo dos subitens.
+     */
+    public void addItemTime(MediaType mediaType, long nanos) {
+        String type = mediaType != null ? mediaType.getBaseType().toString() : "null"; //$NON-NLS-1$
+        mediaTypeLatencies.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    public Map<String, LatencyHistogram> getTaskLatencies() {
+        return Collections.unmodifiableMap(taskLatencies);
+    }
+
+    public Map<String, LatencyHistogram> getMediaTypeLatencies() {
+        return Collections.unmodifiableMap(mediaTypeLatencies);
     }
 
     public void logarEstatisticas(Manager manager) throws Exception {
@@ -232,6 +271,11 @@ public void logarEstatisticas(Manager manager) throws Exception {
                     + Math.round((100f * sec) / totalTime) + "%)"); //$NON-NLS-1$
         }
 
+        logLatencies();
+        logWorkerQueues(workers);
+        logTextCache();
+        logContentScan();
+
         LOGGER.info("Partial commits took {} seconds", manager.partialCommitsTime.get());
         LOGGER.info("File Splits: {}", getSplits()); //$NON-NLS-1$
         LOGGER.info("Timeouts: {}", getTimeouts()); //$NON-NLS-1$
@@ -283,6 +327,48 @@ public void logarEstatisticas(Manager manager) throws Exception {
                     "Alert: Errors while reading " + getIoErrors() + " items! Maybe the datasource was unavailable!"); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
+    private void logLatencies() {
+        for (Entry<String, LatencyHistogram> entry : new TreeMap<>(taskLatencies).entrySet()) {
+            LOGGER.info("{} latency: {}", entry.getKey(), entry.getValue()); //$NON-NLS-1$
+        }
+        List<Entry<String, LatencyHistogram>> types = new ArrayList<>(mediaTypeLatencies.entrySet());
+        types.sort((a, b) -> Long.compare(b.getValue().getTotalNanos(), a.getValue().getTotalNanos()));
+        for (Entry<String, LatencyHistogram> entry : types.subList(0, Math.min(20, types.size()))) {
+            LOGGER.info("{} latency: {}", entry.getKey(), entry.getValue()); //$NON-NLS-1$
+        }
+    }
+
+    private void logTextCache() {
+        LOGGER.info("Text cache readers: {} from memory, {} from disk", TextCache.getMemoryReaders(), //$NON-NLS-1$
+                TextCache.getDiskReaders());
+        LOGGER.info("Text cache spilled to disk: {} items, {} MB of text written as {} MB", //$NON-NLS-1$
+                TextCache.getSpilledFiles(), TextCache.getSpilledChars() * 2 / (1 << 20),
+                TextCache.getSpilledBytes() / (1 << 20));
+        LOGGER.info("Text cache chunk reuse rate: {}%", Math.round(TextCache.getChunkReuseRate() * 100)); //$NON-NLS-1$
+    }
+
+    private void logContentScan() {
+        long volume = getVolume();
+        long bytesRead = Item.getBufferedStreamBytesRead();
+        LOGGER.info("Content scan: {} items read once for {} consumers, {} MB scanned", //$NON-NLS-1$
+                ContentScanner.getScannedItems(), ContentScanner.getScanConsumers(),
+                ContentScanner.getScannedBytes() / (1 << 20));
+        LOGGER.info("Content bytes read per byte of evidence: {}", //$NON-NLS-1$
+                volume == 0 ? 0 : String.format("%.2f", (double) bytesRead / volume)); //$NON-NLS-1$
+    }
+
+    private void logWorkerQueues(Worker[] workers) {
+        long totalStolen = 0;
+        for (Worker worker : workers) {
+            WorkerQueue queue = worker.localQueue;
+            totalStolen += queue.getStolenByOwner();
+            LOGGER.info("{} Local Queue:\tMax Depth:\t{}\tCurrent Depth:\t{}\tStolen by Worker:\t{}\tStolen from Worker:\t{}", //$NON-NLS-1$
+                    worker.getName(), queue.getMaxSize(), queue.size(), queue.getStolenByOwner(),
+                    queue.getStolenFrom());
+        }
+        LOGGER.info("Items stolen between workers: {}", totalStolen); //$NON-NLS-1$
+    }
+
     public void printSystemInfo() throws Exception {
         LocalConfig localConfig = (LocalConfig) ConfigurationManager.getInstance().findObjects(LocalConfig.class)
                 .iterator().next();
@@ -21,6 +21,8 @@
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lucene.index.IndexWriter;
 import org.slf4j.Logger;
@@ -53,14 +55,33 @@ public class Worker extends Thread {
 
     private static String workerNamePrefix = "Worker-"; //$NON-NLS-1$
 
+    /**
+     * Número máximo de subitens enfileirados na fila local antes de processá-los
+     * diretamente no worker atual (modo AUTO).
+     */
+    private static final int MAX_LOCAL_QUEUE_SIZE = 10;
+
+    /**
+     * Tempo de espera na fila compartilhada entre tentativas de roubar itens das
+     * filas de outros workers.
+     */
+    private static final long STEAL_INTERVAL_MILLIS = 50;
+
     public IndexWriter writer;
     String baseFilePath;
 
     public volatile AbstractTask runningTask;
     public List<AbstractTask> tasks = new ArrayList<AbstractTask>();
     public AbstractTask firstTask;
+    public ContentScanner contentScanner;
     public volatile int itensBeingProcessed = 0;
 
+    /**
+     * Fila local de subitens deste worker, da qual outros workers ociosos podem
+     * roubar itens.
+     */
+    public final WorkerQueue localQueue = new WorkerQueue();
+
     public enum STATE {
         RUNNING, PAUSING, PAUSED
     }
@@ -93,6 +114,7 @@ public Worker(int k, ICaseData caseData, IndexWriter writer, File output, Manage
         taskInstaller.installProcessingTasks(this);
         doTaskChaining();
         initTasks();
+        contentScanner = new ContentScanner(tasks);
 
     }
 
@@ -212,10 +234,10 @@ public enum ProcessTime {
 
     public void processNewItem(IItem evidence, ProcessTime time) {
         caseData.incDiscoveredEvidences(1);
-        // Se a fila está pequena, enfileira
+        // Se a fila local está pequena, enfileira
         if (time == ProcessTime.LATER
-                || (time == ProcessTime.AUTO && caseData.getItemQueue().size() < 10 * manager.getWorkers().length)) {
-            caseData.getItemQueue().addFirst(evidence);
+                || (time == ProcessTime.AUTO && localQueue.size() < MAX_LOCAL_QUEUE_SIZE)) {
+            localQueue.addFirst(evidence);
         } // caso contrário processa o item no worker atual
         else {
             long t = System.nanoTime() / 1000;
@@ -225,6 +247,51 @@ public void processNewItem(IItem evidence, ProcessTime time) {
 
     }
 
+    /**
+     * Obtém o próximo item a processar: primeiro da fila local, depois da fila
+     * compartilhada do caso e, se ambas estiverem vazias (ou só restar o item de
+     * fim de fila), rouba um item da fila local de outro worker.
+     */
+    private IItem takeNextItem() throws InterruptedException {
+        while (true) {
+            IItem item = localQueue.pollFirst();
+            if (item != null) {
+                return item;
+            }
+            LinkedBlockingDeque<IItem> queue = caseData.getItemQueue();
+            item = queue.pollFirst();
+            if (item != null && !item.isQueueEnd()) {
+                return item;
+            }
+            IItem stolen = stealItem();
+            if (stolen != null) {
+                if (item != null) {
+                    queue.addLast(item);
+                }
+                return stolen;
+            }
+            if (item != null) {
+                return item;
+            }
+            item = queue.pollFirst(STEAL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+        }
+    }
+
+    private IItem stealItem() {
+        Worker[] workers = manager.getWorkers();
+        for (int i = 1; i < workers.length; i++) {
+            IItem item = workers[(id + i) % workers.length].localQueue.steal();
+            if (item != null) {
+                localQueue.incStolenByOwner();
+                return item;
+            }
+        }
+        return null;
+    }
+
     @Override
     public void run() {
 
@@ -234,14 +301,15 @@ public void run() {
 
             try {
                 evidence = null;
-                evidence = caseData.getItemQueue().takeFirst();
+                evidence = takeNextItem();
 
                 if (!evidence.isQueueEnd()) {
                     process(evidence);
 
                 } else {
                     IItem queueEnd = evidence;
-                    if (manager.numItensBeingProcessed() == 0 && caseData.getItemQueue().size() == 0) {
+                    if (manager.numItensBeingProcessed() == 0 && caseData.getItemQueue().size() == 0
+                            && manager.numItensInWorkerQueues() == 0) {
                         caseData.getItemQueue().addLast(queueEnd);
                         process(queueEnd);
                         evidence = null;
@@ -251,6 +319,7 @@ public void run() {
                         }
                     } else {
                         LOGGER.debug(this.getName() + " Queue size = " + caseData.getItemQueue().size()
+                                + " workerQueuesSize = " + manager.numItensInWorkerQueues()
                                 + " itemsInThisWorker = " + itensBeingProcessed + " itemsInAllWorkers = "
                                 + manager.numItensBeingProcessed());
 
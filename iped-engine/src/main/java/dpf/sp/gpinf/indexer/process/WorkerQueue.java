@@ -0,0 +1,98 @@
+package dpf.sp.gpinf.indexer.process;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import iped3.IItem;
+
+/**
+ * Local queue of items owned by a single Worker. New subitems (from zip, pst,
+ * carving, etc) discovered by the Worker are pushed here instead of the shared
+ * case queue, so workers do not contend on the same lock while expanding
+ * containers.
+ *
+ * The owner takes items from the head (LIFO, like the previous addFirst
+ * behavior), while idle workers steal items from the tail.
+ */
+public class WorkerQueue {
+
+    private final ConcurrentLinkedDeque<IItem> deque = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong stolenFrom = new AtomicLong();
+
+    private volatile long stolenByOwner = 0;
+
+    private volatile int maxSize = 0;
+
+    /**
+     * Adds a new item to be processed next by the owner. Must be called only by
+     * the owner Worker.
+     */
+    public void addFirst(IItem item) {
+        int newSize = size.incrementAndGet();
+        deque.addFirst(item);
+        if (newSize > maxSize) {
+            maxSize = newSize;
+        }
+    }
+
+    /**
+     * Takes the most recently added item. Must be called only by the owner Worker.
+     */
+    public IItem pollFirst() {
+        IItem item = deque.pollFirst();
+        if (item != null) {
+            size.decrementAndGet();
+        }
+        return item;
+    }
+
+    /**
+     * Takes the oldest item of this queue. Called by other workers when they have
+     * nothing else to process.
+     */
+    IItem steal() {
+        IItem item = deque.pollLast();
+        if (item != null) {
+            size.decrementAndGet();
+            stolenFrom.incrementAndGet();
+        }
+        return item;
+    }
+
+    void incStolenByOwner() {
+        stolenByOwner++;
+    }
+
+    /**
+     * @return current number of items waiting in this queue.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return maximum number of items that have waited in this queue.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return number of items taken from this queue by other workers.
+     */
+    public long getStolenFrom() {
+        return stolenFrom.get();
+    }
+
+    /**
+     * @return number of items the owner has stolen from other workers' queues.
+     */
+    public long getStolenByOwner() {
+        return stolenByOwner;
+    }
+
+}
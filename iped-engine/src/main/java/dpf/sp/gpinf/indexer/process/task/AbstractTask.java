@@ -11,6 +11,7 @@
 import dpf.sp.gpinf.indexer.CmdLineArgs;
 import dpf.sp.gpinf.indexer.io.TimeoutException;
 import dpf.sp.gpinf.indexer.parsers.util.CorruptedCarvedException;
+import dpf.sp.gpinf.indexer.process.ContentScanner;
 import dpf.sp.gpinf.indexer.process.MimeTypesProcessingOrder;
 import dpf.sp.gpinf.indexer.process.Statistics;
 import dpf.sp.gpinf.indexer.process.Worker;
@@ -62,6 +63,12 @@ public abstract class AbstractTask {
      */
     protected AbstractTask nextTask;
 
+    /**
+     * Atributo temporário com o tempo de processamento do item em microssegundos,
+     * acumulado entre as tarefas.
+     */
+    private static final String ITEM_TIME_ATTR = "processingTime"; //$NON-NLS-1$
+
     private long taskTime;
 
     private HashMap<Integer, Long> subitemProcessingTime = new HashMap<Integer, Long>();
@@ -170,12 +177,24 @@ public final void processAndSendToNextTask(IItem evidence) throws Exception {
 
         if (this.isEnabled() && (!evidence.isToIgnore() || processIgnoredItem())) {
             long t = System.nanoTime() / 1000;
+            if (this instanceof ContentScanner.Participant && !evidence.isQueueEnd()) {
+                worker.contentScanner.scan(evidence, this);
+            }
             processMonitorTimeout(evidence);
             Long subitensTime = subitemProcessingTime.remove(evidence.getId());
             if (subitensTime == null) {
                 subitensTime = 0L;
             }
-            taskTime += System.nanoTime() / 1000 - t - subitensTime;
+            long time = System.nanoTime() / 1000 - t - subitensTime;
+            taskTime += time;
+            if (!evidence.isQueueEnd()) {
+                stats.addTaskTime(getName(), time * 1000);
+                long[] itemTime = (long[]) evidence.getTempAttribute(ITEM_TIME_ATTR);
+                if (itemTime == null) {
+                    evidence.setTempAttribute(ITEM_TIME_ATTR, itemTime = new long[1]);
+                }
+                itemTime[0] += time;
+            }
         }
 
         sendToNextTask(evidence);
@@ -187,6 +206,10 @@ public final void processAndSendToNextTask(IItem evidence) throws Exception {
         if (nextTask == null && !evidence.isQueueEnd()) {
             evidence.dispose();
             stats.incProcessed();
+            long[] itemTime = (long[]) evidence.getTempAttribute(ITEM_TIME_ATTR);
+            if (itemTime != null) {
+                stats.addItemTime(evidence.getMediaType(), itemTime[0] * 1000);
+            }
             if (!evidence.isSubItem() && !evidence.isCarved() && !evidence.isDeleted() && evidence.isToSumVolume()) {
                 stats.incActiveProcessed();
             }
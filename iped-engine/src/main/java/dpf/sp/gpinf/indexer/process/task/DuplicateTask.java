@@ -1,17 +1,18 @@
 package dpf.sp.gpinf.indexer.process.task;
 
 import java.io.File;
-import java.util.HashMap;
 import java.util.Properties;
 
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedDocValues;
 
+import dpf.sp.gpinf.indexer.process.ContentScanner;
 import dpf.sp.gpinf.indexer.process.IndexItem;
+import dpf.sp.gpinf.indexer.process.IndexWriterGroup;
 import dpf.sp.gpinf.indexer.util.HashValue;
+import dpf.sp.gpinf.indexer.util.HashValueSet;
 import dpf.sp.gpinf.indexer.util.SlowCompositeReaderWrapper;
 import iped3.IHashValue;
 import iped3.IItem;
@@ -21,11 +22,11 @@
  * configurado.
  *
  */
-public class DuplicateTask extends AbstractTask {
+public class DuplicateTask extends AbstractTask implements ContentScanner.ItemDiscarder {
 
     public static String HASH_MAP = HashTask.class.getSimpleName() + "HashMap"; //$NON-NLS-1$
 
-    private HashMap<IHashValue, IHashValue> hashMap;
+    private HashValueSet hashMap;
 
     private static boolean ignoreDuplicates = false;
 
@@ -33,18 +34,18 @@ public static boolean isIgnoreDuplicatesEnabled() {
         return ignoreDuplicates;
     }
 
+    @Override
+    public boolean mayDiscardItems() {
+        return ignoreDuplicates && !caseData.isIpedReport();
+    }
+
     public void process(IItem evidence) {
 
         // Verificação de duplicados
         IHashValue hashValue = evidence.getHashValue();
         if (hashValue != null) {
-            synchronized (hashMap) {
-                if (!hashMap.containsKey(hashValue)) {
-                    hashMap.put(hashValue, hashValue);
-                } else {
-                    evidence.setDuplicate(true);
-                }
-
+            if (!hashMap.putIfAbsent(hashValue.getBytes())) {
+                evidence.setDuplicate(true);
             }
         }
 
@@ -66,20 +67,19 @@ public void init(Properties confProps, File confDir) throws Exception {
             ignoreDuplicates = Boolean.valueOf(value);
         }
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(HASH_MAP);
+        hashMap = (HashValueSet) caseData.getCaseObject(HASH_MAP);
         if (hashMap == null) {
-            hashMap = new HashMap<IHashValue, IHashValue>();
+            hashMap = new HashValueSet();
             caseData.putCaseObject(HASH_MAP, hashMap);
 
-            try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
+            try (IndexReader reader = IndexWriterGroup.openReader(worker.writer, true, true)) {
                 LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
                 SortedDocValues sdv = aReader.getSortedDocValues(IndexItem.HASH);
                 if (sdv != null) {
                     for (int ord = 0; ord < sdv.getValueCount(); ord++) {
                         String hash = sdv.lookupOrd(ord).utf8ToString();
                         if (hash != null && !hash.isEmpty()) {
-                            IHashValue hValue = new HashValue(hash);
-                            hashMap.put(hValue, hValue);
+                            hashMap.putIfAbsent(new HashValue(hash).getBytes());
                         }
                     }
                 }
@@ -2,20 +2,106 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Properties;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.mime.MediaType;
+
 import dpf.sp.gpinf.indexer.config.AdvancedIPEDConfig;
 import dpf.sp.gpinf.indexer.config.ConfigurationManager;
 import dpf.sp.gpinf.indexer.parsers.RawStringParser;
-import dpf.sp.gpinf.indexer.util.RandomFilterInputStream;
+import dpf.sp.gpinf.indexer.process.ContentScanner;
 import iped3.IItem;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
 
-public class EntropyTask extends AbstractTask {
+public class EntropyTask extends AbstractTask implements ContentScanner.Participant {
 
     private static final String COMPRESS_RATIO = RawStringParser.COMPRESS_RATIO;
 
+    private static final String SCANNED_RATIO = "scannedCompressRatio"; //$NON-NLS-1$
+
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private static final int OVERLAP = 1024;
+
+    private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
     byte[] buf = new byte[64 * 1024];
 
+    private CompressRatio compressRatio = new CompressRatio();
+
+    /**
+     * Average LZ4 compress ratio of 64KB windows overlapping by 1KB, like
+     * RandomFilterInputStream computes when reading full blocks. The window
+     * after a random one does not overlap it.
+     */
+    private class CompressRatio implements ContentScanner.BlockConsumer {
+
+        private byte[] window = new byte[WINDOW_SIZE];
+        private byte[] compressed = new byte[compressor.maxCompressedLength(WINDOW_SIZE)];
+        private int fill;
+        private double ratioSum;
+        private long numRatios;
+        private IItem evidence;
+
+        private CompressRatio reset(IItem evidence) {
+            this.evidence = evidence;
+            fill = 0;
+            ratioSum = 0;
+            numRatios = 0;
+            return this;
+        }
+
+        @Override
+        public void update(byte[] buf, int len) {
+            int off = 0;
+            while (off < len) {
+                int n = Math.min(WINDOW_SIZE - fill, len - off);
+                System.arraycopy(buf, off, window, fill, n);
+                fill += n;
+                off += n;
+                if (fill == WINDOW_SIZE) {
+                    if (compressWindow() > 1) {
+                        fill = 0;
+                    } else {
+                        System.arraycopy(window, WINDOW_SIZE - OVERLAP, window, 0, OVERLAP);
+                        fill = OVERLAP;
+                    }
+                }
+            }
+        }
+
+        private float compressWindow() {
+            int compressedLength = compressor.compress(window, 0, fill, compressed, 0, compressed.length);
+            float ratio = (float) compressedLength / fill;
+            ratioSum += ratio;
+            numRatios++;
+            return ratio;
+        }
+
+        private Double getCompressRatio() {
+            if (fill >= WINDOW_SIZE / 2) {
+                compressWindow();
+                fill = 0;
+            }
+            return numRatios == 0 ? null : ratioSum / numRatios;
+        }
+
+        @Override
+        public void finish() {
+            Double ratio = getCompressRatio();
+            evidence.setTempAttribute(SCANNED_RATIO, ratio != null ? ratio : Double.NaN);
+            evidence = null;
+        }
+
+        @Override
+        public void cancel() {
+            evidence = null;
+        }
+    }
+
     @Override
     public void init(Properties confParams, File confDir) throws Exception {
         // TODO Auto-generated method stub
@@ -35,6 +121,19 @@ public boolean isEnabled() {
         return advancedConfig.isEntropyTest();
     }
 
+    @Override
+    public ContentScanner.BlockConsumer createBlockConsumer(IItem evidence) {
+        if (!evidence.isToAddToCase() || evidence.getMetadata().get(COMPRESS_RATIO) != null)
+            return null;
+        MediaType type = evidence.getMediaType();
+        // unknown types usually get the ratio from RawStringParser, and most images
+        // and videos get thumbnails, so they are left to process()
+        if (type.equals(BaseCarveTask.UNALLOCATED_MIMETYPE) || type.equals(MediaType.OCTET_STREAM)
+                || type.getType().equals("image") || type.getType().equals("video")) //$NON-NLS-1$ //$NON-NLS-2$
+            return null;
+        return compressRatio.reset(evidence);
+    }
+
     @Override
     protected void process(IItem evidence) throws Exception {
 
@@ -52,17 +151,23 @@ protected void process(IItem evidence) throws Exception {
                 || Boolean.TRUE.equals(evidence.getExtraAttribute(ThumbTask.HAS_THUMB)))
             return;
 
-        try (RandomFilterInputStream rfis = new RandomFilterInputStream(evidence.getBufferedStream())) {
-
-            while (rfis.read(buf) != -1)
-                ;
-            Double compression = rfis.getCompressRatio();
-            if (compression != null)
-                evidence.setExtraAttribute(COMPRESS_RATIO, compression);
-
-        } catch (IOException e) {
-            // ignore
+        Double compression = (Double) evidence.getTempAttribute(SCANNED_RATIO);
+        if (compression == null) {
+            compressRatio.reset(evidence);
+            try (InputStream is = evidence.getBufferedStream()) {
+                int len;
+                while ((len = IOUtils.read(is, buf)) > 0)
+                    compressRatio.update(buf, len);
+                compression = compressRatio.getCompressRatio();
+
+            } catch (IOException e) {
+                // ignore
+            } finally {
+                compressRatio.cancel();
+            }
         }
+        if (compression != null && !compression.isNaN())
+            evidence.setExtraAttribute(COMPRESS_RATIO, compression);
 
         /*
          * Deflater compressor = new Deflater(Deflater.BEST_SPEED); byte[] buf = new
@@ -27,7 +27,6 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -36,19 +35,22 @@
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.zip.Deflater;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipParameters;
 import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
@@ -65,13 +67,14 @@
 import dpf.sp.gpinf.indexer.config.ConfigurationManager;
 import dpf.sp.gpinf.indexer.config.IPEDConfig;
 import dpf.sp.gpinf.indexer.parsers.util.ExportFolder;
+import dpf.sp.gpinf.indexer.process.ContentScanner;
 import dpf.sp.gpinf.indexer.process.task.regex.RegexTask;
 import dpf.sp.gpinf.indexer.util.HashValue;
+import dpf.sp.gpinf.indexer.util.HashValueSet;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import dpf.sp.gpinf.indexer.util.SeekableFileInputStream;
 import dpf.sp.gpinf.indexer.util.SeekableInputStreamFactory;
 import dpf.sp.gpinf.indexer.util.Util;
-import iped3.IHashValue;
 import iped3.IItem;
 import iped3.exception.ZipBombException;
 import iped3.io.SeekableInputStream;
@@ -82,7 +85,7 @@
  * em casos de extração automática de dados ou em casos de extração de itens
  * selecionados após análise.
  */
-public class ExportFileTask extends AbstractTask {
+public class ExportFileTask extends AbstractTask implements ContentScanner.ItemDiscarder {
 
     private static Logger LOGGER = LoggerFactory.getLogger(ExportFileTask.class);
     public static final String EXTRACT_CONFIG = "CategoriesToExport.txt"; //$NON-NLS-1$
@@ -99,8 +102,6 @@ public class ExportFileTask extends AbstractTask {
     private static final String CREATE_TABLE1 = "CREATE TABLE IF NOT EXISTS thumbs(id TEXT PRIMARY KEY, thumb BLOB);";
     private static final String CREATE_TABLE2 = "CREATE TABLE IF NOT EXISTS t1(id TEXT PRIMARY KEY, data BLOB);";
 
-    private static final String INSERT_DATA = "INSERT INTO t1(id, data) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET data=? WHERE data IS NULL;";
-
     private static final String CHECK_HASH = "SELECT id FROM t1 WHERE id=? AND data IS NOT NULL;";
 
     private static HashSet<String> categoriesToExtract = new HashSet<String>();
@@ -109,11 +110,17 @@ public class ExportFileTask extends AbstractTask {
 
     private static boolean computeHash = false;
     private File extractDir;
-    private HashMap<IHashValue, IHashValue> hashMap;
+    private HashValueSet hashMap;
     private List<String> noContentLabels;
 
+    /**
+     * Hash files being exported or renamed, guarded by the lock of their hash in
+     * hashMap, which is not held during the copy.
+     */
+    private static Set<File> exportingHashFiles = Collections.synchronizedSet(new HashSet<>());
+
     private static HashMap<File, HashMap<Integer, File>> storage = new HashMap<>();
-    private static HashMap<File, HashMap<Integer, Connection>> storageCon = new HashMap<>();
+    private static HashMap<File, HashMap<Integer, SQLiteStorageWriter>> storageCon = new HashMap<>();
 
     public ExportFileTask() {
         ExportFolder.setExportPath(EXTRACT_DIR);
@@ -145,6 +152,10 @@ private void setExtractLocation() {
     }
 
     public static Connection getSQLiteStorageCon(File output, byte[] hash) {
+        return getSQLiteStorageWriter(output, hash).getConnection();
+    }
+
+    static SQLiteStorageWriter getSQLiteStorageWriter(File output, byte[] hash) {
         if (storageCon.get(output) == null) {
             configureSQLiteStorage(output);
         }
@@ -156,7 +167,7 @@ private static int getStorageSuffix(byte[] hash) {
         return (hash[0] & 0xFF) >> (8 - DB_SUFFIX_BITS);
     }
 
-    private static Connection getSQLiteStorageCon(File db) {
+    private static SQLiteStorageWriter getSQLiteStorageWriter(File db) {
         File output = db.getParentFile().getParentFile();
         if (storageCon.get(output) == null) {
             configureSQLiteStorage(output);
@@ -170,7 +181,7 @@ private static synchronized void configureSQLiteStorage(File output) {
         if (storageCon.get(output) != null) {
             return;
         }
-        HashMap<Integer, Connection> tempStorageCon = new HashMap<>();
+        HashMap<Integer, SQLiteStorageWriter> tempStorageCon = new HashMap<>();
         HashMap<Integer, File> tempStorage = new HashMap<>();
         for (int i = 0; i < Math.pow(2, DB_SUFFIX_BITS); i++) {
             String storageName = STORAGE_PREFIX + "-" + i + ".db";
@@ -185,7 +196,7 @@ private static synchronized void configureSQLiteStorage(File output) {
                 try (Statement stmt = con.createStatement()) {
                     stmt.executeUpdate(CREATE_TABLE2);
                 }
-                tempStorageCon.put(i, con);
+                tempStorageCon.put(i, new SQLiteStorageWriter(db, con));
 
             } catch (SQLException e) {
                 throw new RuntimeException(e);
@@ -229,6 +240,12 @@ public static boolean hasCategoryToExtract() {
         return categoriesToExtract.size() > 0;
     }
 
+    @Override
+    public boolean mayDiscardItems() {
+        // items not selected for extraction are not added to the case
+        return hasCategoryToExtract() || RegexTask.isExtractByKeywordsOn();
+    }
+
     public static boolean isToBeExtracted(IItem evidence) {
 
         boolean result = false;
@@ -374,39 +391,42 @@ public void renameToHash(IItem evidence) {
             if (!hashFile.getParentFile().exists()) {
                 hashFile.getParentFile().mkdirs();
             }
-            IHashValue hashVal = new HashValue(hash);
-            IHashValue hashLock;
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
+            Object hashLock = hashMap.getLock(new HashValue(hash).getBytes());
+            boolean hashFileExists;
 
             synchronized (hashLock) {
-                if (!hashFile.exists()) {
-                    try {
-                        Files.move(file.toPath(), hashFile.toPath());
-                        changeTargetFile(evidence, hashFile);
+                if (!(hashFileExists = waitForHashFile(hashLock, hashFile))) {
+                    exportingHashFiles.add(hashFile);
+                }
+            }
 
-                    } catch (IOException e) {
-                        // falha ao renomear pode ter sido causada por outra thread
-                        // criando arquivo com mesmo hash entre as 2 chamadas acima
-                        if (hashFile.exists()) {
-                            changeTargetFile(evidence, hashFile);
-                            if (!file.delete()) {
-                                LOGGER.warn("{} Error deleting {}", Thread.currentThread().getName(), //$NON-NLS-1$
-                                        file.getAbsolutePath());
-                            }
-                        } else {
-                            LOGGER.warn("{} Error renaming to hash: {}", Thread.currentThread().getName(), //$NON-NLS-1$
-                                    evidence.getFileToIndex());
-                            e.printStackTrace();
+            if (!hashFileExists) {
+                try {
+                    Files.move(file.toPath(), hashFile.toPath());
+                    changeTargetFile(evidence, hashFile);
+
+                } catch (IOException e) {
+                    // falha ao renomear pode ter sido causada por outra thread
+                    // criando arquivo com mesmo hash entre as 2 chamadas acima
+                    if (hashFile.exists()) {
+                        changeTargetFile(evidence, hashFile);
+                        if (!file.delete()) {
+                            LOGGER.warn("{} Error deleting {}", Thread.currentThread().getName(), //$NON-NLS-1$
+                                    file.getAbsolutePath());
                         }
+                    } else {
+                        LOGGER.warn("{} Error renaming to hash: {}", Thread.currentThread().getName(), //$NON-NLS-1$
+                                evidence.getFileToIndex());
+                        e.printStackTrace();
                     }
+                } finally {
+                    releaseHashFile(hashLock, hashFile);
+                }
 
-                } else {
-                    changeTargetFile(evidence, hashFile);
-                    if (!file.delete()) {
-                        LOGGER.warn("{} Error Deleting {}", Thread.currentThread().getName(), file.getAbsolutePath()); //$NON-NLS-1$
-                    }
+            } else {
+                changeTargetFile(evidence, hashFile);
+                if (!file.delete()) {
+                    LOGGER.warn("{} Error Deleting {}", Thread.currentThread().getName(), file.getAbsolutePath()); //$NON-NLS-1$
                 }
             }
 
@@ -424,6 +444,34 @@ public void renameToHash(IItem evidence) {
 
     }
 
+    /**
+     * Waits while other thread is exporting to the hash file. Must be called
+     * holding hashLock, released while waiting.
+     * 
+     * @return true if the hash file was already exported.
+     */
+    private static boolean waitForHashFile(Object hashLock, File hashFile) {
+        boolean interrupted = false;
+        while (exportingHashFiles.contains(hashFile)) {
+            try {
+                hashLock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return hashFile.exists();
+    }
+
+    private static void releaseHashFile(Object hashLock, File hashFile) {
+        synchronized (hashLock) {
+            exportingHashFiles.remove(hashFile);
+            hashLock.notifyAll();
+        }
+    }
+
     private void changeTargetFile(IItem evidence, File file) {
         String relativePath = Util.getRelativePath(output, file);
         evidence.setExportedFile(relativePath);
@@ -489,83 +537,94 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
                     Util.getValidFilename(Integer.toString(evidence.getId()) + ext));
         } else if ((hash = evidence.getHash()) != null && !hash.isEmpty()) {
             outputFile = getHashFile(hash, ext);
-            IHashValue hashVal = new HashValue(hash);
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
+            hashLock = hashMap.getLock(new HashValue(hash).getBytes());
 
         } else {
             outputFile = new File(extractDir, Util.getValidFilename("0" + Integer.toString(evidence.getId()) + ext)); //$NON-NLS-1$
         }
 
-        boolean fileExists = false;
+        boolean fileExists = false, claimed = false;
 
-        synchronized (hashLock) {
-            if (hash == null || !(fileExists = outputFile.exists())) {
-                BufferedOutputStream bos = null;
-                try (TemporaryResources tmp = new TemporaryResources()) {
-
-                    TikaInputStream tis = TikaInputStream.get(inputStream, tmp);
-                    InputStream poiInputStream = Util.getPOIFSInputStream(tis);
-                    inputStream = poiInputStream != null ? poiInputStream : tis;
-
-                    long total = 0;
-                    int i = 0;
-                    while (i != -1 && !Thread.currentThread().isInterrupted()) {
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        Exception exception = null;
-                        try {
-                            byte[] buf = new byte[8 * 1024];
-                            while (baos.size() <= MAX_BUFFER_SIZE - buf.length && (i = inputStream.read(buf)) != -1) {
-                                baos.write(buf, 0, i);
-                            }
-                        } catch (Exception e) {
-                            // catch exceptions here to extract some content, even runtime exceptions
-                            exception = e;
+        if (hash != null) {
+            // the lock is held only to claim the hash, not while exporting it
+            synchronized (hashLock) {
+                if (!(fileExists = waitForHashFile(hashLock, outputFile))) {
+                    exportingHashFiles.add(outputFile);
+                    claimed = true;
+                }
+            }
+        }
+
+        if (!fileExists) {
+            BufferedOutputStream bos = null;
+            try (TemporaryResources tmp = new TemporaryResources()) {
+
+                TikaInputStream tis = TikaInputStream.get(inputStream, tmp);
+                InputStream poiInputStream = Util.getPOIFSInputStream(tis);
+                inputStream = poiInputStream != null ? poiInputStream : tis;
+
+                long total = 0;
+                int i = 0;
+                while (i != -1 && !Thread.currentThread().isInterrupted()) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    Exception exception = null;
+                    try {
+                        byte[] buf = new byte[8 * 1024];
+                        while (baos.size() <= MAX_BUFFER_SIZE - buf.length && (i = inputStream.read(buf)) != -1) {
+                            baos.write(buf, 0, i);
                         }
-                        if ((i == -1 || exception != null) && storageCon.get(output) != null && total == 0) {
-                            if (baos.size() == 0) {
-                                evidence.setLength(0L);
-                            } else {
-                                byte[] buf = baos.toByteArray();
-                                baos = null;
-                                insertIntoStorage(evidence, buf, buf.length);
-                            }
+                    } catch (Exception e) {
+                        // catch exceptions here to extract some content, even runtime exceptions
+                        exception = e;
+                    }
+                    if ((i == -1 || exception != null) && storageCon.get(output) != null && total == 0) {
+                        if (baos.size() == 0) {
+                            evidence.setLength(0L);
                         } else {
-                            if (bos == null) {
-                                if (!outputFile.getParentFile().exists()) {
-                                    outputFile.getParentFile().mkdirs();
-                                }
-                                fileExists = outputFile.createNewFile();
-                                bos = new BufferedOutputStream(new FileOutputStream(outputFile));
+                            byte[] buf = baos.toByteArray();
+                            baos = null;
+                            insertIntoStorage(evidence, buf, buf.length);
+                        }
+                    } else {
+                        if (bos == null) {
+                            if (!outputFile.getParentFile().exists()) {
+                                outputFile.getParentFile().mkdirs();
                             }
-                            bos.write(baos.toByteArray());
-                            total += baos.size();
+                            fileExists = outputFile.createNewFile();
+                            bos = new BufferedOutputStream(new FileOutputStream(outputFile));
                         }
+                        bos.write(baos.toByteArray());
+                        total += baos.size();
+                    }
 
-                        if (exception != null)
-                            throw exception;
-
-                        if (ZipBombException.isZipBomb(parentSize, total)) {
-                            throw new ZipBombException("Potential zip bomb while extracting subitem!"); //$NON-NLS-1$
-                        }
+                    if (exception != null)
+                        throw exception;
 
+                    if (ZipBombException.isZipBomb(parentSize, total)) {
+                        throw new ZipBombException("Potential zip bomb while extracting subitem!"); //$NON-NLS-1$
                     }
 
-                    // must catch generic Exception because of Runtime exceptions while extracting
-                    // corrupted subitems
-                } catch (Exception e) {
-                    if (e instanceof IOException && IOUtil.isDiskFull((IOException) e))
-                        LOGGER.error("Error exporting {}\t{}", evidence.getPath(), "No space left on output disk!"); //$NON-NLS-1$ //$NON-NLS-2$
-                    else
-                        LOGGER.warn("Error exporting {}\t{}", evidence.getPath(), e.toString()); //$NON-NLS-1$
+                }
 
-                    LOGGER.debug("", e);
+                // must catch generic Exception because of Runtime exceptions while extracting
+                // corrupted subitems
+            } catch (Exception e) {
+                if (e instanceof IOException && IOUtil.isDiskFull((IOException) e))
+                    LOGGER.error("Error exporting {}\t{}", evidence.getPath(), "No space left on output disk!"); //$NON-NLS-1$ //$NON-NLS-2$
+                else
+                    LOGGER.warn("Error exporting {}\t{}", evidence.getPath(), e.toString()); //$NON-NLS-1$
 
-                } finally {
+                LOGGER.debug("", e);
+
+            } finally {
+                try {
                     if (bos != null) {
                         bos.close();
                     }
+                } finally {
+                    if (claimed) {
+                        releaseHashFile(hashLock, outputFile);
+                    }
                 }
             }
         }
@@ -589,6 +648,7 @@ private void insertIntoStorage(IItem evidence, byte[] buf, int len)
             hash = DigestUtils.md5(new ByteArrayInputStream(buf, 0, len));
         }
         int k = getStorageSuffix(hash);
+        SQLiteStorageWriter writer = storageCon.get(output).get(k);
         String id;
         boolean alreadyInDB = false;
         // uses id instead of hash if subitems could be ignored and deleted, to not
@@ -598,44 +658,30 @@ private void insertIntoStorage(IItem evidence, byte[] buf, int len)
             id = Integer.toString(evidence.getId());
         } else {
             id = hashString != null ? hashString : new HashValue(hash).toString();
-            try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(CHECK_HASH)) {
-                ps.setString(1, id);
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    alreadyInDB = true;
+            if (writer.getPendingData(id) != null) {
+                alreadyInDB = true;
+            } else {
+                try (PreparedStatement ps = writer.getConnection().prepareStatement(CHECK_HASH)) {
+                    ps.setString(1, id);
+                    ResultSet rs = ps.executeQuery();
+                    if (rs.next()) {
+                        alreadyInDB = true;
+                    }
                 }
             }
         }
         if (!alreadyInDB) {
-            try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(INSERT_DATA)) {
-                ps.setString(1, id);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                OutputStream gzippedOut = new GzipCompressorOutputStream(baos, getGzipParams());
-                // OutputStream gzippedOut = new LZ4BlockOutputStream(baos);
-                gzippedOut.write(buf, 0, len);
-                gzippedOut.close();
-                byte[] bytes = baos.toByteArray();
-                baos = null;
-                ps.setBytes(2, bytes);
-                ps.setBytes(3, bytes);
-                ps.executeUpdate();
-            }
+            // compressed and written by the shard writer thread
+            writer.putData(id, len == buf.length ? buf : Arrays.copyOf(buf, len));
         }
         evidence.setIdInDataSource(id);
-        evidence.setInputStreamFactory(
-                new SQLiteInputStreamFactory(storage.get(output).get(k).toPath(), storageCon.get(output).get(k)));
+        evidence.setInputStreamFactory(new SQLiteInputStreamFactory(storage.get(output).get(k).toPath(), writer));
         evidence.setExportedFile(null);
         evidence.setFile(null);
         evidence.setFileOffset(-1);
         evidence.setLength((long) len);
     }
 
-    private GzipParameters getGzipParams() {
-        GzipParameters compression = new GzipParameters();
-        compression.setCompressionLevel(Deflater.BEST_SPEED);
-        return compression;
-    }
-
     public static class SQLiteInputStreamFactory extends SeekableInputStreamFactory {
 
         private static final String SELECT_DATA = "SELECT data FROM t1 WHERE id=?;";
@@ -644,15 +690,22 @@ public static class SQLiteInputStreamFactory extends SeekableInputStreamFactory
 
         private static final String RENAME_ID = "UPDATE t1 SET id=? WHERE id=?;";
 
-        private Connection conn;
+        private SQLiteStorageWriter writer;
 
         public SQLiteInputStreamFactory(Path datasource) {
             super(datasource.toUri());
         }
 
-        public SQLiteInputStreamFactory(Path datasource, Connection conn) {
+        SQLiteInputStreamFactory(Path datasource, SQLiteStorageWriter writer) {
             super(datasource.toUri());
-            this.conn = conn;
+            this.writer = writer;
+        }
+
+        private Connection getConnection() throws SQLException {
+            if (writer == null || writer.getConnection().isClosed()) {
+                writer = getSQLiteStorageWriter(Paths.get(getDataSourceURI()).toFile());
+            }
+            return writer.getConnection();
         }
 
         @Override
@@ -664,7 +717,7 @@ public boolean checkIfDataSourceExists() {
         }
 
         public void renameToHash(String identifier, String hash) throws IOException {
-            try (PreparedStatement ps = conn.prepareStatement(RENAME_ID)) {
+            try (PreparedStatement ps = prepareUpdate(RENAME_ID)) {
                 ps.setString(1, hash);
                 ps.setString(2, identifier);
                 ps.executeUpdate();
@@ -678,7 +731,7 @@ public void renameToHash(String identifier, String hash) throws IOException {
 
         @Override
         public void deleteItemInDataSource(String identifier) throws IOException {
-            try (PreparedStatement ps = conn.prepareStatement(CLEAR_DATA)) {
+            try (PreparedStatement ps = prepareUpdate(CLEAR_DATA)) {
                 ps.setString(1, identifier);
                 ps.executeUpdate();
             } catch (SQLException e) {
@@ -686,12 +739,23 @@ public void deleteItemInDataSource(String identifier) throws IOException {
             }
         }
 
+        /**
+         * Updates must not be overwritten by pending writes of the same id.
+         */
+        private PreparedStatement prepareUpdate(String sql) throws SQLException {
+            Connection conn = getConnection();
+            writer.flush(false);
+            return conn.prepareStatement(sql);
+        }
+
         @Override
         public SeekableInputStream getSeekableInputStream(String identifier) throws IOException {
             try {
-                byte[] bytes = null;
-                if (conn == null || conn.isClosed()) {
-                    conn = getSQLiteStorageCon(Paths.get(getDataSourceURI()).toFile());
+                Connection conn = getConnection();
+                byte[] bytes = writer.getPendingData(identifier);
+                if (bytes != null) {
+                    // not written yet, already uncompressed
+                    return new SeekableFileInputStream(new SeekableInMemoryByteChannel(bytes));
                 }
                 try (PreparedStatement ps = conn.prepareStatement(SELECT_DATA)) {
                     ps.setString(1, identifier);
@@ -734,7 +798,7 @@ public void init(Properties confProps, File confDir) throws Exception {
         itensExtracted = 0;
         subDirCounter = 0;
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(DuplicateTask.HASH_MAP);
+        hashMap = (HashValueSet) caseData.getCaseObject(DuplicateTask.HASH_MAP);
 
     }
 
@@ -743,10 +807,10 @@ public void finish() throws Exception {
         hashMap.clear();
         if (storageCon.get(output) != null) {
             int i = 0;
-            for (Connection con : storageCon.get(output).values()) {
+            for (SQLiteStorageWriter writer : storageCon.get(output).values()) {
+                Connection con = writer.getConnection();
                 if (con != null && !con.isClosed() && !con.getAutoCommit()) {
-                    con.commit();
-                    con.close();
+                    writer.close();
                     LOGGER.info("Closed connection to storage " + i);
                 }
                 i++;
@@ -757,12 +821,35 @@ public void finish() throws Exception {
 
     public static void commitStorage(File output) throws SQLException {
         if (storageCon.get(output) != null) {
-            for (Connection con : storageCon.get(output).values()) {
+            for (SQLiteStorageWriter writer : storageCon.get(output).values()) {
+                Connection con = writer.getConnection();
                 if (con != null && !con.isClosed() && !con.getAutoCommit()) {
-                    con.commit();
+                    writer.flush(true);
                 }
             }
         }
     }
 
+    /**
+     * @return write throughput and queue depth of each storage shard being
+     *         written.
+     */
+    public static Map<String, Object> getStorageMetrics() {
+        Map<String, Object> result = new TreeMap<>();
+        for (HashMap<Integer, SQLiteStorageWriter> writers : new ArrayList<>(storageCon.values())) {
+            for (Map.Entry<Integer, SQLiteStorageWriter> entry : writers.entrySet()) {
+                SQLiteStorageWriter writer = entry.getValue();
+                long nanos = writer.getWriteNanos();
+                Map<String, Object> values = new LinkedHashMap<>();
+                values.put("queueDepth", writer.getQueueDepth()); //$NON-NLS-1$
+                values.put("pendingBytes", writer.getPendingBytes()); //$NON-NLS-1$
+                values.put("rowsWritten", writer.getRowsWritten()); //$NON-NLS-1$
+                values.put("bytesWritten", writer.getBytesWritten()); //$NON-NLS-1$
+                values.put("writeMBps", nanos == 0 ? 0 : writer.getBytesWritten() * 1000.0 / nanos); //$NON-NLS-1$
+                result.put(STORAGE_PREFIX + "-" + entry.getKey(), values); //$NON-NLS-1$
+            }
+        }
+        return result;
+    }
+
 }
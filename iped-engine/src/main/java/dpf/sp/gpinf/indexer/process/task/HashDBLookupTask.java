@@ -20,11 +20,15 @@
 import dpf.sp.gpinf.indexer.Configuration;
 import dpf.sp.gpinf.indexer.parsers.util.ChildPornHashLookup;
 import dpf.sp.gpinf.indexer.parsers.util.ChildPornHashLookup.LookupProvider;
+import dpf.sp.gpinf.indexer.process.ContentScanner;
+import dpf.sp.gpinf.indexer.util.LatencyHistogram;
+import gpinf.hashdb.HashBloomFilter;
 import gpinf.hashdb.HashDB;
 import gpinf.hashdb.HashDBDataSource;
+import gpinf.hashdb.HashDBIndex;
 import iped3.IItem;
 
-public class HashDBLookupTask extends AbstractTask {
+public class HashDBLookupTask extends AbstractTask implements ContentScanner.ItemDiscarder {
     private static final String ENABLE_PARAM = "enableHashDBLookup";
     public static final String ATTRIBUTES_PREFIX = "hashDb:";
     private static final String STATUS_PROPERTY = "status";
@@ -49,6 +53,16 @@ public class HashDBLookupTask extends AbstractTask {
     private static File hashDBFile;
     private static String[] hashesAttributes;
 
+    private static HashDBIndex hashDBIndex;
+
+    private static HashBloomFilter bloomFilter;
+
+    private static final int BLOOM_FILTER_BITS_PER_HASH = 10;
+
+    private static final AtomicLong totFilterPassed = new AtomicLong();
+    private static final LatencyHistogram filteredLatency = new LatencyHistogram();
+    private static final LatencyHistogram lookupLatency = new LatencyHistogram();
+
     private HashDBDataSource hashDBDataSource;
 
     private byte[][] hashes;
@@ -100,6 +114,7 @@ public void init(Properties confParams, File confDir) throws Exception {
                                 excludeKnown = s != null && Boolean.parseBoolean(s.trim());
                                 hashDBDataSource = new HashDBDataSource(hashDBFile);
                                 addLookupProvider(hashDBDataSource);
+                                loadHashDBIndex();
                                 File nsrlConfigFile = new File(confDir, NSRL_CONFIG_FILE);
                                 if (nsrlConfigFile.exists()) {
                                     loadNsrlConfig(nsrlConfigFile);
@@ -123,6 +138,20 @@ public void init(Properties confParams, File confDir) throws Exception {
         }
     }
 
+    private void loadHashDBIndex() {
+        long t = System.currentTimeMillis();
+        try {
+            hashDBIndex = HashDBIndex.load(hashDBFile, hashDBDataSource);
+            logger.info("Hashes index loaded in {} ms.", System.currentTimeMillis() - t);
+            t = System.currentTimeMillis();
+            bloomFilter = hashDBIndex.createBloomFilter(BLOOM_FILTER_BITS_PER_HASH);
+            logger.info("Hashes bloom filter ({} MB) created in {} ms.", bloomFilter.getSizeInBytes() >> 20,
+                    System.currentTimeMillis() - t);
+        } catch (Exception e) {
+            logger.warn("Error loading hashes index, falling back to database queries.", e);
+        }
+    }
+
     private void addLookupProvider(HashDBDataSource hashDBDataSource) {
         ChildPornHashLookup.addLookupProvider(new LookupProvider() {
             public List<String> lookupHash(String algorithm, String hash) {
@@ -143,6 +172,7 @@ public void finish() throws Exception {
                 if (hashDBDataSource != null) {
                     hashDBDataSource.close();
                 }
+                hashDBIndex = null;
                 if (excluded > 0) {
                     logger.info("Items ignored by hash database lookup: {}", excluded);
                 }
@@ -150,7 +180,16 @@ public void finish() throws Exception {
                 if (totProcessed.longValue() > 0) {
                     logger.info("Total items found: {}", totFound.longValue());
                     logger.info("Average processing time (ms/item): {}", String.format("%.2f", totTime.longValue() / 1e6 / totProcessed.longValue()));
+                    long falsePositives = totFilterPassed.longValue() - totFound.longValue();
+                    long negatives = filteredLatency.getCount() + falsePositives;
+                    if (bloomFilter != null && negatives > 0) {
+                        logger.info("Bloom filter false positive rate: {}",
+                                String.format("%.4f%%", 100.0 * falsePositives / negatives));
+                    }
+                    logger.info("Lookup latency of items rejected by bloom filter: {}", filteredLatency);
+                    logger.info("Lookup latency of other items: {}", lookupLatency);
                 }
+                bloomFilter = null;
                 finish.set(true);
             }
         }
@@ -161,6 +200,11 @@ public boolean isEnabled() {
         return taskEnabled;
     }
 
+    @Override
+    public boolean mayDiscardItems() {
+        return excludeKnown;
+    }
+
     public static void setEnabled(boolean enabled) {
         taskEnabled = enabled;
     }
@@ -199,9 +243,24 @@ protected void process(IItem evidence) throws Exception {
             }
         }
         if (hasHash) {
+            if (bloomFilter != null && !mightContain(hashes)) {
+                t = System.nanoTime() - t;
+                filteredLatency.record(t);
+                totTime.addAndGet(t);
+                totProcessed.incrementAndGet();
+                return;
+            }
+            totFilterPassed.incrementAndGet();
             properties.clear();
             try {
-                hashDBDataSource.lookup(hashes, properties);
+                if (hashDBIndex != null) {
+                    int[] hashIds = hashDBIndex.lookup(hashes);
+                    if (hashIds.length > 0) {
+                        hashDBDataSource.lookupProperties(hashIds, properties);
+                    }
+                } else {
+                    hashDBDataSource.lookup(hashes, properties);
+                }
             } catch (Exception e) {
                 logger.warn("Error looking up evidence " + evidence, e);
                 return;
@@ -276,11 +335,21 @@ protected void process(IItem evidence) throws Exception {
             }
         }
         t = System.nanoTime() - t;
+        if (hasHash) lookupLatency.record(t);
         totTime.addAndGet(t);
         totProcessed.incrementAndGet();
         if (found) totFound.incrementAndGet();
     }
 
+    private static boolean mightContain(byte[][] hashes) {
+        for (byte[] hash : hashes) {
+            if (hash != null && bloomFilter.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void loadNsrlConfig(File file) {
         try {
             ObjectMapper mapper = new ObjectMapper();
@@ -18,27 +18,28 @@
  */
 package dpf.sp.gpinf.indexer.process.task;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dpf.mg.udi.gpinf.whatsappextractor.WhatsAppParser;
+import dpf.sp.gpinf.indexer.process.ContentScanner;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import iped3.IItem;
 
 /**
  * Classe para calcular e manipular hashes.
  */
-public class HashTask extends AbstractTask {
+public class HashTask extends AbstractTask implements ContentScanner.Participant {
 
     private static Logger LOGGER = LoggerFactory.getLogger(HashTask.class);
 
@@ -63,11 +64,21 @@ public String toString() {
         }
     }
 
-    private HashMap<String, MessageDigest> digestMap = new LinkedHashMap<String, MessageDigest>();
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final AtomicBoolean finished = new AtomicBoolean(false);
+
+    private MultiDigestEngine digestEngine;
+
+    /**
+     * Buffers reused between items: while the digest lanes consume one of them,
+     * the next block is read into the other.
+     */
+    private byte[][] buffers;
 
     @Override
     public boolean isEnabled() {
-        return !digestMap.isEmpty();
+        return digestEngine != null && !digestEngine.isEmpty();
     }
 
     @Override
@@ -77,38 +88,67 @@ public void init(Properties confProps, File confDir) throws Exception {
             value = value.trim();
         }
         if (value != null && !value.isEmpty()) {
+            List<String> algorithms = new ArrayList<>();
             for (String algorithm : value.split(";")) { //$NON-NLS-1$
                 algorithm = algorithm.trim();
-                MessageDigest digest = null;
-                if (!algorithm.equalsIgnoreCase(HASH.EDONKEY.toString())) {
-                    digest = MessageDigest.getInstance(algorithm.toUpperCase());
-                } else {
-                    digest = MessageDigest.getInstance("MD4", new BouncyCastleProvider()); //$NON-NLS-1$
-                }
-                digestMap.put(algorithm, digest);
+                algorithms.add(algorithm);
                 if (HASH.SHA256.toString().equals(algorithm)) {
                     System.setProperty(WhatsAppParser.SHA256_ENABLED_SYSPROP, Boolean.TRUE.toString());
                 }
             }
-
+            digestEngine = new MultiDigestEngine(algorithms);
+            buffers = new byte[2][BUFFER_SIZE];
         }
 
     }
 
     @Override
     public void finish() throws Exception {
-        // TODO Auto-generated method stub
-
+        synchronized (finished) {
+            if (isEnabled() && !finished.get()) {
+                finished.set(true);
+                for (Map.Entry<String, long[]> entry : MultiDigestEngine.getThroughputStats().entrySet()) {
+                    long bytes = entry.getValue()[0];
+                    long millis = entry.getValue()[1] / 1000000;
+                    LOGGER.info("Hash {}: {} MB in {}s ({} MB/s)", entry.getKey(), bytes >> 20, millis / 1000, //$NON-NLS-1$
+                            millis == 0 ? 0 : (bytes >> 20) * 1000 / millis);
+                }
+            }
+        }
     }
 
-    public void process(IItem evidence) {
+    private boolean isToHash(IItem evidence) {
+        return !evidence.isQueueEnd() && evidence.getHash() == null && isEnabled()
+                && evidence.getExtraAttribute(IgnoreHardLinkTask.IGNORE_HARDLINK_ATTR) == null;
+    }
 
-        if (evidence.isQueueEnd()) {
-            return;
+    @Override
+    public ContentScanner.BlockConsumer createBlockConsumer(IItem evidence) {
+        if (!isToHash(evidence) || evidence.getLength() == null) {
+            return null;
         }
+        digestEngine.setParallel(evidence.getLength() > BUFFER_SIZE);
+        return new ContentScanner.BlockConsumer() {
+            @Override
+            public void update(byte[] buf, int len) throws Exception {
+                digestEngine.update(buf, len);
+            }
+
+            @Override
+            public void finish() throws Exception {
+                setHashes(evidence, digestEngine.digest());
+            }
+
+            @Override
+            public void cancel() {
+                digestEngine.reset();
+            }
+        };
+    }
 
-        if (evidence.getHash() != null || digestMap.isEmpty()
-                || evidence.getExtraAttribute(IgnoreHardLinkTask.IGNORE_HARDLINK_ATTR) != null) {
+    public void process(IItem evidence) {
+
+        if (!isToHash(evidence)) {
             return;
         }
 
@@ -120,37 +160,25 @@ public void process(IItem evidence) {
         InputStream in = null;
         try {
             in = evidence.getBufferedStream();
-            byte[] buf = new byte[1024 * 1024];
+            // lanes run concurrently with reading only if there is more than one block
+            digestEngine.setParallel(evidence.getLength() > BUFFER_SIZE);
+            int i = 0;
             int len;
-            while ((len = in.read(buf)) >= 0 && !Thread.currentThread().isInterrupted()) {
-                for (String algo : digestMap.keySet()) {
-                    if (!algo.equals(HASH.EDONKEY.toString())) {
-                        digestMap.get(algo).update(buf, 0, len);
-                    } else {
-                        updateEd2k(buf, len);
-                    }
-                }
+            while ((len = IOUtils.read(in, buffers[i])) > 0 && !Thread.currentThread().isInterrupted()) {
+                digestEngine.update(buffers[i], len);
+                i ^= 1;
             }
-
-            boolean defaultHash = true;
-            for (String algo : digestMap.keySet()) {
-                byte[] hash;
-                if (!algo.equals(HASH.EDONKEY.toString())) {
-                    hash = digestMap.get(algo).digest();
-                } else {
-                    hash = digestEd2k();
-                }
-
-                String hashString = getHashString(hash);
-                evidence.setExtraAttribute(algo, hashString);
-
-                if (defaultHash) {
-                    evidence.setHash(hashString);
-                }
-                defaultHash = false;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
             }
 
+            setHashes(evidence, digestEngine.digest());
+
         } catch (Exception e) {
+            digestEngine.reset();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             if (e instanceof IOException) {
                 evidence.setExtraAttribute("ioError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
                 stats.incIoErrors();
@@ -165,46 +193,17 @@ public void process(IItem evidence) {
 
     }
 
-    private static int CHUNK_SIZE = 9500 * 1024;
-    private int chunk = 0, total = 0;
-    private ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-    private void updateEd2k(byte[] buffer, int len) throws IOException {
-
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (chunk + len >= CHUNK_SIZE) {
-            int offset = CHUNK_SIZE - chunk;
-            md4.update(buffer, 0, offset);
-            out.write(md4.digest());
-            chunk = len - offset;
-            md4.update(buffer, offset, chunk);
-        } else {
-            md4.update(buffer, 0, len);
-            chunk += len;
-        }
-        total += len;
-    }
-
-    private byte[] digestEd2k() throws IOException {
-
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (total == 0 || total % CHUNK_SIZE != 0) {
-            out.write(md4.digest());
-        }
+    private static void setHashes(IItem evidence, Map<String, byte[]> hashes) {
+        boolean defaultHash = true;
+        for (Map.Entry<String, byte[]> entry : hashes.entrySet()) {
+            String hashString = getHashString(entry.getValue());
+            evidence.setExtraAttribute(entry.getKey(), hashString);
 
-        if (out.size() > md4.getDigestLength()) {
-            md4.update(out.toByteArray());
-            out.reset();
-            out.write(md4.digest());
+            if (defaultHash) {
+                evidence.setHash(hashString);
+            }
+            defaultHash = false;
         }
-
-        byte[] ed2k = out.toByteArray();
-
-        chunk = 0;
-        total = 0;
-        out = new ByteArrayOutputStream();
-
-        return ed2k;
     }
 
     public static String getHashString(byte[] hash) {
@@ -20,15 +20,18 @@
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.tika.mime.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dpf.sp.gpinf.indexer.process.ContentScanner;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import gpinf.emule.KnownMetEntry;
 import gpinf.emule.KnownMetParser;
@@ -39,7 +42,7 @@
  *
  * @author Wladimir Leite
  */
-public class KnownMetCarveTask extends BaseCarveTask {
+public class KnownMetCarveTask extends BaseCarveTask implements ContentScanner.Participant {
 
     private static Logger logger = LoggerFactory.getLogger(KnownMetCarveTask.class);
 
@@ -73,7 +76,12 @@ public class KnownMetCarveTask extends BaseCarveTask {
     /**
      * Passo para verificação do início do arquivo.
      */
-    private final int step = 512;
+    private static final int step = 512;
+
+    /**
+     * Atributo temporário com os candidatos encontrados pelo ContentScanner.
+     */
+    private static final String CANDIDATES = "knownMetCandidates"; //$NON-NLS-1$
 
     /**
      * Heurística de data mínima utilizada para filtrar arquivos plausíveis.
@@ -127,57 +135,67 @@ public void finish() throws Exception {
         }
     }
 
+    private boolean isToCarve(IItem evidence) {
+        return taskEnabled && !caseData.isIpedReport() && isAcceptedType(evidence.getMediaType());
+    }
+
+    @Override
+    public ContentScanner.BlockConsumer createBlockConsumer(IItem evidence) {
+        if (!isToCarve(evidence))
+            return null;
+
+        // Blocos de 512 bytes são verificados à medida que o conteúdo é lido
+        return new ContentScanner.BlockConsumer() {
+            byte[] block = new byte[step];
+            int fill = 0;
+            long offset = 0;
+            List<long[]> candidates = new ArrayList<long[]>();
+
+            public void update(byte[] buf, int len) {
+                int off = 0;
+                while (off < len) {
+                    int n = Math.min(step - fill, len - off);
+                    System.arraycopy(buf, off, block, fill, n);
+                    fill += n;
+                    off += n;
+                    if (fill == step) {
+                        if (isCandidate(block))
+                            candidates.add(new long[] { offset, toInt(block, 1) });
+                        offset += step;
+                        fill = 0;
+                    }
+                }
+            }
+
+            public void finish() {
+                evidence.setTempAttribute(CANDIDATES, candidates);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
     public void process(IItem evidence) {
         // Verifica se está desabilitado e se o tipo de arquivo é tratado
-        if (!taskEnabled || caseData.isIpedReport() || !isAcceptedType(evidence.getMediaType()))
+        if (!isToCarve(evidence))
+            return;
+
+        List<long[]> candidates = (List<long[]>) evidence.getTempAttribute(CANDIDATES);
+        if (candidates != null) {
+            // conteúdo já percorrido pelo ContentScanner
+            for (long[] candidate : candidates)
+                carve(evidence, candidate[0], (int) candidate[1]);
             return;
+        }
 
         // Percorre conteúdo buscando padrões plausíveis de arquivos known.met
-        byte[] bb = new byte[1];
-        byte[] buf = new byte[step - 1];
+        byte[] block = new byte[step];
         BufferedInputStream is = null;
         long offset = 0;
         try {
             is = evidence.getBufferedStream();
-            while (is.read(bb) > 0) {
-                byte read = bb[0];
-                if (read == 14 || read == 15) {
-                    is.read(buf);
-                    int numFiles = toInt(buf, 0);
-                    if (numFiles > 0 && numFiles < 65536) {
-                        int pos = 4;
-                        long date = toInt(buf, pos) * 1000L;
-                        if (date > dateMin && date < dateMax) {
-                            pos += 4;
-                            pos += 16;
-                            int numParts = toSmall(buf, pos);
-                            pos += 2;
-                            pos += 16 * numParts;
-                            if (pos < 500) {
-                                int numTags = toInt(buf, pos);
-                                if (numTags > 2 && numTags < 100) {
-                                    int len = 512 * numFiles;
-                                    BufferedInputStream inParse = null;
-                                    try {
-                                        inParse = evidence.getBufferedStream();
-                                        inParse.skip(offset);
-                                        List<KnownMetEntry> l = KnownMetParser.parseToList(inParse, len);
-                                        if (!l.isEmpty()) {
-                                            addCarvedFile(evidence, offset, len, "Carved-" + offset + "-known.met", //$NON-NLS-1$ //$NON-NLS-2$
-                                                    eMuleMediaType);
-                                            numCarvedItems.incrementAndGet();
-                                        }
-                                    } catch (Exception e) {
-                                    } finally {
-                                        IOUtil.closeQuietly(inParse);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    is.skip(step - 1);
-                }
+            while (IOUtils.read(is, block) == step) {
+                if (isCandidate(block))
+                    carve(evidence, offset, toInt(block, 1));
                 offset += step;
             }
         } catch (Exception e) {
@@ -187,6 +205,52 @@ public void process(IItem evidence) {
         }
     }
 
+    /**
+     * Verifica se o bloco pode ser o início de um arquivo known.met.
+     */
+    private static boolean isCandidate(byte[] block) {
+        byte read = block[0];
+        if (read != 14 && read != 15)
+            return false;
+        int numFiles = toInt(block, 1);
+        if (numFiles > 0 && numFiles < 65536) {
+            int pos = 5;
+            long date = toInt(block, pos) * 1000L;
+            if (date > dateMin && date < dateMax) {
+                pos += 4;
+                pos += 16;
+                int numParts = toSmall(block, pos);
+                pos += 2;
+                pos += 16 * numParts;
+                if (pos < 501) {
+                    int numTags = toInt(block, pos);
+                    if (numTags > 2 && numTags < 100) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void carve(IItem evidence, long offset, int numFiles) {
+        int len = 512 * numFiles;
+        BufferedInputStream inParse = null;
+        try {
+            inParse = evidence.getBufferedStream();
+            inParse.skip(offset);
+            List<KnownMetEntry> l = KnownMetParser.parseToList(inParse, len);
+            if (!l.isEmpty()) {
+                addCarvedFile(evidence, offset, len, "Carved-" + offset + "-known.met", //$NON-NLS-1$ //$NON-NLS-2$
+                        eMuleMediaType);
+                numCarvedItems.incrementAndGet();
+            }
+        } catch (Exception e) {
+        } finally {
+            IOUtil.closeQuietly(inParse);
+        }
+    }
+
     private static final int toInt(byte[] b, int offset) {
         return (b[offset] & 0XFF) | ((b[offset + 1] & 0XFF) << 8) | ((b[offset + 2] & 0XFF) << 16)
                 | ((b[offset + 3] & 0XFF) << 24);
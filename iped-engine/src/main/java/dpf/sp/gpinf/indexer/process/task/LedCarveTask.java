@@ -9,7 +9,9 @@
 import java.security.MessageDigest;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -21,13 +23,14 @@
 import org.slf4j.LoggerFactory;
 
 import dpf.sp.gpinf.indexer.Configuration;
+import dpf.sp.gpinf.indexer.process.ContentScanner;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import gpinf.hashdb.HashDBDataSource;
 import gpinf.hashdb.LedHashDB;
 import gpinf.hashdb.LedItem;
 import iped3.IItem;
 
-public class LedCarveTask extends BaseCarveTask {
+public class LedCarveTask extends BaseCarveTask implements ContentScanner.Participant {
 
     private static Logger logger = LoggerFactory.getLogger(LedCarveTask.class);
 
@@ -79,6 +82,11 @@ public class LedCarveTask extends BaseCarveTask {
 
     private static HashDBDataSource hashDBDataSource;
 
+    /**
+     * Atributo temporário com os hits encontrados pelo ContentScanner.
+     */
+    private static final String LED_HITS = "ledCarveHits";
+
     private static final String cachePath = System.getProperty("user.home") + "/.indexador/ledcarve.cache";
 
     @Override
@@ -155,9 +163,128 @@ public void finish() throws Exception {
         }
     }
 
+    private boolean isToCarve(IItem evidence) {
+        return taskEnabled && !caseData.isIpedReport() && isAcceptedType(evidence.getMediaType()) && isToProcess(evidence);
+    }
+
+    @Override
+    public ContentScanner.BlockConsumer createBlockConsumer(IItem evidence) {
+        if (!isToCarve(evidence)) return null;
+        return new LedBlockConsumer(evidence);
+    }
+
+    /**
+     * Hashes the 512 byte blocks of the content passed by the scanner, as
+     * process() does reading the item, and the 64K following each 512 hit. The
+     * offsets and hash ids of 64K hits are stored in the item to be carved later
+     * by process().
+     */
+    private class LedBlockConsumer implements ContentScanner.BlockConsumer {
+
+        private final IItem evidence;
+        private final byte[] buf512 = new byte[512];
+        private int fill512;
+        private long offset;
+        private final List<PendingHash> pending = new ArrayList<PendingHash>();
+        private final List<long[]> hits = new ArrayList<long[]>();
+        private long cnt512hit, cnt512total, cntBytesHashed;
+
+        private LedBlockConsumer(IItem evidence) {
+            this.evidence = evidence;
+        }
+
+        public void update(byte[] buf, int len) throws Exception {
+            int off = 0;
+            while (off < len) {
+                int n = Math.min(buf512.length - fill512, len - off);
+                if (!pending.isEmpty()) updatePending(buf, off, n);
+                System.arraycopy(buf, off, buf512, fill512, n);
+                fill512 += n;
+                off += n;
+                if (fill512 == buf512.length) {
+                    cnt512total++;
+                    if (!isEmpty(buf512, buf512.length)) {
+                        digest.update(buf512);
+                        cntBytesHashed += buf512.length;
+                        if (ledHashDB.containsMD5_512(digest.digest())) {
+                            cnt512hit++;
+                            PendingHash p = new PendingHash(offset);
+                            p.digest.update(buf512);
+                            pending.add(p);
+                        }
+                    }
+                    offset += buf512.length;
+                    fill512 = 0;
+                }
+            }
+        }
+
+        private void updatePending(byte[] buf, int off, int len) {
+            for (int i = 0; i < pending.size(); i++) {
+                PendingHash p = pending.get(i);
+                int n = Math.min(p.remaining, len);
+                p.digest.update(buf, off, n);
+                p.remaining -= n;
+                if (p.remaining == 0) {
+                    cntBytesHashed += 65536;
+                    int hashId = ledHashDB.hashIdFromMD5_64K(p.digest.digest());
+                    if (hashId >= 0) hits.add(new long[] { p.offset, hashId });
+                    pending.remove(i--);
+                }
+            }
+        }
+
+        public void finish() throws Exception {
+            evidence.setTempAttribute(LED_HITS, hits);
+            num512hit.addAndGet(cnt512hit);
+            num512total.addAndGet(cnt512total);
+            bytesHashed.addAndGet(cntBytesHashed);
+        }
+
+        public void cancel() {
+            digest.reset();
+        }
+    }
+
+    private static class PendingHash {
+
+        private final long offset;
+        private final MessageDigest digest;
+        private int remaining = 65536 - 512;
+
+        private PendingHash(long offset) throws Exception {
+            this.offset = offset;
+            this.digest = MessageDigest.getInstance("MD5");
+        }
+    }
+
+    private static boolean isEmpty(byte[] buf, int len) {
+        byte first = buf[0];
+        for (int i = 1; i < len; i++) {
+            if (buf[i] != first) return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
     protected void process(IItem evidence) throws Exception {
         // Verifica se está desabilitado e se o tipo de arquivo é tratado
-        if (!taskEnabled || caseData.isIpedReport() || !isAcceptedType(evidence.getMediaType()) || !isToProcess(evidence)) return;
+        if (!isToCarve(evidence)) return;
+
+        List<long[]> hits = (List<long[]>) evidence.getTempAttribute(LED_HITS);
+        if (hits != null) {
+            // conteúdo já percorrido pelo ContentScanner
+            int cntCarvedItems = 0;
+            for (long[] hit : hits) {
+                try {
+                    if (carve(evidence, hit[0], (int) hit[1])) cntCarvedItems++;
+                } catch (Exception e) {
+                    logger.warn(evidence.toString(), e);
+                }
+            }
+            numCarvedItems.addAndGet(cntCarvedItems);
+            return;
+        }
 
         byte[] buf512 = new byte[512];
         byte[] buf64K = new byte[65536 - buf512.length];
@@ -167,7 +294,6 @@ protected void process(IItem evidence) throws Exception {
         long cnt512hit = 0;
         long cnt512total = 0;
         long cntBytesHashed = 0;
-        Set<Long> offsets = null;
         try {
             long offset = 0;
             int read512 = 0;
@@ -175,15 +301,7 @@ protected void process(IItem evidence) throws Exception {
             while ((read512 = is.read(buf512)) > 0) {
                 if (read512 != buf512.length) break;
                 cnt512total++;
-                boolean empty = true;
-                byte first = buf512[0];
-                for (int i = 1; i < read512; i++) {
-                    if (buf512[i] != first) {
-                        empty = false;
-                        break;
-                    }
-                }
-                if (!empty) {
+                if (!isEmpty(buf512, read512)) {
                     digest.update(buf512, 0, read512);
                     cntBytesHashed += read512;
                     byte[] hash512 = digest.digest();
@@ -198,27 +316,7 @@ protected void process(IItem evidence) throws Exception {
                             digest.update(buf64K, 0, read64K);
                             byte[] hash64K = digest.digest();
                             int hashId = ledHashDB.hashIdFromMD5_64K(hash64K);
-                            if (hashId >= 0) {
-                                LedItem ledItem = hashDBDataSource.getLedItem(hashId);
-                                if (ledItem != null) {
-                                    String name = "CarvedLed-" + offset;
-                                    String ext = ledItem.getExt();
-                                    if (ext != null) name += '.' + ext.toLowerCase();
-                                    IItem carvedItem = createCarvedFile(evidence, offset, ledItem.getLength(), name, null);
-                                    if (carvedItem != null) {
-                                        carvedItem.setExtraAttribute("ledCarvedMD5", ledItem.getMD5());
-                                        cntCarvedItems++;
-                                        if (offsets == null) {
-                                            offsets = new HashSet<Long>();
-                                            synchronized (ledCarved) {
-                                                ledCarved.put(evidence, offsets);
-                                            }
-                                        }
-                                        offsets.add(offset);
-                                        addOffsetFile(carvedItem, evidence);
-                                    }
-                                }
-                            }
+                            if (hashId >= 0 && carve(evidence, offset, hashId)) cntCarvedItems++;
                         }
                     }
                 }
@@ -235,6 +333,27 @@ protected void process(IItem evidence) throws Exception {
         bytesHashed.addAndGet(cntBytesHashed);
     }
 
+    private boolean carve(IItem evidence, long offset, int hashId) throws Exception {
+        LedItem ledItem = hashDBDataSource.getLedItem(hashId);
+        if (ledItem == null) return false;
+        String name = "CarvedLed-" + offset;
+        String ext = ledItem.getExt();
+        if (ext != null) name += '.' + ext.toLowerCase();
+        IItem carvedItem = createCarvedFile(evidence, offset, ledItem.getLength(), name, null);
+        if (carvedItem == null) return false;
+        carvedItem.setExtraAttribute("ledCarvedMD5", ledItem.getMD5());
+        synchronized (ledCarved) {
+            Set<Long> offsets = ledCarved.get(evidence);
+            if (offsets == null) {
+                offsets = new HashSet<Long>();
+                ledCarved.put(evidence, offsets);
+            }
+            offsets.add(offset);
+        }
+        addOffsetFile(carvedItem, evidence);
+        return true;
+    }
+
     private static boolean isAcceptedType(MediaType mediaType) {
         return mediaType.getBaseType().equals(UNALLOCATED_MIMETYPE) || mediaType.getBaseType().equals(mtPageFile) || mediaType.getBaseType().equals(mtDiskImage) || mediaType.getBaseType().equals(mtUnknown) || mediaType.getBaseType().equals(mtVdi) || mediaType.getBaseType().equals(mtVhd)
                 || mediaType.getBaseType().equals(mtVhdx) || mediaType.getBaseType().equals(mtVmdk) || mediaType.getBaseType().equals(mtVolumeShadow);
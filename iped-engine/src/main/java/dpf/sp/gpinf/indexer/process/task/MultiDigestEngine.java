@@ -0,0 +1,261 @@
+package dpf.sp.gpinf.indexer.process.task;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import dpf.sp.gpinf.indexer.process.task.HashTask.HASH;
+
+/**
+ * Computes several digests over the same data in one read pass. Each configured
+ * algorithm is a lane that can be updated concurrently with the others on a
+ * shared pool, while the caller reads the next block into another buffer. The
+ * buffer passed to {@link #update(byte[], int)} must not be modified until the
+ * next call to update() or {@link #digest()} returns.
+ */
+public class MultiDigestEngine {
+
+    private static final ThreadFactory threadFactory = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "DigestLane-" + count.getAndIncrement()); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(threadFactory);
+
+    private static final Map<String, LongAdder[]> throughputStats = new ConcurrentHashMap<>();
+
+    private final List<DigestLane> lanes = new ArrayList<>();
+
+    private final Future<?>[] pending;
+
+    private boolean parallel = false;
+
+    public MultiDigestEngine(List<String> algorithms) throws Exception {
+        for (String algorithm : algorithms) {
+            DigestLane lane;
+            if (algorithm.equalsIgnoreCase(HASH.EDONKEY.toString())) {
+                lane = new Ed2kLane(algorithm);
+            } else {
+                lane = new DigestLane(algorithm, MessageDigest.getInstance(algorithm.toUpperCase()));
+            }
+            lanes.add(lane);
+        }
+        pending = new Future<?>[lanes.size()];
+    }
+
+    public boolean isEmpty() {
+        return lanes.isEmpty();
+    }
+
+    /**
+     * Sets if next updates should run on the shared pool, concurrently with the
+     * caller. Worth only for data larger than one buffer, otherwise the hand off
+     * costs more than it saves.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Updates all lanes with the first len bytes of buf. In parallel mode, returns
+     * as soon as the previous block was consumed by all lanes.
+     */
+    public void update(final byte[] buf, final int len) throws InterruptedException {
+        awaitPending();
+        if (!parallel) {
+            for (DigestLane lane : lanes) {
+                lane.timedUpdate(buf, len);
+            }
+            return;
+        }
+        for (int i = 0; i < lanes.size(); i++) {
+            final DigestLane lane = lanes.get(i);
+            pending[i] = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    lane.timedUpdate(buf, len);
+                }
+            });
+        }
+    }
+
+    /**
+     * Finishes all digests, returning them in configuration order, and resets the
+     * lanes for the next item.
+     */
+    public Map<String, byte[]> digest() throws InterruptedException {
+        awaitPending();
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (DigestLane lane : lanes) {
+            result.put(lane.algorithm, lane.digest());
+        }
+        return result;
+    }
+
+    /**
+     * Discards partial state, e.g. after a read error. Waits pending updates even
+     * if interrupted, so buffers can be safely reused afterwards.
+     */
+    public void reset() {
+        boolean interrupted = false;
+        for (int i = 0; i < pending.length; i++) {
+            while (pending[i] != null) {
+                try {
+                    pending[i].get();
+                    pending[i] = null;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    pending[i] = null;
+                }
+            }
+        }
+        for (DigestLane lane : lanes) {
+            lane.reset();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitPending() throws InterruptedException {
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i] != null) {
+                try {
+                    pending[i].get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                } finally {
+                    if (pending[i].isDone()) {
+                        pending[i] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return map of algorithm to {bytes hashed, nanoseconds spent} summed over all
+     *         engine instances.
+     */
+    public static Map<String, long[]> getThroughputStats() {
+        Map<String, long[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder[]> entry : throughputStats.entrySet()) {
+            result.put(entry.getKey(), new long[] { entry.getValue()[0].sum(), entry.getValue()[1].sum() });
+        }
+        return result;
+    }
+
+    private static class DigestLane {
+
+        final String algorithm;
+        final MessageDigest md;
+        final LongAdder bytes, nanos;
+
+        DigestLane(String algorithm, MessageDigest md) {
+            this.algorithm = algorithm;
+            this.md = md;
+            LongAdder[] counters = throughputStats.computeIfAbsent(algorithm,
+                    k -> new LongAdder[] { new LongAdder(), new LongAdder() });
+            this.bytes = counters[0];
+            this.nanos = counters[1];
+        }
+
+        final void timedUpdate(byte[] buf, int len) {
+            long t = System.nanoTime();
+            update(buf, len);
+            nanos.add(System.nanoTime() - t);
+            bytes.add(len);
+        }
+
+        void update(byte[] buf, int len) {
+            md.update(buf, 0, len);
+        }
+
+        byte[] digest() {
+            return md.digest();
+        }
+
+        void reset() {
+            md.reset();
+        }
+    }
+
+    /**
+     * eDonkey hash: MD4 of each 9500KB chunk, then MD4 of the concatenated chunk
+     * hashes if there is more than one chunk.
+     */
+    private static class Ed2kLane extends DigestLane {
+
+        private static final int CHUNK_SIZE = 9500 * 1024;
+
+        private int chunk = 0;
+        private long total = 0;
+        private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Ed2kLane(String algorithm) throws Exception {
+            super(algorithm, MessageDigest.getInstance("MD4", new BouncyCastleProvider())); //$NON-NLS-1$
+        }
+
+        @Override
+        void update(byte[] buffer, int len) {
+            if (chunk + len >= CHUNK_SIZE) {
+                int offset = CHUNK_SIZE - chunk;
+                md.update(buffer, 0, offset);
+                byte[] hash = md.digest();
+                out.write(hash, 0, hash.length);
+                chunk = len - offset;
+                md.update(buffer, offset, chunk);
+            } else {
+                md.update(buffer, 0, len);
+                chunk += len;
+            }
+            total += len;
+        }
+
+        @Override
+        byte[] digest() {
+            if (total == 0 || total % CHUNK_SIZE != 0) {
+                byte[] hash = md.digest();
+                out.write(hash, 0, hash.length);
+            }
+            if (out.size() > md.getDigestLength()) {
+                md.update(out.toByteArray());
+                out.reset();
+                byte[] hash = md.digest();
+                out.write(hash, 0, hash.length);
+            }
+            byte[] ed2k = out.toByteArray();
+            reset();
+            return ed2k;
+        }
+
+        @Override
+        void reset() {
+            md.reset();
+            chunk = 0;
+            total = 0;
+            out = new ByteArrayOutputStream();
+        }
+    }
+
+}
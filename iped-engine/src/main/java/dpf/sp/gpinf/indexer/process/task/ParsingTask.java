@@ -385,6 +385,7 @@ private void safeProcess(IItem evidence) throws IOException {
 
             TextCache textCache = new TextCache();
             textCache.setEnableDiskCache(advancedConfig.isStoreTextCacheOnDisk());
+            textCache.setCompressDiskCache(advancedConfig.isCompressTextCacheOnDisk());
             char[] cbuf = new char[128 * 1024];
             int len = 0;
             while ((len = reader.read(cbuf)) != -1 && !Thread.currentThread().isInterrupted()) {
@@ -0,0 +1,369 @@
+package dpf.sp.gpinf.indexer.process.task;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import gpinf.hashdb.PhotoDnaItem;
+
+/**
+ * Flattened VP-tree of PhotoDNA hashes, stored in a file loaded with mmap.
+ * Nodes are kept in tree order: the node of range [lo, hi) is its vantage point
+ * at position lo, its inside children are in [lo + 1, split) and its outside
+ * children in [split, hi). Small ranges are leaves scanned linearly. So the
+ * tree is just some primitive arrays, without per hash objects.
+ *
+ * Pruning uses the euclidean distance, which is a metric, while the reported
+ * distances are the squared euclidean distances used before.
+ */
+class PhotoDNAIndex {
+
+    private static final int MAGIC = 0x50444e41; // PDNA
+    private static final int VERSION = 1;
+
+    private static final int LEAF_SIZE = 16;
+
+    /**
+     * Hashes per mapped buffer, so each one is smaller than 2GB.
+     */
+    private static final int HASHES_PER_CHUNK = 1 << 22;
+
+    private final int hashSize;
+    private final int size;
+    private final IntBuffer ids;
+    private final IntBuffer splits;
+    private final FloatBuffer thresholds;
+    private final ByteBuffer[] hashes;
+
+    /**
+     * Result of the lookup of one query.
+     */
+    static class Match {
+        int index = -1;
+        int distance;
+    }
+
+    private PhotoDNAIndex(FileChannel fc, long dataStart, int size, int hashSize) throws IOException {
+        this.size = size;
+        this.hashSize = hashSize;
+        long pos = dataStart;
+        ids = map(fc, pos, 4L * size).asIntBuffer();
+        pos += 4L * size;
+        splits = map(fc, pos, 4L * size).asIntBuffer();
+        pos += 4L * size;
+        thresholds = map(fc, pos, 4L * size).asFloatBuffer();
+        pos += 4L * size;
+        hashes = new ByteBuffer[(size + HASHES_PER_CHUNK - 1) / HASHES_PER_CHUNK];
+        for (int i = 0; i < hashes.length; i++) {
+            int n = Math.min(HASHES_PER_CHUNK, size - i * HASHES_PER_CHUNK);
+            hashes[i] = map(fc, pos, (long) n * hashSize);
+            pos += (long) n * hashSize;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel fc, long pos, long len) throws IOException {
+        MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, pos, len);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        return buf;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getHashId(int index) {
+        return ids.get(index);
+    }
+
+    byte[] getHash(int index) {
+        byte[] hash = new byte[hashSize];
+        ByteBuffer buf = hashes[index / HASHES_PER_CHUNK].duplicate();
+        buf.position((index % HASHES_PER_CHUNK) * hashSize);
+        buf.get(hash);
+        return hash;
+    }
+
+    /**
+     * Squared euclidean distance, abandoned as soon as it reaches bound.
+     */
+    private int distance(byte[] query, int index, int bound) {
+        ByteBuffer buf = hashes[index / HASHES_PER_CHUNK];
+        int off = (index % HASHES_PER_CHUNK) * hashSize;
+        int dist = 0;
+        for (int i = 0; i < hashSize;) {
+            int end = Math.min(i + 16, hashSize);
+            for (; i < end; i++) {
+                int diff = (query[i] & 0xff) - (buf.get(off + i) & 0xff);
+                dist += diff * diff;
+            }
+            if (dist >= bound) {
+                return dist;
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Finds the nearest hash of each query, if within maxDistance, traversing the
+     * tree once for all queries.
+     *
+     * @param maxDistance
+     *            maximum squared euclidean distance, inclusive.
+     * @return matches, with index -1 if nothing was found.
+     */
+    Match[] findNearest(byte[][] queries, int maxDistance) {
+        if (queries.length > 31) {
+            throw new IllegalArgumentException("Too many queries: " + queries.length); //$NON-NLS-1$
+        }
+        Match[] matches = new Match[queries.length];
+        int[] bounds = new int[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            matches[q] = new Match();
+            bounds[q] = maxDistance + 1;
+        }
+        if (size > 0) {
+            search(0, size, queries, (1 << queries.length) - 1, bounds, matches);
+        }
+        for (int q = 0; q < queries.length; q++) {
+            if (matches[q].index != -1) {
+                matches[q].distance = bounds[q];
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Looks up the rotations and flips of an item hash, in a single traversal.
+     *
+     * @return nearest hash of the first query, in order, with any hash within
+     *         maxDistance, or null if there is none.
+     */
+    Match findFirst(byte[][] queries, int maxDistance) {
+        for (Match match : findNearest(queries, maxDistance)) {
+            if (match.index != -1) {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    private void search(int lo, int hi, byte[][] queries, int mask, int[] bounds, Match[] matches) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                for (int q = 0; q < queries.length; q++) {
+                    if ((mask & (1 << q)) != 0) {
+                        int d = distance(queries[q], i, bounds[q]);
+                        if (d < bounds[q]) {
+                            bounds[q] = d;
+                            matches[q].index = i;
+                        }
+                    }
+                }
+            }
+            return;
+        }
+        float mu = thresholds.get(lo);
+        int split = splits.get(lo);
+        float[] dists = new float[queries.length];
+        int inside = 0;
+        for (int q = 0; q < queries.length; q++) {
+            if ((mask & (1 << q)) != 0) {
+                int d = distance(queries[q], lo, Integer.MAX_VALUE);
+                if (d < bounds[q]) {
+                    bounds[q] = d;
+                    matches[q].index = lo;
+                }
+                dists[q] = (float) Math.sqrt(d);
+                if (dists[q] - tau(bounds[q]) <= mu) {
+                    inside |= 1 << q;
+                }
+            }
+        }
+        if (inside != 0) {
+            search(lo + 1, split, queries, inside, bounds, matches);
+        }
+        // bounds may have decreased
+        int outside = 0;
+        for (int q = 0; q < queries.length; q++) {
+            if ((mask & (1 << q)) != 0 && dists[q] + tau(bounds[q]) >= mu) {
+                outside |= 1 << q;
+            }
+        }
+        if (outside != 0) {
+            search(split, hi, queries, outside, bounds, matches);
+        }
+    }
+
+    /**
+     * @return search radius of an exclusive squared distance bound, rounded up.
+     */
+    private static float tau(int bound) {
+        return (float) Math.sqrt(bound) + 1e-3f;
+    }
+
+    /**
+     * Builds the tree of the hashes and writes it to file.
+     */
+    static void write(File file, List<PhotoDnaItem> items, int hashSize, long hashDBLength,
+            long hashDBLastModified, String filter) throws IOException {
+        int n = items.size();
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        int[] splits = new int[n];
+        float[] thresholds = new float[n];
+        float[] dists = new float[n];
+        Random random = new Random(0);
+        build(items, perm, 0, n, splits, thresholds, dists, random);
+
+        File tmp = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            byte[] filterBytes = filter.getBytes(StandardCharsets.UTF_8);
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeLong(hashDBLength);
+            os.writeLong(hashDBLastModified);
+            os.writeInt(filterBytes.length);
+            os.write(filterBytes);
+            os.writeInt(n);
+            os.writeInt(hashSize);
+            for (int i = 0; i < n; i++) {
+                os.writeInt(items.get(perm[i]).getHashId());
+            }
+            for (int i = 0; i < n; i++) {
+                os.writeInt(splits[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                os.writeFloat(thresholds[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                os.write(items.get(perm[i]).getBytes());
+            }
+        }
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Error renaming " + tmp.getPath()); //$NON-NLS-1$
+        }
+    }
+
+    private static void build(List<PhotoDnaItem> items, int[] perm, int lo, int hi, int[] splits, float[] thresholds,
+            float[] dists, Random random) {
+        if (hi - lo <= LEAF_SIZE) {
+            return;
+        }
+        swap(perm, dists, lo, lo + random.nextInt(hi - lo));
+        byte[] vp = items.get(perm[lo]).getBytes();
+        for (int i = lo + 1; i < hi; i++) {
+            dists[i] = (float) Math.sqrt(distance(vp, items.get(perm[i]).getBytes()));
+        }
+        int mid = (lo + 1 + hi) >>> 1;
+        select(perm, dists, lo + 1, hi - 1, mid);
+        splits[lo] = mid;
+        thresholds[lo] = dists[mid];
+        build(items, perm, lo + 1, mid, splits, thresholds, dists, random);
+        build(items, perm, mid, hi, splits, thresholds, dists, random);
+    }
+
+    private static int distance(byte[] b1, byte[] b2) {
+        int distance = 0;
+        for (int i = 0; i < b1.length; i++) {
+            int diff = (0xff & b1[i]) - (0xff & b2[i]);
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    /**
+     * Quickselect: puts the k-th smallest distance of [left, right] at k.
+     */
+    private static void select(int[] perm, float[] dists, int left, int right, int k) {
+        while (right > left) {
+            int p = partition(perm, dists, left, right, (left + right) >>> 1);
+            if (p == k) {
+                return;
+            } else if (k < p) {
+                right = p - 1;
+            } else {
+                left = p + 1;
+            }
+        }
+    }
+
+    private static int partition(int[] perm, float[] dists, int left, int right, int pivotIndex) {
+        float pivot = dists[pivotIndex];
+        swap(perm, dists, pivotIndex, right);
+        int store = left;
+        for (int i = left; i < right; i++) {
+            if (dists[i] < pivot) {
+                swap(perm, dists, store++, i);
+            }
+        }
+        swap(perm, dists, right, store);
+        return store;
+    }
+
+    private static void swap(int[] perm, float[] dists, int i, int j) {
+        int t = perm[i];
+        perm[i] = perm[j];
+        perm[j] = t;
+        float f = dists[i];
+        dists[i] = dists[j];
+        dists[j] = f;
+    }
+
+    /**
+     * @return the index in file, or null if it is invalid or was built from other
+     *         hashes.
+     */
+    static PhotoDNAIndex load(File file, long hashDBLength, long hashDBLastModified, String filter)
+            throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(fc.size(), 1 << 16));
+            while (header.hasRemaining() && fc.read(header) > 0) {
+                ;
+            }
+            header.flip();
+            if (header.remaining() < 32 || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != hashDBLength || header.getLong() != hashDBLastModified) {
+                return null;
+            }
+            int filterLen = header.getInt();
+            if (filterLen < 0 || filterLen > header.remaining() - 8) {
+                return null;
+            }
+            byte[] filterBytes = new byte[filterLen];
+            header.get(filterBytes);
+            if (!filter.equals(new String(filterBytes, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            int n = header.getInt();
+            int hashSize = header.getInt();
+            long dataStart = header.position();
+            if (n < 0 || hashSize <= 0 || fc.size() != dataStart + 12L * n + (long) n * hashSize) {
+                return null;
+            }
+            // mapped buffers stay valid after the channel is closed
+            return new PhotoDNAIndex(fc, dataStart, n, hashSize);
+        }
+    }
+
+}
@@ -1,12 +1,7 @@
 package dpf.sp.gpinf.indexer.process.task;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -18,13 +13,9 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.eatthepath.jvptree.DistanceFunction;
-import com.eatthepath.jvptree.VPTree;
-
 import br.dpf.sepinf.photodna.api.PhotoDNATransforms;
 import dpf.sp.gpinf.indexer.Configuration;
 import dpf.sp.gpinf.indexer.util.HashValue;
-import dpf.sp.gpinf.indexer.util.IOUtil;
 import gpinf.hashdb.HashDBDataSource;
 import gpinf.hashdb.PhotoDnaItem;
 import iped3.IItem;
@@ -33,7 +24,7 @@ public class PhotoDNALookup extends AbstractTask {
 
     private static Logger LOGGER = LoggerFactory.getLogger(PhotoDNALookup.class);
 
-    private static final String cachePath = System.getProperty("user.home") + "/.indexador/photodnalookup.cache";
+    private static final String cachePath = System.getProperty("user.home") + "/.indexador/photodnalookup-vptree.cache";
 
     public static final String PHOTO_DNA_HIT_PREFIX = "photoDnaDb:";
 
@@ -52,9 +43,7 @@ public class PhotoDNALookup extends AbstractTask {
     private static final AtomicBoolean init = new AtomicBoolean(false);
     private static final AtomicBoolean finished = new AtomicBoolean(false);
 
-    private static VPDistance photoDNADistance = new VPDistance();
-
-    private static VPTree<PhotoDnaItem, PhotoDnaItem> vptree = new VPTree<PhotoDnaItem, PhotoDnaItem>(photoDNADistance);
+    private static volatile PhotoDNAIndex index;
 
     private static boolean taskEnabled;
 
@@ -91,8 +80,8 @@ public void init(Properties confParams, File confDir) throws Exception {
                         } else {
                             long t = System.currentTimeMillis();
                             hashDBDataSource = new HashDBDataSource(hashDBFile);
-                            ArrayList<PhotoDnaItem> photoDNAHashSet = readCache(hashDBFile, statusHashDBFilter);
-                            if (photoDNAHashSet != null) {
+                            index = loadIndex(new File(cachePath), hashDBFile, statusHashDBFilter);
+                            if (index != null) {
                                 LOGGER.info("Load from cache file {}.", cachePath);
                             } else {
                                 Set<String> statusFilter = null;
@@ -106,18 +95,18 @@ public void init(Properties confParams, File confDir) throws Exception {
                                         }
                                     }
                                 }
-                                photoDNAHashSet = hashDBDataSource.readPhotoDNA(statusFilter);
+                                ArrayList<PhotoDnaItem> photoDNAHashSet = hashDBDataSource.readPhotoDNA(statusFilter);
                                 if (photoDNAHashSet == null || photoDNAHashSet.isEmpty()) {
                                     LOGGER.error("PhotoDNA hashes must be loaded into IPED hashes database to enable PhotoDNALookup.");
-                                } else if (writeCache(hashDBFile, photoDNAHashSet, statusHashDBFilter)) {
-                                    LOGGER.info("Cache file {} was created.", cachePath);
+                                } else {
+                                    LOGGER.info("{} PhotoDNA Hashes read in {} ms.", photoDNAHashSet.size(), System.currentTimeMillis() - t);
+                                    t = System.currentTimeMillis();
+                                    index = buildIndex(hashDBFile, photoDNAHashSet, statusHashDBFilter);
+                                    LOGGER.info("Data structure built in {} ms.", System.currentTimeMillis() - t);
                                 }
                             }
-                            if (photoDNAHashSet != null && !photoDNAHashSet.isEmpty()) { 
-                                LOGGER.info("{} PhotoDNA Hashes loaded in {} ms.", photoDNAHashSet.size(), System.currentTimeMillis() - t);
-                                t = System.currentTimeMillis();
-                                vptree.addAll(photoDNAHashSet);
-                                LOGGER.info("Data structure built in {} ms.", System.currentTimeMillis() - t);
+                            if (index != null && index.size() > 0) {
+                                LOGGER.info("{} PhotoDNA Hashes loaded.", index.size());
                                 taskEnabled = true;
                             }
                         }
@@ -129,24 +118,6 @@ public void init(Properties confParams, File confDir) throws Exception {
         }
     }
 
-    private static class VPDistance implements DistanceFunction<PhotoDnaItem> {
-
-        @Override
-        public double getDistance(PhotoDnaItem o1, PhotoDnaItem o2) {
-            int distance = 0;
-            byte[] b1 = o1.getBytes();
-            byte[] b2 = o2.getBytes();
-            for (int i = 0; i < b1.length; i++) {
-                int diff = (0xff & b1[i]) - (0xff & b2[i]);
-                distance += diff * diff;
-            }
-            // This is not a metric (do not satisfy triangle inequality)
-            // Might it produce a wrong VPTree index???
-            return distance;
-        }
-
-    }
-
     @Override
     public boolean isEnabled() {
         return taskEnabled;
@@ -159,10 +130,8 @@ public void finish() throws Exception {
                 if (hashDBDataSource != null) {
                     hashDBDataSource.close();
                 }
-                if (vptree != null) {
-                    vptree.clear();
-                    vptree = null;
-                }
+                // mapped buffers are released by GC
+                index = null;
                 finished.set(true);
             }
         }
@@ -176,124 +145,64 @@ protected void process(IItem evidence) throws Exception {
 
         HashValue photodna = new HashValue(hashStr);
 
-        int rot = 0;
-        boolean flip = false;
-        while (rot == 0 || (rotateAndFlip && rot < 4)) {
-            int degree = 90 * rot++;
-            PhotoDnaItem photoDnaItemRot = new PhotoDnaItem(-1, transforms.rot(photodna.getBytes(), degree, flip));
-            List<PhotoDnaItem> neighbors = vptree.getAllWithinDistance(photoDnaItemRot, MAX_DISTANCE);
+        // all rotations and flips are looked up in a single tree traversal
+        int numQueries = rotateAndFlip ? 8 : 1;
+        byte[][] queries = new byte[numQueries][];
+        for (int i = 0; i < numQueries; i++) {
+            queries[i] = transforms.rot(photodna.getBytes(), 90 * (i % 4), i >= 4);
+        }
+        PhotoDNAIndex.Match match = index.findFirst(queries, MAX_DISTANCE);
 
-            PhotoDnaItem nearest = null;
-            int minDist = Integer.MAX_VALUE;
-            for (PhotoDnaItem neighbor : neighbors) {
-                int dist = (int) photoDNADistance.getDistance(neighbor, photoDnaItemRot);
-                if (dist < minDist) {
-                    minDist = dist;
-                    nearest = neighbor;
-                }
-            }
-            if (nearest != null) {
-                evidence.setExtraAttribute(PHOTO_DNA_HIT, "true");
-                evidence.setExtraAttribute(PHOTO_DNA_DIST, minDist);
-                evidence.setExtraAttribute(PHOTO_DNA_NEAREAST_HASH, nearest.toString());
+        if (match != null) {
+            int hashId = index.getHashId(match.index);
+            evidence.setExtraAttribute(PHOTO_DNA_HIT, "true");
+            evidence.setExtraAttribute(PHOTO_DNA_DIST, match.distance);
+            evidence.setExtraAttribute(PHOTO_DNA_NEAREAST_HASH, new HashValue(index.getHash(match.index)).toString());
 
-                String md5 = hashDBDataSource.getMD5(nearest.getHashId());
-                if (md5 != null) {
-                    evidence.setExtraAttribute(PHOTO_DNA_HIT_PREFIX + "md5", md5);
-                }
-                Map<String, List<String>> properties = hashDBDataSource.getProperties(nearest.getHashId());
-                for (String name : properties.keySet()) {
-                    if (!name.equalsIgnoreCase("photoDna")) {
-                        List<String> value = properties.get(name);
-                        evidence.setExtraAttribute(PHOTO_DNA_HIT_PREFIX + name, value);
-                    }
-                }
-                break;
+            String md5 = hashDBDataSource.getMD5(hashId);
+            if (md5 != null) {
+                evidence.setExtraAttribute(PHOTO_DNA_HIT_PREFIX + "md5", md5);
             }
-            if (rot == 4 && !flip) {
-                rot = 0;
-                flip = true;
+            Map<String, List<String>> properties = hashDBDataSource.getProperties(hashId);
+            for (String name : properties.keySet()) {
+                if (!name.equalsIgnoreCase("photoDna")) {
+                    List<String> value = properties.get(name);
+                    evidence.setExtraAttribute(PHOTO_DNA_HIT_PREFIX + name, value);
+                }
             }
         }
     }
 
-    private boolean writeCache(File hashDBFile, ArrayList<PhotoDnaItem> photoDNAHashSet, String filter) {
-        File cacheFile = new File(cachePath);
-        boolean ret = false;
-        DataOutputStream os = null;
+    private static PhotoDNAIndex loadIndex(File cacheFile, File hashDBFile, String filter) {
         try {
-            if (cacheFile.getParentFile() != null && !cacheFile.getParentFile().exists()) {
-                cacheFile.getParentFile().mkdirs();
-            }
-            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
-            os.writeLong(hashDBFile.length());
-            os.writeLong(hashDBFile.lastModified());
-            os.writeInt(filter.length());
-            os.writeChars(filter);
-            os.writeInt(photoDNAHashSet.size());
-            for (PhotoDnaItem v : photoDNAHashSet) {
-                os.writeInt(v.getHashId());
-                byte[] b = v.getBytes();
-                os.write(b);
-            }
-            ret = true;
+            return PhotoDNAIndex.load(cacheFile, hashDBFile.length(), hashDBFile.lastModified(), filter);
         } catch (Exception e) {
-            LOGGER.warn("Error writing cache file " + cacheFile.getPath(), e);
-            return false;
-        } finally {
-            IOUtil.closeQuietly(os);
-            if (!ret) {
-                try {
-                    cacheFile.delete();
-                } catch (Exception e) {}
-            }
+            LOGGER.warn("Error reading cache file " + cacheFile.getPath(), e);
+            return null;
         }
-        return ret;
     }
 
-    private ArrayList<PhotoDnaItem> readCache(File hashDBFile, String filter) {
+    private static PhotoDNAIndex buildIndex(File hashDBFile, ArrayList<PhotoDnaItem> photoDNAHashSet, String filter)
+            throws IOException {
         File cacheFile = new File(cachePath);
-        if (!cacheFile.exists()) return null;
-        DataInputStream is = null;
-        boolean ret = false;
-        ArrayList<PhotoDnaItem> photoDNAHashSet = null;
         try {
-            is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1 << 20));
-            long fileLen = is.readLong();
-            if (fileLen == hashDBFile.length()) {
-                long fileLastModified = is.readLong();
-                if (fileLastModified == hashDBFile.lastModified()) {
-                    int filterLen = is.readInt();
-                    if (filterLen == filter.length()) {
-                        char[] c = new char[filterLen];
-                        for (int i = 0; i < filterLen; i++) {
-                            c[i] = is.readChar();
-                        }
-                        if (filter.equals(new String(c))) {
-                            int len = is.readInt();
-                            photoDNAHashSet = new ArrayList<PhotoDnaItem>(len);
-                            for (int i = 0; i < len; i++) {
-                                int hashId = is.readInt();
-                                byte[] b = new byte[PhotoDNATask.HASH_SIZE];
-                                is.read(b);
-                                photoDNAHashSet.add(new PhotoDnaItem(hashId, b));
-                            }
-                            ret = true;
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Error reading cache file " + cacheFile.getPath(), e);
-            return null;
-        } finally {
-            IOUtil.closeQuietly(is);
-            if (!ret) {
-                try {
-                    cacheFile.delete();
-                } catch (Exception e) {}
+            if (cacheFile.getParentFile() != null && !cacheFile.getParentFile().exists()) {
+                cacheFile.getParentFile().mkdirs();
             }
+            PhotoDNAIndex.write(cacheFile, photoDNAHashSet, PhotoDNATask.HASH_SIZE, hashDBFile.length(),
+                    hashDBFile.lastModified(), filter);
+            LOGGER.info("Cache file {} was created.", cachePath);
+        } catch (IOException e) {
+            LOGGER.warn("Error writing cache file " + cacheFile.getPath() + ", using a temp file.", e);
+            cacheFile = File.createTempFile("photodnalookup", ".cache");
+            cacheFile.deleteOnExit();
+            PhotoDNAIndex.write(cacheFile, photoDNAHashSet, PhotoDNATask.HASH_SIZE, hashDBFile.length(),
+                    hashDBFile.lastModified(), filter);
+        }
+        PhotoDNAIndex index = PhotoDNAIndex.load(cacheFile, hashDBFile.length(), hashDBFile.lastModified(), filter);
+        if (index == null) {
+            throw new IOException("Invalid cache file " + cacheFile.getPath());
         }
-        return ret ? photoDNAHashSet : null;
+        return index;
     }
 }
@@ -0,0 +1,406 @@
+package dpf.sp.gpinf.indexer.process.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind queue of one SQLite storage shard. Processing threads just
+ * enqueue contents and thumbnails, a dedicated thread compresses them and
+ * writes them in prepared statement batches. Enqueued data is readable from
+ * memory until written, so readers do not need to wait. Transactions are still
+ * committed only by {@link #flush(boolean)}, together with the index commits.
+ *
+ * Failures are not kept for later calls: rows of a failed batch are inserted
+ * again one by one and only rows failing by themselves are lost, logged with
+ * their ids, while commit failures are thrown by the flush waiting for them.
+ */
+class SQLiteStorageWriter {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SQLiteStorageWriter.class);
+
+    private static final String INSERT_DATA = "INSERT INTO t1(id, data) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET data=? WHERE data IS NULL;"; //$NON-NLS-1$
+    private static final String INSERT_THUMB = "INSERT INTO thumbs(id, thumb) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET thumb=? WHERE thumb IS NULL;"; //$NON-NLS-1$
+
+    /**
+     * Maximum size of data waiting to be written, in KB. Processing threads block
+     * when it is reached, so memory usage is bounded if the disk is slower.
+     */
+    private static final int MAX_PENDING_KB = 32 * 1024;
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private static class Write {
+        final String id;
+        final byte[] data;
+        final boolean thumb;
+        final int permits;
+        // markers have a latch
+        final CountDownLatch latch;
+        final boolean commit, stop;
+        // compressed data, or failure of the marker, set by the writer thread
+        byte[] bytes;
+        SQLException error;
+
+        Write(String id, byte[] data, boolean thumb, int permits) {
+            this.id = id;
+            this.data = data;
+            this.thumb = thumb;
+            this.permits = permits;
+            this.latch = null;
+            this.commit = false;
+            this.stop = false;
+        }
+
+        Write(boolean commit, boolean stop) {
+            this.id = null;
+            this.data = null;
+            this.thumb = false;
+            this.permits = 0;
+            this.latch = new CountDownLatch(1);
+            this.commit = commit;
+            this.stop = stop;
+        }
+    }
+
+    private final File db;
+    private final Connection con;
+
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Semaphore pendingKB = new Semaphore(MAX_PENDING_KB);
+    private final Map<String, byte[]> pendingData = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> pendingThumbs = new ConcurrentHashMap<>();
+
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    private Thread thread;
+
+    SQLiteStorageWriter(File db, Connection con) {
+        this.db = db;
+        this.con = con;
+    }
+
+    Connection getConnection() {
+        return con;
+    }
+
+    /**
+     * Enqueues the uncompressed content of an item.
+     */
+    void putData(String id, byte[] data) throws SQLException, InterruptedException {
+        put(id, data, false);
+    }
+
+    void putThumb(String id, byte[] thumb) throws SQLException, InterruptedException {
+        put(id, thumb, true);
+    }
+
+    private void put(String id, byte[] data, boolean thumb) throws SQLException, InterruptedException {
+        int permits = Math.min(MAX_PENDING_KB, data.length / 1024 + 1);
+        pendingKB.acquire(permits);
+        (thumb ? pendingThumbs : pendingData).put(id, data);
+        enqueue(new Write(id, data, thumb, permits));
+    }
+
+    /**
+     * Enqueues while the thread is running, so writes are not left in the queue by
+     * a thread exiting.
+     */
+    private synchronized void enqueue(Write write) {
+        if (thread == null) {
+            thread = new Thread(this::run, "SQLiteStorageWriter-" + db.getName()); //$NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+        }
+        queue.add(write);
+    }
+
+    /**
+     * @return uncompressed content not written yet, or null.
+     */
+    byte[] getPendingData(String id) {
+        return pendingData.get(id);
+    }
+
+    byte[] getPendingThumb(String id) {
+        return pendingThumbs.get(id);
+    }
+
+    /**
+     * Waits until all enqueued data is written, optionally committing it.
+     */
+    void flush(boolean commit) throws SQLException {
+        if (getThread() != null) {
+            waitFor(new Write(commit, false));
+        } else if (commit && !con.isClosed() && !con.getAutoCommit()) {
+            con.commit();
+        }
+    }
+
+    /**
+     * Writes and commits all enqueued data, stops the writer thread and closes the
+     * connection.
+     */
+    void close() throws SQLException {
+        try {
+            Thread t = getThread();
+            if (t != null) {
+                waitFor(new Write(true, true));
+                joinQuietly(t);
+            } else if (!con.isClosed() && !con.getAutoCommit()) {
+                con.commit();
+            }
+        } finally {
+            con.close();
+        }
+    }
+
+    private void waitFor(Write marker) throws SQLException {
+        enqueue(marker);
+        try {
+            marker.latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        }
+        if (marker.error != null) {
+            throw marker.error;
+        }
+    }
+
+    private synchronized Thread getThread() {
+        return thread;
+    }
+
+    private static void joinQuietly(Thread t) {
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    long getPendingBytes() {
+        return (long) (MAX_PENDING_KB - pendingKB.availablePermits()) << 10;
+    }
+
+    long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>();
+        try (PreparedStatement dataPs = con.prepareStatement(INSERT_DATA);
+                PreparedStatement thumbPs = con.prepareStatement(INSERT_THUMB)) {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                boolean stop = process(batch, dataPs, thumbPs);
+                batch.clear();
+                if (stop) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // exiting
+        } catch (SQLException e) {
+            LOGGER.error("Error preparing writes to " + db.getName(), e); //$NON-NLS-1$
+        } finally {
+            exit(batch);
+        }
+    }
+
+    /**
+     * Ends the thread, doing directly the writes and commits left, so they are
+     * not lost nor block processing threads and waiting flushes.
+     */
+    private void exit(List<Write> batch) {
+        List<Write> left;
+        synchronized (this) {
+            thread = null;
+            left = new ArrayList<>(batch);
+            queue.drainTo(left);
+        }
+        for (Write write : left) {
+            if (write.latch == null) {
+                try (PreparedStatement ps = con.prepareStatement(write.thumb ? INSERT_THUMB : INSERT_DATA)) {
+                    insert(write, ps);
+                } catch (SQLException | IOException e) {
+                    logFailure(write, e);
+                }
+            } else if (write.commit) {
+                commit(write);
+            }
+            release(write);
+        }
+    }
+
+    /**
+     * @return true if the thread must stop.
+     */
+    private boolean process(List<Write> batch, PreparedStatement dataPs, PreparedStatement thumbPs) {
+        long start = System.nanoTime();
+        List<Write> added = new ArrayList<>();
+        int first = 0;
+        boolean stop = false;
+        for (int i = 0; i < batch.size(); i++) {
+            Write write = batch.get(i);
+            if (write.latch == null) {
+                PreparedStatement ps = write.thumb ? thumbPs : dataPs;
+                try {
+                    setRow(write, ps);
+                    ps.addBatch();
+                    added.add(write);
+                } catch (SQLException | IOException e) {
+                    logFailure(write, e);
+                }
+                continue;
+            }
+            // previous writes must be visible before the marker is released
+            executeBatches(added, dataPs, thumbPs);
+            if (write.commit) {
+                commit(write);
+            }
+            stop |= write.stop;
+            releaseAll(batch, first, i + 1);
+            first = i + 1;
+        }
+        executeBatches(added, dataPs, thumbPs);
+        releaseAll(batch, first, batch.size());
+        writeNanos.add(System.nanoTime() - start);
+        return stop;
+    }
+
+    /**
+     * Executes the batches of the added rows. If they fail, the rows are inserted
+     * one by one, so only rows failing by themselves are lost. Inserts do not
+     * change rows already written, so rows of the failed batches can be repeated.
+     */
+    private void executeBatches(List<Write> added, PreparedStatement dataPs, PreparedStatement thumbPs) {
+        if (added.isEmpty()) {
+            return;
+        }
+        try {
+            dataPs.executeBatch();
+            thumbPs.executeBatch();
+            for (Write write : added) {
+                written(write);
+            }
+        } catch (SQLException e) {
+            LOGGER.warn("Error writing batch to " + db.getName() + ", inserting rows one by one", e); //$NON-NLS-1$ //$NON-NLS-2$
+            for (PreparedStatement ps : new PreparedStatement[] { dataPs, thumbPs }) {
+                try {
+                    ps.clearBatch();
+                } catch (SQLException e1) {
+                    LOGGER.warn("Error clearing batch of " + db.getName(), e1); //$NON-NLS-1$
+                }
+            }
+            for (Write write : added) {
+                try {
+                    insert(write, write.thumb ? thumbPs : dataPs);
+                } catch (SQLException | IOException e1) {
+                    logFailure(write, e1);
+                }
+            }
+        }
+        added.clear();
+    }
+
+    private void insert(Write write, PreparedStatement ps) throws SQLException, IOException {
+        setRow(write, ps);
+        ps.executeUpdate();
+        written(write);
+    }
+
+    private void setRow(Write write, PreparedStatement ps) throws SQLException, IOException {
+        if (write.bytes == null) {
+            write.bytes = write.thumb ? write.data : compress(write.data);
+        }
+        ps.setString(1, write.id);
+        ps.setBytes(2, write.bytes);
+        ps.setBytes(3, write.bytes);
+    }
+
+    private void written(Write write) {
+        rowsWritten.increment();
+        bytesWritten.add(write.bytes.length);
+    }
+
+    private void logFailure(Write write, Exception e) {
+        LOGGER.error("Error writing " + (write.thumb ? "thumbnail " : "content ") + write.id + " to " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                + db.getName(), e);
+    }
+
+    /**
+     * Commits for a marker, the failure is thrown by the flush waiting for it.
+     */
+    private void commit(Write marker) {
+        try {
+            if (!con.getAutoCommit()) {
+                con.commit();
+            }
+        } catch (SQLException e) {
+            marker.error = e;
+            LOGGER.error("Error committing " + db.getName(), e); //$NON-NLS-1$
+        }
+    }
+
+    private void releaseAll(List<Write> batch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            release(batch.get(i));
+        }
+    }
+
+    private void release(Write write) {
+        if (write.latch != null) {
+            write.latch.countDown();
+            return;
+        }
+        // a newer write with the same id could be pending
+        (write.thumb ? pendingThumbs : pendingData).remove(write.id, write.data);
+        pendingKB.release(write.permits);
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        GzipParameters compression = new GzipParameters();
+        compression.setCompressionLevel(Deflater.BEST_SPEED);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (OutputStream gzippedOut = new GzipCompressorOutputStream(baos, compression)) {
+            gzippedOut.write(data);
+        }
+        return baos.toByteArray();
+    }
+
+}
@@ -13,7 +13,6 @@
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
@@ -25,6 +24,7 @@
 import dpf.sp.gpinf.indexer.CmdLineArgs;
 import dpf.sp.gpinf.indexer.datasource.UfedXmlReader;
 import dpf.sp.gpinf.indexer.process.IndexItem;
+import dpf.sp.gpinf.indexer.process.IndexWriterGroup;
 import dpf.sp.gpinf.indexer.util.HashValue;
 import dpf.sp.gpinf.indexer.util.IPEDException;
 import dpf.sp.gpinf.indexer.util.SlowCompositeReaderWrapper;
@@ -76,7 +76,7 @@ public void init(Properties confParams, File confDir) throws Exception {
             return;
         }
 
-        try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
+        try (IndexReader reader = IndexWriterGroup.openReader(worker.writer, true, true)) {
             LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
 
             SortedDocValues evidenceUUIDs = aReader.getSortedDocValues(BasicProps.EVIDENCE_UUID);
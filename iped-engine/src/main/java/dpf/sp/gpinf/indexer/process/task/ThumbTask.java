@@ -2,7 +2,6 @@
 
 import java.io.File;
 import java.nio.file.Files;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
@@ -17,7 +16,6 @@ public abstract class ThumbTask extends AbstractTask {
     public static final String HAS_THUMB = "hasThumb"; //$NON-NLS-1$
 
     private static final String SELECT_THUMB = "SELECT thumb FROM thumbs WHERE id=?;"; //$NON-NLS-1$
-    private static final String INSERT_THUMB = "INSERT INTO thumbs(id, thumb) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET thumb=? WHERE thumb IS NULL;"; //$NON-NLS-1$
 
     protected File getThumbFile(IItem evidence) throws Exception {
         File thumbFile = null;
@@ -34,8 +32,15 @@ protected File getThumbFile(IItem evidence) throws Exception {
 
     protected boolean hasThumb(IItem evidence, File thumbFile) throws Exception {
         if (thumbFile == null) {
-            Connection con = ExportFileTask.getSQLiteStorageCon(output, evidence.getHashValue().getBytes());
-            try (PreparedStatement ps = con.prepareStatement(SELECT_THUMB)) {
+            SQLiteStorageWriter writer = ExportFileTask.getSQLiteStorageWriter(output,
+                    evidence.getHashValue().getBytes());
+            byte[] pending = writer.getPendingThumb(evidence.getHash());
+            if (pending != null) {
+                evidence.setThumb(pending);
+                evidence.setExtraAttribute(HAS_THUMB, pending.length > 0);
+                return true;
+            }
+            try (PreparedStatement ps = writer.getConnection().prepareStatement(SELECT_THUMB)) {
                 ps.setString(1, evidence.getHash());
                 ResultSet rs = ps.executeQuery();
                 if (rs.next()) {
@@ -77,14 +82,9 @@ protected void saveThumb(IItem evidence, File thumbFile) throws Throwable {
                 evidence.setThumb(new byte[0]); // zero size thumb means thumb error
             }
             if (thumbFile == null) {
-                Connection con = ExportFileTask.getSQLiteStorageCon(output, evidence.getHashValue().getBytes());
-                try (PreparedStatement ps = con.prepareStatement(INSERT_THUMB)) {
-                    ps.setString(1, evidence.getHash());
-                    ps.setBytes(2, evidence.getThumb());
-                    ps.setBytes(3, evidence.getThumb());
-                    ps.executeUpdate();
-                    ps.close();
-                }
+                SQLiteStorageWriter writer = ExportFileTask.getSQLiteStorageWriter(output,
+                        evidence.getHashValue().getBytes());
+                writer.putThumb(evidence.getHash(), evidence.getThumb());
             } else {
                 if (!thumbFile.getParentFile().exists()) {
                     thumbFile.getParentFile().mkdirs();
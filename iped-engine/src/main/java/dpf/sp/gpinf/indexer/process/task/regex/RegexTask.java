@@ -14,11 +14,8 @@
 import java.util.Set;
 
 import dk.brics.automaton.Automaton;
-import dk.brics.automaton.AutomatonMatcher;
-import dk.brics.automaton.BasicOperations;
 import dk.brics.automaton.DatatypesAutomatonProvider;
 import dk.brics.automaton.RegExp;
-import dk.brics.automaton.RunAutomaton;
 import dpf.sp.gpinf.indexer.Messages;
 import dpf.sp.gpinf.indexer.analysis.FastASCIIFoldingFilter;
 import dpf.sp.gpinf.indexer.process.task.AbstractTask;
@@ -45,7 +42,7 @@ public class RegexTask extends AbstractTask {
 
     private static List<Regex> regexList;
 
-    private static Regex regexFull;
+    private static TaggedRegexAutomaton regexFull;
 
     private static volatile boolean extractByKeywords = false;
 
@@ -66,7 +63,6 @@ class Regex {
         String name;
         int prefix, sufix;
         Automaton automaton;
-        RunAutomaton pattern;
         boolean ignoreCases;
 
         public Regex(String name, int prefix, int sufix, boolean ignoreCases, boolean ignoreDiacritics, String regex) {
@@ -75,10 +71,6 @@ public Regex(String name, int prefix, int sufix, boolean ignoreCases, boolean ig
             this.sufix = sufix;
         }
 
-        public Regex(String name, Automaton automaton) {
-            this(name, automaton, false, false);
-        }
-
         public Regex(String name, Automaton aut, boolean ignoreCases, boolean ignoreDiacritics) {
             if (ignoreCases)
                 aut = ignoreCases(aut);
@@ -87,7 +79,6 @@ public Regex(String name, Automaton aut, boolean ignoreCases, boolean ignoreDiac
             this.ignoreCases = ignoreCases;
             this.name = name;
             this.automaton = aut;
-            this.pattern = new RunAutomaton(aut);
         }
     }
 
@@ -181,8 +172,7 @@ public void init(Properties confParams, File confDir) throws Exception {
             ArrayList<Automaton> automatonList = new ArrayList<Automaton>();
             for (Regex regex : regexList)
                 automatonList.add(regex.automaton);
-            Automaton automata = BasicOperations.union(automatonList);
-            regexFull = new Regex("FULL", automata); //$NON-NLS-1$
+            regexFull = new TaggedRegexAutomaton(automatonList);
 
             initValidators(confDir);
         }
@@ -223,79 +213,100 @@ protected void process(IItem item) throws Exception {
         processRegex(evidence, new StringReader(evidence.getName()));
     }
 
-    @SuppressWarnings("unchecked")
     private void processRegex(IItem evidence, Reader reader) throws IOException {
 
-        int k = 0;
-        long totalOffset = 0;
-        while (k != -1) {
-            int off = 0;
-            k = 0;
-            while (k != -1 && (off += k) < cbuf.length)
-                k = reader.read(cbuf, off, cbuf.length - off);
+        RegexHitCollector collector = new RegexHitCollector();
+        int len = 0;
+        boolean eof = false;
+        while (!eof) {
+            int k = 0;
+            while (len < cbuf.length && (k = reader.read(cbuf, len, cbuf.length - len)) != -1)
+                len += k;
+            eof = k == -1;
+
+            int resume = regexFull.scan(cbuf, 0, len, eof, collector);
+            // do not carry too much, a pattern could be matching a huge run of chars
+            if (!eof && len - resume > cbuf.length / 2)
+                resume = regexFull.scan(cbuf, resume, len, true, collector);
+
+            len -= resume;
+            System.arraycopy(cbuf, resume, cbuf, 0, len);
+            collector.totalOffset += resume;
+        }
+        collector.saveHits(evidence);
+    }
 
-            String text = new String(cbuf, 0, off);
+    private class RegexHitCollector implements TaggedRegexAutomaton.HitListener {
 
-            List<Map<String, RegexHits>> hitList = new ArrayList<Map<String, RegexHits>>();
-            for (int i = 0; i < regexList.size(); i++) {
-                hitList.add(new HashMap<>());
-            }
+        @SuppressWarnings("unchecked")
+        private Map<String, RegexHits>[] hitMaps = new Map[regexList.size()];
 
-            AutomatonMatcher fullMatcher = regexFull.pattern.newMatcher(text);
-            while (fullMatcher.find()) {
-                int start = fullMatcher.start();
-                int end = fullMatcher.end();
-                String hit = text.substring(start, end);
-                int i = 0;
-                for (Regex regex : regexList) {
-                    if (regex.pattern.run(hit)) {
-                        hit = hit.substring(regex.prefix, hit.length() - regex.sufix);
-                        if (regex.ignoreCases)
-                            hit = hit.toLowerCase();
-                        if (regexValidator.validate(regex, hit)) {
-                            if (formatRegexMatches) {
-                                hit = regexValidator.format(regex, hit);
-                            }
-                            Map<String, RegexHits> hitMap = hitList.get(i);
-                            RegexHits hits = hitMap.get(hit);
-                            if (hits == null) {
-                                hits = new RegexHits(hit);
-                                hitMap.put(hit, hits);
-                            }
-                            hits.addOffset(totalOffset + start + regex.prefix);
+        private boolean[] maxHitsReached = new boolean[regexList.size()];
+
+        private long totalOffset = 0;
+
+        @Override
+        public void onHit(int start, int end, int[] patternIds) {
+            String fullHit = new String(cbuf, start, end - start);
+            for (int i : patternIds) {
+                Regex regex = regexList.get(i);
+                String hit = fullHit.substring(regex.prefix, fullHit.length() - regex.sufix);
+                if (regex.ignoreCases)
+                    hit = hit.toLowerCase();
+                if (regexValidator.validate(regex, hit)) {
+                    if (formatRegexMatches) {
+                        hit = regexValidator.format(regex, hit);
+                    }
+                    Map<String, RegexHits> hitMap = hitMaps[i];
+                    if (hitMap == null) {
+                        hitMap = hitMaps[i] = new HashMap<>();
+                    }
+                    RegexHits hits = hitMap.get(hit);
+                    if (hits == null) {
+                        if (hitMap.size() >= MAX_RESULTS) {
+                            maxHitsReached[i] = true;
+                            continue;
                         }
+                        hits = new RegexHits(hit);
+                        hitMap.put(hit, hits);
                     }
-                    i++;
+                    hits.addOffset(totalOffset + start + regex.prefix);
                 }
             }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void saveHits(IItem evidence) {
             for (int i = 0; i < regexList.size(); i++) {
-                if (hitList.get(i).size() > 0) {
-                    String key = REGEX_PREFIX + regexList.get(i).name;
-                    Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
-                    Map<String, RegexHits> hitsMap = hitList.get(i);
-                    if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
-                        evidence.setExtraAttribute(key, hitsMap.values());
+                Map<String, RegexHits> hitsMap = hitMaps[i];
+                if (hitsMap == null)
+                    continue;
+                String key = REGEX_PREFIX + regexList.get(i).name;
+                Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
+                if (maxHitsReached[i]) {
+                    evidence.setExtraAttribute("maxHitsReached" + key, "true");
+                }
+                if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
+                    evidence.setExtraAttribute(key, hitsMap.values());
+                } else {
+                    if (prevHits.size() >= MAX_RESULTS) {
+                        evidence.setExtraAttribute("maxHitsReached" + key, "true");
                     } else {
-                        if (prevHits.size() >= MAX_RESULTS) {
-                            evidence.setExtraAttribute("maxHitsReached" + key, "true");
-                        } else {
-                            for (RegexHits hits : prevHits) {
-                                RegexHits prev = hitsMap.get(hits.getHit());
-                                if (prev != null) {
-                                    prev.addAll(hits.getOffsets());
-                                } else {
-                                    hitsMap.put(hits.getHit(), hits);
-                                }
+                        for (RegexHits hits : prevHits) {
+                            RegexHits prev = hitsMap.get(hits.getHit());
+                            if (prev != null) {
+                                prev.addAll(hits.getOffsets());
+                            } else {
+                                hitsMap.put(hits.getHit(), hits);
                             }
-                            evidence.setExtraAttribute(key, hitsMap.values());
                         }
+                        evidence.setExtraAttribute(key, hitsMap.values());
                     }
-
-                    if (regexList.get(i).name.equals(KEYWORDS_NAME))
-                        evidence.setToExtract(true);
                 }
+
+                if (regexList.get(i).name.equals(KEYWORDS_NAME))
+                    evidence.setToExtract(true);
             }
-            totalOffset += off;
         }
     }
 
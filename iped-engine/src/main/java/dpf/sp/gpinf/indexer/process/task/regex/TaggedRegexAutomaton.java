@@ -0,0 +1,131 @@
+package dpf.sp.gpinf.indexer.process.task.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.RunAutomaton;
+
+/**
+ * Deterministic automaton recognizing the union of several regexes, whose
+ * accepting states carry the ids of the patterns matching the input read so
+ * far. Each pattern i is concatenated with a private marker char before the
+ * union, so after determinization and minimization a state accepts pattern i
+ * if and only if reading marker i from it leads to an accepting state. This
+ * way hits are classified during the scan, without running each pattern again.
+ *
+ * The scan reproduces the leftmost longest semantics of brics
+ * AutomatonMatcher.find(), over char arrays, so text can be processed in
+ * windows without creating Strings.
+ */
+public class TaggedRegexAutomaton {
+
+    private static final char MARKER_BASE = '\uE000';
+
+    private static final int MAX_PATTERNS = '\uF8FF' - MARKER_BASE + 1;
+
+    public interface HitListener {
+
+        /**
+         * @param start
+         *            hit start in the scanned array
+         * @param end
+         *            hit end (exclusive) in the scanned array
+         * @param patternIds
+         *            ids of the patterns fully matching the hit, in increasing
+         *            order. Must not be modified.
+         */
+        void onHit(int start, int end, int[] patternIds);
+    }
+
+    private final RunAutomaton automaton;
+
+    private final int[][] tags;
+
+    private final int initial;
+
+    public TaggedRegexAutomaton(List<Automaton> patterns) {
+        if (patterns.size() > MAX_PATTERNS) {
+            throw new IllegalArgumentException("Too many regexes: " + patterns.size()); //$NON-NLS-1$
+        }
+        List<Automaton> marked = new ArrayList<>();
+        for (int i = 0; i < patterns.size(); i++) {
+            marked.add(patterns.get(i).concatenate(Automaton.makeChar(marker(i))));
+        }
+        Automaton union = BasicOperations.union(marked);
+        union.minimize();
+        automaton = new RunAutomaton(union);
+        initial = automaton.getInitialState();
+
+        tags = new int[automaton.getSize()][];
+        int[] ids = new int[patterns.size()];
+        for (int state = 0; state < tags.length; state++) {
+            int num = 0;
+            for (int i = 0; i < patterns.size(); i++) {
+                int next = automaton.step(state, marker(i));
+                if (next != -1 && automaton.isAccept(next)) {
+                    ids[num++] = i;
+                }
+            }
+            if (num > 0) {
+                tags[state] = Arrays.copyOf(ids, num);
+            }
+        }
+    }
+
+    private static char marker(int patternId) {
+        return (char) (MARKER_BASE + patternId);
+    }
+
+    public int getNumStates() {
+        return tags.length;
+    }
+
+    /**
+     * Finds non overlapping hits in buf[from, len), reporting them in order.
+     *
+     * @param endOfInput
+     *            if false, stops at the first position where a hit could still
+     *            be extended by chars after len. Otherwise len is taken as the
+     *            end of the text.
+     * @return position where scanning must resume when more chars are available.
+     *         It is len if endOfInput is true.
+     */
+    public int scan(char[] buf, int from, int len, boolean endOfInput, HitListener listener) {
+        final RunAutomaton automaton = this.automaton;
+        final int[][] tags = this.tags;
+        int begin = from;
+        while (begin < len) {
+            int matchEnd = tags[initial] != null ? begin : -1;
+            int[] matchTags = tags[initial];
+            int state = initial;
+            int i = begin;
+            for (; i < len; i++) {
+                state = automaton.step(state, buf[i]);
+                if (state == -1) {
+                    break;
+                }
+                if (tags[state] != null) {
+                    matchEnd = i + 1;
+                    matchTags = tags[state];
+                }
+            }
+            if (i == len && state != -1 && !endOfInput) {
+                return begin;
+            }
+            if (matchEnd != -1) {
+                listener.onHit(begin, matchEnd, matchTags);
+                begin = matchEnd > begin ? matchEnd : begin + 1;
+            } else {
+                begin++;
+            }
+        }
+        if (endOfInput && begin == len && tags[initial] != null) {
+            listener.onHit(len, len, tags[initial]);
+        }
+        return len;
+    }
+
+}
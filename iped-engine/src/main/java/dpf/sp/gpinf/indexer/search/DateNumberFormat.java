@@ -0,0 +1,63 @@
+package dpf.sp.gpinf.indexer.search;
+
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import dpf.sp.gpinf.indexer.util.DateUtil;
+
+/**
+ * Number format used by the query parser for date fields indexed as points. It
+ * parses the same date strings users typed in range queries on string dates,
+ * like [2019-01-01 TO 2019-12-31T12:00:00Z], to epoch millis. Incomplete dates
+ * are completed with the start of the period, so they are compared like the
+ * string prefixes were.
+ */
+class DateNumberFormat extends NumberFormat {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String TEMPLATE = "0000-01-01T00:00:00"; //$NON-NLS-1$
+
+    private static final Pattern PARTIAL_DATE = Pattern
+            .compile("\\d{4}(-\\d{2}(-\\d{2}([T ]\\d{2}(:\\d{2}(:\\d{2})?)?)?)?)?Z?"); //$NON-NLS-1$
+
+    @Override
+    public StringBuffer format(double number, StringBuffer toAppendTo, FieldPosition pos) {
+        return format((long) number, toAppendTo, pos);
+    }
+
+    @Override
+    public StringBuffer format(long number, StringBuffer toAppendTo, FieldPosition pos) {
+        return toAppendTo.append(DateUtil.dateToString(new Date(number)));
+    }
+
+    @Override
+    public Number parse(String source, ParsePosition parsePosition) {
+        String text = source.substring(parsePosition.getIndex()).trim().toUpperCase();
+        Date date = null;
+        if (PARTIAL_DATE.matcher(text).matches()) {
+            if (text.endsWith("Z")) { //$NON-NLS-1$
+                text = text.substring(0, text.length() - 1);
+            }
+            text = text.replace(' ', 'T') + TEMPLATE.substring(text.length()) + "Z"; //$NON-NLS-1$
+            try {
+                date = DateUtil.stringToDate(text);
+            } catch (ParseException e) {
+                // invalid date
+            }
+        } else {
+            date = DateUtil.tryToParseDate(text);
+        }
+        if (date == null) {
+            parsePosition.setErrorIndex(parsePosition.getIndex());
+            return null;
+        }
+        parsePosition.setIndex(source.length());
+        return date.getTime();
+    }
+
+}
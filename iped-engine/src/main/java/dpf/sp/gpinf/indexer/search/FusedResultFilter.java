@@ -0,0 +1,109 @@
+package dpf.sp.gpinf.indexer.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import iped3.search.IMultiSearchResult;
+
+/**
+ * Applies many filters to a search result in a single pass, creating just one
+ * filtered result. Filters without state are tested in parallel over chunks of
+ * the result, then ordered filters, like the duplicates one, are tested in
+ * result order over the remaining items.
+ */
+public class FusedResultFilter {
+
+    /**
+     * Items per parallel chunk, a multiple of 64 so chunks do not share mask words.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    public interface ItemFilter {
+
+        /**
+         * @return true to keep the item in the result.
+         */
+        boolean accept(int sourceId, int id, float score);
+    }
+
+    private final List<ItemFilter> filters = new ArrayList<>();
+    private final List<ItemFilter> orderedFilters = new ArrayList<>();
+
+    /**
+     * Adds a filter tested concurrently by many threads, in any order.
+     */
+    public FusedResultFilter addFilter(ItemFilter filter) {
+        filters.add(filter);
+        return this;
+    }
+
+    /**
+     * Adds a filter tested by one thread in result order, after all the filters
+     * added by {@link #addFilter(ItemFilter)}.
+     */
+    public FusedResultFilter addOrderedFilter(ItemFilter filter) {
+        orderedFilters.add(filter);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return filters.isEmpty() && orderedFilters.isEmpty();
+    }
+
+    public MultiSearchResult filter(IMultiSearchResult ipedResult) {
+        MultiSearchResult result = MultiSearchResult.get(ipedResult);
+        if (isEmpty()) {
+            return result;
+        }
+        int length = result.getLength();
+        long[] mask = new long[(length + 63) >>> 6];
+        ItemFilter[] parallelFilters = filters.toArray(new ItemFilter[0]);
+        int numChunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream chunks = IntStream.range(0, numChunks);
+        if (numChunks > 1) {
+            chunks = chunks.parallel();
+        }
+        chunks.forEach(chunk -> {
+            int end = Math.min(length, (chunk + 1) * CHUNK_SIZE);
+            for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                if (accept(parallelFilters, result, i)) {
+                    mask[i >>> 6] |= 1L << i;
+                }
+            }
+        });
+
+        ItemFilter[] sequentialFilters = orderedFilters.toArray(new ItemFilter[0]);
+        int count = 0;
+        for (int w = 0; w < mask.length; w++) {
+            long word = mask[w];
+            while (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                if (accept(sequentialFilters, result, i)) {
+                    count++;
+                } else {
+                    mask[w] &= ~(1L << i);
+                }
+            }
+        }
+        // always a new result, as before, since scorers change it later
+        return result.subset(mask, count);
+    }
+
+    private static boolean accept(ItemFilter[] filters, MultiSearchResult result, int i) {
+        if (filters.length == 0) {
+            return true;
+        }
+        int sourceId = result.getSourceId(i);
+        int id = result.getId(i);
+        float score = result.getScore(i);
+        for (ItemFilter filter : filters) {
+            if (!filter.accept(sourceId, id, score)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -198,6 +198,19 @@ public void checkImagePaths() throws IPEDException, TskCoreException {
             iCase.checkImagePaths();
     }
 
+    /**
+     * Dates are also indexed as terms, so term ranges are used unless all cases
+     * have date points.
+     */
+    @Override
+    public boolean hasDatePoints(String field) {
+        for (IPEDSource iCase : cases) {
+            if (!iCase.hasDatePoints(field))
+                return false;
+        }
+        return !cases.isEmpty();
+    }
+
     final public IIPEDSource getAtomicSource(int luceneId) {
         int maxDoc = 0;
         for (IPEDSource iCase : cases) {
@@ -269,10 +282,13 @@ final public int getLuceneId(int id) {
     }
 
     final public int getLuceneId(IItemId id) {
-        int sourceid = id.getSourceId();
-        IIPEDSource atomicCase = getAtomicSourceBySourceId(sourceid);
-        int baseDoc = baseDocCache.get(sourceid);
-        return atomicCase.getLuceneId(id.getId()) + baseDoc;
+        return getLuceneId(id.getSourceId(), id.getId());
+    }
+
+    final public int getLuceneId(int sourceId, int id) {
+        IIPEDSource atomicCase = getAtomicSourceBySourceId(sourceId);
+        int baseDoc = baseDocCache.get(sourceId);
+        return atomicCase.getLuceneId(id) + baseDoc;
     }
 
     @Override
@@ -37,6 +37,7 @@
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
@@ -60,6 +61,7 @@
 import dpf.sp.gpinf.indexer.config.ConfigurationManager;
 import dpf.sp.gpinf.indexer.datasource.SleuthkitReader;
 import dpf.sp.gpinf.indexer.process.IndexItem;
+import dpf.sp.gpinf.indexer.process.IndexWriterGroup;
 import dpf.sp.gpinf.indexer.process.task.IndexTask;
 import dpf.sp.gpinf.indexer.util.ConfiguredFSDirectory;
 import dpf.sp.gpinf.indexer.util.IOUtil;
@@ -338,7 +340,7 @@ private void openIndex(File index, IndexWriter iw) throws IOException {
             Directory directory = ConfiguredFSDirectory.open(index);
             reader = DirectoryReader.open(directory);
         } else {
-            reader = DirectoryReader.open(iw, true, false);
+            reader = IndexWriterGroup.openReader(iw, true, false);
         }
 
         // TODO get rid of deprecated SlowCompositeReaderWrapper
@@ -615,6 +617,17 @@ public LeafReader getLeafReader() {
         return this.atomicReader;
     }
 
+    /**
+     * Cases processed by older versions indexed dates only as strings, so range
+     * queries on those fields must still be parsed as term ranges.
+     * 
+     * @return true if the date field is indexed as points in this case.
+     */
+    public boolean hasDatePoints(String field) {
+        FieldInfo fieldInfo = atomicReader.getFieldInfos().fieldInfo(field);
+        return fieldInfo != null && fieldInfo.getPointDimensionCount() > 0;
+    }
+
     public IndexSearcher getSearcher() {
         return searcher;
     }
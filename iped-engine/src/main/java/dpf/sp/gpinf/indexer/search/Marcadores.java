@@ -18,9 +18,17 @@
  */
 package dpf.sp.gpinf.indexer.search;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -28,7 +36,10 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.IntPredicate;
 
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +50,12 @@
 import iped3.search.IMarcadores;
 import iped3.search.LuceneSearchResult;
 
+/**
+ * Selection and labels of the items of one case, kept in compressed bitmaps of
+ * item ids. Changes are recorded and appended to a journal next to the state
+ * file on each save, the whole state is only rewritten when the journal gets
+ * too large compared to it.
+ */
 public class Marcadores implements Serializable, IMarcadores {
 
     /**
@@ -46,6 +63,30 @@ public class Marcadores implements Serializable, IMarcadores {
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Fields selected and labels keep the format of previous versions, one
+     * boolean per item and one byte per item for each 8 labels, and are still
+     * written so those versions can open new state files. They are only read when
+     * bitmaps is missing. Previous versions do not know the journal, so they see
+     * the state of the last full save.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("selected", boolean[].class), //$NON-NLS-1$
+            new ObjectStreamField("labels", ArrayList.class), //$NON-NLS-1$
+            new ObjectStreamField("labelNames", TreeMap.class), //$NON-NLS-1$
+            new ObjectStreamField("labelComments", TreeMap.class), //$NON-NLS-1$
+            new ObjectStreamField("reportLabels", Set.class), //$NON-NLS-1$
+            new ObjectStreamField("selectedItens", int.class), //$NON-NLS-1$
+            new ObjectStreamField("totalItems", int.class), //$NON-NLS-1$
+            new ObjectStreamField("lastId", int.class), //$NON-NLS-1$
+            new ObjectStreamField("typedWords", LinkedHashSet.class), //$NON-NLS-1$
+            new ObjectStreamField("indexDir", File.class), //$NON-NLS-1$
+            new ObjectStreamField("stateFile", File.class), //$NON-NLS-1$
+            new ObjectStreamField("cookie", File.class), //$NON-NLS-1$
+            new ObjectStreamField("bitmaps", byte[].class), //$NON-NLS-1$
+            new ObjectStreamField("journalId", long.class) //$NON-NLS-1$
+    };
+
     private static Logger LOGGER = LoggerFactory.getLogger(Marcadores.class);
 
     public static String EXT = "." + Versao.APP_EXT.toLowerCase(); //$NON-NLS-1$
@@ -53,20 +94,46 @@ public class Marcadores implements Serializable, IMarcadores {
 
     static int labelBits = Byte.SIZE;
 
-    private boolean[] selected;
-    private ArrayList<byte[]> labels;
+    /**
+     * The journal is compacted into a new state file when it is larger than the
+     * state file and than this size.
+     */
+    private static final long MIN_JOURNAL_COMPACT_SIZE = 4 << 20;
+
+    private static final byte OP_SELECT = 1;
+    private static final byte OP_CLEAR_SELECTION = 2;
+    private static final byte OP_SET_SELECTION = 3;
+    private static final byte OP_ADD_LABEL = 4;
+    private static final byte OP_REMOVE_LABEL = 5;
+    private static final byte OP_NEW_LABEL = 6;
+    private static final byte OP_DEL_LABEL = 7;
+    private static final byte OP_CHANGE_LABEL = 8;
+    private static final byte OP_LABEL_COMMENT = 9;
+    private static final byte OP_IN_REPORT = 10;
+    private static final byte OP_TYPED_WORDS = 11;
+
+    private transient RoaringBitmap selected;
+    private transient ArrayList<RoaringBitmap> labels;
+    private transient RoaringBitmap labeledItems;
     private TreeMap<Integer, String> labelNames = new TreeMap<Integer, String>();
     private TreeMap<Integer, String> labelComments = new TreeMap<Integer, String>();
     private Set<Integer> reportLabels = new TreeSet<Integer>();
 
-    private int selectedItens = 0, totalItems, lastId;
+    private int totalItems, lastId;
 
     private LinkedHashSet<String> typedWords = new LinkedHashSet<String>();
     private File indexDir;
     private File stateFile, cookie;
 
+    private long journalId;
+
     private transient IIPEDSource ipedCase;
 
+    private transient ByteArrayOutputStream journalBuffer;
+    private transient DataOutputStream journalOut;
+    private transient File journalStateFile;
+    private transient int journaledTypedWords;
+
     public Marcadores(IIPEDSource ipedCase, File modulePath) {
         this(ipedCase.getTotalItens(), ipedCase.getLastId(), modulePath);
         this.ipedCase = ipedCase;
@@ -75,8 +142,8 @@ public Marcadores(IIPEDSource ipedCase, File modulePath) {
     public Marcadores(int totalItens, int lastId, final File modulePath) {
         this.totalItems = totalItens;
         this.lastId = lastId;
-        selected = new boolean[lastId + 1];
-        labels = new ArrayList<byte[]>();
+        selected = new RoaringBitmap();
+        labels = new ArrayList<RoaringBitmap>();
         indexDir = new File(modulePath, "index"); //$NON-NLS-1$
         stateFile = new File(modulePath, STATEFILENAME);
         updateCookie();
@@ -84,6 +151,14 @@ public Marcadores(int totalItens, int lastId, final File modulePath) {
             stateFile = stateFile.getCanonicalFile();
         } catch (IOException e) {
         }
+        initJournal();
+    }
+
+    private void initJournal() {
+        journalBuffer = new ByteArrayOutputStream();
+        journalOut = new DataOutputStream(journalBuffer);
+        journalStateFile = null;
+        journaledTypedWords = typedWords.hashCode();
     }
 
     public void updateCookie() {
@@ -114,27 +189,56 @@ public LinkedHashSet<String> getTypedWords() {
         return typedWords;
     }
 
-    public int getTotalSelected() {
-        return selectedItens;
+    public synchronized int getTotalSelected() {
+        return selected.getCardinality();
+    }
+
+    public synchronized boolean isSelected(int id) {
+        return selected.contains(id);
     }
 
-    public boolean isSelected(int id) {
-        return selected[id];
+    @Override
+    public synchronized IntPredicate getSelectedSnapshot() {
+        return selected.clone()::contains;
     }
 
-    public void clearSelected() {
-        selectedItens = 0;
-        for (int i = 0; i < selected.length; i++) {
-            selected[i] = false;
+    @Override
+    public synchronized IntPredicate getLabeledSnapshot(int[] labelIds) {
+        RoaringBitmap bitmap;
+        if (labelIds == null) {
+            if (labeledItems == null)
+                labeledItems = FastAggregation.or(labels.iterator());
+            bitmap = labeledItems.clone();
+        } else {
+            List<RoaringBitmap> bitmaps = new ArrayList<>();
+            for (int label : labelIds) {
+                if (label >= 0 && label < labels.size())
+                    bitmaps.add(labels.get(label));
+            }
+            if (bitmaps.isEmpty())
+                bitmap = new RoaringBitmap();
+            else if (bitmaps.size() == 1)
+                bitmap = bitmaps.get(0).clone();
+            else
+                bitmap = FastAggregation.or(bitmaps.iterator());
         }
+        return bitmap::contains;
     }
 
-    public void selectAll() {
-        selectedItens = totalItems;
+    public synchronized void clearSelected() {
+        selected.clear();
+        log(OP_CLEAR_SELECTION);
+    }
+
+    public synchronized void selectAll() {
+        RoaringBitmap all = new RoaringBitmap();
         int maxLuceneId = ipedCase.getReader().maxDoc() - 1;
         for (int i = 0; i <= maxLuceneId; i++) {
-            selected[ipedCase.getId(i)] = true;
+            all.add(ipedCase.getId(i));
         }
+        all.runOptimize();
+        selected = all;
+        log(OP_SET_SELECTION, all);
     }
 
     public List<String> getLabelList(int itemId) {
@@ -148,7 +252,7 @@ public List<String> getLabelList(int itemId) {
         return list;
     }
 
-    public ArrayList<Integer> getLabelIds(int id) {
+    public synchronized ArrayList<Integer> getLabelIds(int id) {
         ArrayList<Integer> labelIds = new ArrayList<Integer>();
         if (labelNames.size() > 0)
             for (int i : labelNames.keySet()) {
@@ -159,81 +263,106 @@ public ArrayList<Integer> getLabelIds(int id) {
         return labelIds;
     }
 
-    public void addLabel(List<Integer> ids, int label) {
-        int labelOrder = label / labelBits;
-        int labelMod = label % labelBits;
-        int labelMask = 1 << labelMod;
-        byte[] labelBytes = labels.get(labelOrder);
-        for (int i = 0; i < ids.size(); i++) {
-            int id = ids.get(i);
-            labelBytes[id] |= labelMask;
-        }
+    private RoaringBitmap getLabelItems(int label) {
+        while (labels.size() <= label)
+            labels.add(new RoaringBitmap());
+        return labels.get(label);
+    }
 
+    private static RoaringBitmap toBitmap(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = ids.get(i);
+        return RoaringBitmap.bitmapOf(array);
     }
 
-    public int getLabelCount(int label) {
-        if (labels.isEmpty()) {
+    public synchronized void addLabel(List<Integer> ids, int label) {
+        RoaringBitmap items = toBitmap(ids);
+        getLabelItems(label).or(items);
+        labeledItems = null;
+        log(OP_ADD_LABEL, label, items);
+    }
+
+    public synchronized int getLabelCount(int label) {
+        if (label < 0 || label >= labels.size()) {
             return 0;
         }
-        int labelOrder = label / labelBits;
-        int labelMask = 1 << (label % labelBits);
-        byte[] labelBytes = labels.get(labelOrder); 
-        int ret = 0;
-        for (byte b : labelBytes) {
-            if ((b & labelMask) != 0) {
-                ret++;
-            }
+        return labels.get(label).getCardinality();
+    }
+
+    /**
+     * @return number of items having all the given labels.
+     */
+    public synchronized int getLabelIntersectionCount(int[] labelIds) {
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        for (int label : labelIds) {
+            if (label < 0 || label >= labels.size())
+                return 0;
+            bitmaps.add(labels.get(label));
         }
-        return ret;
-    }
-    
-    public final boolean hasLabel(int id) {
-        boolean hasLabel = false;
-        for (byte[] b : labels) {
-            hasLabel = b[id] != 0;
-            if (hasLabel)
-                return true;
+        if (bitmaps.isEmpty())
+            return 0;
+        if (bitmaps.size() == 2)
+            return RoaringBitmap.andCardinality(bitmaps.get(0), bitmaps.get(1));
+        return FastAggregation.and(bitmaps.iterator()).getCardinality();
+    }
+
+    /**
+     * @return number of items having any of the given labels.
+     */
+    public synchronized int getLabelUnionCount(int[] labelIds) {
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        for (int label : labelIds) {
+            if (label >= 0 && label < labels.size())
+                bitmaps.add(labels.get(label));
         }
-        return hasLabel;
+        if (bitmaps.isEmpty())
+            return 0;
+        if (bitmaps.size() == 2)
+            return RoaringBitmap.orCardinality(bitmaps.get(0), bitmaps.get(1));
+        return FastAggregation.or(bitmaps.iterator()).getCardinality();
+    }
+
+    public final synchronized boolean hasLabel(int id) {
+        if (labeledItems == null)
+            labeledItems = FastAggregation.or(labels.iterator());
+        return labeledItems.contains(id);
     }
 
-    public final byte[] getLabelBits(int[] labelids) {
-        byte[] bits = new byte[labels.size()];
+    public final synchronized byte[] getLabelBits(int[] labelids) {
+        byte[] bits = new byte[(labels.size() + labelBits - 1) / labelBits];
         for (int label : labelids)
-            bits[label / labelBits] |= 1 << (label % labelBits);
+            if (label >= 0 && label < labels.size())
+                bits[label / labelBits] |= 1 << (label % labelBits);
 
         return bits;
     }
 
-    public final boolean hasLabel(int id, byte[] labelbits) {
-        boolean hasLabel = false;
+    public final synchronized boolean hasLabel(int id, byte[] labelbits) {
         for (int i = 0; i < labelbits.length; i++) {
-            hasLabel = (labels.get(i)[id] & labelbits[i]) != 0;
-            if (hasLabel)
-                return true;
+            if (labelbits[i] == 0)
+                continue;
+            for (int j = 0; j < labelBits; j++) {
+                int label = i * labelBits + j;
+                if ((labelbits[i] & (1 << j)) != 0 && label < labels.size() && labels.get(label).contains(id))
+                    return true;
+            }
         }
-        return hasLabel;
+        return false;
     }
 
-    public final boolean hasLabel(int id, int label) {
-        int p = 1 << (label % labelBits);
-        int bit = labels.get(label / labelBits)[id] & p;
-        return bit != 0;
-
+    public final synchronized boolean hasLabel(int id, int label) {
+        return label >= 0 && label < labels.size() && labels.get(label).contains(id);
     }
 
-    public void removeLabel(List<Integer> ids, int label) {
-        int labelOrder = label / labelBits;
-        int labelMod = label % labelBits;
-        int labelMask = ~(1 << labelMod);
-        byte[] labelBytes = labels.get(labelOrder);
-        for (int i = 0; i < ids.size(); i++) {
-            labelBytes[ids.get(i)] &= labelMask;
-        }
-
+    public synchronized void removeLabel(List<Integer> ids, int label) {
+        RoaringBitmap items = toBitmap(ids);
+        getLabelItems(label).andNot(items);
+        labeledItems = null;
+        log(OP_REMOVE_LABEL, label, items);
     }
 
-    public int newLabel(String labelName) {
+    public synchronized int newLabel(String labelName) {
 
         int labelId = getLabelId(labelName);
         if (labelId != -1)
@@ -246,38 +375,42 @@ public int newLabel(String labelName) {
                     break;
                 }
 
-        if (labelId == -1 && labelNames.size() % labelBits == 0) {
-            byte[] newLabels = new byte[selected.length];
-            labels.add(newLabels);
-        }
         if (labelId == -1)
             labelId = labelNames.size();
 
-        labelNames.put(labelId, labelName);
-        labelComments.put(labelId, null);
+        createLabel(labelId, labelName);
+        log(OP_NEW_LABEL, labelId, labelName);
 
         return labelId;
     }
 
-    public void delLabel(int label) {
+    private void createLabel(int labelId, String labelName) {
+        getLabelItems(labelId);
+        labelNames.put(labelId, labelName);
+        labelComments.put(labelId, null);
+    }
+
+    public synchronized void delLabel(int label) {
         if (label == -1)
             return;
+        deleteLabel(label);
+        log(OP_DEL_LABEL, label);
+    }
+
+    private void deleteLabel(int label) {
         labelNames.remove(label);
         labelComments.remove(label);
         reportLabels.remove(label);
-
-        int labelOrder = label / labelBits;
-        int labelMod = label % labelBits;
-        int labelMask = ~(1 << labelMod);
-        byte[] labelBytes = labels.get(labelOrder);
-        for (int i = 0; i < labelBytes.length; i++) {
-            labelBytes[i] &= labelMask;
-        }
+        if (label < labels.size())
+            labels.get(label).clear();
+        labeledItems = null;
     }
 
-    public void changeLabel(int labelId, String newLabel) {
-        if (labelId != -1)
+    public synchronized void changeLabel(int labelId, String newLabel) {
+        if (labelId != -1) {
             labelNames.put(labelId, newLabel);
+            log(OP_CHANGE_LABEL, labelId, newLabel);
+        }
     }
 
     public int getLabelId(String labelName) {
@@ -292,27 +425,29 @@ public String getLabelName(int labelId) {
         return labelNames.get(labelId);
     }
 
-    public void setLabelComment(int labelId, String comment) {
+    public synchronized void setLabelComment(int labelId, String comment) {
         labelComments.put(labelId, comment);
+        log(OP_LABEL_COMMENT, labelId, comment);
     }
 
     public String getLabelComment(int labelId) {
         return labelComments.get(labelId);
     }
 
-    public void setInReport(int labelId, boolean inReport) {
+    public synchronized void setInReport(int labelId, boolean inReport) {
         if (inReport)
             reportLabels.add(labelId);
         else
             reportLabels.remove(labelId);
+        log(OP_IN_REPORT, labelId, inReport);
     }
 
     public boolean isInReport(int labelId) {
         return reportLabels.contains(labelId);
     }
 
-    public LuceneSearchResult filtrarMarcadores(LuceneSearchResult result, Set<String> labelNames, IIPEDSource ipedCase)
-            throws Exception {
+    public synchronized LuceneSearchResult filtrarMarcadores(LuceneSearchResult result, Set<String> labelNames,
+            IIPEDSource ipedCase) throws Exception {
         result = result.clone();
 
         int[] labelIds = new int[labelNames.size()];
@@ -330,8 +465,8 @@ public LuceneSearchResult filtrarMarcadores(LuceneSearchResult result, Set<Strin
         return result;
     }
 
-    public LuceneSearchResult filtrarSemEComMarcadores(LuceneSearchResult result, Set<String> labelNames,
-            IIPEDSource ipedCase) throws Exception {
+    public synchronized LuceneSearchResult filtrarSemEComMarcadores(LuceneSearchResult result,
+            Set<String> labelNames, IIPEDSource ipedCase) throws Exception {
         result = result.clone();
 
         int[] labelIds = new int[labelNames.size()];
@@ -350,7 +485,7 @@ public LuceneSearchResult filtrarSemEComMarcadores(LuceneSearchResult result, Se
         return result;
     }
 
-    public LuceneSearchResult filtrarSemMarcadores(LuceneSearchResult result, IIPEDSource ipedCase) {
+    public synchronized LuceneSearchResult filtrarSemMarcadores(LuceneSearchResult result, IIPEDSource ipedCase) {
         result = result.clone();
         for (int i = 0; i < result.getLength(); i++)
             if (hasLabel(ipedCase.getId(result.getLuceneIds()[i]))) {
@@ -361,10 +496,11 @@ public LuceneSearchResult filtrarSemMarcadores(LuceneSearchResult result, IIPEDS
         return result;
     }
 
-    public LuceneSearchResult filtrarSelecionados(LuceneSearchResult result, IIPEDSource ipedCase) throws Exception {
+    public synchronized LuceneSearchResult filtrarSelecionados(LuceneSearchResult result, IIPEDSource ipedCase)
+            throws Exception {
         result = result.clone();
         for (int i = 0; i < result.getLength(); i++)
-            if (!selected[ipedCase.getId(result.getLuceneIds()[i])]) {
+            if (!selected.contains(ipedCase.getId(result.getLuceneIds()[i]))) {
                 result.getLuceneIds()[i] = -1;
             }
 
@@ -372,7 +508,8 @@ public LuceneSearchResult filtrarSelecionados(LuceneSearchResult result, IIPEDSo
         return result;
     }
 
-    public LuceneSearchResult filterInReport(LuceneSearchResult result, IIPEDSource ipedCase) throws Exception {
+    public synchronized LuceneSearchResult filterInReport(LuceneSearchResult result, IIPEDSource ipedCase)
+            throws Exception {
         result = result.clone();
         for (int i = 0; i < result.getLength(); i++) {
             int itemId = ipedCase.getId(result.getLuceneIds()[i]);
@@ -391,21 +528,86 @@ public LuceneSearchResult filterInReport(LuceneSearchResult result, IIPEDSource
     }
 
     public void saveState() {
+        File file;
+        if (stateFile.canWrite() || (!stateFile.exists() && IOUtil.canCreateFile(stateFile.getParentFile())))
+            file = stateFile;
+        else
+            file = cookie;
+        LOGGER.info("Saving state to file " + file.getAbsolutePath()); //$NON-NLS-1$
+        SaveStateThread.getInstance().saveState(this, file);
+    }
+
+    /**
+     * Exports the whole state to file, without a journal, so it can be copied or
+     * loaded elsewhere alone.
+     */
+    public synchronized void saveState(File file) throws IOException {
+        LOGGER.info("Saving state to file " + file.getAbsolutePath()); //$NON-NLS-1$
+        discardJournal(file);
+        Util.writeObject(this, file.getAbsolutePath());
+        MarcadoresJournal.getJournalFile(file).delete();
+    }
+
+    /**
+     * Stops appending to the journal of file, which is about to be removed, so
+     * the next save of file rewrites the whole state.
+     */
+    synchronized void discardJournal(File file) {
+        if (file.equals(journalStateFile))
+            journalStateFile = null;
+    }
+
+    /**
+     * Appends changes done since the last save to the journal of file.
+     *
+     * @return false if the journal can not be used and the whole state must be
+     *         written to file.
+     */
+    synchronized boolean saveJournal(File file) {
+        File journal = MarcadoresJournal.getJournalFile(file);
+        if (!file.equals(journalStateFile) || !file.exists()
+                || journal.length() > Math.max(MIN_JOURNAL_COMPACT_SIZE, file.length()))
+            return false;
+
+        if (typedWords.hashCode() != journaledTypedWords) {
+            log(OP_TYPED_WORDS, typedWords.size());
+            for (String word : typedWords)
+                writeString(word);
+            journaledTypedWords = typedWords.hashCode();
+        }
+        if (journalBuffer.size() == 0)
+            return true;
         try {
-            if (stateFile.canWrite() || (!stateFile.exists() && IOUtil.canCreateFile(stateFile.getParentFile())))
-                saveState(stateFile);
-            else
-                saveState(cookie);
+            MarcadoresJournal.append(file, journalId, journalBuffer.toByteArray(), journalBuffer.size());
+            journalBuffer.reset();
+            return true;
 
         } catch (IOException e) {
-            e.printStackTrace();
+            LOGGER.warn("Error writing to journal " + journal.getAbsolutePath(), e); //$NON-NLS-1$
+            journalStateFile = null;
+            return false;
         }
     }
 
-    public void saveState(File file) throws IOException {
-        LOGGER.info("Saving state to file " + file.getAbsolutePath()); //$NON-NLS-1$
-        // Util.writeObject(this, file.getAbsolutePath());
-        SaveStateThread.getInstance().saveState(this, file);
+    /**
+     * Writes the whole state, starting a new journal.
+     */
+    synchronized void writeSnapshot(File tmp) throws IOException {
+        journalId = System.nanoTime() ^ Double.doubleToLongBits(Math.random());
+        journalBuffer.reset();
+        journaledTypedWords = typedWords.hashCode();
+        journalStateFile = null;
+        Util.writeObject(this, tmp.getAbsolutePath());
+    }
+
+    /**
+     * Called after the snapshot written by {@link #writeSnapshot(File)} was
+     * moved to file, so next changes are appended to its journal.
+     */
+    synchronized void snapshotSaved(File file) {
+        File journal = MarcadoresJournal.getJournalFile(file);
+        if (journal.delete() || !journal.exists())
+            journalStateFile = file;
     }
 
     public void addToTypedWords(String texto) {
@@ -416,9 +618,13 @@ public void addToTypedWords(String texto) {
         }
     }
 
+    private static long lastModified(File file) {
+        return Math.max(file.lastModified(), MarcadoresJournal.getJournalFile(file).lastModified());
+    }
+
     public void loadState() {
         try {
-            if (cookie.exists() && (!stateFile.exists() || cookie.lastModified() > stateFile.lastModified()))
+            if (cookie.exists() && (!stateFile.exists() || lastModified(cookie) > lastModified(stateFile)))
                 loadState(cookie);
 
             else if (stateFile.exists())
@@ -429,43 +635,264 @@ else if (stateFile.exists())
         }
     }
 
-    public void loadState(File file) throws IOException, ClassNotFoundException {
+    public synchronized void loadState(File file) throws IOException, ClassNotFoundException {
         Marcadores state = load(file);
 
-        if (state.selected != null /* && state.read != null */) {
-            int len = Math.min(state.selected.length, this.selected.length);
-            System.arraycopy(state.selected, 0, this.selected, 0, len);
-        }
-
-        this.labels.clear();
-        for (byte[] array : state.labels) {
-            byte[] newArray = new byte[lastId + 1];
-            int len = Math.min(newArray.length, array.length);
-            System.arraycopy(array, 0, newArray, 0, len);
-            this.labels.add(newArray);
+        this.selected = state.selected;
+        this.labels = state.labels;
+        if (state.lastId > this.lastId) {
+            this.selected.remove(lastId + 1L, 0x100000000L);
+            for (RoaringBitmap items : labels)
+                items.remove(lastId + 1L, 0x100000000L);
         }
+        this.labeledItems = null;
 
         this.typedWords = state.typedWords;
-        this.selectedItens = state.selectedItens;
         this.labelNames = state.labelNames;
         this.labelComments = state.labelComments;
         this.reportLabels = state.reportLabels;
+
+        this.journalId = state.journalId;
+        initJournal();
+        this.journalStateFile = state.journalStateFile;
     }
 
     public static Marcadores load(File file) throws ClassNotFoundException, IOException {
-        LOGGER.info("Loading state from file " + file.getAbsolutePath()); //$NON-NLS-1$
-        return (Marcadores) Util.readObject(file.getAbsolutePath());
+        return (Marcadores) readState(file);
     }
 
-    public void setSelected(boolean value, int id) {
-        if (value != selected[id]) {
-            if (value)
-                selectedItens++;
-            else
-                selectedItens--;
+    /**
+     * Reads a state file of one case, applying its journal, or of a multicase.
+     * State files must always be read by this method, or changes in the journal
+     * are lost.
+     *
+     * @return a Marcadores or a MultiMarcadores.
+     */
+    public static Object readState(File file) throws ClassNotFoundException, IOException {
+        LOGGER.info("Loading state from file " + file.getAbsolutePath()); //$NON-NLS-1$
+        Object state = Util.readObject(file.getAbsolutePath());
+        if (state instanceof Marcadores)
+            ((Marcadores) state).replayJournal(file);
+        return state;
+    }
+
+    private void replayJournal(File file) throws IOException {
+        MarcadoresJournal.Batches journal = MarcadoresJournal.read(file, journalId);
+        for (byte[] batch : journal.batches) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+            while (in.available() > 0)
+                apply(in);
         }
+        if (!journal.batches.isEmpty())
+            LOGGER.info("Applied " + journal.batches.size() + " changes from journal of " + file.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
+        journaledTypedWords = typedWords.hashCode();
+        // a damaged journal is not appended to, next save rewrites the whole state
+        journalStateFile = journal.complete ? file : null;
+    }
+
+    public synchronized void setSelected(boolean value, int id) {
         // seta valor na versão de visualização ou vice-versa
-        selected[id] = value;
+        if (value ? selected.checkedAdd(id) : selected.checkedRemove(id))
+            log(OP_SELECT, id, value);
+    }
+
+    private void log(byte op, Object... args) {
+        try {
+            journalOut.writeByte(op);
+            for (Object arg : args) {
+                if (arg instanceof Integer)
+                    journalOut.writeInt((Integer) arg);
+                else if (arg instanceof Boolean)
+                    journalOut.writeBoolean((Boolean) arg);
+                else if (arg instanceof RoaringBitmap)
+                    ((RoaringBitmap) arg).serialize(journalOut);
+                else
+                    writeString((String) arg);
+            }
+        } catch (IOException e) {
+            // not thrown by ByteArrayOutputStream
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeString(String str) {
+        try {
+            journalOut.writeBoolean(str != null);
+            if (str != null) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                journalOut.writeInt(bytes.length);
+                journalOut.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static RoaringBitmap readBitmap(DataInputStream in) throws IOException {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        bitmap.deserialize(in);
+        return bitmap;
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case OP_SELECT:
+                int id = in.readInt();
+                if (in.readBoolean())
+                    selected.add(id);
+                else
+                    selected.remove(id);
+                break;
+            case OP_CLEAR_SELECTION:
+                selected.clear();
+                break;
+            case OP_SET_SELECTION:
+                selected = readBitmap(in);
+                break;
+            case OP_ADD_LABEL:
+                int label = in.readInt();
+                getLabelItems(label).or(readBitmap(in));
+                break;
+            case OP_REMOVE_LABEL:
+                label = in.readInt();
+                getLabelItems(label).andNot(readBitmap(in));
+                break;
+            case OP_NEW_LABEL:
+                label = in.readInt();
+                createLabel(label, readString(in));
+                break;
+            case OP_DEL_LABEL:
+                deleteLabel(in.readInt());
+                break;
+            case OP_CHANGE_LABEL:
+                label = in.readInt();
+                labelNames.put(label, readString(in));
+                break;
+            case OP_LABEL_COMMENT:
+                label = in.readInt();
+                labelComments.put(label, readString(in));
+                break;
+            case OP_IN_REPORT:
+                label = in.readInt();
+                if (in.readBoolean())
+                    reportLabels.add(label);
+                else
+                    reportLabels.remove(label);
+                break;
+            case OP_TYPED_WORDS:
+                int size = in.readInt();
+                typedWords = new LinkedHashSet<>();
+                for (int i = 0; i < size; i++)
+                    typedWords.add(readString(in));
+                break;
+            default:
+                throw new IOException("Unknown journal operation " + op); //$NON-NLS-1$
+        }
+        labeledItems = null;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        selected.runOptimize();
+        selected.serialize(dos);
+        dos.writeInt(labels.size());
+        for (RoaringBitmap items : labels) {
+            items.runOptimize();
+            items.serialize(dos);
+        }
+        dos.flush();
+
+        boolean[] oldSelected = new boolean[lastId + 1];
+        for (int id : selected)
+            if (id >= 0 && id <= lastId)
+                oldSelected[id] = true;
+        int numLabels = labels.size();
+        if (!labelNames.isEmpty())
+            numLabels = Math.max(numLabels, labelNames.lastKey() + 1);
+        ArrayList<byte[]> oldLabels = new ArrayList<byte[]>();
+        for (int order = 0; order < (numLabels + labelBits - 1) / labelBits; order++)
+            oldLabels.add(new byte[lastId + 1]);
+        for (int label = 0; label < labels.size(); label++) {
+            byte[] labelBytes = oldLabels.get(label / labelBits);
+            byte mask = (byte) (1 << (label % labelBits));
+            for (int id : labels.get(label))
+                if (id >= 0 && id <= lastId)
+                    labelBytes[id] |= mask;
+        }
+
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("selected", oldSelected); //$NON-NLS-1$
+        fields.put("labels", oldLabels); //$NON-NLS-1$
+        fields.put("labelNames", labelNames); //$NON-NLS-1$
+        fields.put("labelComments", labelComments); //$NON-NLS-1$
+        fields.put("reportLabels", reportLabels); //$NON-NLS-1$
+        fields.put("selectedItens", selected.getCardinality()); //$NON-NLS-1$
+        fields.put("totalItems", totalItems); //$NON-NLS-1$
+        fields.put("lastId", lastId); //$NON-NLS-1$
+        fields.put("typedWords", typedWords); //$NON-NLS-1$
+        fields.put("indexDir", indexDir); //$NON-NLS-1$
+        fields.put("stateFile", stateFile); //$NON-NLS-1$
+        fields.put("cookie", cookie); //$NON-NLS-1$
+        fields.put("bitmaps", bytes.toByteArray()); //$NON-NLS-1$
+        fields.put("journalId", journalId); //$NON-NLS-1$
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        labelNames = (TreeMap<Integer, String>) fields.get("labelNames", null); //$NON-NLS-1$
+        labelComments = (TreeMap<Integer, String>) fields.get("labelComments", null); //$NON-NLS-1$
+        reportLabels = (Set<Integer>) fields.get("reportLabels", null); //$NON-NLS-1$
+        if (reportLabels == null)
+            reportLabels = new TreeSet<Integer>();
+        totalItems = fields.get("totalItems", 0); //$NON-NLS-1$
+        lastId = fields.get("lastId", 0); //$NON-NLS-1$
+        typedWords = (LinkedHashSet<String>) fields.get("typedWords", null); //$NON-NLS-1$
+        indexDir = (File) fields.get("indexDir", null); //$NON-NLS-1$
+        stateFile = (File) fields.get("stateFile", null); //$NON-NLS-1$
+        cookie = (File) fields.get("cookie", null); //$NON-NLS-1$
+        journalId = fields.get("journalId", 0L); //$NON-NLS-1$
+
+        selected = new RoaringBitmap();
+        labels = new ArrayList<RoaringBitmap>();
+        byte[] bitmaps = (byte[]) fields.get("bitmaps", null); //$NON-NLS-1$
+        if (bitmaps != null) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bitmaps));
+            selected.deserialize(dis);
+            int numLabels = dis.readInt();
+            for (int i = 0; i < numLabels; i++)
+                labels.add(readBitmap(dis));
+        } else {
+            boolean[] oldSelected = (boolean[]) fields.get("selected", null); //$NON-NLS-1$
+            if (oldSelected != null)
+                for (int id = 0; id < oldSelected.length; id++)
+                    if (oldSelected[id])
+                        selected.add(id);
+            ArrayList<byte[]> oldLabels = (ArrayList<byte[]>) fields.get("labels", null); //$NON-NLS-1$
+            if (oldLabels != null)
+                for (int order = 0; order < oldLabels.size(); order++) {
+                    byte[] labelBytes = oldLabels.get(order);
+                    for (int bit = 0; bit < labelBits; bit++)
+                        getLabelItems(order * labelBits + bit);
+                    for (int id = 0; id < labelBytes.length; id++)
+                        if (labelBytes[id] != 0)
+                            for (int bit = 0; bit < labelBits; bit++)
+                                if ((labelBytes[id] & (1 << bit)) != 0)
+                                    labels.get(order * labelBits + bit).add(id);
+                }
+        }
+        initJournal();
     }
 
 }
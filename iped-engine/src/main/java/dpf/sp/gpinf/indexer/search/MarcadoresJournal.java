@@ -0,0 +1,100 @@
+package dpf.sp.gpinf.indexer.search;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of bookmark changes made after the last full save of a state
+ * file. Each save appends one batch of changes, protected by a checksum, so a
+ * partially written batch is detected and ignored. The journal header holds
+ * the id of the state snapshot it applies to.
+ */
+class MarcadoresJournal {
+
+    private static final int MAGIC = 0x4D4A524E; // MJRN
+    private static final int VERSION = 1;
+
+    static File getJournalFile(File stateFile) {
+        return new File(stateFile.getPath() + ".journal"); //$NON-NLS-1$
+    }
+
+    static void append(File stateFile, long journalId, byte[] batch, int len) throws IOException {
+        File journal = getJournalFile(stateFile);
+        boolean newFile = !journal.exists() || journal.length() == 0;
+        try (FileOutputStream fos = new FileOutputStream(journal, true)) {
+            DataOutputStream out = new DataOutputStream(fos);
+            if (newFile) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(journalId);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(batch, 0, len);
+            out.writeInt(len);
+            out.write(batch, 0, len);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            fos.getChannel().force(false);
+        }
+    }
+
+    static class Batches {
+
+        final List<byte[]> batches = new ArrayList<>();
+
+        /**
+         * false if the journal ends with a corrupted batch, so it must not be
+         * appended to anymore.
+         */
+        boolean complete = true;
+    }
+
+    /**
+     * Reads the valid batches of the journal of stateFile, if it belongs to the
+     * snapshot with the given id.
+     */
+    static Batches read(File stateFile, long journalId) throws IOException {
+        Batches result = new Batches();
+        File journal = getJournalFile(stateFile);
+        if (!journal.exists() || journal.length() == 0) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != journalId) {
+                result.complete = false;
+                return result;
+            }
+            long remaining = journal.length() - 16;
+            while (remaining > 0) {
+                int len = in.readInt();
+                if (len < 0 || len + 8L > remaining) {
+                    result.complete = false;
+                    break;
+                }
+                byte[] batch = new byte[len];
+                in.readFully(batch);
+                CRC32 crc = new CRC32();
+                crc.update(batch);
+                if (in.readInt() != (int) crc.getValue()) {
+                    result.complete = false;
+                    break;
+                }
+                result.batches.add(batch);
+                remaining -= len + 8L;
+            }
+        } catch (EOFException e) {
+            result.complete = false;
+        }
+        return result;
+    }
+
+}
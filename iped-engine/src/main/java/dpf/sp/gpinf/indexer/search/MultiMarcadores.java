@@ -5,6 +5,7 @@
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -12,8 +13,8 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.IntPredicate;
 
-import org.apache.commons.lang.ArrayUtils;
 
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IIPEDSource;
@@ -186,12 +187,31 @@ public String getLabelComment(String labelName) {
     public int getLabelCount(String labelName) {
         int ret = 0;
         for (IMarcadores m : map.values()) {
-            Integer labelId = m.getLabelId(labelName);
-            if (labelId != null) {
-                Integer cnt = m.getLabelCount(labelId);
-                if (cnt != null) {
-                    ret += cnt;
-                }
+            int labelId = m.getLabelId(labelName);
+            if (labelId != -1) {
+                ret += m.getLabelCount(labelId);
+            }
+        }
+        return ret;
+    }
+
+    public int getLabelIntersectionCount(Set<String> labelNames) {
+        int ret = 0;
+        for (IMarcadores m : map.values()) {
+            int[] labelIds = getLabelIds(m, labelNames);
+            if (labelIds != null) {
+                ret += m.getLabelIntersectionCount(labelIds);
+            }
+        }
+        return ret;
+    }
+
+    public int getLabelUnionCount(Set<String> labelNames) {
+        int ret = 0;
+        for (IMarcadores m : map.values()) {
+            int[] labelIds = getLabelIds(m, labelNames);
+            if (labelIds != null) {
+                ret += m.getLabelUnionCount(labelIds);
             }
         }
         return ret;
@@ -221,96 +241,61 @@ public TreeSet<String> getLabelMap() {
     }
 
     public IMultiSearchResult filtrarMarcadores(IMultiSearchResult result, Set<String> labelNames) throws Exception {
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        HashMap<Integer, byte[]> labelBitsPerSource = new HashMap<Integer, byte[]>();
-        for (IItemId item : result.getIterator()) {
-            IMarcadores m = map.get(item.getSourceId());
-            byte[] labelbits = labelBitsPerSource.get(item.getSourceId());
-            if (labelbits == null) {
-                int[] labelIds = getLabelIds(m, labelNames);
-                if (labelIds != null)
-                    labelbits = m.getLabelBits(labelIds);
-                else
-                    labelbits = new byte[0];
-                labelBitsPerSource.put(item.getSourceId(), labelbits);
-            }
-            if (labelbits.length != 0 && m.hasLabel(item.getId(), labelbits)) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
-            }
-            i++;
-        }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
-
-        return r;
+        return new FusedResultFilter().addFilter(getLabelsFilter(labelNames, false)).filter(result);
     }
 
     public IMultiSearchResult filtrarSemEComMarcadores(IMultiSearchResult result, Set<String> labelNames)
             throws Exception {
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        HashMap<Integer, byte[]> labelBitsPerSource = new HashMap<Integer, byte[]>();
-        for (IItemId item : result.getIterator()) {
-            IMarcadores m = map.get(item.getSourceId());
-            byte[] labelbits = labelBitsPerSource.get(item.getSourceId());
-            if (labelbits == null) {
-                int[] labelIds = getLabelIds(m, labelNames);
-                if (labelIds != null)
-                    labelbits = m.getLabelBits(labelIds);
-                else
-                    labelbits = new byte[0];
-                labelBitsPerSource.put(item.getSourceId(), labelbits);
-            }
-            if (!m.hasLabel(item.getId()) || (labelbits.length != 0 && m.hasLabel(item.getId(), labelbits))) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
-            }
-            i++;
-        }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
-
-        return r;
+        return new FusedResultFilter().addFilter(getLabelsFilter(labelNames, true)).filter(result);
     }
 
     public IMultiSearchResult filtrarSemMarcadores(IMultiSearchResult result) {
-
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        for (IItemId item : result.getIterator()) {
-            if (!this.hasLabel(item)) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
-            }
-            i++;
-        }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
-
-        return r;
+        return new FusedResultFilter().addFilter(getLabelsFilter(Collections.emptySet(), true)).filter(result);
     }
 
     public IMultiSearchResult filtrarSelecionados(IMultiSearchResult result) throws Exception {
+        return new FusedResultFilter().addFilter(getSelectedFilter()).filter(result);
+    }
 
-        ArrayList<IItemId> selectedItems = new ArrayList<IItemId>();
-        ArrayList<Float> scores = new ArrayList<Float>();
-        int i = 0;
-        for (IItemId item : result.getIterator()) {
-            if (map.get(item.getSourceId()).isSelected(item.getId())) {
-                selectedItems.add(item);
-                scores.add(result.getScore(i));
+    /**
+     * @return filter of the items selected now, to be used with
+     *         {@link FusedResultFilter}.
+     */
+    public FusedResultFilter.ItemFilter getSelectedFilter() {
+        IntPredicate[] selected = new IntPredicate[getMaxSourceId() + 1];
+        for (Map.Entry<Integer, IMarcadores> entry : map.entrySet()) {
+            selected[entry.getKey()] = entry.getValue().getSelectedSnapshot();
+        }
+        return (sourceId, id, score) -> selected[sourceId].test(id);
+    }
+
+    /**
+     * @return filter of the items with any of the labels now, or also without any
+     *         label if includeUnlabeled is true, to be used with
+     *         {@link FusedResultFilter}.
+     */
+    public FusedResultFilter.ItemFilter getLabelsFilter(Set<String> labelNames, boolean includeUnlabeled) {
+        IntPredicate[] accepted = new IntPredicate[getMaxSourceId() + 1];
+        for (Map.Entry<Integer, IMarcadores> entry : map.entrySet()) {
+            IMarcadores m = entry.getValue();
+            int[] labelIds = getLabelIds(m, labelNames);
+            IntPredicate withLabels = labelIds != null ? m.getLabeledSnapshot(labelIds) : id -> false;
+            if (includeUnlabeled) {
+                IntPredicate labeled = m.getLabeledSnapshot(null);
+                accepted[entry.getKey()] = id -> !labeled.test(id) || withLabels.test(id);
+            } else {
+                accepted[entry.getKey()] = withLabels;
             }
-            i++;
         }
-        MultiSearchResult r = new MultiSearchResult(selectedItems.toArray(new ItemId[0]),
-                ArrayUtils.toPrimitive(scores.toArray(new Float[0])));
+        return (sourceId, id, score) -> accepted[sourceId].test(id);
+    }
 
-        return r;
+    private int getMaxSourceId() {
+        int max = -1;
+        for (int sourceId : map.keySet()) {
+            max = Math.max(max, sourceId);
+        }
+        return max;
     }
 
     public void loadState() {
@@ -319,7 +304,7 @@ public void loadState() {
     }
 
     public void loadState(File file) throws ClassNotFoundException, IOException {
-        Object obj = Util.readObject(file.getAbsolutePath());
+        Object obj = Marcadores.readState(file);
         if (obj instanceof IMultiMarcadores) {
             MultiMarcadores state = (MultiMarcadores) obj;
             if (state.getTotalItens() != this.getTotalItens())
@@ -340,8 +325,15 @@ public void saveState() {
             m.saveState();
     }
 
+    /**
+     * Exports the whole state of all cases to file, without a journal.
+     */
     public void saveState(File file) throws IOException {
+        for (IMarcadores m : map.values())
+            if (m instanceof Marcadores)
+                ((Marcadores) m).discardJournal(file);
         Util.writeObject(this, file.getAbsolutePath());
+        MarcadoresJournal.getJournalFile(file).delete();
     }
 
     public LinkedHashSet<String> getTypedWords() {
@@ -1,5 +1,6 @@
 package dpf.sp.gpinf.indexer.search;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import iped3.IIPEDSource;
@@ -7,39 +8,195 @@
 import iped3.search.LuceneSearchResult;
 import iped3.search.IMultiSearchResult;
 
+/**
+ * Result of a search in a multicase. Items are kept in primitive columns, and
+ * IItemId objects are created only when requested. The source column is run
+ * length encoded when items are grouped by source, as results not sorted by
+ * score usually are. The score column is only allocated when a score is set,
+ * missing scores are zero. Items of subclasses of ItemId (e.g. with timeline
+ * ords) are kept as objects too, so they are returned unchanged.
+ */
 public class MultiSearchResult implements IMultiSearchResult {
 
-    private IItemId[] ids;
+    /**
+     * Maximum number of source runs, relative to the length, to encode the source
+     * column.
+     */
+    private static final int MIN_ITEMS_PER_RUN = 8;
+
+    private int length;
+    private int[] ids;
     private float[] scores;
 
+    // one of sourceIds or runs is not null
+    private int[] sourceIds;
+    private int[] runStarts;
+    private int[] runSourceIds;
+
+    // items which are not plain ItemIds, null if there is none, or at indexes of
+    // plain items
+    private IItemId[] items;
+
     public MultiSearchResult() {
-        this.ids = new ItemId[0];
-        this.scores = new float[0];
+        this(new int[0], new int[0], new float[0]);
     }
 
     public MultiSearchResult(IItemId[] ids, float[] scores) {
+        this.length = ids.length;
+        this.ids = new int[length];
+        this.sourceIds = new int[length];
+        for (int i = 0; i < length; i++) {
+            this.ids[i] = ids[i].getId();
+            this.sourceIds[i] = ids[i].getSourceId();
+            if (ids[i].getClass() != ItemId.class) {
+                if (items == null) {
+                    items = new IItemId[length];
+                }
+                items[i] = ids[i];
+            }
+        }
+        this.scores = scores;
+        encodeSources();
+    }
+
+    /**
+     * @param scores
+     *            may be null if all scores are zero.
+     */
+    public MultiSearchResult(int[] sourceIds, int[] ids, float[] scores) {
+        this.length = ids.length;
         this.ids = ids;
+        this.sourceIds = sourceIds;
         this.scores = scores;
+        encodeSources();
+    }
+
+    private void encodeSources() {
+        int runs = length == 0 ? 0 : 1;
+        for (int i = 1; i < length; i++) {
+            if (sourceIds[i] != sourceIds[i - 1] && ++runs > length / MIN_ITEMS_PER_RUN) {
+                return;
+            }
+        }
+        runStarts = new int[runs];
+        runSourceIds = new int[runs];
+        for (int i = 0, r = -1; i < length; i++) {
+            if (i == 0 || sourceIds[i] != sourceIds[i - 1]) {
+                runStarts[++r] = i;
+                runSourceIds[r] = sourceIds[i];
+            }
+        }
+        sourceIds = null;
+    }
+
+    private void decodeSources() {
+        if (sourceIds == null) {
+            int[] sources = new int[length];
+            for (int r = 0; r < runStarts.length; r++) {
+                int end = r + 1 < runStarts.length ? runStarts[r + 1] : length;
+                Arrays.fill(sources, runStarts[r], end, runSourceIds[r]);
+            }
+            sourceIds = sources;
+            runStarts = null;
+            runSourceIds = null;
+        }
     }
 
     public final int getLength() {
-        return ids.length;
+        return length;
     }
 
     public final IItemId getItem(int i) {
+        if (items != null && items[i] != null) {
+            return items[i];
+        }
+        return new ItemId(getSourceId(i), ids[i]);
+    }
+
+    public final int getId(int i) {
         return ids[i];
     }
 
+    public final int getSourceId(int i) {
+        if (sourceIds != null) {
+            return sourceIds[i];
+        }
+        if (i < 0 || i >= length) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        int r = Arrays.binarySearch(runStarts, i);
+        return runSourceIds[r >= 0 ? r : -r - 2];
+    }
+
     public final float getScore(int i) {
+        if (scores == null) {
+            if (i < 0 || i >= length) {
+                throw new ArrayIndexOutOfBoundsException(i);
+            }
+            return 0;
+        }
         return scores[i];
     }
 
     public final void setScore(int i, float score) {
+        if (scores == null) {
+            scores = new float[length];
+        }
         scores[i] = score;
     }
 
     public final void setItem(int i, IItemId itemId) {
-        ids[i] = itemId;
+        if (itemId.getSourceId() != getSourceId(i)) {
+            decodeSources();
+            sourceIds[i] = itemId.getSourceId();
+        }
+        ids[i] = itemId.getId();
+        if (itemId.getClass() != ItemId.class) {
+            if (items == null) {
+                items = new IItemId[length];
+            }
+            items[i] = itemId;
+        } else if (items != null) {
+            items[i] = null;
+        }
+    }
+
+    /**
+     * @return the items whose bits are set in mask, with their scores.
+     */
+    final MultiSearchResult subset(long[] mask, int count) {
+        int[] newIds = new int[count];
+        int[] newSources = new int[count];
+        float[] newScores = scores != null ? new float[count] : null;
+        IItemId[] newItems = items != null ? new IItemId[count] : null;
+        int j = 0;
+        int run = 0;
+        for (int w = 0; w < mask.length; w++) {
+            long word = mask[w];
+            while (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                newIds[j] = ids[i];
+                if (sourceIds != null) {
+                    newSources[j] = sourceIds[i];
+                } else {
+                    while (run + 1 < runStarts.length && runStarts[run + 1] <= i) {
+                        run++;
+                    }
+                    newSources[j] = runSourceIds[run];
+                }
+                if (newScores != null) {
+                    newScores[j] = scores[i];
+                }
+                if (newItems != null) {
+                    newItems[j] = items[i];
+                }
+                j++;
+            }
+        }
+        MultiSearchResult result = new MultiSearchResult(newSources, newIds, newScores);
+        result.items = newItems;
+        return result;
     }
 
     public Iterable<IItemId> getIterator() {
@@ -57,12 +214,12 @@ public final Iterator<IItemId> iterator() {
 
         @Override
         public final boolean hasNext() {
-            return pos < ids.length;
+            return pos < length;
         }
 
         @Override
         public final IItemId next() {
-            return ids[pos++];
+            return getItem(pos++);
         }
 
         @Override
@@ -71,40 +228,47 @@ public void remove() {
         }
     }
 
-    public static MultiSearchResult get(IPEDMultiSource iSource, LuceneSearchResult luceneResult) {
+    /**
+     * @return result itself if it is a MultiSearchResult, or a copy of it.
+     */
+    public static MultiSearchResult get(IMultiSearchResult result) {
+        if (result instanceof MultiSearchResult) {
+            return (MultiSearchResult) result;
+        }
+        int len = result.getLength();
+        IItemId[] items = new IItemId[len];
+        float[] scores = new float[len];
+        for (int i = 0; i < len; i++) {
+            items[i] = result.getItem(i);
+            scores[i] = result.getScore(i);
+        }
+        return new MultiSearchResult(items, scores);
+    }
 
-        // System.out.println("multi Result");
+    public static MultiSearchResult get(IPEDMultiSource iSource, LuceneSearchResult luceneResult) {
 
-        MultiSearchResult result = new MultiSearchResult();
-        result.scores = luceneResult.getScores();
-        result.ids = new ItemId[luceneResult.getLength()];
+        int[] docs = luceneResult.getLuceneIds();
+        int[] sources = new int[luceneResult.getLength()];
+        int[] ids = new int[luceneResult.getLength()];
 
-        if (luceneResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                result.ids[i] = iSource.getItemId(docs[i]);
-            }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IIPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int sourceId = 0;
-            int maxdoc = 0;
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                if (atomicSource == null || docs[i] >= baseDoc + maxdoc) {
-                    atomicSource = iSource.getAtomicSource(docs[i]);
-                    sourceId = atomicSource.getSourceId();
-                    baseDoc = iSource.getBaseLuceneId(atomicSource);
-                    maxdoc = atomicSource.getReader().maxDoc();
-                }
-                result.ids[i] = new ItemId(sourceId, atomicSource.getId(docs[i] - baseDoc));
+        // docs are in ascending order if not sorted by score, so the atomic source
+        // rarely changes
+        IIPEDSource atomicSource = null;
+        int baseDoc = 0;
+        int sourceId = 0;
+        int maxdoc = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (atomicSource == null || docs[i] < baseDoc || docs[i] >= baseDoc + maxdoc) {
+                atomicSource = iSource.getAtomicSource(docs[i]);
+                sourceId = atomicSource.getSourceId();
+                baseDoc = iSource.getBaseLuceneId(atomicSource);
+                maxdoc = atomicSource.getReader().maxDoc();
             }
+            sources[i] = sourceId;
+            ids[i] = atomicSource.getId(docs[i] - baseDoc);
         }
 
-        return result;
+        return new MultiSearchResult(sources, ids, luceneResult.getScores());
     }
 
     public static LuceneSearchResult get(MultiSearchResult ipedResult, IPEDMultiSource iSource) {
@@ -112,30 +276,18 @@ public static LuceneSearchResult get(MultiSearchResult ipedResult, IPEDMultiSour
         float[] scores = lResult.getScores();
         int[] docs = lResult.getLuceneIds();
 
-        int i = 0;
-        if (ipedResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
-            for (IItemId item : ipedResult.ids) {
-                scores[i] = ipedResult.getScore(i);
-                docs[i] = iSource.getLuceneId(item);
-                i++;
-            }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IIPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int sourceId = 0;
-            for (IItemId item : ipedResult.ids) {
-                if (atomicSource == null || item.getSourceId() != sourceId) {
-                    sourceId = item.getSourceId();
-                    atomicSource = iSource.getAtomicSourceBySourceId(sourceId);
-                    baseDoc = iSource.getBaseLuceneId(atomicSource);
-                }
-                docs[i] = atomicSource.getLuceneId(item.getId()) + baseDoc;
-                scores[i] = ipedResult.getScore(i);
-                i++;
+        IIPEDSource atomicSource = null;
+        int baseDoc = 0;
+        int sourceId = 0;
+        for (int i = 0; i < ipedResult.length; i++) {
+            int itemSourceId = ipedResult.getSourceId(i);
+            if (atomicSource == null || itemSourceId != sourceId) {
+                sourceId = itemSourceId;
+                atomicSource = iSource.getAtomicSourceBySourceId(sourceId);
+                baseDoc = iSource.getBaseLuceneId(atomicSource);
             }
+            docs[i] = atomicSource.getLuceneId(ipedResult.ids[i]) + baseDoc;
+            scores[i] = ipedResult.getScore(i);
         }
 
         return lResult;
@@ -144,8 +296,13 @@ public static LuceneSearchResult get(MultiSearchResult ipedResult, IPEDMultiSour
     @Override
     public MultiSearchResult clone() {
         MultiSearchResult result = new MultiSearchResult();
+        result.length = this.length;
         result.ids = this.ids.clone();
-        result.scores = this.scores.clone();
+        result.scores = this.scores != null ? this.scores.clone() : null;
+        result.sourceIds = this.sourceIds != null ? this.sourceIds.clone() : null;
+        result.runStarts = this.runStarts != null ? this.runStarts.clone() : null;
+        result.runSourceIds = this.runSourceIds != null ? this.runSourceIds.clone() : null;
+        result.items = this.items != null ? this.items.clone() : null;
         return result;
     }
 }
@@ -5,6 +5,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -333,10 +334,24 @@ private HashMap<String, PointsConfig> getPointsConfigMap() {
         pointsConfigMap.put(IndexItem.PARENTID, configInt);
         pointsConfigMap.put(IndexItem.FTKID, configInt);
 
+        PointsConfig configDate = new PointsConfig(new DateNumberFormat(), Long.class);
+        for (String field : Arrays.asList(IndexItem.CREATED, IndexItem.MODIFIED, IndexItem.ACCESSED,
+                IndexItem.RECORDDATE)) {
+            if (hasDatePoints(field)) {
+                pointsConfigMap.put(field, configDate);
+                pointsConfigMap.put(IndexItem.getLocalizedField(field), configDate);
+            }
+        }
+
         for (String field : LoadIndexFields.getFields(Arrays.asList(ipedCase))) {
             Class<?> type = IndexItem.getMetadataTypes().get(field);
             if (type == null)
                 continue;
+            if (type.equals(Date.class)) {
+                if (hasDatePoints(field))
+                    pointsConfigMap.put(field, configDate);
+                continue;
+            }
             if (type.equals(Integer.class) || type.equals(Byte.class))
                 pointsConfigMap.put(field, configInt);
             else if (type.equals(Long.class))
@@ -354,4 +369,8 @@ else if (type.equals(Double.class))
 
         return pointsConfigMap;
     }
+
+    private boolean hasDatePoints(String field) {
+        return ipedCase instanceof IPEDSource && ((IPEDSource) ipedCase).hasDatePoints(field);
+    }
 }
@@ -41,18 +41,28 @@ public void run() {
                 File file = stateMap.remove(state);
                 if (file == null)
                     continue;
+                Marcadores marcadores = state instanceof Marcadores ? (Marcadores) state : null;
+                if (marcadores != null && marcadores.saveJournal(file))
+                    continue;
                 try {
                     File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
                     if (tmp.exists())
                         tmp.delete();
-                    Util.writeObject(state, tmp.getAbsolutePath());
+                    if (marcadores != null)
+                        marcadores.writeSnapshot(tmp);
+                    else
+                        Util.writeObject(state, tmp.getAbsolutePath());
+                    boolean saved;
                     if (!file.exists()) {
-                        tmp.renameTo(file);
+                        saved = tmp.renameTo(file);
                     } else {
                         File bkp = backupAndDelete(file);
-                        if (!tmp.renameTo(file))
+                        saved = tmp.renameTo(file);
+                        if (!saved)
                             bkp.renameTo(file);
                     }
+                    if (saved && marcadores != null)
+                        marcadores.snapshotSaved(file);
 
                 } catch (IOException e1) {
                     e1.printStackTrace();
@@ -87,6 +97,10 @@ private File backupAndDelete(File file) {
         if (newestBkp == null || (System.currentTimeMillis() - newestBkp.lastModified()) / 1000 > BKP_INTERVAL) {
             oldestBkp.delete();
             file.renameTo(oldestBkp);
+            // changes not yet compacted into the backed up state
+            File bkpJournal = MarcadoresJournal.getJournalFile(oldestBkp);
+            bkpJournal.delete();
+            MarcadoresJournal.getJournalFile(file).renameTo(bkpJournal);
             oldestBkp.setLastModified(System.currentTimeMillis());
             return oldestBkp;
         } else {
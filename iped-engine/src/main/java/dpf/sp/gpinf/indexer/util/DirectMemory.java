@@ -1,6 +1,7 @@
 package dpf.sp.gpinf.indexer.util;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 
 import sun.misc.Unsafe;
@@ -22,6 +23,20 @@ public class DirectMemory {
 
     }
 
+    /**
+     * @return true if volatile accesses to direct buffers work in this JVM.
+     */
+    public static boolean isAvailable() {
+        try {
+            MappedByteBuffer bb = (MappedByteBuffer) ByteBuffer.allocateDirect(1);
+            putByteVolatile(bb, 0, (byte) 1);
+            return getByteVolatile(bb, 0) == 1;
+
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
     public static final void putByteVolatile(MappedByteBuffer bb, long pos, byte val) {
         unsafe.putByteVolatile(null, ((sun.nio.ch.DirectBuffer) bb).address() + pos, val);
     }
@@ -0,0 +1,196 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.util.Arrays;
+
+/**
+ * Concurrent set of hash values keyed by the raw digest bytes. Keys are stored
+ * contiguously in primitive open addressing tables, one per lock stripe, to
+ * avoid keeping millions of boxed objects on the heap. Hashes of different
+ * lengths (e.g. md5 and sha-1) are kept in separate tables of the same stripe.
+ *
+ * Also provides striped lock objects, so tasks can serialize operations on
+ * files named by the same hash without a global lock.
+ */
+public class HashValueSet {
+
+    private static final int NUM_STRIPES = 256;
+
+    private static final int NUM_LOCKS = 4096;
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+    private final Object[] locks = new Object[NUM_LOCKS];
+
+    public HashValueSet() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Adds the hash if it is not present yet.
+     *
+     * @return true if the hash was added, false if it was already in the set.
+     */
+    public boolean putIfAbsent(byte[] hash) {
+        int h = hashCode(hash);
+        Stripe stripe = stripes[h & (NUM_STRIPES - 1)];
+        synchronized (stripe) {
+            return stripe.getTable(hash.length).add(hash, h >>> 8);
+        }
+    }
+
+    public boolean contains(byte[] hash) {
+        int h = hashCode(hash);
+        Stripe stripe = stripes[h & (NUM_STRIPES - 1)];
+        synchronized (stripe) {
+            return stripe.getTable(hash.length).contains(hash, h >>> 8);
+        }
+    }
+
+    /**
+     * Returns a lock object shared by all callers using the same hash value.
+     * Different hashes may share the same lock.
+     */
+    public Object getLock(byte[] hash) {
+        return locks[hashCode(hash) & (NUM_LOCKS - 1)];
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Table table : stripe.tables) {
+                    size += table.size;
+                }
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.tables = new Table[0];
+            }
+        }
+    }
+
+    /**
+     * Digests are already uniformly distributed, so mixing the first bytes is
+     * enough. Short keys are hashed as a whole.
+     */
+    private static int hashCode(byte[] hash) {
+        if (hash.length < 8) {
+            return mix(Arrays.hashCode(hash));
+        }
+        int h = (hash[0] & 0xff) | (hash[1] & 0xff) << 8 | (hash[2] & 0xff) << 16 | (hash[3] & 0xff) << 24;
+        int l = (hash[4] & 0xff) | (hash[5] & 0xff) << 8 | (hash[6] & 0xff) << 16 | (hash[7] & 0xff) << 24;
+        return mix(h ^ Integer.rotateLeft(l, 16));
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static class Stripe {
+
+        Table[] tables = new Table[0];
+
+        Table getTable(int keyLen) {
+            for (Table table : tables) {
+                if (table.keyLen == keyLen) {
+                    return table;
+                }
+            }
+            Table table = new Table(keyLen);
+            tables = Arrays.copyOf(tables, tables.length + 1);
+            tables[tables.length - 1] = table;
+            return table;
+        }
+    }
+
+    /**
+     * Linear probing table storing keys of fixed length in one byte array.
+     */
+    private static class Table {
+
+        final int keyLen;
+        byte[] keys;
+        boolean[] used;
+        int size = 0;
+
+        Table(int keyLen) {
+            this.keyLen = keyLen;
+            this.keys = new byte[INITIAL_CAPACITY * keyLen];
+            this.used = new boolean[INITIAL_CAPACITY];
+        }
+
+        boolean contains(byte[] key, int h) {
+            int mask = used.length - 1;
+            for (int slot = h & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (equalsAt(keys, slot, key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean add(byte[] key, int h) {
+            int mask = used.length - 1;
+            int slot = h & mask;
+            for (; used[slot]; slot = (slot + 1) & mask) {
+                if (equalsAt(keys, slot, key)) {
+                    return false;
+                }
+            }
+            System.arraycopy(key, 0, keys, slot * keyLen, keyLen);
+            used[slot] = true;
+            if (++size > used.length * LOAD_FACTOR) {
+                resize();
+            }
+            return true;
+        }
+
+        private boolean equalsAt(byte[] array, int slot, byte[] key) {
+            int offset = slot * keyLen;
+            for (int i = 0; i < keyLen; i++) {
+                if (array[offset + i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void resize() {
+            byte[] oldKeys = keys;
+            boolean[] oldUsed = used;
+            keys = new byte[oldKeys.length * 2];
+            used = new boolean[oldUsed.length * 2];
+            int mask = used.length - 1;
+            byte[] key = new byte[keyLen];
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i]) {
+                    System.arraycopy(oldKeys, i * keyLen, key, 0, keyLen);
+                    int slot = (HashValueSet.hashCode(key) >>> 8) & mask;
+                    while (used[slot]) {
+                        slot = (slot + 1) & mask;
+                    }
+                    System.arraycopy(key, 0, keys, slot * keyLen, keyLen);
+                    used[slot] = true;
+                }
+            }
+        }
+    }
+
+}
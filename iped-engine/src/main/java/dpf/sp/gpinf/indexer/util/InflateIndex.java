@@ -0,0 +1,565 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Random access index of a raw deflate stream, like zlib's zran. While the
+ * stream is inflated, a checkpoint is recorded at the first block boundary
+ * after each {@link #SPAN} bytes of output, with the bit offset in the
+ * compressed data and the last 32KB of output (the window needed by back
+ * references). Seeks restart inflating from the nearest checkpoint, instead of
+ * spilling the whole entry to a temp file.
+ *
+ * java.util.zip.Inflater can not be restarted at a bit offset, so this has its
+ * own decoder.
+ */
+class InflateIndex {
+
+    static final int SPAN = 4 << 20;
+
+    private static final int WSIZE = 1 << 15;
+    private static final int WMASK = WSIZE - 1;
+
+    /**
+     * Positional reads of the compressed data.
+     */
+    interface Source {
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+
+    private static class Checkpoint {
+        final long outPos;
+        final long bitPos;
+        final byte[] window;
+
+        Checkpoint(long outPos, long bitPos, byte[] window) {
+            this.outPos = outPos;
+            this.bitPos = bitPos;
+            this.window = window;
+        }
+    }
+
+    private final Source source;
+    private final long dataStart, compressedSize, uncompressedSize;
+    private final int span;
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    InflateIndex(Source source, long dataStart, long compressedSize, long uncompressedSize) {
+        this(source, dataStart, compressedSize, uncompressedSize, SPAN);
+    }
+
+    InflateIndex(Source source, long dataStart, long compressedSize, long uncompressedSize, int span) {
+        this.source = source;
+        this.span = span;
+        this.dataStart = dataStart;
+        this.compressedSize = compressedSize;
+        this.uncompressedSize = uncompressedSize;
+        checkpoints.add(new Checkpoint(0, 0, new byte[0]));
+    }
+
+    long size() {
+        return uncompressedSize;
+    }
+
+    /**
+     * @return estimated bytes used by the windows after the whole entry is read.
+     */
+    static long estimateMemoryUsage(long uncompressedSize) {
+        return (uncompressedSize / SPAN + 1) * WSIZE;
+    }
+
+    private synchronized Checkpoint getCheckpoint(long pos) {
+        int lo = 0, hi = checkpoints.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (checkpoints.get(mid).outPos <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return checkpoints.get(lo);
+    }
+
+    private synchronized long getLastCheckpointPos() {
+        return checkpoints.get(checkpoints.size() - 1).outPos;
+    }
+
+    /**
+     * @return bit offsets in the compressed data of the checkpoints recorded.
+     */
+    synchronized long[] getCheckpointBitPositions() {
+        long[] positions = new long[checkpoints.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = checkpoints.get(i).bitPos;
+        }
+        return positions;
+    }
+
+    private synchronized void addCheckpoint(Checkpoint checkpoint) {
+        // other channels could have added it
+        if (checkpoint.outPos > checkpoints.get(checkpoints.size() - 1).outPos) {
+            checkpoints.add(checkpoint);
+        }
+    }
+
+    SeekableByteChannel newChannel() {
+        return new Channel();
+    }
+
+    private class Channel implements SeekableByteChannel {
+
+        private Decoder decoder;
+        private long position = 0;
+        private boolean open = true;
+        private byte[] skipBuf;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= uncompressedSize || !dst.hasRemaining()) {
+                return position >= uncompressedSize ? -1 : 0;
+            }
+            if (decoder == null || decoder.total > position || position - decoder.total > span) {
+                Checkpoint checkpoint = getCheckpoint(position);
+                if (decoder == null || decoder.total > position || checkpoint.outPos > decoder.total) {
+                    if (decoder == null) {
+                        decoder = new Decoder();
+                    }
+                    decoder.restart(checkpoint);
+                }
+            }
+            while (decoder.total < position) {
+                if (skipBuf == null) {
+                    skipBuf = new byte[1 << 16];
+                }
+                int len = (int) Math.min(skipBuf.length, position - decoder.total);
+                if (decoder.inflate(skipBuf, 0, len) == -1) {
+                    throw new EOFException("Unexpected end of deflate stream"); //$NON-NLS-1$
+                }
+            }
+            // a corrupt stream could inflate more than the declared size
+            int len = (int) Math.min(dst.remaining(), uncompressedSize - position);
+            int read;
+            if (dst.hasArray()) {
+                read = decoder.inflate(dst.array(), dst.arrayOffset() + dst.position(), len);
+                if (read > 0) {
+                    dst.position(dst.position() + read);
+                }
+            } else {
+                byte[] buf = new byte[Math.min(len, 1 << 16)];
+                read = decoder.inflate(buf, 0, buf.length);
+                if (read > 0) {
+                    dst.put(buf, 0, read);
+                }
+            }
+            if (read == -1) {
+                // the stream ended before its declared size
+                throw new EOFException("Unexpected end of deflate stream"); //$NON-NLS-1$
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position"); //$NON-NLS-1$
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return uncompressedSize;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            decoder = null;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            throw new NonWritableChannelException();
+        }
+    }
+
+    private static final int[] LEN_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59,
+            67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LEN_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5,
+            5, 5, 5, 0 };
+    private static final int[] DIST_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513,
+            769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DIST_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10,
+            11, 11, 12, 12, 13, 13 };
+    private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1,
+            15 };
+
+    private static final Huffman FIXED_LIT, FIXED_DIST;
+
+    static {
+        int[] lengths = new int[288];
+        for (int i = 0; i < 288; i++) {
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        int[] dist = new int[30];
+        for (int i = 0; i < 30; i++) {
+            dist[i] = 5;
+        }
+        try {
+            FIXED_LIT = new Huffman(lengths, 0, 288);
+            FIXED_DIST = new Huffman(dist, 0, 30);
+        } catch (ZipException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Canonical Huffman code decoded by a single table indexed by the next bits,
+     * each entry with symbol << 4 | code length, or -1 if invalid.
+     */
+    private static class Huffman {
+        final int[] table;
+        final int bits;
+
+        Huffman(int[] lengths, int off, int n) throws ZipException {
+            int max = 0;
+            int[] count = new int[16];
+            for (int i = 0; i < n; i++) {
+                int len = lengths[off + i];
+                count[len]++;
+                max = Math.max(max, len);
+            }
+            bits = Math.max(1, max);
+            table = new int[1 << bits];
+            Arrays.fill(table, -1);
+            int[] next = new int[16];
+            int code = 0;
+            count[0] = 0;
+            for (int len = 1; len <= 15; len++) {
+                code = (code + count[len - 1]) << 1;
+                next[len] = code;
+                if (count[len] > (1 << len)) {
+                    throw new ZipException("Invalid huffman code lengths"); //$NON-NLS-1$
+                }
+            }
+            for (int sym = 0; sym < n; sym++) {
+                int len = lengths[off + sym];
+                if (len == 0) {
+                    continue;
+                }
+                int c = next[len]++;
+                if (c >= (1 << len)) {
+                    throw new ZipException("Oversubscribed huffman code"); //$NON-NLS-1$
+                }
+                int rev = Integer.reverse(c) >>> (32 - len);
+                int entry = sym << 4 | len;
+                for (int i = rev; i < table.length; i += 1 << len) {
+                    table[i] = entry;
+                }
+            }
+        }
+    }
+
+    private static final int HEADER = 0, STORED = 1, CODES = 2, DONE = 3;
+
+    /**
+     * Incremental raw deflate decoder, which can be restarted from checkpoints.
+     */
+    private class Decoder {
+
+        private final byte[] window = new byte[WSIZE];
+        private int winPos;
+        long total;
+
+        private final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        // next compressed byte to be loaded in the bit buffer, relative to data start
+        private long consumed;
+        private long bitBuf;
+        private int bitCount;
+        private int padding;
+
+        private int state;
+        private boolean lastBlock;
+        private int storedRemaining;
+        private Huffman lit, dist;
+        private int copyLen, copyDist;
+
+        void restart(Checkpoint checkpoint) throws IOException {
+            System.arraycopy(checkpoint.window, 0, window, 0, checkpoint.window.length);
+            winPos = checkpoint.window.length & WMASK;
+            total = checkpoint.outPos;
+            consumed = checkpoint.bitPos >>> 3;
+            in.clear().limit(0);
+            bitBuf = 0;
+            bitCount = 0;
+            padding = 0;
+            int skip = (int) (checkpoint.bitPos & 7);
+            if (skip > 0) {
+                need(8);
+                drop(skip);
+            }
+            state = HEADER;
+            lastBlock = false;
+            copyLen = 0;
+        }
+
+        private int nextByte() throws IOException {
+            if (!in.hasRemaining()) {
+                long remaining = compressedSize - consumed;
+                if (remaining <= 0) {
+                    // lets the decoder peek past the end, failing if it really needs those bits
+                    if (++padding > 8) {
+                        throw new EOFException("Unexpected end of compressed data"); //$NON-NLS-1$
+                    }
+                    // counted, so checkpoint bit offsets stay right
+                    consumed++;
+                    return 0;
+                }
+                in.clear().limit((int) Math.min(in.capacity(), remaining));
+                int read = 0;
+                while (in.hasRemaining() && read != -1) {
+                    read = source.read(in, dataStart + consumed + in.position());
+                }
+                in.flip();
+                if (!in.hasRemaining()) {
+                    throw new EOFException("Unexpected end of compressed data"); //$NON-NLS-1$
+                }
+            }
+            consumed++;
+            return in.get() & 0xff;
+        }
+
+        private void need(int n) throws IOException {
+            while (bitCount < n) {
+                bitBuf |= (long) nextByte() << bitCount;
+                bitCount += 8;
+            }
+            // also loads bytes already buffered, so decoding loops check less
+            while (bitCount <= 48 && in.hasRemaining()) {
+                bitBuf |= (long) (in.get() & 0xff) << bitCount;
+                bitCount += 8;
+                consumed++;
+            }
+        }
+
+        private void drop(int n) {
+            bitBuf >>>= n;
+            bitCount -= n;
+        }
+
+        private int bits(int n) throws IOException {
+            need(n);
+            int v = (int) (bitBuf & ((1L << n) - 1));
+            drop(n);
+            return v;
+        }
+
+        private int decode(Huffman h) throws IOException {
+            need(h.bits);
+            int entry = h.table[(int) (bitBuf & ((1 << h.bits) - 1))];
+            if (entry < 0) {
+                throw new ZipException("Invalid huffman code"); //$NON-NLS-1$
+            }
+            drop(entry & 15);
+            return entry >>> 4;
+        }
+
+        private void checkpoint() {
+            if (total - getLastCheckpointPos() < span) {
+                return;
+            }
+            int w = (int) Math.min(total, WSIZE);
+            byte[] snapshot = new byte[w];
+            int start = (winPos - w) & WMASK;
+            int first = Math.min(w, WSIZE - start);
+            System.arraycopy(window, start, snapshot, 0, first);
+            System.arraycopy(window, 0, snapshot, first, w - first);
+            addCheckpoint(new Checkpoint(total, consumed * 8 - bitCount, snapshot));
+        }
+
+        private void readHeader() throws IOException {
+            checkpoint();
+            lastBlock = bits(1) == 1;
+            int type = bits(2);
+            if (type == 0) {
+                drop(bitCount & 7);
+                int len = bits(16);
+                int nlen = bits(16);
+                if (len != (~nlen & 0xffff)) {
+                    throw new ZipException("Invalid stored block length"); //$NON-NLS-1$
+                }
+                storedRemaining = len;
+                state = STORED;
+            } else if (type == 1) {
+                lit = FIXED_LIT;
+                dist = FIXED_DIST;
+                state = CODES;
+            } else if (type == 2) {
+                readDynamicTables();
+                state = CODES;
+            } else {
+                throw new ZipException("Invalid block type"); //$NON-NLS-1$
+            }
+        }
+
+        private void readDynamicTables() throws IOException {
+            int nlen = bits(5) + 257;
+            int ndist = bits(5) + 1;
+            int ncode = bits(4) + 4;
+            if (nlen > 286 || ndist > 30) {
+                throw new ZipException("Invalid dynamic block header"); //$NON-NLS-1$
+            }
+            int[] lengths = new int[320];
+            for (int i = 0; i < ncode; i++) {
+                lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+            }
+            Huffman codeLengths = new Huffman(lengths, 0, 19);
+            Arrays.fill(lengths, 0, 19, 0);
+            int i = 0;
+            while (i < nlen + ndist) {
+                int sym = decode(codeLengths);
+                if (sym < 16) {
+                    lengths[i++] = sym;
+                    continue;
+                }
+                int len = 0, repeat;
+                if (sym == 16) {
+                    if (i == 0) {
+                        throw new ZipException("Repeat without previous length"); //$NON-NLS-1$
+                    }
+                    len = lengths[i - 1];
+                    repeat = 3 + bits(2);
+                } else if (sym == 17) {
+                    repeat = 3 + bits(3);
+                } else {
+                    repeat = 11 + bits(7);
+                }
+                if (i + repeat > nlen + ndist) {
+                    throw new ZipException("Too many code lengths"); //$NON-NLS-1$
+                }
+                while (repeat-- > 0) {
+                    lengths[i++] = len;
+                }
+            }
+            if (lengths[256] == 0) {
+                throw new ZipException("Missing end of block code"); //$NON-NLS-1$
+            }
+            lit = new Huffman(lengths, 0, nlen);
+            dist = new Huffman(lengths, nlen, ndist);
+        }
+
+        /**
+         * @return bytes inflated, or -1 at the end of the stream.
+         */
+        int inflate(byte[] out, int off, int len) throws IOException {
+            int n = 0;
+            while (n < len) {
+                if (copyLen > 0) {
+                    int count = Math.min(copyLen, len - n);
+                    for (int i = 0; i < count; i++) {
+                        byte b = window[(winPos - copyDist) & WMASK];
+                        window[winPos] = b;
+                        winPos = (winPos + 1) & WMASK;
+                        out[off + n++] = b;
+                    }
+                    copyLen -= count;
+                    total += count;
+                    continue;
+                }
+                if (state == HEADER) {
+                    if (lastBlock) {
+                        state = DONE;
+                    } else {
+                        readHeader();
+                    }
+                } else if (state == STORED) {
+                    if (storedRemaining == 0) {
+                        state = HEADER;
+                        continue;
+                    }
+                    // aligned, so whole bytes may be in the bit buffer
+                    byte b = (byte) bits(8);
+                    window[winPos] = b;
+                    winPos = (winPos + 1) & WMASK;
+                    out[off + n++] = b;
+                    storedRemaining--;
+                    total++;
+                } else if (state == CODES) {
+                    int sym = decode(lit);
+                    if (sym < 256) {
+                        // literals run, the most common case
+                        int start = n;
+                        int[] table = lit.table;
+                        int mask = (1 << lit.bits) - 1;
+                        do {
+                            window[winPos] = (byte) sym;
+                            winPos = (winPos + 1) & WMASK;
+                            out[off + n++] = (byte) sym;
+                            if (n == len || bitCount < lit.bits) {
+                                sym = -1;
+                                break;
+                            }
+                            int entry = table[(int) (bitBuf & mask)];
+                            if (entry < 0 || (sym = entry >>> 4) >= 256) {
+                                sym = -1;
+                                break;
+                            }
+                            drop(entry & 15);
+                        } while (true);
+                        total += n - start;
+                    } else if (sym == 256) {
+                        state = HEADER;
+                    } else {
+                        sym -= 257;
+                        if (sym >= 29) {
+                            throw new ZipException("Invalid length code"); //$NON-NLS-1$
+                        }
+                        copyLen = LEN_BASE[sym] + bits(LEN_EXTRA[sym]);
+                        int d = decode(dist);
+                        if (d >= 30) {
+                            throw new ZipException("Invalid distance code"); //$NON-NLS-1$
+                        }
+                        copyDist = DIST_BASE[d] + bits(DIST_EXTRA[d]);
+                        if (copyDist > total || copyDist > WSIZE) {
+                            throw new ZipException("Invalid distance too far back"); //$NON-NLS-1$
+                        }
+                    }
+                } else {
+                    return n == 0 ? -1 : n;
+                }
+            }
+            return n;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies with logarithmic buckets, each power of 2
+ * split in 8 linear sub-buckets, so percentiles have at most 12.5% relative
+ * error, similar to HdrHistogram with 1 significant digit. Values are recorded
+ * in nanoseconds.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalTime = new LongAdder();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        totalCount.increment();
+        totalTime.add(nanos);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        totalCount.add(other.totalCount.sum());
+        totalTime.add(other.totalTime.sum());
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalTime.sum();
+    }
+
+    public long getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotalNanos() / count;
+    }
+
+    /**
+     * @param percentile
+     *            value between 0 and 100
+     * @return upper bound of the bucket containing the percentile, in nanoseconds.
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        if (target < 1) {
+            target = 1;
+        }
+        long sum = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            sum += snapshot[i];
+            if (sum >= target) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(NUM_BUCKETS - 1);
+    }
+
+    /**
+     * @return summary with count, mean and main percentiles in microseconds.
+     */
+    public String toString() {
+        return String.format("count=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus", getCount(), //$NON-NLS-1$
+                getMeanNanos() / 1000, getPercentile(50) / 1000, getPercentile(90) / 1000,
+                getPercentile(99) / 1000, getPercentile(100) / 1000);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lower = (1L << exp) | (sub << (exp - SUB_BUCKET_BITS));
+        return lower + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
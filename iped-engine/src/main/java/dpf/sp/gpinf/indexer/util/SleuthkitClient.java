@@ -12,11 +12,18 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.tika.utils.SystemUtils;
 import org.slf4j.Logger;
@@ -37,6 +44,12 @@ public class SleuthkitClient implements Comparable<SleuthkitClient> {
     private static final int MAX_STREAMS = 10000;
     private static final int TIMEOUT_SECONDS = 3600;
 
+    /**
+     * Server is pinged when opening streams only if it did not answer any request
+     * in this interval.
+     */
+    private static final long PING_INTERVAL_MILLIS = 1000;
+
     private static PriorityQueue<SleuthkitClient> clientPriorityQueue = new PriorityQueue<>();
     private static Object lock = new Object();
 
@@ -53,21 +66,46 @@ public class SleuthkitClient implements Comparable<SleuthkitClient> {
         NUM_TSK_SERVERS = config.getNumImageReaders();
     }
 
-    Process process;
+    volatile Process process;
     int id = idStart.getAndIncrement();;
     InputStream is;
     FileChannel fc;
     File pipe;
-    MappedByteBuffer out;
+    volatile MappedByteBuffer out;
     OutputStream os;
     Random rand = new Random();
 
+    /**
+     * Free slots of the mmap file of the current server process.
+     */
+    volatile BlockingQueue<Integer> freeSlots;
+
+    /**
+     * Put in the slot queue of a killed server, failing the requests waiting for
+     * its slots.
+     */
+    static final int NO_SLOT = -1;
+
+    // ids of the requests, echoed by the server in its responses
+    final AtomicLong requestIds = new AtomicLong();
+
+    /**
+     * Incremented when the server process is restarted. Streams opened before
+     * are invalid, the new server does not know them.
+     */
+    volatile int generation = 0;
+
     volatile boolean serverError = false;
 
     private int openedStreams = 0;
     private Set<Long> currentStreams = new HashSet<>();
     private int priority = 0;
-    private volatile long requestTime = 0;
+    private final AtomicLongArray requestTimes = new AtomicLongArray(SleuthkitServer.NUM_SLOTS);
+    volatile long lastResponseTime = 0;
+
+    final LatencyHistogram ipcLatency = new LatencyHistogram();
+    // requests in flight or waiting for a free slot
+    final AtomicInteger queueDepth = new AtomicInteger();
 
     static class TimeoutMonitor extends Thread {
         public void run() {
@@ -84,27 +122,35 @@ public void run() {
     }
 
     private void checkTimeout() {
-        if (requestTime == 0)
-            return;
-        if (SleuthkitServer.getByte(out, 0) != FLAGS.SQLITE_READ) {
-            logger.info("Waiting SleuthkitServer database read..."); //$NON-NLS-1$
-            return;
-        }
-        if (System.currentTimeMillis() / 1000 - requestTime >= TIMEOUT_SECONDS) {
-            logger.error("Timeout waiting SleuthkitServer " + id + " response! Restarting...");
-            if (process != null) {
-                process.destroyForcibly();
+        for (int slot = 0; slot < SleuthkitServer.NUM_SLOTS; slot++) {
+            long requestTime = requestTimes.get(slot);
+            if (requestTime == 0)
+                continue;
+            if (SleuthkitServer.getByte(out, slot * SleuthkitServer.SLOT_SIZE) != FLAGS.SQLITE_READ) {
+                logger.info("Waiting SleuthkitServer database read..."); //$NON-NLS-1$
+                continue;
+            }
+            if (System.currentTimeMillis() / 1000 - requestTime >= TIMEOUT_SECONDS) {
+                logger.error("Timeout waiting SleuthkitServer " + id + " response! Restarting...");
+                if (process != null) {
+                    process.destroyForcibly();
+                }
+                serverError = true;
+                requestTimes.set(slot, 0);
             }
-            serverError = true;
-            requestTime = 0;
         }
     }
 
-    public void enableTimeoutCheck(boolean enable) {
+    public void enableTimeoutCheck(int slot, boolean enable) {
         if (enable)
-            requestTime = System.currentTimeMillis() / 1000;
+            requestTimes.set(slot, System.currentTimeMillis() / 1000);
         else
-            requestTime = 0;
+            requestTimes.set(slot, 0);
+    }
+
+    boolean isServerAlive() {
+        Process p = process;
+        return p != null && isAlive(p);
     }
 
     public static SleuthkitClient get() {
@@ -119,6 +165,11 @@ public static SleuthkitClient get() {
     }
 
     public static void initSleuthkitServers(final String dbPath) throws InterruptedException {
+        if (!DirectMemory.isAvailable()) {
+            // needed to order requests and responses in the mmap file
+            throw new IllegalStateException("robustImageReading needs volatile access to direct memory, " //$NON-NLS-1$
+                    + "not available in this JVM. Disable robustImageReading or use a supported JVM."); //$NON-NLS-1$
+        }
         dbDirPath = dbPath;
         ArrayList<Thread> initThreads = new ArrayList<>();
         for (int i = 0; i < NUM_TSK_SERVERS; i++) {
@@ -144,8 +195,32 @@ public void run() {
     }
 
     public static void shutDownServers() {
-        for (SleuthkitClient sc : clientsList)
+        for (SleuthkitClient sc : clientsList) {
+            logger.info("SleuthkitServer " + sc.id + " IPC latency: " + sc.ipcLatency); //$NON-NLS-1$ //$NON-NLS-2$
             sc.finishProcessAndClearMmap();
+        }
+    }
+
+    /**
+     * @return IPC latency and current queue depth of each server.
+     */
+    public static Map<String, Object> getIPCMetrics() {
+        Map<String, Object> result = new TreeMap<>();
+        List<SleuthkitClient> clients;
+        synchronized (lock) {
+            clients = new ArrayList<>(clientsList);
+        }
+        for (SleuthkitClient sc : clients) {
+            LatencyHistogram h = sc.ipcLatency;
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("queueDepth", sc.queueDepth.get()); //$NON-NLS-1$
+            values.put("requests", h.getCount()); //$NON-NLS-1$
+            values.put("meanUs", h.getMeanNanos() / 1000); //$NON-NLS-1$
+            values.put("p50Us", h.getPercentile(50) / 1000); //$NON-NLS-1$
+            values.put("p99Us", h.getPercentile(99) / 1000); //$NON-NLS-1$
+            result.put("server-" + sc.id, values); //$NON-NLS-1$
+        }
+        return result;
     }
 
     private SleuthkitClient() {
@@ -205,6 +280,12 @@ private void start() {
                 throw new Exception("Error starting SleuthkitServer"); //$NON-NLS-1$
             }
 
+            BlockingQueue<Integer> slots = new ArrayBlockingQueue<>(SleuthkitServer.NUM_SLOTS);
+            for (int slot = 0; slot < SleuthkitServer.NUM_SLOTS; slot++) {
+                slots.add(slot);
+            }
+            freeSlots = slots;
+
         } catch (Exception e) {
             e.printStackTrace();
             if (process != null) {
@@ -250,7 +331,7 @@ private boolean ping() {
 
     public synchronized SeekableInputStream getInputStream(int id, String path) throws IOException {
 
-        if (!serverError && !ping()) {
+        if (!serverError && System.currentTimeMillis() - lastResponseTime > PING_INTERVAL_MILLIS && !ping()) {
             logger.warn("Ping SleuthkitServer " + this.id + " failed! Restarting..."); //$NON-NLS-1$ //$NON-NLS-2$
             serverError = true;
         }
@@ -260,6 +341,8 @@ public synchronized SeekableInputStream getInputStream(int id, String path) thro
                 process.destroyForcibly();
             }
             process = null;
+            generation++;
+            drainSlots();
             if (!serverError)
                 logger.info("Restarting SleuthkitServer to clean possible resource leaks."); //$NON-NLS-1$
             serverError = false;
@@ -282,6 +365,33 @@ public synchronized SeekableInputStream getInputStream(int id, String path) thro
         return stream;
     }
 
+    /**
+     * Waits for the requests in flight to the killed server, which fail as it is
+     * not alive, so none of them is answered by the next server process, which
+     * maps the same file. Then the requests waiting for the old slots fail too.
+     */
+    private void drainSlots() {
+        BlockingQueue<Integer> slots = freeSlots;
+        if (slots == null) {
+            return;
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < SleuthkitServer.NUM_SLOTS;) {
+            try {
+                slots.take();
+                i++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (int i = 0; i < SleuthkitServer.NUM_SLOTS; i++) {
+            slots.add(NO_SLOT);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public synchronized void removeStream(long streamID) {
         boolean removed = currentStreams.remove(streamID);
         if (removed) {
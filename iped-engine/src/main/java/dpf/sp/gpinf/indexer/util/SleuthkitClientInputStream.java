@@ -1,11 +1,11 @@
 package dpf.sp.gpinf.indexer.util;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -20,17 +20,17 @@ public class SleuthkitClientInputStream extends SeekableInputStream {
 
     private static AtomicLong next = new AtomicLong();
 
-    private static int TIMEOUT = 10000;
-
     int sleuthId;
     String path;
     SleuthkitClient client;
     long streamId = next.getAndIncrement();
-    private InputStream in;
-    OutputStream os;
     int bufPos = 0;
     byte[] buf;
+    // server generation of the stream, and mmap file and slots of the current request
+    final int generation;
     MappedByteBuffer mbb;
+    BlockingQueue<Integer> freeSlots;
+    long requestId;
     boolean closed = false, empty = true;
     long position = 0;
     Long size;
@@ -39,9 +39,7 @@ public SleuthkitClientInputStream(int id, String path, SleuthkitClient client) {
         this.sleuthId = id;
         this.path = path;
         this.client = client;
-        this.mbb = client.out;
-        this.in = client.is;
-        this.os = client.os;
+        this.generation = client.generation;
     }
 
     private String getServerId() {
@@ -66,17 +64,23 @@ public int read(byte b[], int off, int len) throws IOException {
     private int readIn(byte b[], int off, int len) throws IOException {
 
         if (empty) {
-            synchronized (client) {
-                byte cmd = sendRead(len);
+            int slot = acquireSlot();
+            try {
+                int base = prepare(slot);
+                mbb.putInt(base + SleuthkitServer.ARG, len);
+                byte cmd = sendCmd(slot, FLAGS.READ);
                 if (cmd == FLAGS.EOF) {
                     return -1;
                 }
-                int size = mbb.getInt(13);
+                int size = mbb.getInt(base + SleuthkitServer.ARG);
                 buf = new byte[size];
-                mbb.position(17);
-                mbb.get(buf, 0, size);
+                ByteBuffer bb = mbb.duplicate();
+                bb.position(base + SleuthkitServer.DATA);
+                bb.get(buf, 0, size);
                 bufPos = 0;
                 empty = false;
+            } finally {
+                releaseSlot(slot);
             }
         }
 
@@ -92,77 +96,110 @@ private int readIn(byte b[], int off, int len) throws IOException {
         return copyLen;
     }
 
-    private byte sendRead(int len) throws IOException {
-        mbb.putInt(1, sleuthId);
-        mbb.putLong(5, streamId);
-        mbb.putInt(13, len);
-        SleuthkitServer.commitByte(mbb, 0, FLAGS.READ);
-        notifyServer();
-        return waitServerResponse();
+    private int acquireSlot() throws IOException {
+        if (generation != client.generation) {
+            throw new IOException(getServerId() + " was restarted after opening " + path); //$NON-NLS-1$
+        }
+        client.queueDepth.incrementAndGet();
+        freeSlots = client.freeSlots;
+        int slot;
+        try {
+            slot = freeSlots.take();
+        } catch (InterruptedException e) {
+            client.queueDepth.decrementAndGet();
+            throw new InterruptedIOException(e.toString());
+        }
+        // checked again, the server may be restarted while waiting
+        if (slot == SleuthkitClient.NO_SLOT || generation != client.generation) {
+            // NO_SLOT is left for the other streams waiting
+            releaseSlot(slot);
+            throw new IOException(getServerId() + " was restarted after opening " + path); //$NON-NLS-1$
+        }
+        mbb = client.out;
+        return slot;
     }
 
-    private byte waitServerResponse() throws IOException {
+    private void releaseSlot(int slot) {
+        freeSlots.add(slot);
+        client.queueDepth.decrementAndGet();
+    }
 
-        client.enableTimeoutCheck(true);
-        try {
-            int b = in.read();
-            if (b == -1)
-                throw new IOException(getServerId() + " pipe closed!"); //$NON-NLS-1$
+    /**
+     * @return offset of the slot, with this stream ids and a new request id
+     *         written.
+     */
+    private int prepare(int slot) {
+        int base = slot * SleuthkitServer.SLOT_SIZE;
+        requestId = client.requestIds.incrementAndGet();
+        mbb.putLong(base + SleuthkitServer.REQUEST_ID, requestId);
+        mbb.putInt(base + SleuthkitServer.SLEUTH_ID, sleuthId);
+        mbb.putLong(base + SleuthkitServer.STREAM_ID, streamId);
+        return base;
+    }
 
-        } catch (IOException e) {
-            client.serverError = true;
-            LOGGER.error(getCrashMsg());
-            throw e;
+    /**
+     * @return the response state, if it answers this stream request.
+     */
+    private byte getResponse(int base) {
+        byte cmd = SleuthkitServer.getByte(mbb, base);
+        if (FLAGS.isResponse(cmd) && mbb.getLong(base + SleuthkitServer.RESPONSE_ID) == requestId) {
+            return cmd;
+        }
+        return 0;
+    }
 
+    private byte sendCmd(int slot, byte cmd) throws IOException {
+        long start = System.nanoTime();
+        SleuthkitServer.commitByte(mbb, slot * SleuthkitServer.SLOT_SIZE, cmd);
+        try {
+            return waitServerResponse(slot);
         } finally {
-            client.enableTimeoutCheck(false);
+            client.ipcLatency.record(System.nanoTime() - start);
         }
+    }
 
-        byte cmd;
-        long time = 0;
-        while (FLAGS.isClientCmd(cmd = SleuthkitServer.getByte(mbb, 0))) {
-            try {
-                if (time == 0) {
-                    time = System.currentTimeMillis();
-                }
-                Thread.sleep(1);
-                LOGGER.warn("Waiting " + getServerId() + " memory write..."); //$NON-NLS-1$
+    private byte waitServerResponse(int slot) throws IOException {
 
-                if (System.currentTimeMillis() - time >= TIMEOUT) {
+        int base = slot * SleuthkitServer.SLOT_SIZE;
+        boolean interrupted = false;
+        byte cmd;
+        client.enableTimeoutCheck(slot, true);
+        try {
+            int tries = 0;
+            while ((cmd = getResponse(base)) == 0) {
+                if (++tries % 64 == 0 && (client.serverError || !client.isServerAlive())) {
                     client.serverError = true;
-                    LOGGER.error("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
-                    throw new IOException("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
+                    LOGGER.error(getCrashMsg());
+                    throw new IOException(getCrashMsg());
                 }
-
-            } catch (InterruptedException e) {
-                throw new InterruptedIOException(e.toString());
+                SleuthkitServer.idle(tries);
+                // the slot can not be reused before the server answers
+                interrupted |= Thread.interrupted();
+            }
+        } finally {
+            client.enableTimeoutCheck(slot, false);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
+        client.lastResponseTime = System.currentTimeMillis();
 
+        if (cmd == FLAGS.ERROR) {
+            client.serverError = true;
+            throw new IOException(getServerId() + " error reading " + path); //$NON-NLS-1$
+        }
         if (cmd == FLAGS.EXCEPTION) {
-            int len = mbb.getInt(13);
+            int len = mbb.getInt(base + SleuthkitServer.ARG);
             byte[] b = new byte[len];
-            mbb.position(17);
-            mbb.get(b);
-            try {
-                throw new IOException(getServerId() + " error: " + new String(b, "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
-            } catch (UnsupportedEncodingException e) {
-            }
+            ByteBuffer bb = mbb.duplicate();
+            bb.position(base + SleuthkitServer.DATA);
+            bb.get(b);
+            throw new IOException(getServerId() + " error: " + new String(b, StandardCharsets.UTF_8)); //$NON-NLS-1$
         }
 
         return cmd;
     }
 
-    private void notifyServer() throws IOException {
-        try {
-            SleuthkitServer.notify(os);
-        } catch (IOException e) {
-            client.serverError = true;
-            LOGGER.error(getCrashMsg());
-            throw e;
-        }
-    }
-
     private String getCrashMsg() {
         return "Possible " + getServerId() + " crash reading " + path; //$NON-NLS-1$
     }
@@ -181,17 +218,18 @@ public void seek(long pos) throws IOException {
         if (!empty && bufPos + dif >= 0 && bufPos + dif < buf.length) {
             bufPos += dif;
 
-        } else
-            synchronized (client) {
-                mbb.putInt(1, sleuthId);
-                mbb.putLong(5, streamId);
-                mbb.putLong(13, pos);
-                SleuthkitServer.commitByte(mbb, 0, FLAGS.SEEK);
-                notifyServer();
-                waitServerResponse();
+        } else {
+            int slot = acquireSlot();
+            try {
+                int base = prepare(slot);
+                mbb.putLong(base + SleuthkitServer.ARG, pos);
+                sendCmd(slot, FLAGS.SEEK);
                 empty = true;
                 bufPos = 0;
+            } finally {
+                releaseSlot(slot);
             }
+        }
 
         position = pos;
 
@@ -215,14 +253,14 @@ public long size() throws IOException {
             throw new IOException(getServerId() + " returned an error before."); //$NON-NLS-1$
         }
 
-        synchronized (client) {
-            mbb.putInt(1, sleuthId);
-            mbb.putLong(5, streamId);
-            SleuthkitServer.commitByte(mbb, 0, FLAGS.SIZE);
-            notifyServer();
-            waitServerResponse();
-            size = mbb.getLong(13);
+        int slot = acquireSlot();
+        try {
+            int base = prepare(slot);
+            sendCmd(slot, FLAGS.SIZE);
+            size = mbb.getLong(base + SleuthkitServer.ARG);
             return size;
+        } finally {
+            releaseSlot(slot);
         }
 
     }
@@ -252,13 +290,14 @@ public int read() throws IOException {
     @Override
     public void close() throws IOException {
 
-        synchronized (client) {
-            if (!closed && !client.serverError) {
-                mbb.putInt(1, sleuthId);
-                mbb.putLong(5, streamId);
-                SleuthkitServer.commitByte(mbb, 0, FLAGS.CLOSE);
-                notifyServer();
-                waitServerResponse();
+        // a restarted server does not know the stream anymore
+        if (!closed && !client.serverError && generation == client.generation) {
+            int slot = acquireSlot();
+            try {
+                prepare(slot);
+                sendCmd(slot, FLAGS.CLOSE);
+            } finally {
+                releaseSlot(slot);
             }
         }
         client.removeStream(streamId);
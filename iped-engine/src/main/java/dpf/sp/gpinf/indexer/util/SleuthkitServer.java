@@ -6,11 +6,18 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
 
 import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.SleuthkitCase;
@@ -19,10 +26,50 @@
 import dpf.sp.gpinf.indexer.config.ConfigurationManager;
 import dpf.sp.gpinf.indexer.config.LocalConfig;
 
+/**
+ * Child process reading images with TSK. The mmap file is split in
+ * {@link #NUM_SLOTS} slots, each one holding an independent request, so several
+ * client threads can have requests in flight. Slot layout (relative to slot
+ * start): 0 state byte, then the offsets below. Client and server poll the state
+ * byte, spinning and then parking, without pipe round-trips. stdin/stdout are
+ * only used for startup, pings and to detect the death of the parent process.
+ *
+ * The server answers with the id of the request, so a client thread never takes
+ * as its answer a state left by another request or written by a new server
+ * process, which clears the slots at startup.
+ *
+ * The state byte is written and read with volatile semantics through
+ * {@link DirectMemory}, which orders the payload of a slot before its state. So
+ * it is required, the client and the server fail at startup without it.
+ */
 public class SleuthkitServer {
 
-    public static final int MMAP_FILE_SIZE = 10 * 1024 * 1024;
-    private static final int MAX_BUF_SIZE = 8 * 1024 * 1024; // must be less than MMAP_FILE_SIZE
+    public static final int NUM_SLOTS = 8;
+    static final int SLOT_SIZE = 2 * 1024 * 1024;
+    public static final int MMAP_FILE_SIZE = NUM_SLOTS * SLOT_SIZE;
+
+    // long, unique id of the request, written by the client
+    static final int REQUEST_ID = 1;
+    // long, request id echoed by the server before the response state
+    static final int RESPONSE_ID = 9;
+    // int
+    static final int SLEUTH_ID = 17;
+    // long
+    static final int STREAM_ID = 21;
+    // int/long argument or data length
+    static final int ARG = 29;
+    static final int DATA = 37;
+
+    private static final int MAX_BUF_SIZE = SLOT_SIZE - DATA;
+
+    /**
+     * Read ahead size of sequential streams, done in background after a read is
+     * answered.
+     */
+    private static final int READ_AHEAD_SIZE = 512 * 1024;
+
+    private static final int SPIN_TRIES = 1000;
+    private static final long MAX_PARK_NANOS = 1000000;
 
     static class FLAGS {
 
@@ -44,9 +91,108 @@ final static boolean isClientCmd(int cmd) {
             return cmd != FLAGS.DONE && cmd != FLAGS.ERROR && cmd != FLAGS.EOF && cmd != FLAGS.EXCEPTION
                     && cmd != FLAGS.SQLITE_READ;
         }
+
+        final static boolean isResponse(int cmd) {
+            return cmd == FLAGS.DONE || cmd == FLAGS.ERROR || cmd == FLAGS.EOF || cmd == FLAGS.EXCEPTION;
+        }
+    }
+
+    /**
+     * Stream opened in the server, with its read ahead buffer.
+     */
+    private static class ServerStream {
+
+        final SleuthkitInputStream sis;
+        long position = 0;
+        int sequentialReads = 0;
+        byte[] ahead;
+        int aheadOff = 0, aheadLen = 0;
+        boolean closed = false, readingAhead = false;
+
+        ServerStream(SleuthkitInputStream sis) {
+            this.sis = sis;
+        }
+
+        synchronized int read(byte[] buf, int len) throws IOException {
+            int read;
+            if (aheadOff < aheadLen) {
+                read = Math.min(len, aheadLen - aheadOff);
+                System.arraycopy(ahead, aheadOff, buf, 0, read);
+                aheadOff += read;
+            } else {
+                read = sis.read(buf, 0, len);
+            }
+            if (read > 0) {
+                position += read;
+                sequentialReads++;
+            }
+            return read;
+        }
+
+        synchronized void seek(long pos) throws IOException {
+            aheadOff = aheadLen = 0;
+            sequentialReads = 0;
+            sis.seek(pos);
+            position = pos;
+        }
+
+        synchronized long position() {
+            return position;
+        }
+
+        synchronized long size() {
+            return sis.size();
+        }
+
+        synchronized void close() throws IOException {
+            closed = true;
+            ahead = null;
+            sis.close();
+        }
+
+        /**
+         * @return true if the stream is being read sequentially and the read ahead
+         *         buffer was consumed, marking that a read ahead was scheduled.
+         */
+        synchronized boolean scheduleReadAhead() {
+            if (closed || readingAhead || sequentialReads < 2 || aheadOff < aheadLen) {
+                return false;
+            }
+            readingAhead = true;
+            return true;
+        }
+
+        synchronized void readAhead() {
+            readingAhead = false;
+            if (closed || aheadOff < aheadLen) {
+                return;
+            }
+            try {
+                if (ahead == null) {
+                    ahead = new byte[READ_AHEAD_SIZE];
+                }
+                aheadOff = 0;
+                aheadLen = Math.max(0, sis.read(ahead, 0, ahead.length));
+            } catch (IOException e) {
+                // error will be thrown to the client by the next direct read
+                aheadOff = aheadLen = 0;
+            }
+        }
     }
 
-    static boolean useUnsafe = true;
+    private final MappedByteBuffer out;
+    private final SleuthkitCase sleuthCase;
+    private final Map<Long, ServerStream> streams = new ConcurrentHashMap<>();
+    private final Set<Long> warmedDataSources = ConcurrentHashMap.newKeySet();
+    private final boolean[] busy = new boolean[NUM_SLOTS];
+    private final byte[][] buffers = new byte[NUM_SLOTS][];
+    private final ExecutorService slotExecutor = Executors.newFixedThreadPool(NUM_SLOTS, daemonThreads());
+    private final ExecutorService readAheadExecutor = Executors.newFixedThreadPool(2, daemonThreads());
+
+    private SleuthkitServer(MappedByteBuffer out, SleuthkitCase sleuthCase) {
+        this.out = out;
+        this.sleuthCase = sleuthCase;
+    }
 
     public static void main(String args[]) {
 
@@ -61,6 +207,9 @@ public static void main(String args[]) {
         System.setOut(System.err);
 
         try {
+            if (!DirectMemory.isAvailable()) {
+                throw new IllegalStateException("Volatile access to direct memory is not available"); //$NON-NLS-1$
+            }
             int size = MMAP_FILE_SIZE;
             RandomAccessFile raf = new RandomAccessFile(pipePath, "rw"); //$NON-NLS-1$
             raf.setLength(size);
@@ -76,71 +225,33 @@ public static void main(String args[]) {
             Configuration.getInstance().loadLibsAndToolPaths();
 
             SleuthkitCase sleuthCase = SleuthkitCase.openCase(dbPath);
-            HashMap<Long, SleuthkitInputStream> sisMap = new HashMap<>();
 
             java.util.logging.Logger.getLogger("org.sleuthkit").setLevel(java.util.logging.Level.SEVERE); //$NON-NLS-1$
 
-            commitByte(out, 0, FLAGS.DONE);
+            // clear commands and responses possibly left by a previous process
+            for (int slot = NUM_SLOTS - 1; slot >= 0; slot--) {
+                out.putLong(slot * SLOT_SIZE + RESPONSE_ID, 0);
+                commitByte(out, slot * SLOT_SIZE, FLAGS.DONE);
+            }
             notify(os);
 
-            byte[] buf = new byte[MAX_BUF_SIZE];
-            int minToRead = 64 * 1024;
-            SleuthkitInputStream sis = null;
-
-            while (true) {
-                try {
-                    int read = in.read();
-                    if (read == -1)
-                        break;
-                    if (read > 0) {
-                        // ping response
-                        os.write(read);
-                        os.flush();
-                        continue;
-                    }
-                    byte cmd = waitCmd(out, in);
-                    sis = getSis(out, sleuthCase, sisMap);
-                    commitByte(out, 0, FLAGS.SQLITE_READ);
-
-                    if (cmd == FLAGS.SEEK) {
-                        sis.seek(out.getLong(13));
-                    } else if (cmd == FLAGS.CLOSE) {
-                        sis = sisMap.remove(out.getLong(5));
-                        sis.close();
-                    } else if (cmd == FLAGS.READ) {
-                        int len = out.getInt(13);
-                        len = Math.max(minToRead, Math.min(len, buf.length));
-                        len = readIn(sis, buf, len);
-                        if (len == -1) {
-                            commitByte(out, 0, FLAGS.EOF);
-                            notify(os);
-                            continue;
-                        } else {
-                            writeOut(out, buf, len);
-                        }
-                    } else if (cmd == FLAGS.SIZE) {
-                        out.putLong(13, sis.size());
-                    } else if (cmd == FLAGS.POSITION) {
-                        out.putLong(13, sis.position());
-                    }
-
-                    commitByte(out, 0, FLAGS.DONE);
-                    notify(os);
-
-                } catch (Throwable e) {
-                    // e.printStackTrace(System.err);
-                    byte[] msgBytes = e.getMessage().getBytes("UTF-8"); //$NON-NLS-1$
-                    out.putInt(13, msgBytes.length);
-                    out.position(17);
-                    out.put(msgBytes);
-                    commitByte(out, 0, FLAGS.EXCEPTION);
-                    notify(os);
+            SleuthkitServer server = new SleuthkitServer(out, sleuthCase);
+            Thread dispatcher = new Thread(server::dispatch, "SleuthkitServer-dispatcher"); //$NON-NLS-1$
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+
+            int read;
+            while ((read = in.read()) != -1) {
+                if (read > 0) {
+                    // ping response
+                    os.write(read);
+                    os.flush();
                 }
             }
 
         } catch (Throwable e) {
             e.printStackTrace();
-            commitByte(out, 0, FLAGS.ERROR);
+            signalError(out);
             try {
                 if (os != null)
                     notify(os);
@@ -150,55 +261,161 @@ public static void main(String args[]) {
         }
     }
 
-    private static HashSet<Long> warmedDataSources = new HashSet<>();
+    /**
+     * Answers with ERROR every slot with a request in flight, so no client thread
+     * waits until its timeout, and slot 0, which the client polls at startup.
+     */
+    private static void signalError(MappedByteBuffer out) {
+        if (out == null) {
+            return;
+        }
+        if (!DirectMemory.isAvailable()) {
+            // only at startup, the client reads it after the notification by the pipe
+            out.put(0, FLAGS.ERROR);
+            return;
+        }
+        for (int slot = NUM_SLOTS - 1; slot >= 0; slot--) {
+            int base = slot * SLOT_SIZE;
+            if (slot == 0 || !FLAGS.isResponse(getByte(out, base))) {
+                out.putLong(base + RESPONSE_ID, out.getLong(base + REQUEST_ID));
+                commitByte(out, base, FLAGS.ERROR);
+            }
+        }
+    }
 
-    private static SleuthkitInputStream getSis(MappedByteBuffer out, SleuthkitCase sleuthCase,
-            HashMap<Long, SleuthkitInputStream> sisMap) throws Exception {
-        long streamId = out.getLong(5);
-        SleuthkitInputStream sis = sisMap.get(streamId);
-        if (sis == null) {
-            int id = out.getInt(1);
+    private static ThreadFactory daemonThreads() {
+        return r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Polls the slots for client commands and hands them to the slot threads.
+     */
+    private void dispatch() {
+        int idle = 0;
+        while (true) {
+            boolean found = false;
+            for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                if (!isBusy(slot) && FLAGS.isClientCmd(getByte(out, slot * SLOT_SIZE))) {
+                    setBusy(slot, true);
+                    found = true;
+                    final int s = slot;
+                    slotExecutor.execute(() -> process(s));
+                }
+            }
+            idle = found ? 0 : idle + 1;
+            idle(idle);
+        }
+    }
+
+    private synchronized boolean isBusy(int slot) {
+        return busy[slot];
+    }
+
+    private synchronized void setBusy(int slot, boolean value) {
+        busy[slot] = value;
+    }
+
+    private void process(int slot) {
+        int base = slot * SLOT_SIZE;
+        ByteBuffer bb = out.duplicate();
+        ServerStream stream = null;
+        byte response = FLAGS.DONE;
+        long requestId = 0;
+        try {
+            byte cmd = getByte(out, base);
+            requestId = out.getLong(base + REQUEST_ID);
+            stream = getStream(base);
+            commitByte(out, base, FLAGS.SQLITE_READ);
+
+            if (cmd == FLAGS.SEEK) {
+                stream.seek(out.getLong(base + ARG));
+            } else if (cmd == FLAGS.CLOSE) {
+                streams.remove(out.getLong(base + STREAM_ID));
+                stream.close();
+            } else if (cmd == FLAGS.READ) {
+                int len = out.getInt(base + ARG);
+                len = Math.max(64 * 1024, Math.min(len, MAX_BUF_SIZE));
+                if (buffers[slot] == null || buffers[slot].length < len) {
+                    buffers[slot] = new byte[len];
+                }
+                byte[] buf = buffers[slot];
+                len = stream.read(buf, len);
+                if (len == -1) {
+                    response = FLAGS.EOF;
+                } else {
+                    bb.position(base + DATA);
+                    bb.put(buf, 0, len);
+                    out.putInt(base + ARG, len);
+                }
+            } else if (cmd == FLAGS.SIZE) {
+                out.putLong(base + ARG, stream.size());
+            } else if (cmd == FLAGS.POSITION) {
+                out.putLong(base + ARG, stream.position());
+            }
+
+        } catch (Throwable e) {
+            // e.printStackTrace(System.err);
+            byte[] msgBytes = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+            int len = Math.min(msgBytes.length, MAX_BUF_SIZE);
+            out.putInt(base + ARG, len);
+            bb.position(base + DATA);
+            bb.put(msgBytes, 0, len);
+            response = FLAGS.EXCEPTION;
+        }
+        out.putLong(base + RESPONSE_ID, requestId);
+        commitByte(out, base, response);
+        setBusy(slot, false);
+
+        final ServerStream s = stream;
+        if (response == FLAGS.DONE && s != null && s.scheduleReadAhead()) {
+            readAheadExecutor.execute(s::readAhead);
+        }
+    }
+
+    private ServerStream getStream(int base) throws Exception {
+        long streamId = out.getLong(base + STREAM_ID);
+        ServerStream stream = streams.get(streamId);
+        if (stream == null) {
+            int id = out.getInt(base + SLEUTH_ID);
             Content content = sleuthCase.getAbstractFileById(id);
             if (content == null) {
                 content = sleuthCase.getContentById(id);
             }
-            sis = new SleuthkitInputStream(content);
-            sisMap.put(streamId, sis);
+            SleuthkitInputStream sis = new SleuthkitInputStream(content);
+            stream = new ServerStream(sis);
+            streams.put(streamId, stream);
 
             // first read can take a long time, so do it here to prevent timeouts on client
             // side
             Long sourceId = content.getDataSource().getId();
-            if (!warmedDataSources.contains(sourceId)) {
+            if (warmedDataSources.add(sourceId)) {
                 sis.read();
                 sis.seek(0);
-                warmedDataSources.add(sourceId);
             }
         }
-        return sis;
-    }
-
-    private static byte waitCmd(MappedByteBuffer out, InputStream in) throws Exception {
-        byte cmd;
-        long t = 0;
-        while (!FLAGS.isClientCmd(cmd = getByte(out, 0))) {
-            if (t == 0)
-                t = System.currentTimeMillis();
-            long time = (System.currentTimeMillis() - t) / 1000;
-            if (time >= 10)
-                throw new IOException("MemoryReadTimeout waiting SleuthkitClient!"); //$NON-NLS-1$
-            Thread.sleep(1);
-        }
-        return cmd;
-    }
-
-    private static int readIn(SleuthkitInputStream sis, byte[] buf, int len) throws IOException {
-        return sis.read(buf, 0, len);
+        return stream;
     }
 
-    private static void writeOut(MappedByteBuffer out, byte[] buf, int len) throws Exception {
-        out.position(17);
-        out.put(buf, 0, len);
-        out.putInt(13, len);
+    /**
+     * Waits for the other process: spins for a while, then parks for increasing
+     * periods, up to 1ms.
+     *
+     * @param tries
+     *            number of previous tries without progress.
+     */
+    static void idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            if (tries % 100 == 99) {
+                Thread.yield();
+            }
+            return;
+        }
+        int shift = Math.min(7, (tries - SPIN_TRIES) / 100);
+        LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 10000L << shift));
     }
 
     static void notify(OutputStream os) throws IOException {
@@ -206,31 +423,15 @@ static void notify(OutputStream os) throws IOException {
         os.flush();
     }
 
+    /**
+     * Publishes the state byte of a slot, after the payload written before.
+     */
     static final void commitByte(MappedByteBuffer mbb, int pos, byte val) {
-        if (useUnsafe) {
-            try {
-                DirectMemory.putByteVolatile(mbb, pos, val);
-                return;
-
-            } catch (Throwable e) {
-                useUnsafe = false;
-            }
-        }
-
-        mbb.put(pos, val);
-
+        DirectMemory.putByteVolatile(mbb, pos, val);
     }
 
-    static final Byte getByte(MappedByteBuffer mbb, int pos) {
-        if (useUnsafe) {
-            try {
-                return DirectMemory.getByteVolatile(mbb, pos);
-            } catch (Throwable e) {
-                useUnsafe = false;
-            }
-        }
-
-        return mbb.get(pos);
+    static final byte getByte(MappedByteBuffer mbb, int pos) {
+        return DirectMemory.getByteVolatile(mbb, pos);
     }
 
 }
@@ -0,0 +1,99 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe LRU cache split in stripes, each one an access ordered
+ * LinkedHashMap with its own lock, so threads looking up different keys rarely
+ * wait for each other. Eviction is LRU inside each stripe. Hits and misses are
+ * counted to help sizing it.
+ */
+public class StripedLRUCache<K, V> {
+
+    private final Map<K, V>[] stripes;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize
+     *            maximum number of entries, rounded up to a multiple of the
+     *            number of stripes.
+     * @param numStripes
+     *            rounded up to a power of 2.
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLRUCache(int maxSize, int numStripes) {
+        int n = 1;
+        while (n < numStripes) {
+            n <<= 1;
+        }
+        final int stripeSize = Math.max(1, (maxSize + n - 1) / n);
+        stripes = new Map[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return this.size() > stripeSize;
+                }
+            };
+        }
+        mask = n - 1;
+    }
+
+    private Map<K, V> getStripe(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+
+    public V get(K key) {
+        Map<K, V> stripe = getStripe(key);
+        V value;
+        synchronized (stripe) {
+            value = stripe.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        Map<K, V> stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+}
@@ -1,33 +1,83 @@
 package dpf.sp.gpinf.indexer.util;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import iped3.IItem;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
 
+/**
+ * Cache of the parsed text of an item, so it can be read again by many tasks
+ * without parsing the item again. Text is kept in fixed size char chunks taken
+ * from a shared pool. If it gets larger than MAX_MEMORY_CHARS, it is spilled to
+ * a temp file, as UTF-16 chars that are memory mapped by readers, or as LZ4
+ * compressed blocks. Readers are independent and read directly from chunks or
+ * from the mapped file, without copying the whole text to a String.
+ */
 public class TextCache implements Closeable {
 
     private static Logger logger = LoggerFactory.getLogger(TextCache.class);
 
     private static int MAX_MEMORY_CHARS = 10000000;
 
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static final int MAX_POOLED_CHUNKS = 256;
+
+    private static final int MAX_MAPPED_SEGMENT = 1 << 30;
+
+    private static final ConcurrentLinkedQueue<char[]> chunkPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledChunks = new AtomicInteger();
+
+    private static final ConcurrentLinkedQueue<File> filesToDelete = new ConcurrentLinkedQueue<>();
+
+    private static final LongAdder chunksAllocated = new LongAdder();
+    private static final LongAdder chunksReused = new LongAdder();
+    private static final LongAdder memoryReaders = new LongAdder();
+    private static final LongAdder diskReaders = new LongAdder();
+    private static final LongAdder spilledFiles = new LongAdder();
+    private static final LongAdder spilledChars = new LongAdder();
+    private static final LongAdder spilledBytes = new LongAdder();
+
     private IItem sourceItem;
-    private StringBuilder sb = new StringBuilder();
+    private ArrayList<char[]> chunks = new ArrayList<>();
+    // chunks spilled while readers were open, released after they are closed
+    private List<char[]> spilledChunks;
+    private int memoryChars = 0;
     private File tmp;
-    private Writer writer;
+    private FileChannel channel;
+    private long fileSize = 0;
+    private DiskEncoder encoder;
+    private CharBuffer[] mappedSegments;
     private long size = 0;
     private boolean diskCacheEnabled = true;
+    private boolean compressDiskCache = false;
+    private int openReaders = 0;
+    private boolean closed = false;
 
     public void setSourceItem(IItem sourceItem) {
         this.sourceItem = sourceItem;
@@ -37,56 +87,118 @@ public void setEnableDiskCache(boolean diskCacheEnabled) {
         this.diskCacheEnabled = diskCacheEnabled;
     }
 
+    public void setCompressDiskCache(boolean compressDiskCache) {
+        this.compressDiskCache = compressDiskCache;
+    }
+
     public void write(String string) throws IOException {
         this.write(string.toCharArray(), 0, string.length());
     }
 
     public void write(char[] buf, int off, int len) throws IOException {
-        if (tmp == null && sb != null && sb.length() + len > MAX_MEMORY_CHARS && diskCacheEnabled) {
-            tmp = File.createTempFile("text", null);
-            writer = Files.newBufferedWriter(tmp.toPath(), StandardOpenOption.APPEND);
-            writer.write(sb.toString());
-            sb = null;
+        if (tmp == null && chunks != null && memoryChars + len > MAX_MEMORY_CHARS && diskCacheEnabled) {
+            spill();
         }
 
-        if (sb != null && sb.length() < MAX_MEMORY_CHARS) {
-            if (sb.length() + len > MAX_MEMORY_CHARS)
-                len = MAX_MEMORY_CHARS - sb.length();
-            sb.append(buf, off, len);
+        if (chunks != null && memoryChars < MAX_MEMORY_CHARS) {
+            if (memoryChars + len > MAX_MEMORY_CHARS)
+                len = MAX_MEMORY_CHARS - memoryChars;
+            appendToChunks(buf, off, len);
         }
 
-        if (writer != null)
+        if (tmp != null)
             try {
-                writer.write(buf, off, len);
+                writeToDisk(buf, off, len);
             } catch (IOException e) {
                 // maybe no space left
                 e.printStackTrace();
-                IOUtil.closeQuietly(writer);
-                writer = null;
-                tmp.delete();
-                tmp = null;
+                deleteTmp();
             }
 
         size += len;
     }
 
+    private void appendToChunks(char[] buf, int off, int len) {
+        while (len > 0) {
+            int pos = memoryChars % CHUNK_SIZE;
+            if (pos == 0 && memoryChars / CHUNK_SIZE == chunks.size()) {
+                chunks.add(getChunk());
+            }
+            int n = Math.min(len, CHUNK_SIZE - pos);
+            System.arraycopy(buf, off, chunks.get(memoryChars / CHUNK_SIZE), pos, n);
+            memoryChars += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void spill() throws IOException {
+        tmp = File.createTempFile("text", null); //$NON-NLS-1$
+        spilledFiles.increment();
+        int remaining = memoryChars;
+        for (char[] chunk : chunks) {
+            int n = Math.min(remaining, CHUNK_SIZE);
+            writeToDisk(chunk, 0, n);
+            remaining -= n;
+        }
+        synchronized (this) {
+            // a reader opened before may still be reading them
+            if (openReaders > 0)
+                spilledChunks = chunks;
+            else
+                releaseChunks(chunks);
+        }
+        chunks = null;
+        memoryChars = 0;
+    }
+
+    private void writeToDisk(char[] buf, int off, int len) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            encoder = compressDiskCache ? new LZ4Encoder() : new UTF16Encoder();
+            mappedSegments = null;
+        }
+        encoder.write(buf, off, len);
+        spilledChars.add(len);
+    }
+
+    private void finishWriting() throws IOException {
+        if (channel != null) {
+            try {
+                encoder.flush();
+            } finally {
+                channel.close();
+                channel = null;
+                encoder = null;
+            }
+        }
+    }
+
     public long getSize() {
         return size;
     }
 
     public Reader getTextReader() throws IOException {
-        if (writer != null) {
-            writer.close();
-            writer = null;
+        try {
+            finishWriting();
+        } catch (IOException e) {
+            logger.warn("Error finishing text cache file " + tmp, e); //$NON-NLS-1$
+            deleteTmp();
         }
 
         Reader reader = null;
-        if (sb != null)
-            reader = new StringReader(sb.toString());
+        if (chunks != null) {
+            reader = new ChunkReader();
+            memoryReaders.increment();
+        }
 
         if (tmp != null) {
             try {
-                reader = Files.newBufferedReader(tmp.toPath());
+                if (compressDiskCache)
+                    reader = new LZ4Reader();
+                else
+                    reader = new MappedReader(getMappedSegments());
+                diskReaders.increment();
 
             } catch (FileSystemException | FileNotFoundException e) {
                 logger.error("Error reading extracted text file{}, maybe your antivirus blocked or deleted it? {}",
@@ -102,12 +214,348 @@ public Reader getTextReader() throws IOException {
         return null;
     }
 
+    private synchronized CharBuffer[] getMappedSegments() throws IOException {
+        if (mappedSegments == null) {
+            List<CharBuffer> segments = new ArrayList<>();
+            try (FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.READ)) {
+                // mappings remain valid after the channel is closed
+                for (long pos = 0; pos < fileSize; pos += MAX_MAPPED_SEGMENT) {
+                    long len = Math.min(MAX_MAPPED_SEGMENT, fileSize - pos);
+                    segments.add(fc.map(MapMode.READ_ONLY, pos, len).asCharBuffer());
+                }
+            }
+            mappedSegments = segments.toArray(new CharBuffer[0]);
+        }
+        return mappedSegments;
+    }
+
     @Override
     public void close() throws IOException {
-        if (writer != null)
-            writer.close();
-        if (tmp != null)
-            tmp.delete();
+        try {
+            if (channel != null)
+                channel.close();
+        } finally {
+            channel = null;
+            encoder = null;
+            deleteTmp();
+            synchronized (this) {
+                closed = true;
+                if (openReaders == 0)
+                    releaseMemory();
+            }
+        }
+    }
+
+    private synchronized void readerOpened() {
+        openReaders++;
+    }
+
+    private synchronized void readerClosed() {
+        if (--openReaders == 0) {
+            if (spilledChunks != null) {
+                releaseChunks(spilledChunks);
+                spilledChunks = null;
+            }
+            if (closed)
+                releaseMemory();
+        }
+    }
+
+    private void releaseMemory() {
+        if (chunks != null) {
+            releaseChunks(chunks);
+            chunks = null;
+        }
+    }
+
+    private void deleteTmp() {
+        mappedSegments = null;
+        if (tmp != null && !tmp.delete() && tmp.exists()) {
+            // mapped files can not be deleted on Windows until they are unmapped by gc
+            filesToDelete.add(tmp);
+            tmp.deleteOnExit();
+        }
+        tmp = null;
+        for (int i = filesToDelete.size(); i > 0; i--) {
+            File file = filesToDelete.poll();
+            if (file != null && !file.delete() && file.exists())
+                filesToDelete.add(file);
+        }
+    }
+
+    private static char[] getChunk() {
+        char[] chunk = chunkPool.poll();
+        if (chunk != null) {
+            pooledChunks.decrementAndGet();
+            chunksReused.increment();
+            return chunk;
+        }
+        chunksAllocated.increment();
+        return new char[CHUNK_SIZE];
+    }
+
+    private static void releaseChunks(List<char[]> chunks) {
+        for (char[] chunk : chunks) {
+            if (pooledChunks.incrementAndGet() <= MAX_POOLED_CHUNKS)
+                chunkPool.add(chunk);
+            else
+                pooledChunks.decrementAndGet();
+        }
+    }
+
+    public static long getSpilledFiles() {
+        return spilledFiles.sum();
+    }
+
+    public static long getSpilledChars() {
+        return spilledChars.sum();
+    }
+
+    public static long getSpilledBytes() {
+        return spilledBytes.sum();
+    }
+
+    public static long getMemoryReaders() {
+        return memoryReaders.sum();
+    }
+
+    public static long getDiskReaders() {
+        return diskReaders.sum();
+    }
+
+    /**
+     * @return fraction of chunks taken from the pool instead of allocated.
+     */
+    public static double getChunkReuseRate() {
+        long reused = chunksReused.sum();
+        long total = reused + chunksAllocated.sum();
+        return total == 0 ? 0 : (double) reused / total;
+    }
+
+    private abstract class DiskEncoder {
+
+        abstract void write(char[] buf, int off, int len) throws IOException;
+
+        abstract void flush() throws IOException;
+
+        void writeBytes(ByteBuffer bytes) throws IOException {
+            int len = bytes.remaining();
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            fileSize += len;
+            spilledBytes.add(len);
+        }
+    }
+
+    /**
+     * Stores chars as UTF-16BE, the byte order of mapped CharBuffers.
+     */
+    private class UTF16Encoder extends DiskEncoder {
+
+        private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE * 2);
+
+        @Override
+        void write(char[] buf, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE);
+                bytes.clear();
+                bytes.asCharBuffer().put(buf, off, n);
+                bytes.limit(n * 2);
+                writeBytes(bytes);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        void flush() {
+        }
+    }
+
+    /**
+     * Stores blocks of up to CHUNK_SIZE chars as (chars, compressed length, LZ4
+     * compressed UTF-16BE bytes).
+     */
+    private class LZ4Encoder extends DiskEncoder {
+
+        private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        private final ByteBuffer block = ByteBuffer.allocate(CHUNK_SIZE * 2);
+        private final CharBuffer blockChars = block.asCharBuffer();
+        private final byte[] compressed = new byte[8 + compressor.maxCompressedLength(CHUNK_SIZE * 2)];
+
+        @Override
+        void write(char[] buf, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, blockChars.remaining());
+                blockChars.put(buf, off, n);
+                if (!blockChars.hasRemaining())
+                    flush();
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        void flush() throws IOException {
+            int chars = blockChars.position();
+            if (chars == 0)
+                return;
+            int len = compressor.compress(block.array(), 0, chars * 2, compressed, 8);
+            ByteBuffer out = ByteBuffer.wrap(compressed, 0, len + 8);
+            out.putInt(0, chars);
+            out.putInt(4, len);
+            writeBytes(out);
+            blockChars.clear();
+        }
+    }
+
+    private abstract class CacheReader extends Reader {
+
+        private boolean readerClosed = false;
+
+        CacheReader() {
+            readerOpened();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!readerClosed) {
+                readerClosed = true;
+                readerClosed();
+            }
+        }
+    }
+
+    private class ChunkReader extends CacheReader {
+
+        private final List<char[]> chunks = TextCache.this.chunks;
+        private final int length = memoryChars;
+        private int pos = 0, mark = 0;
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (pos >= length)
+                return -1;
+            int read = 0;
+            while (read < len && pos < length) {
+                int chunkPos = pos % CHUNK_SIZE;
+                int n = Math.min(len - read, Math.min(CHUNK_SIZE - chunkPos, length - pos));
+                System.arraycopy(chunks.get(pos / CHUNK_SIZE), chunkPos, cbuf, off + read, n);
+                pos += n;
+                read += n;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(0, n), length - pos);
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readAheadLimit) {
+            mark = pos;
+        }
+
+        @Override
+        public void reset() {
+            pos = mark;
+        }
+    }
+
+    private class MappedReader extends CacheReader {
+
+        private final CharBuffer[] segments;
+        private int segment = 0, markSegment = 0;
+
+        MappedReader(CharBuffer[] mapped) {
+            segments = new CharBuffer[mapped.length];
+            for (int i = 0; i < mapped.length; i++)
+                segments[i] = mapped[i].duplicate();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            while (segment < segments.length && !segments[segment].hasRemaining())
+                segment++;
+            if (segment == segments.length)
+                return -1;
+            int n = Math.min(len, segments[segment].remaining());
+            segments[segment].get(cbuf, off, n);
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readAheadLimit) {
+            markSegment = segment;
+            for (int i = segment; i < segments.length; i++)
+                segments[i].mark();
+        }
+
+        @Override
+        public void reset() throws IOException {
+            for (int i = markSegment; i <= segment && i < segments.length; i++)
+                segments[i].reset();
+            segment = markSegment;
+        }
+    }
+
+    private class LZ4Reader extends CacheReader {
+
+        private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+        private final DataInputStream in;
+        private final byte[] decompressed = new byte[CHUNK_SIZE * 2];
+        private final CharBuffer chars = ByteBuffer.wrap(decompressed).asCharBuffer();
+        private byte[] compressed = new byte[0];
+
+        LZ4Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(tmp.toPath())));
+            chars.limit(0);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (!chars.hasRemaining() && !readBlock())
+                return -1;
+            int n = Math.min(len, chars.remaining());
+            chars.get(cbuf, off, n);
+            return n;
+        }
+
+        private boolean readBlock() throws IOException {
+            int numChars;
+            try {
+                numChars = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            int len = in.readInt();
+            if (compressed.length < len)
+                compressed = new byte[len];
+            in.readFully(compressed, 0, len);
+            decompressor.decompress(compressed, 0, decompressed, 0, numChars * 2);
+            chars.clear();
+            chars.limit(numChars);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            super.close();
+        }
     }
 
     public class KnownSizeReader extends Reader {
@@ -123,6 +571,21 @@ public int read(char[] cbuf, int off, int len) throws IOException {
             return delegate.read(cbuf, off, len);
         }
 
+        @Override
+        public boolean markSupported() {
+            return delegate.markSupported();
+        }
+
+        @Override
+        public void mark(int readAheadLimit) throws IOException {
+            delegate.mark(readAheadLimit);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            delegate.reset();
+        }
+
         @Override
         public void close() throws IOException {
             delegate.close();
@@ -3,14 +3,24 @@
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.apache.commons.io.IOUtils;
@@ -18,48 +28,60 @@
 import iped3.io.SeekableInputStream;
 import net.lingala.zip4j.exception.ZipException;
 import net.lingala.zip4j.model.FileHeader;
+import net.lingala.zip4j.util.Zip4jConstants;
 
+/**
+ * Opens entries of a ZIP (or UFDR) data source. STORED entries are read in
+ * place, as slices of the container file. DEFLATE entries are inflated into
+ * memory if small, or read through an {@link InflateIndex} if large. Other
+ * entries (e.g. encrypted) are still copied to temp files if large.
+ */
 public class ZIPInputStreamFactory extends SeekableInputStreamFactory implements Closeable {
 
+    /**
+     * Memory budget of the cache, shared by inflated entries and inflate indexes.
+     */
     private static final int MAX_BYTES_CACHED = 1 << 27;
 
+    /**
+     * Larger DEFLATE entries are read through an inflate index.
+     */
+    private static final int MAX_ENTRY_BYTES_CACHED = 1 << 23;
+
     private static final int MAX_FILES_CACHED = 1 << 9;
 
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
     private ZipFile4j zip;
 
-    private int bytesCached = 0;
+    private volatile FileChannel channel;
 
-    private Map<String, byte[]> bytesCache = new LinkedHashMap<String, byte[]>(128, 0.75f, true);
+    /**
+     * Entry kept in cache, with the time of last access to evict the least
+     * recently used.
+     */
+    private static class Cached {
+        final byte[] bytes;
+        final InflateIndex index;
+        final Path file;
+        volatile long lastAccess = System.nanoTime();
 
-    private void removeEldestBytes() {
-        synchronized (bytesCache) {
-            if (bytesCached > MAX_BYTES_CACHED) {
-                Iterator<byte[]> i = bytesCache.values().iterator();
-                while (bytesCached > MAX_BYTES_CACHED && i.hasNext()) {
-                    byte[] eldest = i.next();
-                    i.remove();
-                    bytesCached -= eldest.length;
-                }
-            }
+        Cached(byte[] bytes, InflateIndex index, Path file) {
+            this.bytes = bytes;
+            this.index = index;
+            this.file = file;
         }
-    }
-
-    private Map<String, Path> filesCache = new LinkedHashMap<String, Path>(128, 0.75f, true) {
-        private static final long serialVersionUID = 1L;
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, Path> eldest) {
-            boolean remove = this.size() > MAX_FILES_CACHED;
-            if (remove) {
-                try {
-                    Files.deleteIfExists(eldest.getValue());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            return remove;
+        long getMemoryUsage() {
+            return bytes != null ? bytes.length : index != null ? InflateIndex.estimateMemoryUsage(index.size()) : 0;
         }
-    };
+    }
+
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    private final AtomicLong bytesCached = new AtomicLong();
+    private final AtomicLong filesCached = new AtomicLong();
+    private final Object evictionLock = new Object();
 
     public ZIPInputStreamFactory(Path dataSource) {
         super(dataSource.toUri());
@@ -71,21 +93,43 @@ private synchronized void init() throws ZipException {
         }
     }
 
-    @Override
-    public SeekableInputStream getSeekableInputStream(String path) throws IOException {
-        Path tmp = null;
-        byte[] bytes = null;
-        synchronized (bytesCache) {
-            bytes = bytesCache.get(path);
-        }
-        if (bytes != null) {
-            return new SeekableFileInputStream(new SeekableInMemoryByteChannel(bytes));
+    /**
+     * @return the container channel, reopened if closed, e.g. by an interrupted
+     *         reader.
+     */
+    private FileChannel getChannel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null || !fc.isOpen()) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null || !fc.isOpen()) {
+                    channel = fc = FileChannel.open(Paths.get(this.dataSource), StandardOpenOption.READ);
+                }
+            }
         }
-        synchronized (filesCache) {
-            tmp = filesCache.get(path);
+        return fc;
+    }
+
+    /**
+     * Positional read of the container, safe to be called concurrently.
+     */
+    private int read(ByteBuffer dst, long position) throws IOException {
+        try {
+            return getChannel().read(dst, position);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            // closed by other interrupted thread
+            return getChannel().read(dst, position);
         }
-        if (tmp != null) {
-            return new SeekableFileInputStream(tmp.toFile());
+    }
+
+    @Override
+    public SeekableInputStream getSeekableInputStream(String path) throws IOException {
+        Cached cached = cache.get(path);
+        if (cached != null) {
+            cached.lastAccess = System.nanoTime();
+            return newStream(cached);
         }
 
         FileHeader zae;
@@ -99,20 +143,29 @@ public SeekableInputStream getSeekableInputStream(String path) throws IOExceptio
         if (zae == null) {
             return new SeekableFileInputStream(new SeekableInMemoryByteChannel(new byte[0]));
         }
+
+        if (!zae.isEncrypted()) {
+            if (zae.getCompressionMethod() == Zip4jConstants.COMP_STORE) {
+                long start = getDataStart(zae);
+                return new SeekableFileInputStream(new Slice(start, zae.getCompressedSize()));
+            }
+            if (zae.getCompressionMethod() == Zip4jConstants.COMP_DEFLATE
+                    && zae.getUncompressedSize() > MAX_ENTRY_BYTES_CACHED) {
+                long start = getDataStart(zae);
+                InflateIndex index = new InflateIndex(this::read, start, zae.getCompressedSize(),
+                        zae.getUncompressedSize());
+                return newStream(put(path, new Cached(null, index, null)));
+            }
+        }
+
+        Path tmp = null;
         try (InputStream is = zip.getInputStream(zae)) {
-            if (zae.getUncompressedSize() <= MAX_BYTES_CACHED) {
-                bytes = IOUtils.toByteArray(is);
-                synchronized (bytesCache) {
-                    bytesCache.put(path, bytes);
-                    bytesCached += bytes.length;
-                    removeEldestBytes();
-                }
+            if (zae.getUncompressedSize() <= MAX_ENTRY_BYTES_CACHED) {
+                cached = new Cached(IOUtils.toByteArray(is), null, null);
             } else {
                 tmp = Files.createTempFile("zip-stream", null);
                 Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
-                synchronized (filesCache) {
-                    filesCache.put(path, tmp);
-                }
+                cached = new Cached(null, null, tmp);
             }
         } catch (ClosedChannelException e) {
             // if(zip != null) zip.close();
@@ -123,10 +176,168 @@ public SeekableInputStream getSeekableInputStream(String path) throws IOExceptio
         } catch (ZipException e1) {
             throw new IOException(e1);
         }
-        if (bytes != null) {
-            return new SeekableFileInputStream(new SeekableInMemoryByteChannel(bytes));
+        return newStream(put(path, cached));
+    }
+
+    private SeekableInputStream newStream(Cached cached) throws IOException {
+        if (cached.bytes != null) {
+            return new SeekableFileInputStream(new SeekableInMemoryByteChannel(cached.bytes));
+        }
+        if (cached.index != null) {
+            return new SeekableFileInputStream(cached.index.newChannel());
+        }
+        return new SeekableFileInputStream(cached.file.toFile());
+    }
+
+    private long getDataStart(FileHeader zae) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = zae.getOffsetLocalHeader();
+        while (header.hasRemaining()) {
+            if (read(header, offset + header.position()) == -1) {
+                throw new IOException("Truncated local header of " + zae.getFileName()); //$NON-NLS-1$
+            }
+        }
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header of " + zae.getFileName()); //$NON-NLS-1$
+        }
+        int nameLen = header.getShort(26) & 0xffff;
+        int extraLen = header.getShort(28) & 0xffff;
+        return offset + LOCAL_HEADER_SIZE + nameLen + extraLen;
+    }
+
+    private Cached put(String path, Cached cached) throws IOException {
+        Cached previous = cache.putIfAbsent(path, cached);
+        if (previous != null) {
+            // loaded concurrently by other thread
+            if (cached.file != null) {
+                Files.deleteIfExists(cached.file);
+            }
+            return previous;
+        }
+        bytesCached.addAndGet(cached.getMemoryUsage());
+        if (cached.file != null) {
+            filesCached.incrementAndGet();
+        }
+        if (bytesCached.get() > MAX_BYTES_CACHED || filesCached.get() > MAX_FILES_CACHED) {
+            evict();
+        }
+        return cached;
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            if (bytesCached.get() <= MAX_BYTES_CACHED && filesCached.get() <= MAX_FILES_CACHED) {
+                return;
+            }
+            List<Map.Entry<String, Cached>> entries = new ArrayList<>(cache.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            for (Map.Entry<String, Cached> entry : entries) {
+                boolean overBytes = bytesCached.get() > MAX_BYTES_CACHED;
+                boolean overFiles = filesCached.get() > MAX_FILES_CACHED;
+                if (!overBytes && !overFiles) {
+                    break;
+                }
+                Cached cached = entry.getValue();
+                if ((overBytes && cached.getMemoryUsage() > 0) || (overFiles && cached.file != null)) {
+                    remove(entry.getKey(), cached);
+                }
+            }
+        }
+    }
+
+    private void remove(String path, Cached cached) {
+        if (cache.remove(path, cached)) {
+            bytesCached.addAndGet(-cached.getMemoryUsage());
+            if (cached.file != null) {
+                filesCached.decrementAndGet();
+                try {
+                    Files.deleteIfExists(cached.file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read only view of a range of the container file.
+     */
+    private class Slice implements SeekableByteChannel {
+
+        private final long start, size;
+        private long position = 0;
+        private boolean open = true;
+
+        Slice(long start, long size) {
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            long remaining = size - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read;
+            if (dst.remaining() > remaining) {
+                ByteBuffer limited = dst.duplicate();
+                limited.limit(limited.position() + (int) remaining);
+                read = ZIPInputStreamFactory.this.read(limited, start + position);
+                if (read > 0) {
+                    dst.position(dst.position() + read);
+                }
+            } else {
+                read = ZIPInputStreamFactory.this.read(dst, start + position);
+            }
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position"); //$NON-NLS-1$
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return size;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the container channel is shared
+            open = false;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            throw new NonWritableChannelException();
         }
-        return new SeekableFileInputStream(tmp.toFile());
     }
 
     @Override
@@ -135,25 +346,28 @@ public void close() throws IOException {
             // is not closeable...
             // zip.close();
         }
-        synchronized (bytesCache) {
-            bytesCache.clear();
-        }
-        Path[] paths;
-        synchronized (filesCache) {
-            paths = filesCache.values().toArray(new Path[0]);
-            filesCache.clear();
-        }
         IOException exception = null;
-        for (Path path : paths) {
-            try {
-                Files.deleteIfExists(path);
-            } catch (IOException e) {
-                if (exception == null) {
-                    exception = new IOException("Fail to delete file(s)");
+        for (Map.Entry<String, Cached> entry : new ArrayList<>(cache.entrySet())) {
+            Cached cached = entry.getValue();
+            if (cache.remove(entry.getKey(), cached)) {
+                bytesCached.addAndGet(-cached.getMemoryUsage());
+                if (cached.file != null) {
+                    filesCached.decrementAndGet();
+                    try {
+                        Files.deleteIfExists(cached.file);
+                    } catch (IOException e) {
+                        if (exception == null) {
+                            exception = new IOException("Fail to delete file(s)");
+                        }
+                        exception.addSuppressed(e);
+                    }
                 }
-                exception.addSuppressed(e);
             }
         }
+        FileChannel fc = channel;
+        if (fc != null) {
+            fc.close();
+        }
         if (exception != null) {
             throw exception;
         }
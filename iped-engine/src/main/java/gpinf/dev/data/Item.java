@@ -20,6 +20,7 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.tika.io.TemporaryResources;
 import org.apache.tika.io.TikaInputStream;
@@ -239,6 +240,11 @@ public void setDeleteFile(boolean deleteFile) {
 
     static final int BUF_LEN = 8 * 1024 * 1024;
 
+    /**
+     * Total de bytes lidos do conteúdo dos itens através de getBufferedStream().
+     */
+    private static final LongAdder bufferedStreamBytes = new LongAdder();
+
     /**
      * Adiciona o item a uma categoria.
      *
@@ -332,7 +338,58 @@ public BufferedInputStream getBufferedStream() throws IOException {
             }
         }
 
-        return new BufferedInputStream(getStream(), len);
+        return new CountingBufferedInputStream(getStream(), len);
+    }
+
+    /**
+     * @return total de bytes lidos do conteúdo dos itens através de
+     *         getBufferedStream(), para comparação com o volume processado.
+     */
+    public static long getBufferedStreamBytesRead() {
+        return bufferedStreamBytes.sum();
+    }
+
+    private static class CountingBufferedInputStream extends BufferedInputStream {
+
+        private static final int FLUSH_THRESHOLD = 1 << 20;
+
+        private int count;
+
+        CountingBufferedInputStream(InputStream in, int size) {
+            super(in, size);
+        }
+
+        private void add(int n) {
+            if ((count += n) >= FLUSH_THRESHOLD) {
+                bufferedStreamBytes.add(count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                add(1);
+            }
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            bufferedStreamBytes.add(count);
+            count = 0;
+            super.close();
+        }
     }
 
     /**
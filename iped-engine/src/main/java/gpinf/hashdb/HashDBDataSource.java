@@ -28,6 +28,7 @@ public class HashDBDataSource {
     private Connection connection;
     private PreparedStatement[] stmtSelectHash;
     private PreparedStatement stmtSelectHashProperties;
+    private PreparedStatement[] stmtSelectHashPropertiesIn;
     private PreparedStatement stmtSelectMD5;
     private boolean[] presentHashes;
     private final Map<Integer, String> propertyIdToName = new HashMap<Integer, String>();
@@ -318,25 +319,80 @@ public synchronized void lookup(byte[][] hashes, Map<String, String> properties)
         ResultSet rs1 = stmtSelect.executeQuery();
         while (rs1.next()) {
             int hashId = rs1.getInt(1);
-            stmtSelectHashProperties.setInt(1, hashId);
-            ResultSet rs2 = stmtSelectHashProperties.executeQuery();
-            while (rs2.next()) {
-                int propertyId = rs2.getInt(1);
-                String propertyName = propertyIdToName.get(propertyId);
-                if (propertyName != null) {
-                    String propertyValue = rs2.getString(2);
-                    String prev = properties.get(propertyName);
-                    if (prev != null) {
-                        propertyValue = HashDB.mergeProperties(propertyValue, prev);
-                    }
-                    properties.put(propertyName, propertyValue);
-                }
-            }
-            rs2.close();
+            readProperties(hashId, properties);
         }
         rs1.close();
     }
 
+    /**
+     * Reads and merges the properties of already known hash ids, e.g. found in a
+     * {@link HashDBIndex}.
+     */
+    public synchronized void lookupProperties(int[] hashIds, Map<String, String> properties) throws Exception {
+        if (hashIds.length == 1 || hashIds.length >= stmtSelectHashPropertiesIn.length) {
+            for (int hashId : hashIds) {
+                readProperties(hashId, properties);
+            }
+            return;
+        }
+        if (hashIds.length == 0) return;
+        PreparedStatement stmt = stmtSelectHashPropertiesIn[hashIds.length];
+        for (int i = 0; i < hashIds.length; i++) {
+            stmt.setInt(i + 1, hashIds[i]);
+        }
+        ResultSet rs = stmt.executeQuery();
+        while (rs.next()) {
+            addProperty(rs.getInt(1), rs.getString(2), properties);
+        }
+        rs.close();
+    }
+
+    private void addProperty(int propertyId, String propertyValue, Map<String, String> properties) {
+        String propertyName = propertyIdToName.get(propertyId);
+        if (propertyName != null) {
+            String prev = properties.get(propertyName);
+            if (prev != null) {
+                propertyValue = HashDB.mergeProperties(propertyValue, prev);
+            }
+            properties.put(propertyName, propertyValue);
+        }
+    }
+
+    private void readProperties(int hashId, Map<String, String> properties) throws Exception {
+        stmtSelectHashProperties.setInt(1, hashId);
+        ResultSet rs2 = stmtSelectHashProperties.executeQuery();
+        while (rs2.next()) {
+            addProperty(rs2.getInt(1), rs2.getString(2), properties);
+        }
+        rs2.close();
+    }
+
+    public boolean isHashPresent(int hashType) {
+        return presentHashes[hashType];
+    }
+
+    public interface HashIdConsumer {
+        void accept(byte[] hash, int hashId) throws Exception;
+    }
+
+    /**
+     * Reads all hashes of a type, ordered by their bytes (same order of SQLite blob
+     * comparison), using the unique index of the hash column.
+     */
+    public synchronized void readSortedHashes(int hashType, HashIdConsumer consumer) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select HASH_ID, ").append(hashTypes[hashType]).append(" from HASHES where ");
+        sb.append(hashTypes[hashType]).append(" is not null order by ").append(hashTypes[hashType]);
+        Statement stmt = connection.createStatement();
+        stmt.setFetchSize(4096);
+        ResultSet rs = stmt.executeQuery(sb.toString());
+        while (rs.next()) {
+            consumer.accept(rs.getBytes(2), rs.getInt(1));
+        }
+        rs.close();
+        stmt.close();
+    }
+
     public synchronized void close() {
         if (stmtSelectMD5 != null) {
             try {
@@ -355,6 +411,13 @@ public synchronized void close() {
                 stmtSelectHashProperties.close();
             } catch (Exception e) {}
         }
+        if (stmtSelectHashPropertiesIn != null) {
+            for (PreparedStatement stmt : stmtSelectHashPropertiesIn) {
+                try {
+                    if (stmt != null) stmt.close();
+                } catch (Exception e) {}
+            }
+        }
         try {
             if (connection != null) connection.close();
         } catch (Exception e) {}
@@ -405,6 +468,18 @@ private void prepare() throws Exception {
         stmtSelectHashProperties = connection.prepareStatement("select PROPERTY_ID, VALUE from HASHES_PROPERTIES where HASH_ID=?");
         stmtSelectHashProperties.setFetchSize(64);
 
+        // batched properties lookup of all ids found for the hashes of one item
+        stmtSelectHashPropertiesIn = new PreparedStatement[hashTypes.length + 1];
+        for (int i = 2; i < stmtSelectHashPropertiesIn.length; i++) {
+            StringBuilder sb1 = new StringBuilder("select PROPERTY_ID, VALUE from HASHES_PROPERTIES where HASH_ID in (?");
+            for (int j = 1; j < i; j++) {
+                sb1.append(",?");
+            }
+            sb1.append(')');
+            stmtSelectHashPropertiesIn[i] = connection.prepareStatement(sb1.toString());
+            stmtSelectHashPropertiesIn[i].setFetchSize(64);
+        }
+
         stmtSelectMD5 = connection.prepareStatement("select MD5 from HASHES where HASH_ID=?");
     }
 
@@ -0,0 +1,283 @@
+package gpinf.hashdb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read only index of the hashes stored in the hashes database, kept in cache
+ * files with records (hash bytes, HASH_ID) sorted by hash. Files are memory
+ * mapped and probed without locks, so SQLite is only queried for the
+ * properties of actual hits.
+ */
+public class HashDBIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashDBIndex.class);
+
+    private static final String cacheDir = System.getProperty("user.home") + "/.indexador";
+
+    private static final long MAGIC = 0x4950454448494458L; // IPEDHIDX
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private final TypeIndex[] indexes = new TypeIndex[HashDB.hashTypes.length];
+
+    private HashDBIndex() {
+    }
+
+    /**
+     * Loads the index of each hash type present in the database, building cache
+     * files if they are missing or out of date.
+     */
+    public static HashDBIndex load(File dbFile, HashDBDataSource dataSource) throws Exception {
+        HashDBIndex index = new HashDBIndex();
+        for (int i = 0; i < HashDB.hashTypes.length; i++) {
+            if (!dataSource.isHashPresent(i)) {
+                continue;
+            }
+            File cacheFile = getCacheFile(dbFile, i);
+            TypeIndex typeIndex = TypeIndex.open(cacheFile, dbFile, i);
+            if (typeIndex == null) {
+                long t = System.currentTimeMillis();
+                build(cacheFile, dbFile, dataSource, i);
+                typeIndex = TypeIndex.open(cacheFile, dbFile, i);
+                if (typeIndex == null) {
+                    throw new IOException("Invalid hash index file " + cacheFile.getPath());
+                }
+                logger.info("{} index with {} hashes created in {} ms: {}", HashDB.hashTypes[i], typeIndex.count,
+                        System.currentTimeMillis() - t, cacheFile.getPath());
+            }
+            index.indexes[i] = typeIndex;
+        }
+        return index;
+    }
+
+    /**
+     * Finds the distinct HASH_IDs matching any of the hashes. Thread safe.
+     *
+     * @param hashes
+     *            hashes indexed by type, as in {@link HashDB#hashTypes}, null if
+     *            not available.
+     * @return found ids, possibly empty.
+     */
+    public int[] lookup(byte[][] hashes) {
+        int[] ids = null;
+        int num = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] == null || indexes[i] == null) {
+                continue;
+            }
+            int id = indexes[i].find(hashes[i]);
+            if (id < 0) {
+                continue;
+            }
+            if (ids == null) {
+                ids = new int[hashes.length];
+            }
+            boolean dup = false;
+            for (int j = 0; j < num; j++) {
+                if (ids[j] == id) {
+                    dup = true;
+                }
+            }
+            if (!dup) {
+                ids[num++] = id;
+            }
+        }
+        return ids == null ? new int[0] : Arrays.copyOf(ids, num);
+    }
+
+    /**
+     * @return total number of hashes of all types.
+     */
+    public long size() {
+        long size = 0;
+        for (TypeIndex index : indexes) {
+            if (index != null) {
+                size += index.count;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Creates a bloom filter with all indexed hashes, to reject most lookups of
+     * hashes absent from the database before binary searching the index.
+     */
+    public HashBloomFilter createBloomFilter(int bitsPerEntry) {
+        HashBloomFilter filter = new HashBloomFilter(size(), bitsPerEntry);
+        for (TypeIndex index : indexes) {
+            if (index != null) {
+                index.addAll(filter);
+            }
+        }
+        return filter;
+    }
+
+    private static File getCacheFile(File dbFile, int hashType) {
+        String id = Integer.toHexString(dbFile.getAbsolutePath().hashCode());
+        return new File(cacheDir, "hashdb_" + id + "_" + HashDB.hashTypes[hashType].toLowerCase() + ".idx");
+    }
+
+    private static void build(File cacheFile, File dbFile, HashDBDataSource dataSource, int hashType)
+            throws Exception {
+        cacheFile.getParentFile().mkdirs();
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        final int keyLen = HashDB.hashBytesLen[hashType];
+        final long[] count = new long[1];
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            writeHeader(os, dbFile, hashType, keyLen, 0);
+            dataSource.readSortedHashes(hashType, (hash, hashId) -> {
+                if (hash.length == keyLen) {
+                    os.write(hash);
+                    os.writeInt(hashId);
+                    count[0]++;
+                }
+            });
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.seek(HEADER_SIZE - 8);
+            raf.writeLong(count[0]);
+        }
+        Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeHeader(DataOutputStream os, File dbFile, int hashType, int keyLen, long count)
+            throws IOException {
+        os.writeLong(MAGIC);
+        os.writeInt(VERSION);
+        os.writeLong(dbFile.length());
+        os.writeLong(dbFile.lastModified());
+        os.writeShort(hashType);
+        os.writeShort(keyLen);
+        os.writeLong(count);
+    }
+
+    private static class TypeIndex {
+
+        private final int keyLen, recLen, recsPerSegment;
+        private final long count;
+        private final MappedByteBuffer[] segments;
+        private final long[] prefixStart = new long[(1 << 16) + 1];
+
+        private TypeIndex(FileChannel fc, int keyLen, long count) throws IOException {
+            this.keyLen = keyLen;
+            this.recLen = keyLen + 4;
+            this.count = count;
+            this.recsPerSegment = SEGMENT_SIZE / recLen;
+            int numSegments = (int) ((count + recsPerSegment - 1) / recsPerSegment);
+            segments = new MappedByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                long first = (long) i * recsPerSegment;
+                long size = Math.min(recsPerSegment, count - first) * recLen;
+                segments[i] = fc.map(MapMode.READ_ONLY, HEADER_SIZE + first * recLen, size);
+            }
+            byte[] prefix = new byte[2];
+            for (int p = 0; p < (1 << 16); p++) {
+                prefix[0] = (byte) (p >>> 8);
+                prefix[1] = (byte) p;
+                prefixStart[p] = lowerBound(prefix, 0, count);
+            }
+            prefixStart[1 << 16] = count;
+        }
+
+        static TypeIndex open(File cacheFile, File dbFile, int hashType) {
+            if (!cacheFile.exists()) {
+                return null;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r"); FileChannel fc = raf.getChannel()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && fc.read(header) >= 0) {
+                    ;
+                }
+                header.flip();
+                if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC || header.getInt() != VERSION
+                        || header.getLong() != dbFile.length() || header.getLong() != dbFile.lastModified()
+                        || header.getShort() != hashType) {
+                    return null;
+                }
+                int keyLen = header.getShort();
+                long count = header.getLong();
+                if (keyLen != HashDB.hashBytesLen[hashType] || fc.size() != HEADER_SIZE + count * (keyLen + 4)) {
+                    return null;
+                }
+                // mappings remain valid after the channel is closed
+                return new TypeIndex(fc, keyLen, count);
+
+            } catch (Exception e) {
+                logger.warn("Error reading hash index file " + cacheFile.getPath(), e);
+                return null;
+            }
+        }
+
+        void addAll(HashBloomFilter filter) {
+            byte[] key = new byte[keyLen];
+            for (long idx = 0; idx < count; idx++) {
+                MappedByteBuffer seg = segments[(int) (idx / recsPerSegment)];
+                int pos = (int) (idx % recsPerSegment) * recLen;
+                for (int i = 0; i < keyLen; i++) {
+                    key[i] = seg.get(pos + i);
+                }
+                filter.add(key);
+            }
+        }
+
+        int find(byte[] key) {
+            if (key.length != keyLen) {
+                return -1;
+            }
+            int p = (key[0] & 0xff) << 8 | (key[1] & 0xff);
+            long idx = lowerBound(key, prefixStart[p], prefixStart[p + 1]);
+            if (idx < count && compare(idx, key, key.length) == 0) {
+                MappedByteBuffer seg = segments[(int) (idx / recsPerSegment)];
+                return seg.getInt((int) (idx % recsPerSegment) * recLen + keyLen);
+            }
+            return -1;
+        }
+
+        /**
+         * First record in [from, to) whose hash is not less than key, compared up
+         * to key.length bytes.
+         */
+        private long lowerBound(byte[] key, long from, long to) {
+            long lo = from, hi = to;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (compare(mid, key, key.length) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private int compare(long idx, byte[] key, int len) {
+            MappedByteBuffer seg = segments[(int) (idx / recsPerSegment)];
+            int pos = (int) (idx % recsPerSegment) * recLen;
+            for (int i = 0; i < len; i++) {
+                int cmp = (seg.get(pos + i) & 0xff) - (key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package br.gov.pf.iped.regex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.AutomatonMatcher;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+import dpf.sp.gpinf.indexer.process.task.regex.TaggedRegexAutomaton;
+
+public class TaggedRegexAutomatonTest {
+
+    private TaggedRegexAutomaton automaton = new TaggedRegexAutomaton(
+            Arrays.asList(new RegExp("[a-z]+\\@[a-z]+\\.com").toAutomaton(), new RegExp("[a-z]+").toAutomaton(),
+                    new RegExp("[0-9]{3}").toAutomaton()));
+
+    // overlapping patterns, so hits have several ids
+    private static final String[] REGEXES = { "[a-z]+\\@[a-z]+\\.com", "[a-z]+", "[0-9]{3}", "ab[a-z]*",
+            "[0-9]+\\.[0-9]+", "(co|om)+" };
+
+    private static List<Automaton> automata() {
+        List<Automaton> list = new ArrayList<>();
+        for (String regex : REGEXES) {
+            list.add(new RegExp(regex).toAutomaton());
+        }
+        return list;
+    }
+
+    /**
+     * Hits as found before the tagged automaton: by a matcher of the union of all
+     * regexes over the whole text, then classified by running each regex.
+     */
+    private static List<String> perRegexScan(String text) {
+        List<Automaton> list = automata();
+        RunAutomaton[] patterns = new RunAutomaton[list.size()];
+        List<Automaton> union = new ArrayList<>();
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = new RunAutomaton(list.get(i));
+            union.add(list.get(i).clone());
+        }
+        AutomatonMatcher matcher = new RunAutomaton(BasicOperations.union(union)).newMatcher(text);
+        List<String> result = new ArrayList<>();
+        while (matcher.find()) {
+            String hit = text.substring(matcher.start(), matcher.end());
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < patterns.length; i++) {
+                if (patterns[i].run(hit)) {
+                    ids.add(i);
+                }
+            }
+            result.add(matcher.start() + "-" + matcher.end() + ids);
+        }
+        return result;
+    }
+
+    /**
+     * Random text with many short hits, and long ones inserted at random
+     * positions, so they straddle the scanned windows.
+     */
+    private static String randomText(Random random, int size) {
+        String alphabet = "abcmo@.019 ";
+        String[] inserts = { "foo@bar.com", "abcdefghijklmnop", "123.4567", "cocococom", "x@y.com.com" };
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            if (random.nextInt(20) == 0) {
+                sb.append(inserts[random.nextInt(inserts.length)]);
+            } else {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int maxHitLength(List<String> hits) {
+        int max = 0;
+        for (String hit : hits) {
+            String[] offsets = hit.substring(0, hit.indexOf('[')).split("-");
+            max = Math.max(max, Integer.parseInt(offsets[1]) - Integer.parseInt(offsets[0]));
+        }
+        return max;
+    }
+
+    private List<String> scan(String text, int windowSize) {
+        List<String> result = new ArrayList<>();
+        char[] buf = new char[windowSize];
+        int pos = 0, len = 0, offset = 0;
+        boolean eof = false;
+        while (!eof) {
+            while (len < buf.length && pos < text.length())
+                buf[len++] = text.charAt(pos++);
+            eof = pos == text.length();
+            final int base = offset;
+            TaggedRegexAutomaton.HitListener listener = (start, end, ids) -> result
+                    .add((base + start) + "-" + (base + end) + Arrays.toString(ids));
+            int resume = automaton.scan(buf, 0, len, eof, listener);
+            if (!eof && len - resume > buf.length / 2)
+                resume = automaton.scan(buf, resume, len, true, listener);
+            len -= resume;
+            System.arraycopy(buf, resume, buf, 0, len);
+            offset += resume;
+        }
+        return result;
+    }
+
+    @Test
+    public void testPatternIds() {
+        assertEquals(Arrays.asList("0-3[1]", "4-15[0]", "16-19[2]"), scan("abc foo@bar.com 1234", 64));
+    }
+
+    @Test
+    public void testSameHitsAsPerRegexMatcher() {
+        automaton = new TaggedRegexAutomaton(automata());
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            String text = randomText(random, 1 + random.nextInt(3000));
+            List<String> expected = perRegexScan(text);
+            assertEquals(expected, scan(text, text.length() + 1));
+            // hits are not cut by forced scans, done if more than half window is carried
+            assertTrue(maxHitLength(expected) <= 128 / 2);
+            for (int windowSize : new int[] { 128, 129, 200, 1024 }) {
+                assertEquals("window " + windowSize, expected, scan(text, windowSize));
+            }
+        }
+    }
+
+    @Test
+    public void testHitsAcrossWindows() {
+        String text = "abc foo@bar.com 1234";
+        assertEquals(scan(text, 64), scan(text, 16));
+    }
+
+}
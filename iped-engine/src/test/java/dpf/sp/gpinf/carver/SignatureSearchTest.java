@@ -0,0 +1,127 @@
+package dpf.sp.gpinf.carver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+import org.junit.Test;
+
+import dpf.sp.gpinf.carver.api.CarverType;
+import dpf.sp.gpinf.carver.api.Signature;
+import dpf.sp.gpinf.indexer.util.SeekableFileInputStream;
+
+public class SignatureSearchTest {
+
+    private static final int RANGE_SIZE = 4096;
+
+    // few distinct bytes, so there are many partial matches
+    private static final byte[] ALPHABET = { 'a', 'b', 'c', 'd', 'e', 'f', 'R', 'I', 'F', 'W', 'A', 'V', 'E',
+            (byte) 0xFF, (byte) 0xD8, (byte) 0xD9 };
+
+    private final List<Signature> sigs = new ArrayList<>();
+
+    private SignatureSearch createSearch() throws Exception {
+        CarverType jpg = new CarverType();
+        jpg.setName("JPG");
+        jpg.addHeader("\\FF\\D8\\FF");
+        jpg.addFooter("\\FF\\D9");
+        CarverType wav = new CarverType();
+        wav.setName("WAV");
+        wav.addHeader("RIFF????WAVE");
+        CarverType test = new CarverType();
+        test.setName("TEST");
+        // split signatures sharing sequences
+        test.addHeader("ab?cd??ef");
+        test.addFooter("cd?ef");
+        CarverType repeat = new CarverType();
+        repeat.setName("REPEAT");
+        // partial hits are tracked by carver type and offset, so in other type
+        repeat.addHeader("ab??ab");
+
+        AhoCorasick tree = new AhoCorasick();
+        for (CarverType ct : new CarverType[] { jpg, wav, test, repeat }) {
+            for (Signature sig : ct.getSignatures()) {
+                sigs.add(sig);
+                for (int k = 0; k < sig.seqs.length; k++) {
+                    tree.add(sig.seqs[k], new Object[] { sig, k });
+                }
+            }
+        }
+        tree.prepare();
+        return new SignatureSearch(new CompiledAhoCorasick(tree), 100);
+    }
+
+    /**
+     * Random data with signatures, or only their first sequence, straddling the
+     * range boundaries.
+     */
+    private byte[] createData(Random random, long start, List<String> hits) {
+        byte[] data = new byte[40 * RANGE_SIZE + 123];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        int inserted = -1;
+        for (long boundary = start; boundary < data.length; boundary += RANGE_SIZE) {
+            for (int i = 0; i < 3; i++) {
+                Signature sig = sigs.get(random.nextInt(sigs.size()));
+                int offset = (int) boundary - random.nextInt(sig.getLength() + 2);
+                // do not overwrite the previous one
+                if (offset <= inserted || offset < start || offset + sig.getLength() > data.length) {
+                    continue;
+                }
+                inserted = offset + sig.getLength();
+                boolean complete = random.nextInt(4) != 0;
+                for (int k = 0; k < sig.seqs.length && (complete || k == 0); k++) {
+                    byte[] seq = sig.seqs[k];
+                    System.arraycopy(seq, 0, data, offset + sig.seqEndPos[k] - seq.length, seq.length);
+                }
+                if (complete) {
+                    hits.add(sig.getSigString() + "@" + offset);
+                }
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void testParallelSameHitsAsSequential() throws Exception {
+        SignatureSearch search = createSearch();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Random random = new Random(1);
+            for (long start : new long[] { 0, 1, 17 }) {
+                List<String> inserted = new ArrayList<>();
+                byte[] data = createData(random, start, inserted);
+
+                List<String> expected = new ArrayList<>();
+                search.search(new ByteArrayInputStream(data, (int) start, data.length - (int) start), start,
+                        (sig, offset) -> expected.add(sig.getSigString() + "@" + offset));
+                assertTrue(expected.containsAll(inserted));
+
+                // ranges smaller than the signatures too
+                for (int rangeSize : new int[] { 3, 100, RANGE_SIZE, RANGE_SIZE + 1 }) {
+                    for (int maxPending : new int[] { 1, 8 }) {
+                        List<String> hits = new ArrayList<>();
+                        search.searchParallel(
+                                () -> new SeekableFileInputStream(new SeekableInMemoryByteChannel(data)), start,
+                                data.length, rangeSize, pool, maxPending,
+                                (sig, offset) -> hits.add(sig.getSigString() + "@" + offset));
+                        assertEquals("range size " + rangeSize, expected, hits);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
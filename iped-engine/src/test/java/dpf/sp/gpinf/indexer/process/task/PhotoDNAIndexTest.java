@@ -0,0 +1,256 @@
+package dpf.sp.gpinf.indexer.process.task;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import gpinf.hashdb.PhotoDnaItem;
+
+public class PhotoDNAIndexTest {
+
+    private static final int HASH_SIZE = 144;
+
+    private static final int MAX_DISTANCE = 50000;
+
+    private static final int[][] TRANSFORMS = new int[8][];
+
+    static {
+        // same order of the queries of PhotoDNALookup
+        for (int i = 0; i < TRANSFORMS.length; i++) {
+            TRANSFORMS[i] = permutation(i % 4, i >= 4);
+        }
+    }
+
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Rotation and flip of the 6x6 grid of 4 byte cells of the hash, as a
+     * permutation with the source of each byte.
+     */
+    private static int[] permutation(int rot, boolean flip) {
+        int[] perm = new int[HASH_SIZE];
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 6; x++) {
+                int sx = flip ? 5 - x : x, sy = y;
+                for (int r = 0; r < rot; r++) {
+                    int t = sx;
+                    sx = 5 - sy;
+                    sy = t;
+                }
+                for (int b = 0; b < 4; b++) {
+                    perm[(y * 6 + x) * 4 + b] = (sy * 6 + sx) * 4 + b;
+                }
+            }
+        }
+        return perm;
+    }
+
+    private static byte[] transform(byte[] hash, int[] perm) {
+        byte[] result = new byte[hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            result[i] = hash[perm[i]];
+        }
+        return result;
+    }
+
+    private static byte[] inverse(byte[] hash, int[] perm) {
+        byte[] result = new byte[hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            result[perm[i]] = hash[i];
+        }
+        return result;
+    }
+
+    private static byte[][] queries(byte[] hash) {
+        byte[][] queries = new byte[TRANSFORMS.length][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = transform(hash, TRANSFORMS[i]);
+        }
+        return queries;
+    }
+
+    private static int distance(byte[] b1, byte[] b2) {
+        int distance = 0;
+        for (int i = 0; i < b1.length; i++) {
+            int diff = (b1[i] & 0xff) - (b2[i] & 0xff);
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    private static byte[] random(Random random) {
+        byte[] hash = new byte[HASH_SIZE];
+        random.nextBytes(hash);
+        return hash;
+    }
+
+    private static byte[] noisy(Random random, byte[] hash, int maxDiff) {
+        byte[] result = hash.clone();
+        for (int i = 0; i < result.length; i++) {
+            int v = (result[i] & 0xff) + random.nextInt(2 * maxDiff + 1) - maxDiff;
+            result[i] = (byte) Math.max(0, Math.min(255, v));
+        }
+        return result;
+    }
+
+    /**
+     * @return the hash with 5 bytes changed by 100, plus a byte changed by extra
+     *         if not 0, so it is exactly at MAX_DISTANCE + extra * extra.
+     */
+    private static byte[] atThreshold(byte[] hash, int extra) {
+        byte[] result = hash.clone();
+        for (int i = 0; i < 6; i++) {
+            int diff = i < 5 ? 100 : extra;
+            int v = result[i] & 0xff;
+            result[i] = (byte) (v < 128 ? v + diff : v - diff);
+        }
+        return result;
+    }
+
+    private PhotoDNAIndex buildIndex(List<PhotoDnaItem> items) throws Exception {
+        File file = File.createTempFile("photodna", ".index");
+        files.add(file);
+        PhotoDNAIndex.write(file, items, HASH_SIZE, 1, 2, "");
+        PhotoDNAIndex index = PhotoDNAIndex.load(file, 1, 2, "");
+        assertNotNull(index);
+        assertEquals(items.size(), index.size());
+        return index;
+    }
+
+    /**
+     * Linear scan with the semantics of PhotoDNALookup: nearest hash of the first
+     * transform with any hash within the inclusive maximum distance.
+     *
+     * @return the query index, item index and distance, or null.
+     */
+    private static int[] bruteForce(List<PhotoDnaItem> items, byte[][] queries, int maxDistance) {
+        for (int q = 0; q < queries.length; q++) {
+            int best = -1, bestDist = maxDistance + 1;
+            for (int i = 0; i < items.size(); i++) {
+                int d = distance(queries[q], items.get(i).getBytes());
+                if (d < bestDist) {
+                    best = i;
+                    bestDist = d;
+                }
+            }
+            if (best != -1) {
+                return new int[] { q, best, bestDist };
+            }
+        }
+        return null;
+    }
+
+    private static void assertSameAsBruteForce(PhotoDNAIndex index, List<PhotoDnaItem> items, byte[] hash) {
+        byte[][] queries = queries(hash);
+        int[] expected = bruteForce(items, queries, MAX_DISTANCE);
+        PhotoDNAIndex.Match match = index.findFirst(queries, MAX_DISTANCE);
+        if (expected == null) {
+            assertNull(match);
+            return;
+        }
+        assertNotNull(match);
+        assertEquals(expected[2], match.distance);
+        // another hash at the same distance of the same query may be found
+        assertEquals(expected[2], distance(queries[expected[0]], index.getHash(match.index)));
+        PhotoDnaItem item = items.get(expected[1]);
+        if (distance(item.getBytes(), index.getHash(match.index)) == 0) {
+            assertEquals(item.getHashId(), index.getHashId(match.index));
+        }
+    }
+
+    @Test
+    public void testSameAsBruteForce() throws Exception {
+        Random random = new Random(1);
+        List<PhotoDnaItem> items = new ArrayList<>();
+        List<byte[]> hashes = new ArrayList<>();
+        // clusters, with many hashes around the maximum distance of each other
+        for (int c = 0; c < 50; c++) {
+            byte[] center = random(random);
+            for (int i = 0; i < 40; i++) {
+                items.add(new PhotoDnaItem(items.size(), noisy(random, center, 30)));
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            items.add(new PhotoDnaItem(items.size(), random(random)));
+        }
+        for (int i = 0; i < 300; i++) {
+            // matching only after some rotation or flip
+            byte[] hash = random(random);
+            int[] perm = TRANSFORMS[random.nextInt(TRANSFORMS.length)];
+            items.add(new PhotoDnaItem(items.size(), noisy(random, transform(hash, perm), 20)));
+            hashes.add(hash);
+        }
+        for (int i = 0; i < 300; i++) {
+            byte[] item = items.get(random.nextInt(items.size())).getBytes();
+            int[] perm = TRANSFORMS[random.nextInt(TRANSFORMS.length)];
+            // exact, near, around the threshold and far
+            int[] maxDiffs = { 0, 5, 25, 30, 35, 255 };
+            hashes.add(inverse(noisy(random, item, maxDiffs[random.nextInt(maxDiffs.length)]), perm));
+        }
+        PhotoDNAIndex index = buildIndex(items);
+        for (byte[] hash : hashes) {
+            assertSameAsBruteForce(index, items, hash);
+        }
+    }
+
+    @Test
+    public void testThresholdIsInclusive() throws Exception {
+        Random random = new Random(2);
+        List<PhotoDnaItem> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(new PhotoDnaItem(i, random(random)));
+        }
+        PhotoDNAIndex index = buildIndex(items);
+        for (int i = 0; i < 50; i++) {
+            PhotoDnaItem item = items.get(random.nextInt(items.size()));
+            int[] perm = TRANSFORMS[i % TRANSFORMS.length];
+
+            byte[] hash = inverse(atThreshold(item.getBytes(), 0), perm);
+            PhotoDNAIndex.Match match = index.findFirst(queries(hash), MAX_DISTANCE);
+            assertNotNull(match);
+            assertEquals(MAX_DISTANCE, match.distance);
+            assertEquals(item.getHashId(), index.getHashId(match.index));
+            assertArrayEquals(item.getBytes(), index.getHash(match.index));
+            assertSameAsBruteForce(index, items, hash);
+
+            hash = inverse(atThreshold(item.getBytes(), 1), perm);
+            assertNull(index.findFirst(queries(hash), MAX_DISTANCE));
+            assertSameAsBruteForce(index, items, hash);
+        }
+    }
+
+    @Test
+    public void testSmallIndexes() throws Exception {
+        Random random = new Random(3);
+        // empty, leaf only and a single split
+        for (int size : new int[] { 0, 1, 16, 17, 40 }) {
+            List<PhotoDnaItem> items = new ArrayList<>();
+            byte[] center = random(random);
+            for (int i = 0; i < size; i++) {
+                items.add(new PhotoDnaItem(i, noisy(random, center, 30)));
+            }
+            PhotoDNAIndex index = buildIndex(items);
+            for (int i = 0; i < 50; i++) {
+                int[] perm = TRANSFORMS[random.nextInt(TRANSFORMS.length)];
+                assertSameAsBruteForce(index, items, inverse(noisy(random, center, 30), perm));
+            }
+        }
+    }
+
+}
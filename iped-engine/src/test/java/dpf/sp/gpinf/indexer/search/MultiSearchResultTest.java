@@ -0,0 +1,98 @@
+package dpf.sp.gpinf.indexer.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import iped3.IItemId;
+
+public class MultiSearchResultTest {
+
+    /**
+     * Like TimelineResults.TimeItemId, one per timeline event of an item.
+     */
+    private static class OrdItemId extends ItemId {
+
+        final int ord;
+
+        OrdItemId(int sourceId, int id, int ord) {
+            super(sourceId, id);
+            this.ord = ord;
+        }
+    }
+
+    private static MultiSearchResult createResult() {
+        IItemId[] items = new IItemId[20];
+        float[] scores = new float[items.length];
+        for (int i = 0; i < items.length; i++) {
+            // same items repeated with different ords, plain ones between
+            items[i] = i % 3 == 0 ? new ItemId(i / 10, i) : new OrdItemId(i / 10, i / 2, i);
+            scores[i] = i;
+        }
+        return new MultiSearchResult(items, scores);
+    }
+
+    private static void assertItem(IItemId expected, IItemId item) {
+        assertEquals(expected.getClass(), item.getClass());
+        assertEquals(expected.getSourceId(), item.getSourceId());
+        assertEquals(expected.getId(), item.getId());
+        if (expected instanceof OrdItemId) {
+            assertEquals(((OrdItemId) expected).ord, ((OrdItemId) item).ord);
+        }
+    }
+
+    @Test
+    public void testConstructor() {
+        MultiSearchResult result = createResult();
+        assertItem(new ItemId(0, 0), result.getItem(0));
+        assertItem(new OrdItemId(0, 0, 1), result.getItem(1));
+        assertItem(new OrdItemId(1, 5, 11), result.getItem(11));
+        assertEquals(11, result.getScore(11), 0);
+        // the same object is returned
+        assertSame(result.getItem(11), result.getItem(11));
+        int i = 0;
+        for (IItemId item : result.getIterator()) {
+            assertItem(result.getItem(i++), item);
+        }
+    }
+
+    @Test
+    public void testSubset() {
+        MultiSearchResult result = createResult();
+        // items 0, 1, 11 and 19
+        long[] mask = { 1L | 1L << 1 | 1L << 11 | 1L << 19 };
+        MultiSearchResult subset = result.subset(mask, 4);
+        assertEquals(4, subset.getLength());
+        assertItem(result.getItem(0), subset.getItem(0));
+        assertItem(result.getItem(1), subset.getItem(1));
+        assertItem(result.getItem(11), subset.getItem(2));
+        assertItem(result.getItem(19), subset.getItem(3));
+        assertEquals(19, subset.getScore(3), 0);
+    }
+
+    @Test
+    public void testSetItem() {
+        MultiSearchResult result = createResult();
+        result.setItem(0, new OrdItemId(5, 50, 7));
+        result.setItem(1, new ItemId(0, 1));
+        assertItem(new OrdItemId(5, 50, 7), result.getItem(0));
+        assertItem(new ItemId(0, 1), result.getItem(1));
+
+        MultiSearchResult plain = new MultiSearchResult(new int[] { 0, 0 }, new int[] { 1, 2 }, null);
+        plain.setItem(1, new OrdItemId(0, 3, 4));
+        assertItem(new ItemId(0, 1), plain.getItem(0));
+        assertItem(new OrdItemId(0, 3, 4), plain.getItem(1));
+    }
+
+    @Test
+    public void testClone() {
+        MultiSearchResult result = createResult();
+        MultiSearchResult clone = result.clone();
+        result.setItem(1, new ItemId(0, 1));
+        for (int i = 0; i < clone.getLength(); i++) {
+            assertItem(createResult().getItem(i), clone.getItem(i));
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+package dpf.sp.gpinf.indexer.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+public class InflateIndexTest {
+
+    private static final int SPAN = 1 << 16;
+
+    // compressed data starts after some other bytes, like in a zip file
+    private static final int DATA_START = 7;
+
+    private static final String[] WORDS = { "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "zip",
+            "deflate", "window", "checkpoint", "\n" };
+
+    private static byte[] text(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] noise(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] deflate(int level, byte[] data) {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setInput(data);
+        deflater.finish();
+        return drain(deflater, Deflater.NO_FLUSH);
+    }
+
+    /**
+     * Deflates all the input, or until the end if finished.
+     */
+    private static byte[] drain(Deflater deflater, int flush) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf, 0, buf.length, flush);
+            out.write(buf, 0, n);
+            // when finishing, the output is only left unfilled at the end
+            if (n < buf.length && deflater.needsInput()) {
+                break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] deflated, int size) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(deflated);
+        byte[] out = new byte[size];
+        int n = 0;
+        while (n < size && !inflater.finished()) {
+            n += inflater.inflate(out, n, size - n);
+        }
+        assertEquals(size, n);
+        return out;
+    }
+
+    private static int firstBlockType(byte[] deflated) {
+        return (deflated[0] >> 1) & 3;
+    }
+
+    private static InflateIndex index(byte[] deflated, int size) {
+        byte[] container = new byte[DATA_START + deflated.length + 5];
+        System.arraycopy(deflated, 0, container, DATA_START, deflated.length);
+        InflateIndex.Source source = (dst, position) -> {
+            if (position >= container.length) {
+                return -1;
+            }
+            int len = (int) Math.min(dst.remaining(), container.length - position);
+            dst.put(container, (int) position, len);
+            return len;
+        };
+        return new InflateIndex(source, DATA_START, deflated.length, size, SPAN);
+    }
+
+    private static byte[] read(SeekableByteChannel channel, long position, int len) throws IOException {
+        channel.position(position);
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) == -1) {
+                break;
+            }
+        }
+        byte[] bytes = new byte[buf.position()];
+        System.arraycopy(buf.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static byte[] range(byte[] data, long position, int len) {
+        int end = (int) Math.min(data.length, position + len);
+        byte[] bytes = new byte[Math.max(0, end - (int) position)];
+        System.arraycopy(data, (int) position, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static void assertSequentialRead(byte[] deflated, byte[] expected) throws IOException {
+        InflateIndex index = index(deflated, expected.length);
+        try (SeekableByteChannel channel = index.newChannel()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            // odd sizes, so reads end in the middle of copies and blocks
+            ByteBuffer buf = ByteBuffer.allocate(4093);
+            while (channel.read(buf) != -1) {
+                out.write(buf.array(), 0, buf.position());
+                buf.clear();
+            }
+            assertArrayEquals(expected, out.toByteArray());
+        }
+    }
+
+    private static void assertRandomReads(InflateIndex index, byte[] expected, long seed, int count)
+            throws IOException {
+        Random random = new Random(seed);
+        try (SeekableByteChannel channel = index.newChannel()) {
+            for (int i = 0; i < count; i++) {
+                long position = random.nextInt(expected.length + 100);
+                int len = 1 + random.nextInt(3 * SPAN / 2);
+                assertArrayEquals("at " + position, range(expected, position, len), read(channel, position, len));
+            }
+        }
+    }
+
+    /**
+     * Stored, fixed and dynamic blocks, with checkpoints at non byte aligned
+     * block boundaries.
+     */
+    private static byte[] mixed(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Random random = new Random(3);
+        int pos = 0;
+        while (pos < data.length) {
+            int len = Math.min(data.length - pos, 1 + random.nextInt(SPAN));
+            if (random.nextInt(8) == 0) {
+                // short input, usually encoded with fixed codes
+                len = Math.min(len, 40);
+            }
+            deflater.setLevel(random.nextInt(4) == 0 ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            // a flush between level changes would byte align every block
+            byte[] buf = new byte[len];
+            System.arraycopy(data, pos, buf, 0, len);
+            deflater.setInput(buf);
+            byte[] bytes = drain(deflater, random.nextInt(4) == 0 ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH);
+            out.write(bytes, 0, bytes.length);
+            pos += len;
+        }
+        deflater.finish();
+        byte[] bytes = drain(deflater, Deflater.NO_FLUSH);
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] mixedData() {
+        Random random = new Random(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < 40 * SPAN) {
+            byte[] bytes = random.nextInt(3) == 0 ? noise(random, 1 + random.nextInt(SPAN))
+                    : text(random, 1 + random.nextInt(2 * SPAN));
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testStoredBlocks() throws Exception {
+        byte[] data = noise(new Random(1), 3 * SPAN + 17);
+        byte[] deflated = deflate(Deflater.NO_COMPRESSION, data);
+        assertEquals(0, firstBlockType(deflated));
+        assertArrayEquals(data, inflate(deflated, data.length));
+        assertSequentialRead(deflated, data);
+    }
+
+    @Test
+    public void testFixedBlocks() throws Exception {
+        byte[] data = "abcabcabcabc fixed huffman codes abcabc".getBytes();
+        byte[] deflated = deflate(Deflater.BEST_COMPRESSION, data);
+        assertEquals(1, firstBlockType(deflated));
+        assertArrayEquals(data, inflate(deflated, data.length));
+        assertSequentialRead(deflated, data);
+    }
+
+    @Test
+    public void testDynamicBlocks() throws Exception {
+        byte[] data = text(new Random(1), 20 * SPAN + 5);
+        byte[] deflated = deflate(Deflater.BEST_COMPRESSION, data);
+        assertEquals(2, firstBlockType(deflated));
+        assertArrayEquals(data, inflate(deflated, data.length));
+        assertSequentialRead(deflated, data);
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        assertSequentialRead(deflate(Deflater.DEFAULT_COMPRESSION, new byte[0]), new byte[0]);
+    }
+
+    @Test
+    public void testMixedBlocks() throws Exception {
+        byte[] data = mixedData();
+        byte[] deflated = mixed(data);
+        assertArrayEquals(data, inflate(deflated, data.length));
+        assertSequentialRead(deflated, data);
+    }
+
+    @Test
+    public void testSeeksAcrossCheckpoints() throws Exception {
+        byte[] data = mixedData();
+        byte[] deflated = mixed(data);
+        InflateIndex index = index(deflated, data.length);
+        // seeks before the checkpoints are recorded
+        assertRandomReads(index, data, 4, 50);
+        assertArrayEquals(data, read(index.newChannel(), 0, data.length));
+
+        long[] checkpoints = index.getCheckpointBitPositions();
+        assertTrue(checkpoints.length > data.length / SPAN / 2);
+        boolean unaligned = false;
+        for (long bitPos : checkpoints) {
+            unaligned |= (bitPos & 7) != 0;
+        }
+        assertTrue("no checkpoint in the middle of a byte", unaligned);
+
+        // seeks backwards and forwards from checkpoints
+        assertRandomReads(index, data, 5, 200);
+        try (SeekableByteChannel channel = index.newChannel()) {
+            for (long position = data.length - 1; position >= 0; position -= SPAN / 3) {
+                assertArrayEquals(range(data, position, 100), read(channel, position, 100));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentChannels() throws Exception {
+        byte[] data = mixedData();
+        InflateIndex index = index(mixed(data), data.length);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                long seed = i;
+                futures.add(executor.submit(() -> {
+                    assertRandomReads(index, data, seed, 60);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return bytes read, or null if the compressed data was detected as invalid.
+     */
+    private static byte[] readOrFail(InflateIndex index, int size) throws IOException {
+        try (SeekableByteChannel channel = index.newChannel()) {
+            byte[] bytes = read(channel, 0, size + 1);
+            assertEquals(size, bytes.length);
+            return bytes;
+        } catch (ZipException | EOFException e) {
+            return null;
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testTruncatedInput() throws Exception {
+        byte[] data = mixedData();
+        byte[] deflated = mixed(data);
+        Random random = new Random(6);
+        for (int i = 0; i < 30; i++) {
+            int len = random.nextInt(deflated.length);
+            byte[] truncated = new byte[len];
+            System.arraycopy(deflated, 0, truncated, 0, len);
+            byte[] bytes = readOrFail(index(truncated, data.length), data.length);
+            // only the padding of the last byte may be lost
+            if (bytes != null) {
+                assertArrayEquals("truncated to " + len, data, bytes);
+            }
+        }
+        // declared size larger than the stream
+        try {
+            read(index(deflated, data.length + 1).newChannel(), 0, data.length + 1);
+            fail();
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testCorruptInput() throws Exception {
+        byte[] data = text(new Random(7), 4 * SPAN);
+        byte[] deflated = mixed(data);
+        Random random = new Random(8);
+        for (int i = 0; i < 200; i++) {
+            byte[] corrupt = deflated.clone();
+            for (int j = 1 + random.nextInt(3); j > 0; j--) {
+                corrupt[random.nextInt(corrupt.length)] ^= 1 << random.nextInt(8);
+            }
+            // any other exception or a hang fails the test
+            readOrFail(index(corrupt, data.length), data.length);
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package dpf.sp.gpinf.indexer.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import iped3.io.SeekableInputStream;
+import net.lingala.zip4j.model.FileHeader;
+
+public class ZIPInputStreamFactoryTest {
+
+    private static class Entry {
+        final String name;
+        final byte[] data;
+        final boolean deflate;
+        final byte[] localExtra;
+        final boolean descriptor;
+        byte[] compressed;
+        long offset;
+
+        Entry(String name, byte[] data, boolean deflate, byte[] localExtra, boolean descriptor) {
+            this.name = name;
+            this.data = data;
+            this.deflate = deflate;
+            this.localExtra = localExtra;
+            this.descriptor = descriptor;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private File file;
+    private ZIPInputStreamFactory factory;
+
+    private static byte[] data(Random random, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            // compressible, but not too much
+            bytes[i] = (byte) ('a' + random.nextInt(random.nextInt(4) == 0 ? 26 : 3));
+        }
+        return bytes;
+    }
+
+    private static byte[] extra(int size) {
+        ByteBuffer extra = ByteBuffer.allocate(4 + size).order(ByteOrder.LITTLE_ENDIAN);
+        // unknown header id, padding as written by some tools
+        extra.putShort((short) 0xcafe).putShort((short) size);
+        return extra.array();
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the zip by hand, java.util.zip does not write STORED entries with
+     * data descriptors nor different local and central extra fields.
+     */
+    private void writeZip() throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(64 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        for (Entry e : entries) {
+            e.compressed = e.deflate ? deflate(e.data) : e.data;
+            CRC32 crc = new CRC32();
+            crc.update(e.data);
+            byte[] name = e.name.getBytes(StandardCharsets.UTF_8);
+            e.offset = out.position();
+            out.putInt(0x04034b50).putShort((short) 20).putShort((short) (e.descriptor ? 8 : 0))
+                    .putShort((short) (e.deflate ? 8 : 0)).putShort((short) 0).putShort((short) 0x21);
+            out.putInt(e.descriptor ? 0 : (int) crc.getValue());
+            out.putInt(e.descriptor ? 0 : e.compressed.length).putInt(e.descriptor ? 0 : e.data.length);
+            out.putShort((short) name.length).putShort((short) e.localExtra.length);
+            out.put(name).put(e.localExtra).put(e.compressed);
+            if (e.descriptor) {
+                out.putInt(0x08074b50).putInt((int) crc.getValue()).putInt(e.compressed.length)
+                        .putInt(e.data.length);
+            }
+        }
+        int cdStart = out.position();
+        for (Entry e : entries) {
+            CRC32 crc = new CRC32();
+            crc.update(e.data);
+            byte[] name = e.name.getBytes(StandardCharsets.UTF_8);
+            out.putInt(0x02014b50).putShort((short) 20).putShort((short) 20)
+                    .putShort((short) (e.descriptor ? 8 : 0)).putShort((short) (e.deflate ? 8 : 0))
+                    .putShort((short) 0).putShort((short) 0x21);
+            out.putInt((int) crc.getValue()).putInt(e.compressed.length).putInt(e.data.length);
+            // no extra field in the central header, only in the local one
+            out.putShort((short) name.length).putShort((short) 0).putShort((short) 0);
+            out.putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) e.offset);
+            out.put(name);
+        }
+        int cdEnd = out.position();
+        out.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) entries.size())
+                .putShort((short) entries.size()).putInt(cdEnd - cdStart).putInt(cdStart).putShort((short) 0);
+        Files.write(file.toPath(), Arrays.copyOf(out.array(), out.position()));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        entries.add(new Entry("stored", data(random, 100000), false, new byte[0], false));
+        entries.add(new Entry("dir/stored-extra", data(random, 70000), false, extra(28), false));
+        entries.add(new Entry("stored-descriptor", data(random, 50000), false, new byte[0], true));
+        entries.add(new Entry("stored-extra-descriptor", data(random, 30000), false, extra(5), true));
+        entries.add(new Entry("empty", new byte[0], false, extra(3), false));
+        entries.add(new Entry("deflated-descriptor", data(random, 40000), true, extra(9), true));
+        // read through an inflate index
+        entries.add(new Entry("large-deflated", data(random, 9 << 20), true, extra(12), true));
+        file = File.createTempFile("zip-factory", ".zip");
+        writeZip();
+        factory = new ZIPInputStreamFactory(file.toPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        factory.close();
+        file.delete();
+    }
+
+    @Test
+    public void testEntriesMatchZipInputStream() throws Exception {
+        ZipFile4j zip = new ZipFile4j(file);
+        for (Entry e : entries) {
+            FileHeader header = zip.getFileHeader(e.name);
+            byte[] expected;
+            try (InputStream is = zip.getInputStream(header)) {
+                expected = IOUtils.toByteArray(is);
+            }
+            assertArrayEquals(e.name, e.data, expected);
+            try (SeekableInputStream is = factory.getSeekableInputStream(e.name)) {
+                assertEquals(e.name, e.data.length, is.size());
+                assertArrayEquals(e.name, expected, IOUtils.toByteArray(is));
+            }
+        }
+    }
+
+    @Test
+    public void testSeeks() throws Exception {
+        Random random = new Random(2);
+        for (Entry e : entries) {
+            try (SeekableInputStream is = factory.getSeekableInputStream(e.name)) {
+                for (int i = 0; i < 20; i++) {
+                    int pos = random.nextInt(e.data.length + 1);
+                    int len = Math.min(e.data.length - pos, random.nextInt(5000));
+                    is.seek(pos);
+                    byte[] bytes = new byte[len];
+                    IOUtils.readFully(is, bytes);
+                    assertArrayEquals(e.name + " at " + pos, Arrays.copyOfRange(e.data, pos, pos + len), bytes);
+                    assertEquals(pos + len, is.position());
+                }
+            }
+        }
+    }
+
+}